@@ -1,3 +1,4 @@
 #!/bin/sh
 ln -s /usr/local/bstreamer/bin/bclient /usr/bin/bclient
-ln -s /usr/local/bstreamer/bin/bserver /usr/bin/bserver
\ No newline at end of file
+ln -s /usr/local/bstreamer/bin/bserver /usr/bin/bserver
+ln -s /usr/local/bstreamer/bin/breport /usr/bin/breport
\ No newline at end of file
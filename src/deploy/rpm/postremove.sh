@@ -1,2 +1,2 @@
 #!/bin/sh
-rm -f /usr/bin/bclient /usr/bin/bserver
\ No newline at end of file
+rm -f /usr/bin/bclient /usr/bin/bserver /usr/bin/breport
\ No newline at end of file
@@ -2,12 +2,9 @@ package me.vzhilin.bstreamer;
 
 import io.netty.bootstrap.Bootstrap;
 import io.netty.channel.*;
-import io.netty.channel.epoll.EpollEventLoopGroup;
-import io.netty.channel.epoll.EpollSocketChannel;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioSocketChannel;
 import me.vzhilin.bstreamer.client.ClientAttributes;
+import me.vzhilin.bstreamer.client.ClientMetrics;
+import me.vzhilin.bstreamer.client.ClientRecorder;
 import me.vzhilin.bstreamer.client.ClientReporter;
 import me.vzhilin.bstreamer.client.ConnectionStatistics;
 import me.vzhilin.bstreamer.client.TotalStatistics;
@@ -15,8 +12,10 @@ import me.vzhilin.bstreamer.client.conf.ClientConfig;
 import me.vzhilin.bstreamer.client.conf.ConnectionSettings;
 import me.vzhilin.bstreamer.client.conf.NetworkOptions;
 import me.vzhilin.bstreamer.client.handler.ClientChannelInitializer;
-import me.vzhilin.bstreamer.util.AppRuntime;
+import me.vzhilin.bstreamer.util.NettyTransport;
 import me.vzhilin.bstreamer.util.ConfigLocator;
+import me.vzhilin.bstreamer.util.metrics.EventLoopMonitor;
+import me.vzhilin.bstreamer.util.metrics.MetricsHttpServer;
 import org.apache.commons.cli.*;
 import org.apache.log4j.BasicConfigurator;
 import org.apache.log4j.Level;
@@ -35,6 +34,7 @@ public class ClientCLI {
     private final Bootstrap bootstrap;
     private final ClientConfig conf;
     private final TotalStatistics ss;
+    private final EventLoopMonitor eventLoopMonitor;
 
     private final ChannelFutureListener ON_CLOSED = new ClosedListener();
     private final ChannelFutureListener ON_CONNECTED = new ConnectedListener();
@@ -73,32 +73,34 @@ public class ClientCLI {
         NetworkOptions nw = conf.getNetwork();
         final int nThreads = nw.getThreads().orElse(Runtime.getRuntime().availableProcessors() * 2);
 
-        EventLoopGroup workers;
-        Class<? extends SocketChannel> channelClazz;
-        if (AppRuntime.IS_WINDOWS) {
-            workers = new NioEventLoopGroup(nThreads);
-            channelClazz = NioSocketChannel.class;
-        } else {
-            workers = new EpollEventLoopGroup(nThreads);
-            channelClazz = EpollSocketChannel.class;
-        }
+        NettyTransport transport = NettyTransport.select(nw.getTransport().orElse(NettyTransport.AUTO));
+        EventLoopGroup workers = transport.newGroup(nThreads);
         bootstrap = new Bootstrap()
             .group(workers)
-            .channel(channelClazz);
+            .channel(transport.getSocketChannel());
         nw.getRcvbuf().ifPresent(rcvbuf -> bootstrap.option(ChannelOption.SO_RCVBUF, rcvbuf));
         nw.getConnectTimeout().ifPresent(timeout -> bootstrap.option(ChannelOption.CONNECT_TIMEOUT_MILLIS, timeout));
         bootstrap.handler(new ClientChannelInitializer(this));
+
+        eventLoopMonitor = new EventLoopMonitor(workers, ClientMetrics.PREFIX, nw.getStallThreshold().orElse(200));
+        eventLoopMonitor.start();
+        nw.getMetrics().ifPresent(bind -> new MetricsHttpServer(new ClientMetrics(ss, eventLoopMonitor)).start(bind));
+        if (nw.getRecording().isPresent()) {
+            startRecorder(new File(nw.getRecording().get()), nw.getRecordingRows().orElse(262144));
+        }
     }
 
     public void start(List<ConnectionSettings> connections) {
         for (ConnectionSettings conn: connections) {
             URI uri = URI.create(conn.getUrl());
             int n = conn.getN();
+            TotalStatistics sourceStat = ss.source(conn.getUrl());
             for (int i = 0; i < n; i++) {
-                ConnectionStatistics stat = ss.newStat();
+                ConnectionStatistics stat = sourceStat.newStat();
                 bootstrap.clone()
                     .attr(ClientAttributes.STAT, stat)
                     .attr(ClientAttributes.URL, uri)
+                    .attr(ClientAttributes.TRANSPORT, conn.getTransport())
                     .connect(uri.getHost(), uri.getPort())
                     .addListener(ON_CONNECTED);
             }
@@ -115,16 +117,25 @@ public class ClientCLI {
         return conf;
     }
 
+    private void startRecorder(File file, int rows) {
+        try {
+            new ClientRecorder(ss, eventLoopMonitor, file, rows).start();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("unable to create recording " + file, e);
+        }
+    }
+
     private void startReporter(TotalStatistics ss) {
-        new ClientReporter(ss).start();
+        new ClientReporter(ss, eventLoopMonitor).start();
     }
 
     private void connect(Channel channel) {
         URI uri = channel.attr(ClientAttributes.URL).get();
         ConnectionStatistics connectionStat = channel.attr(ClientAttributes.STAT).get();
-        bootstrap
+        bootstrap.clone()
             .attr(ClientAttributes.URL, uri)
             .attr(ClientAttributes.STAT, connectionStat)
+            .attr(ClientAttributes.TRANSPORT, channel.attr(ClientAttributes.TRANSPORT).get())
             .connect(uri.getHost(), uri.getPort()).addListener(ON_CONNECTED);
     }
 
@@ -0,0 +1,43 @@
+package me.vzhilin.bstreamer;
+
+import me.vzhilin.bstreamer.util.recording.RecordingReader;
+import me.vzhilin.bstreamer.util.recording.RunReport;
+import org.apache.commons.cli.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Merges recordings of servers and clients into a report of the run
+ */
+public class ReportCLI {
+    public static void main(String... argv) throws IOException, ParseException {
+        Options options = new Options();
+        options.addOption("h", "help", false, "show help and exit");
+        options.addOption("o", "output", true, "report file, JSON if it ends with .json, HTML otherwise; report.html by default");
+
+        CommandLine cmd = new DefaultParser().parse(options, argv);
+        if (cmd.hasOption("help") || cmd.getArgList().isEmpty()) {
+            HelpFormatter helpFormatter = new HelpFormatter();
+            helpFormatter.printHelp("breport [options] recording...", options);
+            return;
+        }
+        List<File> files = new ArrayList<>();
+        List<RecordingReader> recordings = new ArrayList<>();
+        for (String path: cmd.getArgList()) {
+            File file = new File(path);
+            files.add(file);
+            recordings.add(new RecordingReader(file));
+        }
+        RunReport report = new RunReport(recordings, files);
+        File output = new File(cmd.getOptionValue("output", "report.html"));
+        if (output.getName().endsWith(".json")) {
+            report.writeJson(output);
+        } else {
+            report.writeHtml(output);
+        }
+        System.out.println("report is written to " + output);
+    }
+}
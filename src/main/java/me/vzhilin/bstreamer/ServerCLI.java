@@ -3,7 +3,9 @@ package me.vzhilin.bstreamer;
 import me.vzhilin.bstreamer.server.RtspServer;
 import me.vzhilin.bstreamer.server.ServerContext;
 import me.vzhilin.bstreamer.server.ServerReporter;
+import me.vzhilin.bstreamer.server.WorkerProcesses;
 import me.vzhilin.bstreamer.server.conf.Config;
+import me.vzhilin.bstreamer.server.conf.NetworkAttributes;
 import me.vzhilin.bstreamer.server.stat.ServerStatistics;
 import me.vzhilin.bstreamer.util.ConfigLocator;
 import me.vzhilin.bstreamer.util.PropertyMap;
@@ -16,11 +18,16 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class ServerCLI {
+    private static final Logger LOG = Logger.getLogger(ServerCLI.class);
     private final CommandLine cmd;
     private final Options options;
 
@@ -35,6 +42,9 @@ public class ServerCLI {
         options.addOption("h", "help", false, "show help and exit");
         options.addOption("c", "config", true, "config file");
         options.addOption("l", "loglevel", true, "log level [OFF|FATAL|ERROR|WARN|INFO|DEBUG|TRACE|ALL]");
+        options.addOption("p", "processes", true, "start N server processes sharing the ports with SO_REUSEPORT");
+        options.addOption(null, "top", true, "number of the busiest sources shown in rows of their own, default 10");
+        options.addOption(null, "worker", false, "run as one of the server processes, report statistics to the launcher");
         CommandLineParser parser = new DefaultParser();
         cmd = parser.parse(options, argv);
     }
@@ -54,19 +64,65 @@ public class ServerCLI {
             if (!configPath.isPresent()) {
                 System.exit(1);
             }
+            int processes = Integer.parseInt(cmd.getOptionValue("processes", "1"));
+            boolean worker = cmd.hasOption("worker");
+            if (processes > 1 && !worker) {
+                List<String> workerArgs = new ArrayList<>(Arrays.asList("-c", configPath.get().getAbsolutePath()));
+                if (cmd.hasOption('l')) {
+                    workerArgs.addAll(Arrays.asList("-l", cmd.getOptionValue('l')));
+                }
+                new WorkerProcesses(processes, workerArgs).start();
+                return;
+            }
             InputStream is = new FileInputStream(configPath.get());
             PropertyMap yaml = PropertyMap.parseYaml(is);
             Config config = new Config(yaml);
+            if (worker) {
+                configureWorker(config.getNetwork());
+            }
             RtspServer server = new RtspServer(config);
-            startConsoleReporter(server);
+            if (worker) {
+                startWorkerReporter(server);
+            } else {
+                startConsoleReporter(server);
+            }
+            Runtime.getRuntime().addShutdownHook(new Thread(server::stop, "shutdown"));
             server.start();
         }
     }
 
+    /**
+     * Server processes share the ports; multicast groups are allocated by every process independently,
+     * so multicast is disabled, and so are the metrics and admin listeners and the recording, which cannot be shared
+     */
+    private static void configureWorker(PropertyMap network) {
+        network.put(NetworkAttributes.REUSEPORT, "true");
+        if (network.remove(NetworkAttributes.MULTICAST) != null) {
+            LOG.warn("multicast is not supported with several server processes");
+        }
+        if (network.remove(NetworkAttributes.METRICS) != null) {
+            LOG.warn("metrics are not supported with several server processes");
+        }
+        if (network.remove(NetworkAttributes.RECORDING) != null) {
+            LOG.warn("recording is not supported with several server processes");
+        }
+        if (network.remove(NetworkAttributes.ADMIN) != null) {
+            LOG.warn("admin API is not supported with several server processes");
+        }
+    }
+
+    private void startWorkerReporter(RtspServer server) {
+        ServerStatistics stat = server.getServerContext().getStat();
+        ScheduledExecutorService exec = Executors.newSingleThreadScheduledExecutor();
+        exec.scheduleAtFixedRate(() -> WorkerProcesses.report(System.out, stat.getTotal().snapshot()),
+            1, 1, TimeUnit.SECONDS);
+    }
+
     private void startConsoleReporter(RtspServer server) {
         ServerContext sc = server.getServerContext();
         ServerStatistics stat = sc.getStat();
         ScheduledExecutorService exec = Executors.newSingleThreadScheduledExecutor();
-        new ServerReporter(stat, exec).start();
+        int top = Integer.parseInt(cmd.getOptionValue("top", "10"));
+        new ServerReporter(stat, server.getEventLoopMonitor(), top, exec).start();
     }
 }
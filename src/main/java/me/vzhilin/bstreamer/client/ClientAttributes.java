@@ -7,6 +7,8 @@ import java.net.URI;
 public final class ClientAttributes {
     public static final AttributeKey<ConnectionStatistics> STAT = AttributeKey.valueOf("stat");
     public static final AttributeKey<URI> URL = AttributeKey.valueOf("url");
+    /** {@code tcp}, {@code udp} or {@code multicast} */
+    public static final AttributeKey<String> TRANSPORT = AttributeKey.valueOf("transport");
 
     private ClientAttributes() { }
 }
@@ -0,0 +1,70 @@
+package me.vzhilin.bstreamer.client;
+
+import me.vzhilin.bstreamer.util.metrics.DirectMemoryMetrics;
+import me.vzhilin.bstreamer.util.metrics.EventLoopMonitor;
+import me.vzhilin.bstreamer.util.metrics.MetricsWriter;
+
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+
+/**
+ * Metrics of the client: counters of every URL and their totals, event loops and direct memory
+ */
+public final class ClientMetrics implements Consumer<MetricsWriter> {
+    public static final String PREFIX = "bclient";
+    private static final String SOURCE = "source";
+    private static final Family[] FAMILIES = {
+        new Family("connections", MetricsWriter.GAUGE, "connected connections", TotalStatistics::connections),
+        new Family("connections_opened_total", MetricsWriter.COUNTER, "connections established", TotalStatistics::connected),
+        new Family("connections_closed_total", MetricsWriter.COUNTER, "connections closed", TotalStatistics::disconnected),
+        new Family("received_bytes_total", MetricsWriter.COUNTER, "bytes received", TotalStatistics::getSize),
+        new Family("idle_errors_total", MetricsWriter.COUNTER, "connections closed by the idle timeout", TotalStatistics::idleErrors),
+        new Family("lost_packets_total", MetricsWriter.COUNTER, "RTP packets lost, by sequence numbers", TotalStatistics::lostPackets)
+    };
+
+    private final TotalStatistics stat;
+    private final EventLoopMonitor eventLoops;
+    private final DirectMemoryMetrics directMemory = new DirectMemoryMetrics(PREFIX);
+
+    public ClientMetrics(TotalStatistics stat, EventLoopMonitor eventLoops) {
+        this.stat = stat;
+        this.eventLoops = eventLoops;
+    }
+
+    @Override
+    public void accept(MetricsWriter writer) {
+        for (Family family: FAMILIES) {
+            family.write(writer, stat);
+        }
+        eventLoops.write(writer);
+        directMemory.write(writer);
+    }
+
+    /**
+     * Counter of every URL, and of the total as a metric without {@code _source}
+     */
+    private static final class Family {
+        private final String name;
+        private final String totalName;
+        private final String type;
+        private final String help;
+        private final String totalHelp;
+        private final ToLongFunction<TotalStatistics> value;
+
+        private Family(String suffix, String type, String help, ToLongFunction<TotalStatistics> value) {
+            this.name = PREFIX + "_source_" + suffix;
+            this.totalName = PREFIX + "_" + suffix;
+            this.type = type;
+            this.help = help;
+            this.totalHelp = help + ", all sources";
+            this.value = value;
+        }
+
+        private void write(MetricsWriter writer, TotalStatistics stat) {
+            writer.header(name, type, help);
+            stat.forEachSource(s -> writer.sample(name, SOURCE, s.getName(), value.applyAsLong(s)));
+            writer.header(totalName, type, totalHelp);
+            writer.sample(totalName, value.applyAsLong(stat));
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package me.vzhilin.bstreamer.client;
+
+import me.vzhilin.bstreamer.util.metrics.EventLoopMonitor;
+import me.vzhilin.bstreamer.util.recording.PeriodicRecorder;
+import me.vzhilin.bstreamer.util.recording.RecordingWriter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Records counters of the client and of every URL, and resources of the process every second
+ */
+public final class ClientRecorder extends PeriodicRecorder {
+    private static final String[] FIELDS = {
+        "connections", "connections_opened_total", "connections_closed_total", "received_bytes_total",
+        "idle_errors_total", "lost_packets_total"
+    };
+
+    private final TotalStatistics stat;
+    /** ids of the URLs in the recording */
+    private final Map<TotalStatistics, Integer> ids = new IdentityHashMap<>();
+    private final Consumer<TotalStatistics> recordSource = this::recordSource;
+    private long time;
+
+    public ClientRecorder(TotalStatistics stat, EventLoopMonitor eventLoops, File file, long rows) throws IOException {
+        super(file, "client", FIELDS, rows, eventLoops);
+        this.stat = stat;
+    }
+
+    @Override
+    protected void record(long timeMillis) {
+        time = timeMillis;
+        writer.begin(timeMillis, RecordingWriter.TOTAL);
+        putCounters(stat);
+        putTelemetry();
+        writer.end();
+
+        stat.forEachSource(recordSource);
+    }
+
+    private void recordSource(TotalStatistics source) {
+        Integer id = ids.get(source);
+        if (id == null) {
+            id = writer.register(source.getName());
+            ids.put(source, id);
+        }
+        if (id != RecordingWriter.TOTAL) {
+            writer.begin(time, id);
+            putCounters(source);
+            writer.end();
+        }
+    }
+
+    private void putCounters(TotalStatistics s) {
+        writer.put(s.connections());
+        writer.put(s.connected());
+        writer.put(s.disconnected());
+        writer.put(s.getSize());
+        writer.put(s.idleErrors());
+        writer.put(s.lostPackets());
+    }
+}
@@ -7,20 +7,27 @@ import java.util.concurrent.TimeUnit;
 
 import me.vzhilin.bstreamer.util.HumanReadable;
 import me.vzhilin.bstreamer.util.ReporterWriter;
+import me.vzhilin.bstreamer.util.metrics.EventLoopMonitor;
 
 public final class ClientReporter {
     private final TotalStatistics stat;
+    private final EventLoopMonitor eventLoops;
     private final ReporterWriter reporterWriter;
 
-    public ClientReporter(TotalStatistics stat) {
+    /**
+     * @param eventLoops watchdog of the network threads
+     */
+    public ClientReporter(TotalStatistics stat, EventLoopMonitor eventLoops) {
         this.stat = stat;
+        this.eventLoops = eventLoops;
 
         this.reporterWriter = new ReporterWriter(
                 new ReporterWriter.Column("time", 8),
                 new ReporterWriter.Column("server connections", 20),
                 new ReporterWriter.Column("errors", 11),
                 new ReporterWriter.Column("lost packets", 11),
-                new ReporterWriter.Column("throughput", 11)
+                new ReporterWriter.Column("throughput", 11),
+                new ReporterWriter.Column("loop p99", 9)
         );
         reporterWriter.writeHeader(System.out);
     }
@@ -47,7 +54,8 @@ public final class ClientReporter {
             String connections = String.format("%d [+%d:-%d]", s.connections, s.connected, s.disconnected);
             String errors = String.format("%d [+%d]", s.totalErrors, s.errors);
             String lost = String.format("%d [+%d]", s.totalLost, s.lostPackets);
-            reporterWriter.writeLine(System.out, time, connections, errors, lost, bandwidth);
+            String loopLag = HumanReadable.millis(eventLoops.intervalLag(0.99));
+            reporterWriter.writeLine(System.out, time, connections, errors, lost, bandwidth, loopLag);
         }
     }
 }
@@ -3,12 +3,14 @@ package me.vzhilin.bstreamer.client;
 public class ConnectionStatistics {
     private final TotalStatistics ss;
 
+    /** updated by the event loop of the connection only */
     private long size;
 
     public ConnectionStatistics(TotalStatistics ss) {
         this.ss = ss;
     }
-    public synchronized void onRead(int bytes) {
+
+    public void onRead(int bytes) {
         size += bytes;
 
         ss.onRead(bytes);
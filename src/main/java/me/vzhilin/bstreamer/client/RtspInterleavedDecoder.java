@@ -16,6 +16,7 @@
 package me.vzhilin.bstreamer.client;
 // CS_OFF:IllegalThrows
 
+import io.netty.buffer.Unpooled;
 import io.netty.handler.codec.http.*;
 import io.netty.handler.codec.rtsp.RtspHeaderNames;
 import io.netty.handler.codec.rtsp.RtspMethods;
@@ -135,13 +136,13 @@ public class RtspInterleavedDecoder extends RtspObjectDecoder {
             return new DefaultHttpResponse(RtspVersions.valueOf(initialLine[0]),
                 new HttpResponseStatus(Integer.parseInt(initialLine[1]),
                                        initialLine[2]),
-                validateHeaders);
+                headersFactory);
         } else {
             isDecodingRequest = true;
             return new DefaultHttpRequest(RtspVersions.valueOf(initialLine[2]),
                     RtspMethods.valueOf(initialLine[0]),
                     initialLine[1],
-                    validateHeaders);
+                    headersFactory);
         }
     }
 
@@ -156,11 +157,13 @@ public class RtspInterleavedDecoder extends RtspObjectDecoder {
     protected HttpMessage createInvalidMessage() {
         if (isDecodingRequest) {
             return new DefaultFullHttpRequest(RtspVersions.RTSP_1_0,
-                       RtspMethods.OPTIONS, "/bad-request", validateHeaders);
+                       RtspMethods.OPTIONS, "/bad-request", Unpooled.EMPTY_BUFFER, headersFactory, trailersFactory);
         } else {
             return new DefaultFullHttpResponse(RtspVersions.RTSP_1_0,
                                                UNKNOWN_STATUS,
-                                               validateHeaders);
+                                               Unpooled.EMPTY_BUFFER,
+                                               headersFactory,
+                                               trailersFactory);
         }
     }
 
@@ -115,6 +115,8 @@ public abstract class RtspObjectDecoder extends ByteToMessageDecoder {
     private final int maxChunkSize;
     private final boolean chunkedSupported;
     protected final boolean validateHeaders;
+    protected final HttpHeadersFactory headersFactory;
+    protected final HttpHeadersFactory trailersFactory;
     private final HeaderParser headerParser;
     private final LineParser lineParser;
     private final InterleavedHeaderParser interleavedHeaderParser;
@@ -205,6 +207,8 @@ public abstract class RtspObjectDecoder extends ByteToMessageDecoder {
         this.maxChunkSize = maxChunkSize;
         this.chunkedSupported = chunkedSupported;
         this.validateHeaders = validateHeaders;
+        this.headersFactory = DefaultHttpHeadersFactory.headersFactory().withValidation(validateHeaders);
+        this.trailersFactory = DefaultHttpHeadersFactory.trailersFactory().withValidation(validateHeaders);
     }
 
     @Override
@@ -348,7 +352,7 @@ public abstract class RtspObjectDecoder extends ByteToMessageDecoder {
 
             if (chunkSize == 0) {
                 // Read all content.
-                out.add(new DefaultLastHttpContent(content, validateHeaders));
+                out.add(new DefaultLastHttpContent(content, trailersFactory));
                 resetNow();
             } else {
                 out.add(new DefaultHttpContent(content));
@@ -716,7 +720,7 @@ public abstract class RtspObjectDecoder extends ByteToMessageDecoder {
         if (line.length() > 0) {
             LastHttpContent trailer = this.trailer;
             if (trailer == null) {
-                trailer = this.trailer = new DefaultLastHttpContent(Unpooled.EMPTY_BUFFER, validateHeaders);
+                trailer = this.trailer = new DefaultLastHttpContent(Unpooled.EMPTY_BUFFER, trailersFactory);
             }
             do {
                 char firstChar = line.charAt(0);
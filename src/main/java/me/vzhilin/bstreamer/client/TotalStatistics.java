@@ -1,70 +1,154 @@
 package me.vzhilin.bstreamer.client;
 
 import java.util.Date;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
 
+/**
+ * Counters of all connections, updated from every event loop.
+ *
+ * Counters are striped and only grow, so connections never wait for each other or for the reporter;
+ * per-second values of a snapshot are the differences from the previous snapshot. Statistics of a source update
+ * the total as well.
+ */
 public class TotalStatistics {
-    private Set<ConnectionStatistics> stats = new HashSet<>();
-    private long totalBytes;
-    private long totalConnections;
-    private long totalErrors;
-    private long totalLost;
+    private final TotalStatistics parent;
+    private final String name;
+    /** statistics of every source, by URL */
+    private final Map<String, TotalStatistics> sources = new ConcurrentHashMap<>();
+    /** same sources in the order of creation, to visit them without allocation */
+    private final List<TotalStatistics> sourceList = new CopyOnWriteArrayList<>();
 
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder connected = new LongAdder();
+    private final LongAdder disconnected = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder lostPackets = new LongAdder();
+
+    /** values of the previous snapshot, guarded by this */
     private long time = System.currentTimeMillis();
-    private long bytes;
-    private long errors;
+    private long previousBytes;
+    private long previousConnected;
+    private long previousDisconnected;
+    private long previousErrors;
+    private long previousLost;
+
+    public TotalStatistics() {
+        this(null, "total");
+    }
+
+    private TotalStatistics(TotalStatistics parent, String name) {
+        this.parent = parent;
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
 
-    private long lostPacket;
-    private int connected;
-    private int disconnected;
+    /**
+     * @return statistics of the source
+     */
+    public TotalStatistics source(String url) {
+        return sources.computeIfAbsent(url, u -> {
+            TotalStatistics created = new TotalStatistics(this, u);
+            sourceList.add(created);
+            return created;
+        });
+    }
+
+    /**
+     * Visits statistics of every source
+     */
+    public void forEachSource(Consumer<TotalStatistics> action) {
+        sourceList.forEach(action);
+    }
+
+    public void onRead(int bytes) {
+        this.bytes.add(bytes);
+        if (parent != null) {
+            parent.onRead(bytes);
+        }
+    }
 
-    public synchronized void onRead(int bytes) {
-        this.totalBytes += bytes;
-        this.bytes += bytes;
+    public long getSize() {
+        return bytes.sum();
     }
 
-    public synchronized long getSize() {
-        return totalBytes;
+    public long connections() {
+        return connected.sum() - disconnected.sum();
+    }
+
+    public long connected() {
+        return connected.sum();
+    }
+
+    public long disconnected() {
+        return disconnected.sum();
+    }
+
+    public long idleErrors() {
+        return errors.sum();
+    }
+
+    public long lostPackets() {
+        return lostPackets.sum();
     }
 
     public ConnectionStatistics newStat() {
-        ConnectionStatistics s = new ConnectionStatistics(this);
-        stats.add(s);
-        return s;
+        return new ConnectionStatistics(this);
     }
 
     public synchronized Snapshot snapshot() {
         long now = System.currentTimeMillis();
-        long deltaTime = now - time;
-        Snapshot snapshot = new Snapshot(this, deltaTime);
-        this.bytes = 0;
-        this.errors = 0;
-        this.connected = 0;
-        this.disconnected = 0;
-        this.lostPacket = 0;
-        this.time = now;
+        long totalDisconnected = disconnected.sum();
+        long totalConnected = connected.sum();
+        long totalBytes = bytes.sum();
+        long totalErrors = errors.sum();
+        long totalLost = lostPackets.sum();
+        Snapshot snapshot = new Snapshot(totalBytes, totalErrors, totalConnected - totalDisconnected,
+            totalBytes - previousBytes, (int) (totalConnected - previousConnected),
+            (int) (totalDisconnected - previousDisconnected), now - time, totalErrors - previousErrors,
+            totalLost, totalLost - previousLost);
+        previousBytes = totalBytes;
+        previousConnected = totalConnected;
+        previousDisconnected = totalDisconnected;
+        previousErrors = totalErrors;
+        previousLost = totalLost;
+        time = now;
         return snapshot;
     }
 
-    public synchronized void incConnections() {
-        ++connected;
-        ++totalConnections;
+    public void incConnections() {
+        connected.increment();
+        if (parent != null) {
+            parent.incConnections();
+        }
     }
 
-    public synchronized void decConnections() {
-        ++disconnected;
-        --totalConnections;
+    public void decConnections() {
+        disconnected.increment();
+        if (parent != null) {
+            parent.decConnections();
+        }
     }
 
-    public synchronized void onIdleError() {
-        ++errors;
-        ++totalErrors;
+    public void onIdleError() {
+        errors.increment();
+        if (parent != null) {
+            parent.onIdleError();
+        }
     }
 
-    public synchronized void onLostPacket() {
-        ++lostPacket;
-        ++totalLost;
+    public void onLostPacket() {
+        lostPackets.increment();
+        if (parent != null) {
+            parent.onLostPacket();
+        }
     }
 
     public final static class Snapshot {
@@ -80,17 +164,18 @@ public class TotalStatistics {
         public final long totalLost;
         public final long lostPackets;
 
-        public Snapshot(TotalStatistics totalStatistics, long deltaTime) {
-            this.totalBytes = totalStatistics.totalBytes;
-            this.totalErrors = totalStatistics.totalErrors;
-            this.connections = totalStatistics.totalConnections;
-            this.bytes = totalStatistics.bytes;
-            this.errors = totalStatistics.errors;
-            this.totalLost = totalStatistics.totalLost;
-            this.lostPackets = totalStatistics.lostPacket;
-            this.connected = totalStatistics.connected;
-            this.disconnected = totalStatistics.disconnected;
+        public Snapshot(long totalBytes, long totalErrors, long connections, long bytes, int connected,
+                        int disconnected, long deltaTime, long errors, long totalLost, long lostPackets) {
+            this.totalBytes = totalBytes;
+            this.totalErrors = totalErrors;
+            this.connections = connections;
+            this.bytes = bytes;
+            this.connected = connected;
+            this.disconnected = disconnected;
             this.deltaTime = deltaTime;
+            this.errors = errors;
+            this.totalLost = totalLost;
+            this.lostPackets = lostPackets;
             this.time = new Date();
         }
     }
@@ -3,6 +3,8 @@ package me.vzhilin.bstreamer.client.conf;
 public final class ConnectionSettings {
     private int n;
     private String url;
+    /** {@code tcp} (interleaved), {@code udp} or {@code multicast} */
+    private String transport;
 
     public ConnectionSettings() {
     }
@@ -14,4 +16,8 @@ public final class ConnectionSettings {
     public String getUrl() {
         return url;
     }
+
+    public String getTransport() {
+        return transport == null ? "tcp" : transport;
+    }
 }
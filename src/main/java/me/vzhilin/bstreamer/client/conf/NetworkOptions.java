@@ -15,6 +15,21 @@ public class NetworkOptions {
     /** Connection idle timeout */
     private Integer idleTimeout;
 
+    /** auto, io_uring, epoll, kqueue or nio */
+    private String transport;
+
+    /** delay of an event loop probe, ms, after which the loop is reported as stalled */
+    private Integer stallThreshold;
+
+    /** host:port of the Prometheus endpoint */
+    private String metrics;
+
+    /** file of the recording of per-second statistics */
+    private String recording;
+
+    /** capacity of the recording, rows */
+    private Integer recordingRows;
+
     public Optional<Integer> getRcvbuf() {
         return Optional.ofNullable(rcvbuf);
     }
@@ -30,5 +45,24 @@ public class NetworkOptions {
     public Optional<Integer> getIdleTimeout() {
         return Optional.ofNullable(idleTimeout);
     }
-}
 
+    public Optional<String> getTransport() {
+        return Optional.ofNullable(transport);
+    }
+
+    public Optional<Integer> getStallThreshold() {
+        return Optional.ofNullable(stallThreshold);
+    }
+
+    public Optional<String> getMetrics() {
+        return Optional.ofNullable(metrics);
+    }
+
+    public Optional<String> getRecording() {
+        return Optional.ofNullable(recording);
+    }
+
+    public Optional<Integer> getRecordingRows() {
+        return Optional.ofNullable(recordingRows);
+    }
+}
@@ -19,24 +19,31 @@ import java.util.concurrent.TimeUnit;
 public final class ClientChannelInitializer extends ChannelInitializer<SocketChannel> {
     private static final int MAX_CONTENT_LENGTH = 64 * 1024;
     private final Optional<Integer> idleTimeout;
+    private final Optional<Integer> rcvbuf;
 
     public ClientChannelInitializer(ClientCLI client) {
         this.idleTimeout = client.getConf().getNetwork().getIdleTimeout();
+        this.rcvbuf = client.getConf().getNetwork().getRcvbuf();
     }
 
     @Override
     protected void initChannel(SocketChannel ch) {
         URI uri = ch.attr(ClientAttributes.URL).get();
         ConnectionStatistics connectionStat = ch.attr(ClientAttributes.STAT).get();
+        String transport = ch.attr(ClientAttributes.TRANSPORT).get();
+        boolean udp = ClientConnectionHandler.UDP.equals(transport) || ClientConnectionHandler.MULTICAST.equals(transport);
+        ClientConnectionHandler handler = udp ?
+            new ClientConnectionHandler(uri, transport, ch, connectionStat, rcvbuf, idleTimeout) :
+            new ClientConnectionHandler(uri);
 
         ChannelPipeline pipeline = ch.pipeline();
         pipeline.addLast("rtsp_interleaved_decoder", newInterleavedDecoder());
         pipeline.addLast("rtsp_encoder", new RtspEncoder());
         pipeline.addLast("http_object_aggregator", new HttpObjectAggregator(MAX_CONTENT_LENGTH));
-        pipeline.addLast("rtsp_connection_handler", new NettyRtspChannelHandler(new ClientConnectionHandler(uri)));
+        pipeline.addLast("rtsp_connection_handler", new NettyRtspChannelHandler(handler));
         pipeline.addLast("statistic", new StatisticHandler(connectionStat));
 
-        if (idleTimeout.isPresent()) {
+        if (idleTimeout.isPresent() && !udp) {
             Integer timeoutMillis = idleTimeout.get();
             IdleStateHandler idleStateHandler = new IdleStateHandler(0, 0, timeoutMillis, TimeUnit.MILLISECONDS);
             pipeline.addFirst("IdleStateHandler", idleStateHandler);
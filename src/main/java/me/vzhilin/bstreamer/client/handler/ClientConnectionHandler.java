@@ -1,5 +1,8 @@
 package me.vzhilin.bstreamer.client.handler;
 
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import me.vzhilin.bstreamer.client.ConnectionStatistics;
 import me.vzhilin.bstreamer.client.rtsp.RtspCallback;
 import me.vzhilin.bstreamer.client.rtsp.RtspConnection;
 import me.vzhilin.bstreamer.client.rtsp.RtspConnectionHandler;
@@ -9,15 +12,46 @@ import me.vzhilin.bstreamer.client.rtsp.messages.SetupReply;
 import me.vzhilin.bstreamer.client.rtsp.messages.sdp.Media;
 import me.vzhilin.bstreamer.client.rtsp.messages.sdp.SdpMessage;
 
+import java.net.InetSocketAddress;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 final class ClientConnectionHandler implements RtspConnectionHandler {
+    static final String UDP = "udp";
+    static final String MULTICAST = "multicast";
+    private static final Pattern DESTINATION = Pattern.compile("destination=([^;]+)");
+    private static final Pattern PORT = Pattern.compile(";port=(\\d+)");
+
     private final URI uri;
+    /** {@link #UDP}, {@link #MULTICAST} or null for interleaved transport */
+    private final String transport;
+    /** RTSP connection, null for interleaved transport */
+    private final Channel channel;
+    private final ConnectionStatistics stat;
+    private final Optional<Integer> rcvbuf;
+    private final Optional<Integer> idleTimeout;
 
     ClientConnectionHandler(URI uri) {
+        this(uri, null, null, null, Optional.empty(), Optional.empty());
+    }
+
+    /**
+     * RTP over UDP
+     * @param transport {@link #UDP} or {@link #MULTICAST}
+     * @param control RTSP connection
+     */
+    ClientConnectionHandler(URI uri, String transport, Channel control, ConnectionStatistics stat,
+                            Optional<Integer> rcvbuf, Optional<Integer> idleTimeout) {
         this.uri = uri;
+        this.transport = transport;
+        this.channel = control;
+        this.stat = stat;
+        this.rcvbuf = rcvbuf;
+        this.idleTimeout = idleTimeout;
     }
 
     @Override
@@ -53,7 +87,24 @@ final class ClientConnectionHandler implements RtspConnectionHandler {
             String control = concat(mesg.getContentBase(), media.getControl());
 
             RtspConnection connection = getConnection();
-            connection.setup(URI.create(control), new DefaultSetupCallback(connection, media));
+            URI setupUri = URI.create(control);
+            DefaultSetupCallback cb = new DefaultSetupCallback(connection, media);
+            if (transport == null) {
+                connection.setup(setupUri, cb);
+            } else
+            if (MULTICAST.equals(transport)) {
+                connection.setupMulticast(setupUri, cb);
+            } else {
+                ChannelFuture bind = UdpReceiver.bind(channel, stat, rcvbuf, idleTimeout);
+                bind.addListener(future -> {
+                    if (future.isSuccess()) {
+                        int port = ((InetSocketAddress) bind.channel().localAddress()).getPort();
+                        connection.setup(setupUri, port, cb);
+                    } else {
+                        connection.disconnect();
+                    }
+                });
+            }
         }
 
         private String concat(String contentBase, String control) {
@@ -78,7 +129,25 @@ final class ClientConnectionHandler implements RtspConnectionHandler {
 
         @Override public void onSuccess(SetupReply mesg) {
             RtspConnection connection = getConnection();
-            connection.play(uri, mesg.getSession(), new DefaultPlayCallback(connection));
+            if (!MULTICAST.equals(transport)) {
+                connection.play(uri, mesg.getSession(), new DefaultPlayCallback(connection));
+                return;
+            }
+            String reply = mesg.getTransport();
+            Matcher destination = DESTINATION.matcher(reply == null ? "" : reply);
+            Matcher port = PORT.matcher(reply == null ? "" : reply);
+            if (!destination.find() || !port.find()) {
+                connection.disconnect();
+                return;
+            }
+            InetSocketAddress group = new InetSocketAddress(destination.group(1), Integer.parseInt(port.group(1)));
+            UdpReceiver.join(channel, group, stat, rcvbuf, idleTimeout).addListener(future -> {
+                if (future.isSuccess()) {
+                    connection.play(uri, mesg.getSession(), new DefaultPlayCallback(connection));
+                } else {
+                    connection.disconnect();
+                }
+            });
         }
     }
 
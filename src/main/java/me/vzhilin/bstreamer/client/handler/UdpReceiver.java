@@ -0,0 +1,132 @@
+package me.vzhilin.bstreamer.client.handler;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelException;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.FixedRecvByteBufAllocator;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollDatagramChannel;
+import io.netty.channel.socket.DatagramChannel;
+import io.netty.channel.socket.DatagramPacket;
+import io.netty.channel.socket.InternetProtocolFamily;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+import io.netty.handler.codec.MessageToMessageDecoder;
+import io.netty.handler.timeout.IdleStateHandler;
+import me.vzhilin.bstreamer.client.ClientAttributes;
+import me.vzhilin.bstreamer.client.ConnectionStatistics;
+import me.vzhilin.bstreamer.client.InterleavedPacket;
+import me.vzhilin.bstreamer.util.NettyTransport;
+
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Receives RTP over UDP, unicast or multicast, on the event loop of the RTSP connection.
+ *
+ * With epoll the socket is not connected, so that several datagrams are read with a single recvmmsg call.
+ * Closing either the RTSP connection or the socket closes the other.
+ */
+final class UdpReceiver {
+    private static final int MAX_DATAGRAM_SIZE = 2048;
+    private static final int DATAGRAMS_PER_READ = 16;
+
+    private UdpReceiver() { }
+
+    /**
+     * Binds RTP socket to an ephemeral port of the local address of the RTSP connection
+     * @param rcvbuf SO_RCVBUF
+     * @param idleTimeout closes both channels if no packet arrives within the timeout
+     */
+    static ChannelFuture bind(Channel control, ConnectionStatistics stat,
+                              Optional<Integer> rcvbuf, Optional<Integer> idleTimeout) {
+        InetSocketAddress local = (InetSocketAddress) control.localAddress();
+        return bootstrap(control, stat, rcvbuf, idleTimeout).bind(new InetSocketAddress(local.getAddress(), 0));
+    }
+
+    /**
+     * Binds RTP socket to the port of the group and joins the group on the interface of the RTSP connection.
+     * Receivers of the same group share the port, each one gets its own copy of every packet.
+     */
+    static ChannelFuture join(Channel control, InetSocketAddress group, ConnectionStatistics stat,
+                              Optional<Integer> rcvbuf, Optional<Integer> idleTimeout) {
+        NetworkInterface nif;
+        try {
+            nif = NetworkInterface.getByInetAddress(((InetSocketAddress) control.localAddress()).getAddress());
+        } catch (SocketException e) {
+            return control.newFailedFuture(e);
+        }
+        if (nif == null) {
+            return control.newFailedFuture(new SocketException("no interface of " + control.localAddress()));
+        }
+        ChannelFuture bind = bootstrap(control, stat, rcvbuf, idleTimeout)
+            .option(ChannelOption.SO_REUSEADDR, true)
+            .bind(group.getPort());
+        DatagramChannel rtp = (DatagramChannel) bind.channel();
+        ChannelPromise joined = rtp.newPromise();
+        bind.addListener(future -> {
+            if (future.isSuccess()) {
+                try {
+                    rtp.joinGroup(group, nif, joined);
+                } catch (ChannelException e) {
+                    joined.tryFailure(e);
+                }
+            } else {
+                joined.setFailure(future.cause());
+            }
+        });
+        return joined;
+    }
+
+    private static Bootstrap bootstrap(Channel control, ConnectionStatistics stat,
+                                       Optional<Integer> rcvbuf, Optional<Integer> idleTimeout) {
+        Class<? extends DatagramChannel> clazz = NettyTransport.datagramChannel(control.eventLoop().parent());
+        Bootstrap bootstrap = new Bootstrap()
+            .group(control.eventLoop())
+            .attr(ClientAttributes.STAT, stat)
+            .handler(new ChannelInitializer<DatagramChannel>() {
+                @Override
+                protected void initChannel(DatagramChannel ch) {
+                    if (idleTimeout.isPresent()) {
+                        ch.pipeline().addLast(new IdleStateHandler(0, 0, idleTimeout.get(), TimeUnit.MILLISECONDS));
+                        ch.pipeline().addLast(new IdleEventHandler());
+                    }
+                    ch.pipeline().addLast("rtp_decoder", new RtpDecoder());
+                    ch.pipeline().addLast("statistic", new StatisticHandler(stat));
+                    ch.closeFuture().addListener((ChannelFutureListener) f -> control.close());
+                    control.closeFuture().addListener((ChannelFutureListener) f -> ch.close());
+                }
+            });
+        if (clazz == EpollDatagramChannel.class) {
+            bootstrap.channelFactory(() -> new EpollDatagramChannel(InternetProtocolFamily.IPv4))
+                     .option(EpollChannelOption.MAX_DATAGRAM_PAYLOAD_SIZE, MAX_DATAGRAM_SIZE)
+                     .option(ChannelOption.RCVBUF_ALLOCATOR,
+                         new FixedRecvByteBufAllocator(MAX_DATAGRAM_SIZE * DATAGRAMS_PER_READ));
+        } else
+        if (clazz == NioDatagramChannel.class) {
+            bootstrap.channelFactory(() -> new NioDatagramChannel(InternetProtocolFamily.IPv4))
+                     .option(ChannelOption.RCVBUF_ALLOCATOR, new FixedRecvByteBufAllocator(MAX_DATAGRAM_SIZE));
+        } else {
+            bootstrap.channel(clazz)
+                     .option(ChannelOption.RCVBUF_ALLOCATOR, new FixedRecvByteBufAllocator(MAX_DATAGRAM_SIZE));
+        }
+        rcvbuf.ifPresent(size -> bootstrap.option(ChannelOption.SO_RCVBUF, size));
+        return bootstrap;
+    }
+
+    private static final class RtpDecoder extends MessageToMessageDecoder<DatagramPacket> {
+        @Override
+        protected void decode(ChannelHandlerContext ctx, DatagramPacket msg, List<Object> out) {
+            out.add(new InterleavedPacket(0, msg.content().retain()));
+        }
+    }
+}
@@ -80,16 +80,29 @@ public final class NettyRtspChannelHandler extends SimpleChannelInboundHandler<F
 
     @Override
     public void setup(URI uri, final RtspCallback<SetupReply> cb) {
+        int rtpChannel = 0;
+        int rtcpChannel = rtpChannel + 1;
+        setup(uri, String.format("RTP/AVP/TCP;unicast;interleaved=%d-%d", rtpChannel, rtcpChannel), cb);
+    }
+
+    @Override
+    public void setup(URI uri, int clientPort, RtspCallback<SetupReply> cb) {
+        setup(uri, String.format("RTP/AVP;unicast;client_port=%d-%d", clientPort, clientPort + 1), cb);
+    }
+
+    @Override
+    public void setupMulticast(URI uri, RtspCallback<SetupReply> cb) {
+        setup(uri, "RTP/AVP;multicast", cb);
+    }
+
+    private void setup(URI uri, String transport, RtspCallback<SetupReply> cb) {
         int requestCseq = cseq++;
         cseqToReplyHandler.put(requestCseq, new SetupReplyHandler(cb));
 
         DefaultFullHttpRequest setupRequest = new DefaultFullHttpRequest(RtspVersions.RTSP_1_0, RtspMethods.SETUP, uri.toString());
         HttpHeaders headers = setupRequest.headers();
         headers.add(RtspHeaderNames.CSEQ, requestCseq);
-
-        int rtpChannel = 0;
-        int rtcpChannel = rtpChannel + 1;
-        headers.add(RtspHeaderNames.TRANSPORT, String.format("RTP/AVP/TCP;unicast;interleaved=%d-%d", rtpChannel, rtcpChannel));
+        headers.add(RtspHeaderNames.TRANSPORT, transport);
         ctx.writeAndFlush(setupRequest);
     }
 
@@ -137,7 +150,7 @@ public final class NettyRtspChannelHandler extends SimpleChannelInboundHandler<F
     public void play(URI uri, String session, final RtspCallback<PlayReply> cb) {
         int requestCseq = cseq++;
         cseqToReplyHandler.put(requestCseq, new PlayReplyHandler(cb));
-        DefaultFullHttpRequest playRequest = new DefaultFullHttpRequest(RtspVersions.RTSP_1_0, RtspMethods.PLAY, uri + "/");
+        DefaultFullHttpRequest playRequest = new DefaultFullHttpRequest(RtspVersions.RTSP_1_0, RtspMethods.PLAY, aggregateControl(uri));
         playRequest.headers().add(RtspHeaderNames.CSEQ, requestCseq);
         playRequest.headers().add(RtspHeaderNames.SESSION, session);
         ctx.writeAndFlush(playRequest);
@@ -145,6 +158,18 @@ public final class NettyRtspChannelHandler extends SimpleChannelInboundHandler<F
         ctx.executor().schedule(new KeepAliveTask(ctx.channel(), uri, session), 55, TimeUnit.SECONDS);
     }
 
+    /**
+     * @return uri with trailing slash appended to the path, query is kept intact
+     */
+    private static String aggregateControl(URI uri) {
+        String s = uri.toString();
+        int query = s.indexOf('?');
+        if (query < 0) {
+            return s + "/";
+        }
+        return s.substring(0, query) + "/" + s.substring(query);
+    }
+
     @Override
     public void disconnect() {
         ctx.channel().disconnect();
@@ -189,7 +214,7 @@ public final class NettyRtspChannelHandler extends SimpleChannelInboundHandler<F
                 session = session.substring(0, session.indexOf(';'));
             }
 
-            cb.onSuccess(new SetupReply(session));
+            cb.onSuccess(new SetupReply(session, msg.headers().get(RtspHeaderNames.TRANSPORT)));
         }
 
         @Override
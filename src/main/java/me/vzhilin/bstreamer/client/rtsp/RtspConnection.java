@@ -10,6 +10,15 @@ import java.util.Map;
 
 public interface RtspConnection {
     void setup(URI uri, RtspCallback<SetupReply> cb);
+    /**
+     * SETUP with unicast UDP transport
+     * @param clientPort RTP port, RTCP port follows it
+     */
+    void setup(URI uri, int clientPort, RtspCallback<SetupReply> cb);
+    /**
+     * SETUP with multicast transport, group address is in the Transport header of the reply
+     */
+    void setupMulticast(URI uri, RtspCallback<SetupReply> cb);
     void describe(URI uri, RtspCallback<DescribeReply> cb);
     void play(URI uri, String session, RtspCallback<PlayReply> cb);
     void getParameter(URI uri, String session, RtspCallback<GetParameterReply> cb);
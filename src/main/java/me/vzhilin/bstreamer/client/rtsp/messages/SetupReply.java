@@ -4,10 +4,16 @@ import me.vzhilin.bstreamer.client.rtsp.messages.sdp.SdpMessage;
 
 public class SetupReply {
     private final String session;
+    private final String transport;
     private SdpMessage sdp;
 
     public SetupReply(String session) {
+        this(session, null);
+    }
+
+    public SetupReply(String session, String transport) {
         this.session = session;
+        this.transport = transport;
     }
     public SdpMessage getMessage() {
         return sdp;
@@ -15,4 +21,11 @@ public class SetupReply {
     public String getSession() {
         return session;
     }
+
+    /**
+     * @return Transport header of the reply, or null
+     */
+    public String getTransport() {
+        return transport;
+    }
 }
@@ -0,0 +1,229 @@
+package me.vzhilin.bstreamer.server;
+
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufAllocatorMetricProvider;
+import io.netty.util.internal.PlatformDependent;
+import me.vzhilin.bstreamer.server.conf.AdmissionLimits;
+import me.vzhilin.bstreamer.server.conf.RuntimeSettings;
+import me.vzhilin.bstreamer.server.stat.GroupStatistics;
+import me.vzhilin.bstreamer.server.stat.ServerStatistics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Admission of unicast sessions: PLAY is refused when the session would exceed the connection limits of the server
+ * or of its source, direct memory is above the ceiling, or projected egress would exceed the budget, see
+ * {@link AdmissionLimits}.
+ *
+ * Projected egress is the sum over sources of their connections times the bitrate of a connection of the source,
+ * learned every second from the bytes sent; a source which has not been sent yet counts with its encoded bitrate if
+ * it is known (e.g. from the media catalog), otherwise with the average bitrate.
+ * Checks are not atomic with attaching, so sessions admitted at the same moment on different event loops may exceed
+ * a limit by a few connections.
+ */
+public final class AdmissionControl implements Runnable {
+    public enum Reason {
+        CONNECTIONS("connections"),
+        SOURCE_CONNECTIONS("source_connections"),
+        DIRECT_MEMORY("direct_memory"),
+        EGRESS("egress");
+
+        private final String name;
+
+        Reason(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    private final ServerStatistics stat;
+    private final RuntimeSettings settings;
+    private final LongAdder[] rejected = new LongAdder[Reason.values().length];
+    /** bitrate of a connection of every source, bits per second */
+    private final Map<GroupStatistics, Bitrate> bitrates = new ConcurrentHashMap<>();
+    private final Consumer<GroupStatistics> sample = this::sample;
+    /** average bitrate of a connection, bits per second */
+    private volatile long averageBitrate;
+
+    /** guarded by the sampling thread */
+    private long lastSampleNanos = System.nanoTime();
+    private double elapsedSeconds;
+    private long sampledBits;
+    private long sampledConnections;
+
+    public AdmissionControl(ServerStatistics stat, RuntimeSettings settings) {
+        this.stat = stat;
+        this.settings = settings;
+        for (int i = 0; i < rejected.length; i++) {
+            rejected[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Checks the limits before a session starts receiving the source, a refusal is counted
+     *
+     * @param source statistics of the source of the session
+     * @param encodedBitrate bits per second of the source as encoded, 0 if unknown
+     * @param current statistics of the source the session receives now, null if it is not playing
+     * @throws RejectedException if the session is not admitted
+     */
+    public void admit(GroupStatistics source, long encodedBitrate, GroupStatistics current) throws RejectedException {
+        if (encodedBitrate > 0) {
+            bitrates.computeIfAbsent(source, s -> new Bitrate(-1)).encoded = encodedBitrate;
+        }
+        Reason reason = check(settings.getAdmission(), source, current);
+        if (reason != null) {
+            rejected[reason.ordinal()].increment();
+            source.incRejected();
+            throw new RejectedException(reason);
+        }
+    }
+
+    /**
+     * A session which moves from another source keeps its connection, and its bitrate leaves the projection
+     */
+    private Reason check(AdmissionLimits limits, GroupStatistics source, GroupStatistics current) {
+        long connections = stat.getTotal().connections() - (current != null ? 1 : 0);
+        if (limits.getConnections() > 0 && connections >= limits.getConnections()) {
+            return Reason.CONNECTIONS;
+        }
+        if (limits.getSourceConnections() > 0 && source.connections() >= limits.getSourceConnections()) {
+            return Reason.SOURCE_CONNECTIONS;
+        }
+        if (limits.getDirectMemoryBytes() > 0 && usedDirectMemory() >= limits.getDirectMemoryBytes()) {
+            return Reason.DIRECT_MEMORY;
+        }
+        long egress = limits.getEgressBitsPerSecond();
+        long released = current != null ? bitrate(current) : 0;
+        if (egress > 0 && projectedEgress() - released + bitrate(source) > egress) {
+            return Reason.EGRESS;
+        }
+        return null;
+    }
+
+    /**
+     * @return PLAY requests refused for the reason
+     */
+    public long rejected(Reason reason) {
+        return rejected[reason.ordinal()].sum();
+    }
+
+    /**
+     * @return bits per second of the current connections at the learned bitrates of their sources
+     */
+    public long projectedEgress() {
+        long[] sum = new long[1];
+        stat.forEach(gs -> {
+            long connections = gs.connections();
+            if (connections > 0) {
+                sum[0] += connections * bitrate(gs);
+            }
+        });
+        return sum[0];
+    }
+
+    /**
+     * Drops the learned bitrate of the removed source
+     */
+    public void forget(GroupStatistics source) {
+        bitrates.remove(source);
+    }
+
+    private long bitrate(GroupStatistics source) {
+        Bitrate bitrate = bitrates.get(source);
+        if (bitrate == null) {
+            return averageBitrate;
+        }
+        if (bitrate.value > 0) {
+            return bitrate.value;
+        }
+        return bitrate.encoded > 0 ? bitrate.encoded : averageBitrate;
+    }
+
+    /**
+     * @return direct memory of netty buffers, or reserved by the pooled allocator when netty does not count it
+     */
+    public static long usedDirectMemory() {
+        long used = PlatformDependent.usedDirectMemory();
+        ByteBufAllocator allocator = ByteBufAllocator.DEFAULT;
+        if (allocator instanceof ByteBufAllocatorMetricProvider) {
+            used = Math.max(used, ((ByteBufAllocatorMetricProvider) allocator).metric().usedDirectMemory());
+        }
+        return used;
+    }
+
+    /**
+     * Learns bitrates from the bytes sent since the previous call, called every second
+     */
+    @Override
+    public void run() {
+        long now = System.nanoTime();
+        elapsedSeconds = (now - lastSampleNanos) / 1e9;
+        lastSampleNanos = now;
+        sampledBits = 0;
+        sampledConnections = 0;
+        stat.forEach(sample);
+        if (sampledConnections > 0) {
+            averageBitrate = sampledBits / sampledConnections;
+        }
+    }
+
+    private void sample(GroupStatistics gs) {
+        Bitrate bitrate = bitrates.get(gs);
+        long bytes = gs.bytes();
+        if (bitrate == null) {
+            bitrates.putIfAbsent(gs, new Bitrate(bytes));
+            return;
+        }
+        if (bitrate.bytes < 0) {
+            bitrate.bytes = bytes;
+            return;
+        }
+        long bits = 8 * (bytes - bitrate.bytes);
+        bitrate.bytes = bytes;
+        long connections = gs.connections();
+        if (connections > 0 && bits > 0) {
+            long perConnection = Math.round(bits / elapsedSeconds / connections);
+            bitrate.value = bitrate.value == 0 ? perConnection : (3 * bitrate.value + perConnection) / 4;
+            sampledBits += bitrate.value * connections;
+            sampledConnections += connections;
+        }
+    }
+
+    private static final class Bitrate {
+        /** bytes sent at the previous sample, -1 before the first one */
+        private long bytes;
+        /** smoothed over a few seconds */
+        private volatile long value;
+        /** of the source as encoded, 0 if unknown */
+        private volatile long encoded;
+
+        private Bitrate(long bytes) {
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Refusal of a session, thrown without a stack trace
+     */
+    public static final class RejectedException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        private final Reason reason;
+
+        private RejectedException(Reason reason) {
+            super(reason.getName(), null, false, false);
+            this.reason = reason;
+        }
+
+        public Reason getReason() {
+            return reason;
+        }
+    }
+}
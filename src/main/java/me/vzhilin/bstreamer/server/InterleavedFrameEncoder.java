@@ -9,7 +9,13 @@ public class InterleavedFrameEncoder extends ChannelOutboundHandlerAdapter {
     @Override
     public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
         if (msg instanceof InterleavedFrame) {
-            ctx.write(((InterleavedFrame) msg).getPayload().retainedDuplicate(), promise);
+            UdpTransport.Target udp = ctx.channel().attr(RtspServerAttributes.UDP_TARGET).get();
+            if (udp != null) {
+                udp.send((InterleavedFrame) msg);
+                promise.trySuccess();
+            } else {
+                ctx.write(((InterleavedFrame) msg).getPayload().retainedDuplicate(), promise);
+            }
         } else {
             super.write(ctx, msg, promise);
         }
@@ -0,0 +1,213 @@
+package me.vzhilin.bstreamer.server;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoop;
+import io.netty.channel.epoll.EpollDatagramChannel;
+import io.netty.channel.socket.DatagramChannel;
+import io.netty.channel.socket.InternetProtocolFamily;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+import me.vzhilin.bstreamer.server.conf.SourceConfig;
+import me.vzhilin.bstreamer.server.media.InterleavedFrame;
+import me.vzhilin.bstreamer.server.scheduler.PushSource;
+import me.vzhilin.bstreamer.server.scheduler.PushSourceSession;
+import me.vzhilin.bstreamer.server.scheduler.PushTaskSubscriber;
+import me.vzhilin.bstreamer.server.scheduler.PushedPacket;
+import me.vzhilin.bstreamer.server.stat.GroupStatistics;
+import me.vzhilin.bstreamer.server.stat.LatencyStatistics;
+import me.vzhilin.bstreamer.util.NettyTransport;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * RTP over UDP multicast.
+ *
+ * Every source gets its own group address and port, allocated on the first SETUP and kept while the server runs.
+ * The source is sent once, to the group, while at least one session is playing it, regardless of the number of
+ * sessions. Sessions are counted as connections of the source, but bytes are counted once.
+ */
+public final class MulticastTransport {
+    private final ServerContext context;
+    private final Channel channel;
+    private final int firstGroup;
+    private final int firstPort;
+    private final int ttl;
+    private final int maxRtpSize;
+    private final Map<SourceKey, Group> groups = new HashMap<>();
+
+    /**
+     * @param firstGroup group address of the first source, next sources get the following addresses
+     * @param firstPort RTP port of the first source, next sources get the following even ports
+     * @param nif outgoing interface, null for the default one
+     * @param sndbuf SO_SNDBUF and high watermark of the socket, 0 to keep the defaults
+     */
+    public MulticastTransport(ServerContext context, EventLoop loop, Inet4Address firstGroup, int firstPort, int ttl,
+                              NetworkInterface nif, int sndbuf, int maxRtpSize) {
+        this.context = context;
+        this.firstGroup = toInt(firstGroup);
+        this.firstPort = firstPort;
+        this.ttl = ttl;
+        this.maxRtpSize = maxRtpSize;
+
+        Class<? extends DatagramChannel> clazz = NettyTransport.datagramChannel(loop.parent());
+        Bootstrap bootstrap = UdpTransport.bootstrap(loop, sndbuf)
+            .option(ChannelOption.IP_MULTICAST_TTL, ttl);
+        // multicast options of a dual-stack socket do not apply to IPv4 groups
+        if (clazz == EpollDatagramChannel.class) {
+            bootstrap.channelFactory(() -> new EpollDatagramChannel(InternetProtocolFamily.IPv4));
+        } else
+        if (clazz == NioDatagramChannel.class) {
+            bootstrap.channelFactory(() -> new NioDatagramChannel(InternetProtocolFamily.IPv4));
+        } else {
+            bootstrap.channel(clazz);
+        }
+        if (nif != null) {
+            bootstrap.option(ChannelOption.IP_MULTICAST_IF, nif);
+        }
+        channel = bootstrap.bind(0).syncUninterruptibly().channel();
+    }
+
+    /**
+     * @return RTP packet size limit, so that datagrams are not fragmented
+     */
+    public int getMaxRtpSize() {
+        return maxRtpSize;
+    }
+
+    public int getTtl() {
+        return ttl;
+    }
+
+    /**
+     * @return group of the source, allocates its address on the first call
+     */
+    public synchronized Group group(String clazz, SourceConfig conf) {
+        return groups.computeIfAbsent(context.sourceKey(clazz, conf), key -> {
+            int index = groups.size();
+            InetSocketAddress address = new InetSocketAddress(toAddress(firstGroup + index), firstPort + 2 * index);
+            return new Group(context.getPushSource(clazz, conf), address);
+        });
+    }
+
+    private static int toInt(Inet4Address address) {
+        byte[] b = address.getAddress();
+        return (b[0] & 0xff) << 24 | (b[1] & 0xff) << 16 | (b[2] & 0xff) << 8 | b[3] & 0xff;
+    }
+
+    private static InetAddress toAddress(int address) {
+        try {
+            return InetAddress.getByAddress(new byte[] {
+                (byte) (address >> 24), (byte) (address >> 16), (byte) (address >> 8), (byte) address
+            });
+        } catch (UnknownHostException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Multicast group of a source and RTSP sessions playing it
+     */
+    public final class Group {
+        private final PushSource source;
+        private final GroupStatistics stat;
+        private final InetSocketAddress address;
+        private final Set<Channel> members = new HashSet<>();
+        private final ChannelFutureListener closeListener = future -> leave(future.channel());
+        private final PushTaskSubscriber sub = new PushTaskSubscriber() {
+            @Override
+            public void onNext(PushedPacket pp) {
+                long enqueued = System.nanoTime();
+                channel.eventLoop().execute(() -> {
+                    stat.latency().record(LatencyStatistics.Stage.QUEUE, System.nanoTime() - enqueued);
+                    send(pp);
+                });
+            }
+
+            @Override
+            public void onEnd() {
+                channel.eventLoop().execute(Group.this::stop);
+            }
+        };
+        private PushSourceSession session;
+
+        private Group(PushSource source, InetSocketAddress address) {
+            this.source = source;
+            this.stat = context.getStat().get(source.getProps());
+            this.address = address;
+        }
+
+        public InetSocketAddress getAddress() {
+            return address;
+        }
+
+        public PushSource getSource() {
+            return source;
+        }
+
+        /**
+         * Starts sending to the group, if the session is the first one
+         */
+        public synchronized void join(Channel ch) {
+            if (!members.add(ch)) {
+                return;
+            }
+            ch.closeFuture().addListener(closeListener);
+            stat.incOpenConn();
+            if (session == null) {
+                session = source.subscribe(sub);
+            }
+        }
+
+        /**
+         * Stops sending to the group, if the session is the last one; the channel stays open
+         */
+        public synchronized void leave(Channel ch) {
+            if (!members.remove(ch)) {
+                return;
+            }
+            ch.closeFuture().removeListener(closeListener);
+            stat.incCloseConn();
+            if (members.isEmpty() && session != null) {
+                session.close();
+                session = null;
+            }
+        }
+
+        private void send(PushedPacket pp) {
+            InterleavedFrame frame = pp.drain();
+            if (channel.isWritable()) {
+                stat.incByteCount(frame.getSize());
+                if (frame.getKeyframes() > 0) {
+                    stat.incKeyframes(frame.getKeyframes(), frame.getParameterSetBytes());
+                }
+                UdpTransport.write(channel, frame, address);
+                channel.flush();
+            } else {
+                stat.incLagCount();
+            }
+            frame.release();
+        }
+
+        /**
+         * Source is over, sessions are closed
+         */
+        private synchronized void stop() {
+            if (session != null) {
+                session.close();
+                session = null;
+            }
+            new ArrayList<>(members).forEach(Channel::close);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package me.vzhilin.bstreamer.server;
+
+import java.math.BigDecimal;
+
+/**
+ * Normal play time, RFC 2326 3.6
+ */
+final class NptRange {
+    private static final String NPT = "npt=";
+    private static final String NOW = "now";
+
+    private NptRange() { }
+
+    /**
+     * @param range value of the Range header, e.g. {@code npt=12.5-}
+     * @return start position in milliseconds, or -1 if absent or 'now'
+     */
+    static long parseStart(String range) {
+        if (range == null || !range.startsWith(NPT)) {
+            return -1;
+        }
+        String spec = range.substring(NPT.length());
+        int dash = spec.indexOf('-');
+        String start = (dash < 0 ? spec : spec.substring(0, dash)).trim();
+        if (start.isEmpty() || NOW.equals(start)) {
+            return -1;
+        }
+        return parseTime(start);
+    }
+
+    /**
+     * @param time npt time, either seconds ({@code 12.5}) or hh:mm:ss ({@code 0:00:12.5})
+     * @return milliseconds
+     */
+    static long parseTime(String time) {
+        String[] parts = time.split(":");
+        double seconds = 0;
+        for (String p: parts) {
+            seconds = seconds * 60 + Double.parseDouble(p);
+        }
+        if (seconds < 0) {
+            throw new NumberFormatException("negative npt: " + time);
+        }
+        return (long) (seconds * 1000);
+    }
+
+    static String formatSeconds(long millis) {
+        return BigDecimal.valueOf(millis, 3).toPlainString();
+    }
+
+    static String format(long startMillis, long durationMillis) {
+        if (startMillis < 0) {
+            return NPT + NOW + "-";
+        }
+        String range = NPT + formatSeconds(startMillis) + "-";
+        if (durationMillis > 0) {
+            range += formatSeconds(durationMillis);
+        }
+        return range;
+    }
+}
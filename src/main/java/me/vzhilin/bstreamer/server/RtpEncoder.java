@@ -1,6 +1,7 @@
 package me.vzhilin.bstreamer.server;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import me.vzhilin.bstreamer.server.streaming.file.MediaPacket;
 
 public class RtpEncoder {
@@ -24,6 +25,41 @@ public class RtpEncoder {
     }
 
 
+    /**
+     * Writes parameter sets aggregated into a single STAP-A packet (RFC 6184, 5.7.1),
+     * or as separate packets if the aggregate does not fit into maxRtpSize
+     */
+    public void encodeParameterSets(ByteBuf buffer, byte[] sps, byte[] pps, long rtpTimestamp) {
+        int stapSize = stapASize(sps, pps);
+        if (stapSize + 16 > maxRtpSize) {
+            encode(buffer, new MediaPacket(0, 0, false, Unpooled.wrappedBuffer(sps)), rtpTimestamp);
+            encode(buffer, new MediaPacket(0, 0, false, Unpooled.wrappedBuffer(pps)), rtpTimestamp);
+            return;
+        }
+
+        writeInterleavedHeader(buffer, stapSize + 12);
+        writeRtpHeader(buffer, false, rtpTimestamp);
+        int nri = Math.max(sps[0] & 0b01100000, pps[0] & 0b01100000);
+        buffer.writeByte(nri | 24);
+        buffer.writeShort(sps.length);
+        buffer.writeBytes(sps);
+        buffer.writeShort(pps.length);
+        buffer.writeBytes(pps);
+    }
+
+    public int estimateParameterSetsSize(byte[] sps, byte[] pps) {
+        int stapSize = stapASize(sps, pps);
+        if (stapSize + 16 > maxRtpSize) {
+            return estimateSize(sps.length) + estimateSize(pps.length);
+        } else {
+            return stapSize + 16;
+        }
+    }
+
+    private static int stapASize(byte[] sps, byte[] pps) {
+        return 1 + 2 + sps.length + 2 + pps.length;
+    }
+
     private void writeInterleavedHeader(ByteBuf header, int dataLen) {
         header.writeByte('$');
         header.writeByte(0);
@@ -5,29 +5,38 @@ import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
 import io.netty.channel.WriteBufferWaterMark;
-import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollChannelOption;
 import io.netty.channel.epoll.EpollServerSocketChannel;
-import io.netty.channel.kqueue.KQueueEventLoopGroup;
-import io.netty.channel.kqueue.KQueueServerSocketChannel;
-import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.ServerSocketChannel;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
+import me.vzhilin.bstreamer.server.admin.AdminHttpServer;
 import me.vzhilin.bstreamer.server.conf.Config;
 import me.vzhilin.bstreamer.server.conf.NetworkAttributes;
-import me.vzhilin.bstreamer.util.AppRuntime;
+import me.vzhilin.bstreamer.server.conf.SourceConfig;
+import me.vzhilin.bstreamer.server.http.HttpServerInitializer;
+import me.vzhilin.bstreamer.server.streaming.Filesystem;
+import me.vzhilin.bstreamer.server.streaming.file.FileSourceAttributes;
+import me.vzhilin.bstreamer.server.streaming.file.MediaCatalog;
+import me.vzhilin.bstreamer.util.NettyTransport;
 import me.vzhilin.bstreamer.util.PropertyMap;
+import me.vzhilin.bstreamer.util.metrics.EventLoopMonitor;
+import me.vzhilin.bstreamer.util.metrics.MetricsHttpServer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
 import java.net.SocketAddress;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
-import static org.bytedeco.javacpp.avutil.AV_LOG_ERROR;
-import static org.bytedeco.javacpp.avutil.av_log_set_level;
 
 public class RtspServer {
     private final static Logger LOG = LoggerFactory.getLogger(RtspServer.class);
@@ -36,71 +45,186 @@ public class RtspServer {
     private final EventLoopGroup bossGroup;
     private final EventLoopGroup workerGroup;
     private final ServerBootstrap serverBootstrap;
+    private final ServerBootstrap httpBootstrap;
     private final Config serverConfig;
     private final ServerContext serverContext;
     private List<ChannelFuture> bindFutures;
+    private MetricsHttpServer metricsServer;
+    private AdminHttpServer adminServer;
+    private ServerRecorder recorder;
+    private final EventLoopMonitor eventLoopMonitor;
+    /** listening sockets per bind address, all sharing the port with SO_REUSEPORT */
+    private final int acceptors;
+    private final boolean reusePort;
 
     public RtspServer(Config serverConfig) {
         this.serverConfig = serverConfig;
         this.serverBootstrap = new ServerBootstrap();
+        this.httpBootstrap = new ServerBootstrap();
 
-        int nThreads = serverConfig.getNetwork().getInt("threads");
-        if (AppRuntime.IS_WINDOWS) {
-            bossGroup = new NioEventLoopGroup(1);
-            workerGroup = new NioEventLoopGroup(nThreads);
-            channelClazz = NioServerSocketChannel.class;
-        } else if (AppRuntime.IS_MAC) {
-            bossGroup = new KQueueEventLoopGroup(1);
-            workerGroup = new KQueueEventLoopGroup(nThreads);
-            channelClazz = KQueueServerSocketChannel.class;
-        } else {
-            bossGroup = new EpollEventLoopGroup(1);
-            workerGroup = new EpollEventLoopGroup(nThreads);
-            channelClazz = EpollServerSocketChannel.class;
+        PropertyMap network = serverConfig.getNetwork();
+        int nThreads = network.getInt("threads");
+        NettyTransport transport = NettyTransport.select(network.getString(NetworkAttributes.TRANSPORT));
+        int acceptors = network.getInt(NetworkAttributes.ACCEPTORS, 1);
+        boolean reusePort = acceptors > 1 || network.getBoolean(NetworkAttributes.REUSEPORT);
+        if (reusePort && transport.getServerChannel() != EpollServerSocketChannel.class) {
+            LOG.warn("SO_REUSEPORT needs epoll transport, using a single acceptor");
+            acceptors = 1;
+            reusePort = false;
         }
+        this.acceptors = acceptors;
+        this.reusePort = reusePort;
+        bossGroup = transport.newGroup(acceptors);
+        workerGroup = transport.newGroup(nThreads);
+        channelClazz = transport.getServerChannel();
+        LOG.info("using " + transport.getName() + " transport");
 
         this.serverContext = new ServerContext(serverConfig);
+        this.eventLoopMonitor = new EventLoopMonitor(workerGroup, ServerMetrics.PREFIX,
+            network.getInt(NetworkAttributes.STALL_THRESHOLD, 200));
     }
 
     public ServerContext getServerContext() {
         return serverContext;
     }
 
+    /**
+     * @return watchdog of the network threads
+     */
+    public EventLoopMonitor getEventLoopMonitor() {
+        return eventLoopMonitor;
+    }
+
     public void start() {
-        setupLoglevel();
+        eventLoopMonitor.start();
+        startRecorder();
+        openCatalogs();
+        new SourcePrewarmer(serverContext).prewarm();
         startServer();
     }
 
-    private void setupLoglevel() {
-        av_log_set_level(AV_LOG_ERROR);
+    private void startRecorder() {
+        PropertyMap recording = serverConfig.getNetwork().getMap(NetworkAttributes.RECORDING);
+        if (recording == null || recording.getString("file") == null) {
+            return;
+        }
+        File file = new File(recording.getString("file"));
+        try {
+            recorder = new ServerRecorder(serverContext, eventLoopMonitor, file, recording.getInt("rows", 262144));
+        } catch (IOException e) {
+            throw new IllegalArgumentException("unable to create recording " + file, e);
+        }
+        recorder.start();
+        LOG.info("recording statistics to " + file);
+    }
+
+    /**
+     * Scans the catalogs in parallel, prewarming which follows uses them
+     */
+    private void openCatalogs() {
+        List<MediaCatalog> catalogs = new ArrayList<>();
+        for (String name: serverConfig.getStreamingNames()) {
+            SourceConfig conf = serverConfig.getStreamingConfig(name).getConf();
+            if (conf.getBoolean(FileSourceAttributes.CATALOG) && conf.getString(FileSourceAttributes.DIR) != null) {
+                catalogs.add(serverContext.getMediaCatalog(Filesystem.probeDirectories(conf.getString(FileSourceAttributes.DIR))));
+            }
+        }
+        try {
+            for (MediaCatalog catalog: catalogs) {
+                catalog.awaitReady();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
     private void startServer() {
         PropertyMap network = serverConfig.getNetwork();
+        PropertyMap udp = network.getMap(NetworkAttributes.UDP);
+        if (udp != null && udp.getString("bind") != null) {
+            InetSocketAddress udpAddress = (InetSocketAddress) toSocketAddress(Collections.singletonList(udp.getString("bind"))).iterator().next();
+            serverContext.setUdpTransport(new UdpTransport(workerGroup, udpAddress,
+                udp.getInt("sndbuf", 4 * 1024 * 1024), udp.getInt("max_rtp_size", 1400)));
+            LOG.info("rtp over udp is bound to " + udpAddress);
+        }
+        PropertyMap multicast = network.getMap(NetworkAttributes.MULTICAST);
+        if (multicast != null && multicast.getString("group") != null) {
+            serverContext.setMulticastTransport(newMulticastTransport(multicast));
+            LOG.info("rtp multicast starts at " + multicast.getString("group"));
+        }
+
+        configure(serverBootstrap, network).childHandler(new RtspServerInitializer());
+        Collection<SocketAddress> addresses = toSocketAddress(network.getStringArray(NetworkAttributes.BIND));
+
+        bindFutures = new ArrayList<>();
+        for (SocketAddress sa: addresses) {
+            for (int i = 0; i < acceptors; i++) {
+                bindFutures.add(serverBootstrap.bind(sa).syncUninterruptibly());
+            }
+        }
+        if (reusePort) {
+            LOG.info("SO_REUSEPORT, acceptors per address: " + acceptors);
+        }
+
+        List<String> httpBind = serverContext.getHttpStreams().getSettings().getBind();
+        if (!httpBind.isEmpty()) {
+            configure(httpBootstrap, network).childHandler(new HttpServerInitializer());
+            toSocketAddress(httpBind).forEach(sa -> bindFutures.add(httpBootstrap.bind(sa).syncUninterruptibly()));
+            LOG.info("http is listening on " + httpBind);
+        }
+
+        PropertyMap metrics = network.getMap(NetworkAttributes.METRICS);
+        if (metrics != null && metrics.getString("bind") != null) {
+            metricsServer = new MetricsHttpServer(new ServerMetrics(serverContext, eventLoopMonitor));
+            metricsServer.start(metrics.getString("bind"));
+        }
+
+        PropertyMap admin = network.getMap(NetworkAttributes.ADMIN);
+        if (admin != null && admin.getString("bind") != null) {
+            adminServer = new AdminHttpServer(serverContext);
+            adminServer.start(admin.getString("bind"));
+        }
+    }
+
+    private MulticastTransport newMulticastTransport(PropertyMap multicast) {
+        try {
+            InetAddress group = InetAddress.getByName(multicast.getString("group"));
+            if (!(group instanceof Inet4Address) || !group.isMulticastAddress()) {
+                throw new IllegalArgumentException("not an IPv4 multicast address: " + group);
+            }
+            String interfaceName = multicast.getString("interface");
+            NetworkInterface nif = interfaceName == null ? null : NetworkInterface.getByName(interfaceName);
+            if (interfaceName != null && nif == null) {
+                throw new IllegalArgumentException("no such interface: " + interfaceName);
+            }
+            return new MulticastTransport(serverContext, workerGroup.next(), (Inet4Address) group,
+                multicast.getInt("port", 5004), multicast.getInt("ttl", 1), nif,
+                multicast.getInt("sndbuf", 4 * 1024 * 1024), multicast.getInt("max_rtp_size", 1400));
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    private ServerBootstrap configure(ServerBootstrap bootstrap, PropertyMap network) {
         int sndbuf = network.getInt(NetworkAttributes.SNDBUF);
-        int lowWatermark = network.getInt(NetworkAttributes.WATERMARKS_LOW);
-        int highWatermark = network.getInt(NetworkAttributes.WATERMARKS_HIGH);
-        serverBootstrap.group(bossGroup, workerGroup)
+        WriteBufferWaterMark watermarks = serverContext.getSettings().getWatermarks();
+        bootstrap.group(bossGroup, workerGroup)
                 .channel(channelClazz)
                 .childAttr(RtspServerAttributes.CONTEXT, serverContext)
                 .option(ChannelOption.SO_REUSEADDR, true)
                 .option(ChannelOption.SO_BACKLOG, 20000)
                 .childOption(ChannelOption.SO_LINGER, 0)
                 .childOption(ChannelOption.SO_KEEPALIVE, true);
+        if (reusePort) {
+            bootstrap.option(EpollChannelOption.SO_REUSEPORT, true);
+        }
         if (sndbuf > 0) {
-            serverBootstrap.childOption(ChannelOption.SO_SNDBUF, sndbuf);
+            bootstrap.childOption(ChannelOption.SO_SNDBUF, sndbuf);
         }
-        if (lowWatermark > 0 && highWatermark > 0) {
-            WriteBufferWaterMark writeBufferWaterMark = new WriteBufferWaterMark(lowWatermark, highWatermark);
-            serverBootstrap.childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, writeBufferWaterMark);
+        if (watermarks != null) {
+            bootstrap.childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, watermarks);
         }
-        serverBootstrap.childHandler(new RtspServerInitializer());
-        Collection<SocketAddress> addresses = toSocketAddress(network.getStringArray(NetworkAttributes.BIND));
-
-        bindFutures = addresses.stream()
-                .map(sa -> serverBootstrap.bind(sa).syncUninterruptibly())
-                .collect(Collectors.toList());
-
+        return bootstrap;
     }
 
     private Collection<SocketAddress> toSocketAddress(List<String> hostAndPort) {
@@ -113,6 +237,17 @@ public class RtspServer {
     }
 
     public void stop() {
+        if (metricsServer != null) {
+            metricsServer.stop();
+        }
+        if (adminServer != null) {
+            adminServer.stop();
+        }
+        if (recorder != null) {
+            recorder.stop();
+        }
+        eventLoopMonitor.stop();
+        serverContext.close();
         bossGroup.shutdownGracefully();
         workerGroup.shutdownGracefully();
         bindFutures.forEach(f -> f.channel().close().syncUninterruptibly());
@@ -8,4 +8,6 @@ import io.netty.util.AttributeKey;
 public class RtspServerAttributes {
     /** Context */
     public static final AttributeKey<ServerContext> CONTEXT = AttributeKey.valueOf("context");
+    /** RTP destination of a session set up with UDP transport, null for interleaved */
+    public static final AttributeKey<UdpTransport.Target> UDP_TARGET = AttributeKey.valueOf("udp_target");
 }
@@ -9,21 +9,64 @@ import io.netty.channel.EventLoop;
 import io.netty.channel.SimpleChannelInboundHandler;
 import io.netty.handler.codec.http.*;
 import io.netty.handler.codec.rtsp.RtspHeaderNames;
+import io.netty.handler.codec.rtsp.RtspResponseStatuses;
 import io.netty.handler.codec.rtsp.RtspVersions;
 import me.vzhilin.bstreamer.server.conf.Config;
+import me.vzhilin.bstreamer.server.conf.SourceConfig;
+import me.vzhilin.bstreamer.server.conf.StreamingConfig;
+import me.vzhilin.bstreamer.server.jfr.Jfr;
+import me.vzhilin.bstreamer.server.jfr.RtspRequestEvent;
+import me.vzhilin.bstreamer.server.scheduler.PushSource;
 import me.vzhilin.bstreamer.server.strategy.sync.GroupStreamer;
+import me.vzhilin.bstreamer.server.streaming.Filesystem;
+import me.vzhilin.bstreamer.server.streaming.file.FileSourceAttributes;
+import me.vzhilin.bstreamer.server.streaming.file.Rendition;
 import me.vzhilin.bstreamer.server.streaming.file.SourceDescription;
-import me.vzhilin.bstreamer.util.PropertyMap;
 import org.apache.log4j.Logger;
 
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.text.ParseException;
+import java.util.Arrays;
 import java.util.Base64;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 public final class RtspServerHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
     private static final Logger LOG = Logger.getLogger(RtspServerHandler.class);
 
+    private static final String RANDOM = "random";
+    /** Retry-After of DESCRIBE while the requested rendition is being transcoded, seconds */
+    private static final int RENDITION_RETRY_SECONDS = 5;
+    /** Retry-After of DESCRIBE while the catalog of the directory is being scanned, seconds */
+    private static final int CATALOG_RETRY_SECONDS = 2;
+    /** Retry-After of DESCRIBE and PLAY while the source is being described, seconds */
+    private static final int DESCRIBE_RETRY_SECONDS = 1;
+    private static final String MAX_RTP_SIZE = "max_rtp_size";
+    private static final String INTERLEAVED = "RTP/AVP/TCP;unicast;interleaved=0-1";
+    private static final Pattern CLIENT_PORT = Pattern.compile("client_port=(\\d+)(?:-(\\d+))?");
+    /** control url of the track, appended to the content base by clients */
+    private static final String TRACK_CONTROL = "/TrackID=0";
+
     private Config config;
     private ServerContext context;
 
+    /** group the session is attached to, null if not playing */
+    private GroupStreamer playing;
+    /** npt at which playback started, -1 if unknown */
+    private long playStartMillis = -1;
+    private long playWallclock;
+    /** npt at which session was paused, -1 if unknown */
+    private long pausedMillis = -1;
+    /** multicast group chosen by SETUP, null for unicast transports */
+    private MulticastTransport.Group multicast;
+    private boolean multicastPlaying;
+    /** Transport of the SETUP response, null before SETUP */
+    private String transport;
+
     @Override
     public void channelRegistered(ChannelHandlerContext ctx) throws Exception {
         super.channelRegistered(ctx);
@@ -33,6 +76,19 @@ public final class RtspServerHandler extends SimpleChannelInboundHandler<FullHtt
     }
 
     protected void channelRead0(ChannelHandlerContext ctx, FullHttpRequest request) throws Exception {
+        RtspRequestEvent event = Jfr.ENABLED ? new RtspRequestEvent() : null;
+        if (event != null) {
+            event.begin();
+        }
+        handle(ctx, request);
+        if (event != null && event.shouldCommit()) {
+            event.method = request.method().name();
+            event.uri = request.uri();
+            event.commit();
+        }
+    }
+
+    private void handle(ChannelHandlerContext ctx, FullHttpRequest request) throws Exception {
         HttpMethod method = request.method();
         HttpResponse response;
         HttpHeaders headers = request.headers();
@@ -49,18 +105,44 @@ public final class RtspServerHandler extends SimpleChannelInboundHandler<FullHtt
                     response = new DefaultFullHttpResponse(RtspVersions.RTSP_1_0, HttpResponseStatus.BAD_REQUEST);
                     response.headers().set(RtspHeaderNames.CSEQ, headers.get(RtspHeaderNames.CSEQ));
                     ctx.writeAndFlush(response);
+                } else
+                if (!catalogReady(uri)) {
+                    response = retryLater(CATALOG_RETRY_SECONDS);
+                    response.headers().set(RtspHeaderNames.CSEQ, headers.get(RtspHeaderNames.CSEQ));
+                    ctx.writeAndFlush(response);
                 } else {
-                    response = description(uri, getStreamerForUrl(ctx.channel().eventLoop(), uri).describe());
+                    HttpResponseStatus status = renditionStatus(uri);
+                    SourceDescription desc = null;
+                    if (status.equals(HttpResponseStatus.OK)) {
+                        desc = getStreamerForUrl(ctx.channel().eventLoop(), uri).describe();
+                    }
+                    if (desc != null) {
+                        response = description(uri, desc);
+                    } else
+                    if (status.equals(HttpResponseStatus.OK)) {
+                        response = retryLater(DESCRIBE_RETRY_SECONDS);
+                    } else {
+                        response = new DefaultFullHttpResponse(RtspVersions.RTSP_1_0, status);
+                        if (status.equals(HttpResponseStatus.SERVICE_UNAVAILABLE)) {
+                            response.headers().set(HttpHeaderNames.RETRY_AFTER, RENDITION_RETRY_SECONDS);
+                        }
+                    }
                     response.headers().set(RtspHeaderNames.CSEQ, headers.get(RtspHeaderNames.CSEQ));
                     ctx.writeAndFlush(response);
                 }
                 break;
             }
             case "SETUP": {
-                response = new DefaultFullHttpResponse(RtspVersions.RTSP_1_0, HttpResponseStatus.OK);
+                String transport = setupTransport(ctx.channel(), request.uri(), headers.get(RtspHeaderNames.TRANSPORT));
+                if (transport == null) {
+                    response = new DefaultFullHttpResponse(RtspVersions.RTSP_1_0, RtspResponseStatuses.UNSUPPORTED_TRANSPORT);
+                } else {
+                    response = new DefaultFullHttpResponse(RtspVersions.RTSP_1_0, HttpResponseStatus.OK);
+                    response.headers().set(RtspHeaderNames.SESSION, "1234");
+                    response.headers().set(RtspHeaderNames.TRANSPORT, transport);
+                    this.transport = transport;
+                }
                 response.headers().set(RtspHeaderNames.CSEQ, headers.get(RtspHeaderNames.CSEQ));
-                response.headers().set(RtspHeaderNames.SESSION, "1234");
-                response.headers().set(RtspHeaderNames.TRANSPORT, "RTP/AVP/TCP;unicast;interleaved=0-1");
                 ctx.writeAndFlush(response);
                 break;
             }
@@ -70,10 +152,28 @@ public final class RtspServerHandler extends SimpleChannelInboundHandler<FullHtt
                     response = new DefaultFullHttpResponse(RtspVersions.RTSP_1_0, HttpResponseStatus.BAD_REQUEST);
                     response.headers().set(RtspHeaderNames.CSEQ, headers.get(RtspHeaderNames.CSEQ));
                     ctx.writeAndFlush(response);
+                } else
+                if (multicast == null && getStreamerForUrl(ctx.channel().eventLoop(), uri).describe() == null) {
+                    response = retryLater(DESCRIBE_RETRY_SECONDS);
+                    response.headers().set(RtspHeaderNames.CSEQ, headers.get(RtspHeaderNames.CSEQ));
+                    response.headers().set(RtspHeaderNames.SESSION, headers.get(RtspHeaderNames.SESSION));
+                    ctx.writeAndFlush(response);
                 } else {
-                    getStreamerForUrl(ctx.channel().eventLoop(), uri).attachContext(ctx);
-
-                    response = new DefaultFullHttpResponse(RtspVersions.RTSP_1_0, HttpResponseStatus.OK);
+                    try {
+                        String range = multicast != null ?
+                            playMulticast(ctx) : play(ctx, uri, headers.get(RtspHeaderNames.RANGE));
+                        if (range == null) {
+                            response = new DefaultFullHttpResponse(RtspVersions.RTSP_1_0, RtspResponseStatuses.INVALID_RANGE);
+                        } else {
+                            response = new DefaultFullHttpResponse(RtspVersions.RTSP_1_0, HttpResponseStatus.OK);
+                            response.headers().set(RtspHeaderNames.RANGE, range);
+                        }
+                    } catch (AdmissionControl.RejectedException e) {
+                        if (LOG.isDebugEnabled()) {
+                            LOG.debug("PLAY " + request.uri() + " is refused: " + e.getMessage());
+                        }
+                        response = new DefaultFullHttpResponse(RtspVersions.RTSP_1_0, RtspResponseStatuses.NOT_ENOUGH_BANDWIDTH);
+                    }
                     response.headers().set(RtspHeaderNames.CSEQ, headers.get(RtspHeaderNames.CSEQ));
                     response.headers().set(RtspHeaderNames.SESSION, headers.get(RtspHeaderNames.SESSION));
                     ctx.writeAndFlush(response);
@@ -81,11 +181,30 @@ public final class RtspServerHandler extends SimpleChannelInboundHandler<FullHtt
 
                 break;
             }
+            case "PAUSE":
+            case "TEARDOWN": {
+                if (playing != null) {
+                    pausedMillis = "PAUSE".equals(method.name()) ? position() : -1;
+                    playing.pause(ctx);
+                    playing = null;
+                }
+                if (multicastPlaying) {
+                    multicast.leave(ctx.channel());
+                    multicastPlaying = false;
+                }
+                response = new DefaultFullHttpResponse(RtspVersions.RTSP_1_0, HttpResponseStatus.OK);
+                response.headers().set(RtspHeaderNames.CSEQ, headers.get(RtspHeaderNames.CSEQ));
+                response.headers().set(RtspHeaderNames.SESSION, headers.get(RtspHeaderNames.SESSION));
+                ctx.writeAndFlush(response);
+                break;
+            }
         case "GET_PARAMETER": {
             response = new DefaultFullHttpResponse(RtspVersions.RTSP_1_0, HttpResponseStatus.OK);
             response.headers().set(RtspHeaderNames.CSEQ, headers.get(RtspHeaderNames.CSEQ));
             response.headers().set(RtspHeaderNames.SESSION, headers.get(RtspHeaderNames.SESSION));
-            response.headers().set(RtspHeaderNames.TRANSPORT, "RTP/AVP/TCP;unicast;interleaved=0-1");
+            if (transport != null) {
+                response.headers().set(RtspHeaderNames.TRANSPORT, transport);
+            }
             ctx.writeAndFlush(response);
             break;
         }
@@ -116,6 +235,9 @@ public final class RtspServerHandler extends SimpleChannelInboundHandler<FullHtt
                 + ";packetization-mode=1\r\n"
                 + "a=rtpmap:98 H264/90000\r\n"
                 + "a=control:TrackID=0\r\n";
+        if (description.getDurationMillis() > 0) {
+            sdpMessage += "a=range:" + NptRange.format(0, description.getDurationMillis()) + "\r\n";
+        }
 
         ByteBuf payload = ByteBufUtil.writeAscii(PooledByteBufAllocator.DEFAULT, sdpMessage);
         DefaultFullHttpResponse response = new DefaultFullHttpResponse(RtspVersions.RTSP_1_0, HttpResponseStatus.OK, payload);
@@ -125,15 +247,235 @@ public final class RtspServerHandler extends SimpleChannelInboundHandler<FullHtt
         return response;
     }
 
+    /**
+     * The source is not ready yet, e.g. a relay waits for its upstream, and the client is asked to retry
+     */
+    private static HttpResponse retryLater(int seconds) {
+        HttpResponse response = new DefaultFullHttpResponse(RtspVersions.RTSP_1_0, HttpResponseStatus.SERVICE_UNAVAILABLE);
+        response.headers().set(HttpHeaderNames.RETRY_AFTER, seconds);
+        return response;
+    }
+
+    /**
+     * @return false while the catalog of the directory of the source is scanned on startup
+     */
+    private boolean catalogReady(RtspUriParser uri) {
+        SourceConfig conf = config.getStreamingConfig(uri.pathItem(0)).getConf().merge(uri.allParameters());
+        String dir = conf.getString(FileSourceAttributes.DIR);
+        if (!conf.getBoolean(FileSourceAttributes.CATALOG) || dir == null) {
+            return true;
+        }
+        return context.getMediaCatalog(Filesystem.probeDirectories(dir)).isReady();
+    }
+
+    /**
+     * A rendition is transcoded on the first request, until then the client is asked to retry later
+     */
+    private HttpResponseStatus renditionStatus(RtspUriParser uri) throws IOException {
+        SourceConfig conf = config.getStreamingConfig(uri.pathItem(0)).getConf().merge(uri.allParameters());
+        String name = conf.getString(FileSourceAttributes.RENDITION);
+        String fileName = conf.getString(FileSourceAttributes.FILE);
+        if (name == null || fileName == null) {
+            return HttpResponseStatus.OK;
+        }
+        Rendition rendition = Rendition.of(name);
+        if (rendition == null) {
+            return HttpResponseStatus.BAD_REQUEST;
+        }
+        File file = new File(Filesystem.probeDirectories(conf.getString(FileSourceAttributes.DIR)), fileName);
+        if (!file.exists()) {
+            return HttpResponseStatus.NOT_FOUND;
+        }
+        boolean ready = context.getRenditionCache().prepare(file, rendition);
+        return ready ? HttpResponseStatus.OK : HttpResponseStatus.SERVICE_UNAVAILABLE;
+    }
+
+    /**
+     * Chooses the first supported transport of the Transport header: interleaved or, if enabled, unicast UDP
+     * or multicast
+     *
+     * @param uri control url of the track
+     * @return value of the Transport response header, or null if none is supported
+     */
+    private String setupTransport(Channel ch, String uri, String requested) throws ParseException {
+        ch.attr(RtspServerAttributes.UDP_TARGET).set(null);
+        if (!multicastPlaying) {
+            multicast = null;
+        }
+        if (requested == null) {
+            return INTERLEAVED;
+        }
+        UdpTransport udp = context.getUdpTransport();
+        MulticastTransport mcast = context.getMulticastTransport();
+        for (String spec: requested.split(",")) {
+            spec = spec.trim();
+            if (spec.startsWith("RTP/AVP/TCP")) {
+                return INTERLEAVED;
+            }
+            boolean rtpUdp = spec.startsWith("RTP/AVP;") || spec.startsWith("RTP/AVP/UDP");
+            Matcher clientPort = CLIENT_PORT.matcher(spec);
+            if (mcast != null && rtpUdp && spec.contains("multicast") && !multicastPlaying) {
+                multicast = multicastGroup(mcast, uri);
+                InetSocketAddress group = multicast.getAddress();
+                return "RTP/AVP;multicast;destination=" + group.getAddress().getHostAddress() +
+                       ";port=" + group.getPort() + "-" + (group.getPort() + 1) + ";ttl=" + mcast.getTtl();
+            }
+            if (udp != null && rtpUdp && !spec.contains("multicast") && clientPort.find()) {
+                int rtpPort = Integer.parseInt(clientPort.group(1));
+                int rtcpPort = clientPort.group(2) != null ? Integer.parseInt(clientPort.group(2)) : rtpPort + 1;
+                InetAddress host = ((InetSocketAddress) ch.remoteAddress()).getAddress();
+                ch.attr(RtspServerAttributes.UDP_TARGET).set(udp.target(ch, new InetSocketAddress(host, rtpPort)));
+                return "RTP/AVP;unicast;client_port=" + rtpPort + "-" + rtcpPort +
+                       ";server_port=" + udp.getPort() + "-" + (udp.getPort() + 1);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Multicast is live: start position is ignored, sessions of the same source share the group
+     */
+    private MulticastTransport.Group multicastGroup(MulticastTransport mcast, String uri) throws ParseException {
+        if (uri.endsWith(TRACK_CONTROL)) {
+            uri = uri.substring(0, uri.length() - TRACK_CONTROL.length());
+        }
+        RtspUriParser parser = new RtspUriParser(uri);
+        StreamingConfig streaming = config.getStreamingConfig(parser.pathItem(0));
+        SourceConfig conf = streaming.getConf().merge(parser.allParameters()).without(FileSourceAttributes.START);
+        return mcast.group(streaming.getClazz(), limitRtpSize(conf, mcast.getMaxRtpSize()));
+    }
+
+    private String playMulticast(ChannelHandlerContext ctx) {
+        if (playing != null) {
+            playing.pause(ctx);
+            playing = null;
+        }
+        multicast.join(ctx.channel());
+        multicastPlaying = true;
+        SourceDescription desc = multicast.getSource().describe();
+        return NptRange.format(-1, desc != null ? desc.getDurationMillis() : 0);
+    }
+
+    /**
+     * Datagrams must not exceed the limit, so UDP sessions use the source with smaller packets
+     */
+    private static SourceConfig limitRtpSize(SourceConfig conf, int limit) {
+        String size = conf.getString(MAX_RTP_SIZE);
+        if (size == null || Integer.parseInt(size) > limit) {
+            return conf.with(MAX_RTP_SIZE, String.valueOf(limit));
+        }
+        return conf;
+    }
+
     private GroupStreamer getStreamerForUrl(EventLoop loop, RtspUriParser uri) {
         String url = uri.pathItem(0);
 
-        PropertyMap mpsc = config.getStreamingConfig(url);
-        PropertyMap conf = mpsc.getMap("conf");
-        conf.putAll(uri.allParameters());
-        String clazz = mpsc.getString("class");
+        StreamingConfig streaming = config.getStreamingConfig(url);
+        SourceConfig conf = streaming.getConf().merge(uri.allParameters()).without(FileSourceAttributes.START);
+
+        return context.getStreamer(loop, url, context.sourceKey(streaming.getClazz(), conf));
+    }
+
+    /**
+     * Attaches channel to the group, which plays from the requested position.
+     *
+     * The position is aligned to the preceding keyframe, so sessions with the same start position share a group.
+     * Without explicit position session joins the common group, as if the source was live.
+     * A session which starts playing or moves to another source has to be admitted, see {@link AdmissionControl}.
+     *
+     * @param range value of the Range header
+     * @return value of the Range response header, or null if requested position is out of range
+     * @throws AdmissionControl.RejectedException if the session would exceed the admission limits
+     */
+    private String play(ChannelHandlerContext ctx, RtspUriParser uri, String range) throws AdmissionControl.RejectedException {
+        String url = uri.pathItem(0);
+        StreamingConfig streaming = config.getStreamingConfig(url);
+        SourceConfig conf = streaming.getConf().merge(uri.allParameters());
+        String start = conf.getString(FileSourceAttributes.START);
+        conf = conf.without(FileSourceAttributes.START);
+        String clazz = streaming.getClazz();
+        UdpTransport udp = context.getUdpTransport();
+        if (udp != null && ctx.channel().attr(RtspServerAttributes.UDP_TARGET).get() != null) {
+            conf = limitRtpSize(conf, udp.getMaxRtpSize());
+        }
+
+        EventLoop loop = ctx.channel().eventLoop();
+        GroupStreamer target = context.getStreamer(loop, url, context.sourceKey(clazz, conf));
+        SourceDescription desc = target.describe();
+        long duration = desc != null ? desc.getDurationMillis() : 0;
+        long startMillis = -1;
+        if (duration > 0) {
+            long requested;
+            try {
+                requested = NptRange.parseStart(range);
+                if (requested < 0) {
+                    requested = pausedMillis;
+                }
+                if (requested < 0 && start != null) {
+                    requested = RANDOM.equals(start) ?
+                        ThreadLocalRandom.current().nextLong(duration) : NptRange.parseTime(start);
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            if (requested >= duration) {
+                return null;
+            }
+            if (requested >= 0) {
+                startMillis = alignToKeyframe(desc, requested);
+                conf = conf.with(FileSourceAttributes.START, NptRange.formatSeconds(startMillis));
+                target = context.getStreamer(loop, url, context.sourceKey(clazz, conf));
+            }
+        }
 
-        return context.getStreamer(loop, url, clazz, conf);
+        PushSource current = playing != null ? playing.getPushSource() : null;
+        if (current != target.getPushSource()) {
+            context.getAdmission().admit(target.getPushSource().getStat(), desc != null ? desc.getBitrate() : 0,
+                current != null ? current.getStat() : null);
+        }
+        if (playing != null) {
+            playing.pause(ctx);
+        }
+        if (multicastPlaying) {
+            multicast.leave(ctx.channel());
+            multicastPlaying = false;
+        }
+        target.attachContext(ctx);
+        playing = target;
+        playStartMillis = startMillis;
+        playWallclock = System.currentTimeMillis();
+        pausedMillis = -1;
+        return NptRange.format(startMillis, duration);
+    }
+
+    private static long alignToKeyframe(SourceDescription desc, long millis) {
+        long[] keyframes = desc.getKeyframeMillis();
+        if (keyframes == null || keyframes.length == 0) {
+            return millis - millis % 1000;
+        }
+        int pos = Arrays.binarySearch(keyframes, millis);
+        if (pos < 0) {
+            pos = Math.max(0, -pos - 2);
+        }
+        return keyframes[pos];
+    }
+
+    /**
+     * A session of the common group is at the position of its source
+     *
+     * @return current npt of the session, or -1 if unknown
+     */
+    private long position() {
+        SourceDescription desc = playing.describe();
+        long duration = desc != null ? desc.getDurationMillis() : 0;
+        if (duration <= 0) {
+            return -1;
+        }
+        if (playStartMillis >= 0) {
+            return (playStartMillis + System.currentTimeMillis() - playWallclock) % duration;
+        }
+        long dts = playing.getPushSource().position();
+        return dts >= 0 ? dts % duration : -1;
     }
 
     @Override
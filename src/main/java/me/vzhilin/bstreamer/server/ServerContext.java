@@ -1,29 +1,69 @@
 package me.vzhilin.bstreamer.server;
 
 import io.netty.channel.EventLoop;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.util.concurrent.DefaultThreadFactory;
 import me.vzhilin.bstreamer.server.conf.Config;
+import me.vzhilin.bstreamer.server.conf.NetworkAttributes;
+import me.vzhilin.bstreamer.server.conf.RuntimeSettings;
+import me.vzhilin.bstreamer.server.conf.SourceConfig;
+import me.vzhilin.bstreamer.server.http.HttpSettings;
+import me.vzhilin.bstreamer.server.http.HttpStreams;
 import me.vzhilin.bstreamer.server.media.impl.PullSourceRegistry;
+import me.vzhilin.bstreamer.server.scheduler.PushSource;
 import me.vzhilin.bstreamer.server.stat.ServerStatistics;
 import me.vzhilin.bstreamer.server.strategy.sync.GroupStreamer;
-import me.vzhilin.bstreamer.util.PropertyMap;
+import me.vzhilin.bstreamer.server.streaming.base.PullSource;
+import me.vzhilin.bstreamer.server.streaming.file.MediaCatalog;
+import me.vzhilin.bstreamer.server.streaming.file.RenditionCache;
+import me.vzhilin.bstreamer.server.streaming.mkv.MatroskaFiles;
+import org.apache.log4j.Logger;
 
-import java.util.HashMap;
+import java.io.File;
+import java.io.IOException;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 public class ServerContext {
+    private static final Logger LOG = Logger.getLogger(ServerContext.class);
+    /** how often idle streams and unused sources are removed, a stream is removed after two idle sweeps */
+    private static final long EVICT_SECONDS = 10;
+
     private final ServerStatistics stat;
     private final Config config;
+    private final RuntimeSettings settings;
+    private final AdmissionControl admission;
     private final PullSourceRegistry pullSourceRegistry;
+    private final ScheduledExecutorService workers;
+    private final HttpStreams httpStreams;
 
-    private final Map<StreamKey, GroupStreamer> streams = new HashMap<>();
+    /** canonical source keys */
+    private final ConcurrentMap<SourceKey, SourceKey> sourceKeys = new ConcurrentHashMap<>();
+    /** streams of every event loop */
+    private final ConcurrentMap<EventLoop, ConcurrentMap<StreamKey, GroupStreamer>> streams = new ConcurrentHashMap<>();
+    private final Map<File, MediaCatalog> catalogs = new ConcurrentHashMap<>();
+    private final MatroskaFiles matroskaFiles = new MatroskaFiles();
+    private RenditionCache renditionCache;
+    private EventLoopGroup relayGroup;
+    private volatile UdpTransport udpTransport;
+    private volatile MulticastTransport multicastTransport;
 
     public ServerContext(Config config) {
         this.config = config;
         this.stat = new ServerStatistics();
-        ScheduledExecutorService workerExecutors = Executors.newScheduledThreadPool(Runtime.getRuntime().availableProcessors());
-        this.pullSourceRegistry = new PullSourceRegistry(this, config.getBufferingLimits(), workerExecutors);
+        this.settings = new RuntimeSettings(config);
+        this.workers = Executors.newScheduledThreadPool(Runtime.getRuntime().availableProcessors());
+        this.admission = new AdmissionControl(stat, settings);
+        workers.scheduleAtFixedRate(admission, 1, 1, TimeUnit.SECONDS);
+        this.pullSourceRegistry = new PullSourceRegistry(this, workers);
+        workers.scheduleAtFixedRate(this::evictIdle, EVICT_SECONDS, EVICT_SECONDS, TimeUnit.SECONDS);
+        this.httpStreams = new HttpStreams(this, new HttpSettings(config.getNetwork().getMap(NetworkAttributes.HTTP)));
     }
 
     public ServerStatistics getStat() {
@@ -34,8 +74,162 @@ public class ServerContext {
         return config;
     }
 
-    public synchronized GroupStreamer getStreamer(EventLoop eventLoop, String url, String clazz, PropertyMap cfg) {
-        return streams.computeIfAbsent(new StreamKey(eventLoop, url, clazz, cfg),
-                sk -> new GroupStreamer(ServerContext.this, sk.eventLoop, pullSourceRegistry.get(sk.sourceKey)));
+    public RuntimeSettings getSettings() {
+        return settings;
+    }
+
+    public AdmissionControl getAdmission() {
+        return admission;
+    }
+
+    /**
+     * @return catalog of the directory, the first call starts the scan in background, see {@link MediaCatalog#isReady()}
+     */
+    public MediaCatalog getMediaCatalog(File dir) {
+        MediaCatalog catalog = catalogs.get(dir.getAbsoluteFile());
+        return catalog != null ? catalog : catalogs.computeIfAbsent(dir.getAbsoluteFile(), d -> {
+            MediaCatalog created = new MediaCatalog(d);
+            created.start();
+            return created;
+        });
+    }
+
+    /**
+     * Stops watching the directories of the catalogs
+     */
+    public void close() {
+        for (MediaCatalog catalog: catalogs.values()) {
+            try {
+                catalog.close();
+            } catch (IOException e) {
+                LOG.warn("unable to close catalog " + catalog.getDir() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    public ScheduledExecutorService getWorkers() {
+        return workers;
+    }
+
+    public MatroskaFiles getMatroskaFiles() {
+        return matroskaFiles;
+    }
+
+    public synchronized RenditionCache getRenditionCache() {
+        if (renditionCache == null) {
+            renditionCache = new RenditionCache(config.getRenditions());
+        }
+        return renditionCache;
+    }
+
+    /**
+     * @return event loop of upstream connections
+     */
+    public synchronized EventLoopGroup getRelayGroup() {
+        if (relayGroup == null) {
+            relayGroup = new NioEventLoopGroup(1, new DefaultThreadFactory("relay", true));
+        }
+        return relayGroup;
+    }
+
+    /**
+     * @return RTP over UDP sockets, null if UDP is not enabled
+     */
+    public UdpTransport getUdpTransport() {
+        return udpTransport;
+    }
+
+    public void setUdpTransport(UdpTransport udpTransport) {
+        this.udpTransport = udpTransport;
+    }
+
+    /**
+     * @return RTP multicast sender, null if multicast is not enabled
+     */
+    public MulticastTransport getMulticastTransport() {
+        return multicastTransport;
+    }
+
+    public void setMulticastTransport(MulticastTransport multicastTransport) {
+        this.multicastTransport = multicastTransport;
+    }
+
+    public HttpStreams getHttpStreams() {
+        return httpStreams;
+    }
+
+    /**
+     * @return canonical key of the source, equal keys are the same instance
+     */
+    public SourceKey sourceKey(String clazz, SourceConfig conf) {
+        SourceKey key = new SourceKey(clazz, conf);
+        SourceKey canonical = sourceKeys.putIfAbsent(key, key);
+        return canonical != null ? canonical : key;
+    }
+
+    /**
+     * @return reader of the source, which shares demuxed packets with the RTSP streams of the same configuration
+     */
+    public PullSource openSharedSource(String clazz, SourceConfig conf) {
+        return pullSourceRegistry.openShared(sourceKey(clazz, conf));
+    }
+
+    /**
+     * @return source, which the caller holds for good
+     */
+    public PushSource getPushSource(String clazz, SourceConfig conf) {
+        return pullSourceRegistry.acquire(sourceKey(clazz, conf));
+    }
+
+    /**
+     * Visits every source opened by a stream, multicast group or prewarming
+     */
+    public void forEachPushSource(Consumer<PushSource> action) {
+        pullSourceRegistry.forEach(action);
+    }
+
+    /**
+     * Visits streams of every event loop
+     */
+    public void forEachStreamer(Consumer<GroupStreamer> action) {
+        streams.values().forEach(shard -> shard.values().forEach(action));
+    }
+
+    /**
+     * Streams are sharded by event loop, so a lookup contends only with the connections of the same loop,
+     * and an existing stream is found without locking.
+     */
+    public GroupStreamer getStreamer(EventLoop eventLoop, String url, SourceKey sourceKey) {
+        ConcurrentMap<StreamKey, GroupStreamer> shard = streams.get(eventLoop);
+        if (shard == null) {
+            shard = streams.computeIfAbsent(eventLoop, loop -> new ConcurrentHashMap<>());
+        }
+        StreamKey key = new StreamKey(url, sourceKey);
+        GroupStreamer streamer = shard.get(key);
+        if (streamer == null) {
+            streamer = shard.computeIfAbsent(key,
+                sk -> new GroupStreamer(ServerContext.this, eventLoop, sk.url, pullSourceRegistry.acquire(sk.sourceKey)));
+        }
+        return streamer;
+    }
+
+    /**
+     * Every start position creates a source and its streams, they are removed when nobody plays them.
+     *
+     * Streams are removed on their event loop, so that they are not removed between the lookup and the attach of
+     * a connection; their sources are removed by the next sweep.
+     */
+    private void evictIdle() {
+        pullSourceRegistry.evictUnused();
+        sourceKeys.keySet().removeIf(key -> !pullSourceRegistry.contains(key));
+        streams.forEach((loop, shard) -> loop.execute(() -> evictIdle(shard)));
+    }
+
+    private void evictIdle(ConcurrentMap<StreamKey, GroupStreamer> shard) {
+        shard.forEach((key, streamer) -> {
+            if (streamer.expireIdle() && shard.remove(key, streamer)) {
+                pullSourceRegistry.release(streamer.getPushSource());
+            }
+        });
     }
 }
@@ -0,0 +1,125 @@
+package me.vzhilin.bstreamer.server;
+
+import me.vzhilin.bstreamer.server.stat.GroupStatistics;
+import me.vzhilin.bstreamer.server.stat.LatencyStatistics;
+import me.vzhilin.bstreamer.server.stat.ServerStatistics;
+import me.vzhilin.bstreamer.util.metrics.DirectMemoryMetrics;
+import me.vzhilin.bstreamer.util.metrics.EventLoopMonitor;
+import me.vzhilin.bstreamer.util.metrics.MetricsWriter;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+
+/**
+ * Metrics of the server: counters and stage latencies of every source and their totals, UDP drops, admission, queues, event loops and direct memory
+ */
+public final class ServerMetrics implements Consumer<MetricsWriter> {
+    static final String PREFIX = "bstreamer";
+    private static final String SOURCE = "source";
+    private static final Family[] FAMILIES = {
+        new Family("connections", MetricsWriter.GAUGE, "connections receiving the source", GroupStatistics::connections),
+        new Family("connections_opened_total", MetricsWriter.COUNTER, "connections opened", GroupStatistics::openedConnections),
+        new Family("connections_closed_total", MetricsWriter.COUNTER, "connections closed", GroupStatistics::closedConnections),
+        new Family("sent_bytes_total", MetricsWriter.COUNTER, "bytes written to connections", GroupStatistics::bytes),
+        new Family("lag_events_total", MetricsWriter.COUNTER, "frames delayed or dropped because connections were not writable", GroupStatistics::lagEvents),
+        new Family("keyframes_total", MetricsWriter.COUNTER, "keyframes sent", GroupStatistics::keyframes),
+        new Family("parameter_set_bytes_total", MetricsWriter.COUNTER, "bytes of in-band SPS/PPS sent with keyframes", GroupStatistics::parameterSetBytes),
+        new Family("rejected_plays_total", MetricsWriter.COUNTER, "PLAY requests refused by admission control", GroupStatistics::rejected)
+    };
+
+    private static final AdmissionControl.Reason[] REASONS = AdmissionControl.Reason.values();
+    private static final LatencyStatistics.Stage[] STAGES = LatencyStatistics.Stage.values();
+    private static final String[] STAGE_NAMES = new String[STAGES.length];
+    private static final String[] STAGE_HELP = new String[STAGES.length];
+    private static final String[] TOTAL_STAGE_NAMES = new String[STAGES.length];
+    private static final String[] TOTAL_STAGE_HELP = new String[STAGES.length];
+
+    static {
+        for (LatencyStatistics.Stage stage: STAGES) {
+            int i = stage.ordinal();
+            STAGE_NAMES[i] = PREFIX + "_source_" + stage.getName() + "_latency_seconds";
+            STAGE_HELP[i] = stage.getHelp();
+            TOTAL_STAGE_NAMES[i] = PREFIX + "_" + stage.getName() + "_latency_seconds";
+            TOTAL_STAGE_HELP[i] = stage.getHelp() + ", all sources";
+        }
+    }
+
+    private final ServerContext context;
+    private final ServerStatistics stat;
+    private final EventLoopMonitor eventLoops;
+    private final DirectMemoryMetrics directMemory = new DirectMemoryMetrics(PREFIX);
+
+    public ServerMetrics(ServerContext context, EventLoopMonitor eventLoops) {
+        this.context = context;
+        this.stat = context.getStat();
+        this.eventLoops = eventLoops;
+    }
+
+    @Override
+    public void accept(MetricsWriter writer) {
+        for (Family family: FAMILIES) {
+            family.write(writer, stat);
+        }
+        for (LatencyStatistics.Stage stage: STAGES) {
+            writeLatency(writer, stage);
+        }
+
+        UdpTransport udp = context.getUdpTransport();
+        if (udp != null) {
+            writer.header("bstreamer_udp_dropped_frames_total", MetricsWriter.COUNTER, "frames dropped because the UDP socket buffer was full");
+            writer.sample("bstreamer_udp_dropped_frames_total", udp.getDroppedFrames());
+        }
+        ScheduledExecutorService workers = context.getWorkers();
+        if (workers instanceof ThreadPoolExecutor) {
+            writer.header("bstreamer_pull_queue_tasks", MetricsWriter.GAUGE, "tasks waiting for the threads reading sources");
+            writer.sample("bstreamer_pull_queue_tasks", ((ThreadPoolExecutor) workers).getQueue().size());
+        }
+        AdmissionControl admission = context.getAdmission();
+        writer.header("bstreamer_admission_rejected_total", MetricsWriter.COUNTER, "PLAY requests refused by admission control by the exceeded limit");
+        for (AdmissionControl.Reason reason: REASONS) {
+            writer.sample("bstreamer_admission_rejected_total", "reason", reason.getName(), admission.rejected(reason));
+        }
+        writer.header("bstreamer_admission_projected_egress_bits", MetricsWriter.GAUGE, "throughput of the connections at the learned bitrates of their sources, bits per second");
+        writer.sample("bstreamer_admission_projected_egress_bits", admission.projectedEgress());
+        eventLoops.write(writer);
+        directMemory.write(writer);
+    }
+
+    private void writeLatency(MetricsWriter writer, LatencyStatistics.Stage stage) {
+        int i = stage.ordinal();
+        writer.header(STAGE_NAMES[i], MetricsWriter.HISTOGRAM, STAGE_HELP[i]);
+        stat.forEach(gs -> writer.histogram(STAGE_NAMES[i], SOURCE, gs.getName(), gs.latency().get(stage).snapshot()));
+        writer.header(TOTAL_STAGE_NAMES[i], MetricsWriter.HISTOGRAM, TOTAL_STAGE_HELP[i]);
+        writer.histogram(TOTAL_STAGE_NAMES[i], null, null, stat.getTotal().latency().get(stage).snapshot());
+    }
+
+    /**
+     * Counter of every source, and of the total as a metric without {@code _source}
+     */
+    private static final class Family {
+        private final String name;
+        private final String totalName;
+        private final String type;
+        private final String help;
+        private final String totalHelp;
+        private final ToLongFunction<GroupStatistics> value;
+
+        private Family(String suffix, String type, String help, ToLongFunction<GroupStatistics> value) {
+            this.name = PREFIX + "_source_" + suffix;
+            this.totalName = PREFIX + "_" + suffix;
+            this.type = type;
+            this.help = help;
+            this.totalHelp = help + ", all sources";
+            this.value = value;
+        }
+
+        private void write(MetricsWriter writer, ServerStatistics stat) {
+            writer.header(name, type, help);
+            stat.forEach(gs -> writer.sample(name, SOURCE, gs.getName(), value.applyAsLong(gs)));
+            writer.header(totalName, type, totalHelp);
+            writer.sample(totalName, value.applyAsLong(stat.getTotal()));
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package me.vzhilin.bstreamer.server;
+
+import me.vzhilin.bstreamer.server.media.FFmpegRuntime;
+import me.vzhilin.bstreamer.server.stat.GroupStatistics;
+import me.vzhilin.bstreamer.server.stat.LatencyStatistics;
+import me.vzhilin.bstreamer.server.stat.ServerStatistics;
+import me.vzhilin.bstreamer.util.metrics.EventLoopMonitor;
+import me.vzhilin.bstreamer.util.metrics.IntervalHistogram;
+import me.vzhilin.bstreamer.util.recording.PeriodicRecorder;
+import me.vzhilin.bstreamer.util.recording.RecordingWriter;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Records counters of the server and of every source with connections, stage latencies and resources every second.
+ * Rows of a source are keyed by its name, so a source which is evicted and opened again continues the same rows;
+ * sources first seen after the table of names is full are only counted in the totals.
+ */
+public final class ServerRecorder extends PeriodicRecorder {
+    private static final Logger LOG = Logger.getLogger(ServerRecorder.class);
+    private static final LatencyStatistics.Stage[] STAGES = LatencyStatistics.Stage.values();
+    private static final String[] FIELDS = {
+        "connections", "connections_opened_total", "connections_closed_total", "sent_bytes_total",
+        "lag_events_total", "keyframes_total", "parameter_set_bytes_total", "rejected_plays_total",
+        "pull_p99_ns", "encode_p99_ns", "schedule_p99_ns", "queue_p99_ns", "flush_p99_ns",
+        "udp_dropped_frames_total", "ffmpeg_contexts"
+    };
+
+    private final ServerContext context;
+    private final ServerStatistics stat;
+    private final IntervalHistogram[] stages = new IntervalHistogram[STAGES.length];
+    /** ids of the names of the sources in the recording, bounded by the table of names */
+    private final Map<String, Integer> ids = new HashMap<>();
+    private boolean namesFull;
+    private final Consumer<GroupStatistics> recordSource = this::recordSource;
+    private long time;
+
+    public ServerRecorder(ServerContext context, EventLoopMonitor eventLoops, File file, long rows) throws IOException {
+        super(file, "server", FIELDS, rows, eventLoops);
+        this.context = context;
+        this.stat = context.getStat();
+        LatencyStatistics latency = stat.getTotal().latency();
+        for (LatencyStatistics.Stage stage: STAGES) {
+            stages[stage.ordinal()] = new IntervalHistogram(latency.get(stage));
+        }
+    }
+
+    @Override
+    protected void record(long timeMillis) {
+        time = timeMillis;
+        GroupStatistics total = stat.getTotal();
+        writer.begin(timeMillis, RecordingWriter.TOTAL);
+        putCounters(total);
+        for (IntervalHistogram stage: stages) {
+            stage.update();
+            writer.put(stage.percentile(0.99));
+        }
+        UdpTransport udp = context.getUdpTransport();
+        writer.put(udp == null ? -1 : udp.getDroppedFrames());
+        writer.put(FFmpegRuntime.openContexts());
+        putTelemetry();
+        writer.end();
+
+        stat.forEach(recordSource);
+    }
+
+    private void recordSource(GroupStatistics gs) {
+        if (gs.connections() == 0) {
+            return;
+        }
+        String name = gs.getName();
+        Integer id = ids.get(name);
+        if (id == null) {
+            if (namesFull) {
+                return;
+            }
+            id = writer.register(name);
+            if (id == RecordingWriter.TOTAL) {
+                namesFull = true;
+                LOG.warn("table of source names is full, new sources are recorded in the totals only");
+                return;
+            }
+            ids.put(name, id);
+        }
+        writer.begin(time, id);
+        putCounters(gs);
+        writer.end();
+    }
+
+    private void putCounters(GroupStatistics gs) {
+        writer.put(gs.connections());
+        writer.put(gs.openedConnections());
+        writer.put(gs.closedConnections());
+        writer.put(gs.bytes());
+        writer.put(gs.lagEvents());
+        writer.put(gs.keyframes());
+        writer.put(gs.parameterSetBytes());
+        writer.put(gs.rejected());
+    }
+}
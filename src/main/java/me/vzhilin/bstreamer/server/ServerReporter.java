@@ -1,23 +1,47 @@
 package me.vzhilin.bstreamer.server;
 
+import me.vzhilin.bstreamer.server.media.FFmpegRuntime;
 import me.vzhilin.bstreamer.server.stat.GroupStatistics;
 import me.vzhilin.bstreamer.server.stat.ServerStatistics;
 import me.vzhilin.bstreamer.util.HumanReadable;
 import me.vzhilin.bstreamer.util.ReporterWriter;
+import me.vzhilin.bstreamer.util.metrics.EventLoopMonitor;
+import me.vzhilin.bstreamer.util.metrics.ProcessTelemetry;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 public class ServerReporter {
+    private static final int GROUP_WIDTH = 24;
+
     private final ScheduledExecutorService exec;
     private Runnable reporter;
     private ScheduledFuture<?> reporterFuture;
 
-    public ServerReporter(ServerStatistics stat, ScheduledExecutorService exec) {
+    /**
+     * @param eventLoops watchdog of the network threads
+     * @param top number of the busiest sources shown in rows of their own
+     */
+    public ServerReporter(ServerStatistics stat, EventLoopMonitor eventLoops, int top, ScheduledExecutorService exec) {
+        this.exec = exec;
+        reporter = new Reporter(stat.getTotal()::snapshot, stat, eventLoops, new ProcessTelemetry(eventLoops), top);
+    }
+
+    /**
+     * Totals only, of a server whose network threads are in other processes
+     *
+     * @param snapshots statistics of the last second
+     */
+    public ServerReporter(Supplier<GroupStatistics.GroupStatisticsSnapshot> snapshots, ScheduledExecutorService exec) {
         this.exec = exec;
-        reporter = new Reporter(stat.getTotal());
+        reporter = new Reporter(snapshots, null, null, null, 0);
     }
 
     public void start() {
@@ -29,17 +53,34 @@ public class ServerReporter {
     }
 
     private final static class Reporter implements Runnable {
-        private final GroupStatistics stat;
+        private final Supplier<GroupStatistics.GroupStatisticsSnapshot> snapshots;
+        private final ServerStatistics stat;
+        private final EventLoopMonitor eventLoops;
+        private final ProcessTelemetry telemetry;
+        private final int top;
         private final ReporterWriter reporterWriter;
 
-        private Reporter(GroupStatistics stat) {
+        private Reporter(Supplier<GroupStatistics.GroupStatisticsSnapshot> snapshots, ServerStatistics stat,
+                         EventLoopMonitor eventLoops, ProcessTelemetry telemetry, int top) {
+            this.snapshots = snapshots;
             this.stat = stat;
+            this.eventLoops = eventLoops;
+            this.telemetry = telemetry;
+            this.top = top;
             this.reporterWriter = new ReporterWriter(
                 new ReporterWriter.Column("time", 8),
-                new ReporterWriter.Column("group", 8),
+                new ReporterWriter.Column("group", GROUP_WIDTH),
                 new ReporterWriter.Column("client connections", 20),
                 new ReporterWriter.Column("lag", 11),
-                new ReporterWriter.Column("throughput", 11)
+                new ReporterWriter.Column("rejected", 11),
+                new ReporterWriter.Column("throughput", 11),
+                new ReporterWriter.Column("ps/gop", 8),
+                new ReporterWriter.Column("loop p99", 9),
+                new ReporterWriter.Column("loop cpu", 9),
+                new ReporterWriter.Column("direct", 10),
+                new ReporterWriter.Column("ffmpeg", 16),
+                new ReporterWriter.Column("gc", 7),
+                new ReporterWriter.Column("alloc", 11)
             );
 
             reporterWriter.writeHeader(System.out);
@@ -47,20 +88,109 @@ public class ServerReporter {
 
         @Override
         public void run() {
-            GroupStatistics.GroupStatisticsSnapshot snap = stat.snapshot();
-            long c = snap.totalConnections;
-            long op = snap.connOpenCounter;
-            long cl = snap.connCloseCOunter;
-            long lagSecond = snap.lagCounter;
-            long lagTotal = snap.totalLagCounter;
-            String sBytes = HumanReadable.humanReadableByteCount(8 * snap.byteCounter, true);
+            GroupStatistics.GroupStatisticsSnapshot snap = snapshots.get();
+            List<Source> sources = sources();
             LocalDateTime now = LocalDateTime.now();
-
             String time = String.format("%02d:%02d:%02d", now.getHour(), now.getMinute(), now.getSecond());
-            String connections = String.format("%d [+%d:-%d]", c, op, cl);
-            String groups = "todo";
-            String lag = String.format("%d [+%d]", lagTotal, lagSecond);
-            reporterWriter.writeLine(System.out, time, groups, connections, lag, sBytes);
+
+            String group;
+            if (sources.size() == 1) {
+                group = shorten(sources.get(0).name);
+            } else if (sources.isEmpty()) {
+                group = "total";
+            } else {
+                group = sources.size() + " sources";
+            }
+            String loopLag = eventLoops == null ? "-" : HumanReadable.millis(eventLoops.intervalLag(0.99));
+            List<String> line = counters(time, group, snap);
+            line.add(loopLag);
+            line.addAll(telemetry());
+            reporterWriter.writeLine(System.out, line.toArray(new String[0]));
+            if (sources.size() <= 1) {
+                return;
+            }
+
+            System.out.println();
+            sources.sort(Comparator.comparingLong((Source s) -> s.snapshot.byteCounter).reversed());
+            int shown = Math.min(top, sources.size());
+            for (Source s: sources.subList(0, shown)) {
+                writeRow(counters("", shorten(s.name), s.snapshot));
+            }
+            if (shown < sources.size()) {
+                writeRow(Arrays.asList("", "... " + (sources.size() - shown) + " more"));
+            }
+            reporterWriter.writeDelimiter(System.out, '-');
+        }
+
+        private void writeRow(List<String> values) {
+            reporterWriter.writeLine(System.out, values.toArray(new String[0]));
+            System.out.println();
+        }
+
+        /**
+         * @return sources with connections or traffic during the last second; every group is snapshot, so that
+         * per-second counters of an idle source do not accumulate
+         */
+        private List<Source> sources() {
+            List<Source> sources = new ArrayList<>();
+            if (stat != null) {
+                stat.forEach(gs -> {
+                    GroupStatistics.GroupStatisticsSnapshot s = gs.snapshot();
+                    if (s.totalConnections > 0 || s.byteCounter > 0 || s.connCloseCOunter > 0) {
+                        sources.add(new Source(gs.getName(), s));
+                    }
+                });
+            }
+            return sources;
+        }
+
+        private static List<String> counters(String time, String group, GroupStatistics.GroupStatisticsSnapshot snap) {
+            List<String> values = new ArrayList<>();
+            values.add(time);
+            values.add(group);
+            values.add(String.format("%d [+%d:-%d]", snap.totalConnections, snap.connOpenCounter, snap.connCloseCOunter));
+            values.add(String.format("%d [+%d]", snap.totalLagCounter, snap.lagCounter));
+            values.add(String.format("%d [+%d]", snap.totalRejected, snap.rejectedCounter));
+            values.add(HumanReadable.humanReadableByteCount(8 * snap.byteCounter, true));
+            values.add(snap.keyframeCounter == 0 ? "-" : snap.parameterSetByteCounter / snap.keyframeCounter + " B");
+            return values;
+        }
+
+        /**
+         * @return CPU of event loops, pooled direct memory, open ffmpeg contexts with native memory, GC and allocation rate
+         */
+        private List<String> telemetry() {
+            List<String> values = new ArrayList<>();
+            if (telemetry == null) {
+                for (int i = 0; i < 5; i++) {
+                    values.add("-");
+                }
+                return values;
+            }
+            ProcessTelemetry.Sample s = telemetry.sample();
+            double seconds = s.elapsedNanos / 1e9;
+            values.add(s.loopCpuMax < 0 ? "-" : s.loopCpuAverage + "/" + s.loopCpuMax + "%");
+            values.add(s.pooledDirectBytes < 0 ? "-" : HumanReadable.humanReadableByteCount(s.pooledDirectBytes, false));
+            values.add(FFmpegRuntime.openContexts() + " / " +
+                (s.nativeBytes < 0 ? "-" : HumanReadable.humanReadableByteCount(s.nativeBytes, false)));
+            values.add(Math.round(s.gcMillis / seconds) + " ms");
+            values.add(s.allocatedBytes < 0 ? "-" :
+                HumanReadable.humanReadableByteCount(Math.round(s.allocatedBytes / seconds), false));
+            return values;
+        }
+
+        private static String shorten(String name) {
+            return name.length() <= GROUP_WIDTH ? name : "..." + name.substring(name.length() - GROUP_WIDTH + 3);
+        }
+    }
+
+    private static final class Source {
+        private final String name;
+        private final GroupStatistics.GroupStatisticsSnapshot snapshot;
+
+        private Source(String name, GroupStatistics.GroupStatisticsSnapshot snapshot) {
+            this.name = name;
+            this.snapshot = snapshot;
         }
     }
 }
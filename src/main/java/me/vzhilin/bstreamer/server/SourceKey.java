@@ -1,16 +1,22 @@
 package me.vzhilin.bstreamer.server;
 
-import me.vzhilin.bstreamer.util.PropertyMap;
-
-import java.util.Objects;
+import me.vzhilin.bstreamer.server.conf.SourceConfig;
 
+/**
+ * Source class and its configuration.
+ *
+ * Keys obtained from {@link ServerContext#sourceKey} are canonical: equal keys are the same instance while
+ * the source exists.
+ */
 public final class SourceKey {
     public final String clazz;
-    public final PropertyMap cfg;
+    public final SourceConfig conf;
+    private final int hash;
 
-    SourceKey(String clazz, PropertyMap cfg) {
+    public SourceKey(String clazz, SourceConfig conf) {
         this.clazz = clazz;
-        this.cfg = cfg;
+        this.conf = conf;
+        this.hash = 31 * clazz.hashCode() + conf.hashCode();
     }
 
     @Override
@@ -18,12 +24,13 @@ public final class SourceKey {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         SourceKey sourceKey = (SourceKey) o;
-        return clazz.equals(sourceKey.clazz) &&
-                cfg.equals(sourceKey.cfg);
+        return hash == sourceKey.hash &&
+                clazz.equals(sourceKey.clazz) &&
+                conf.equals(sourceKey.conf);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(clazz, cfg);
+        return hash;
     }
 }
@@ -0,0 +1,101 @@
+package me.vzhilin.bstreamer.server;
+
+import me.vzhilin.bstreamer.server.conf.Config;
+import me.vzhilin.bstreamer.server.conf.SourceConfig;
+import me.vzhilin.bstreamer.server.conf.StreamingConfig;
+import me.vzhilin.bstreamer.server.scheduler.PushSource;
+import me.vzhilin.bstreamer.server.streaming.Filesystem;
+import me.vzhilin.bstreamer.server.streaming.file.FileSourceAttributes;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Opens sources marked with {@code streaming.*.prewarm} before the server starts accepting connections
+ *
+ * <ul>
+ *     <li>{@code prewarm: true} opens the declared source</li>
+ *     <li>{@code prewarm: all} additionally opens every file in {@code conf.basedir}</li>
+ * </ul>
+ */
+final class SourcePrewarmer {
+    private final static Logger LOG = Logger.getLogger(SourcePrewarmer.class);
+    private final static String PREWARM_ALL = "all";
+
+    private final ServerContext context;
+    private final Config config;
+
+    SourcePrewarmer(ServerContext context) {
+        this.context = context;
+        this.config = context.getConfig();
+    }
+
+    void prewarm() {
+        List<PushSource> sources = new ArrayList<>();
+        for (String name: config.getStreamingNames()) {
+            StreamingConfig streaming = config.getStreamingConfig(name);
+            String mode = streaming.getPrewarm();
+            if (!PREWARM_ALL.equals(mode) && !Boolean.parseBoolean(mode)) {
+                continue;
+            }
+
+            String clazz = streaming.getClazz();
+            SourceConfig conf = streaming.getConf();
+            sources.add(context.getPushSource(clazz, conf));
+            if (PREWARM_ALL.equals(mode)) {
+                for (String file: listFiles(name, conf)) {
+                    sources.add(context.getPushSource(clazz, conf.with(FileSourceAttributes.FILE, file)));
+                }
+            }
+        }
+        if (sources.isEmpty()) {
+            return;
+        }
+
+        long startMillis = System.currentTimeMillis();
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            CompletableFuture<?>[] futures = sources.stream()
+                .distinct()
+                .map(source -> CompletableFuture.runAsync(() -> prewarm(source), executor))
+                .toArray(CompletableFuture[]::new);
+            CompletableFuture.allOf(futures).join();
+            LOG.info("prewarmed " + futures.length + " sources in " + (System.currentTimeMillis() - startMillis) + " ms");
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private void prewarm(PushSource source) {
+        try {
+            source.prewarm();
+        } catch (RuntimeException e) {
+            LOG.warn("unable to prewarm source " + source.getProps() + ": " + e.getMessage());
+        }
+    }
+
+    private List<String> listFiles(String name, SourceConfig conf) {
+        List<String> files = new ArrayList<>();
+        String dirPath = conf.getString(FileSourceAttributes.DIR);
+        if (dirPath == null) {
+            LOG.warn(name + ": 'prewarm: all' requires conf." + FileSourceAttributes.DIR);
+            return files;
+        }
+
+        String declared = conf.getString(FileSourceAttributes.FILE);
+        File[] entries = Filesystem.probeDirectories(dirPath).listFiles();
+        if (entries != null) {
+            for (File f: entries) {
+                if (f.isFile() && !f.isHidden() && !f.getName().equals(declared)) {
+                    files.add(f.getName());
+                }
+            }
+        }
+        return files;
+    }
+}
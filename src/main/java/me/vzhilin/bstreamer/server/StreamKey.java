@@ -1,19 +1,17 @@
 package me.vzhilin.bstreamer.server;
 
-import io.netty.channel.EventLoop;
-import me.vzhilin.bstreamer.util.PropertyMap;
-
-import java.util.Objects;
-
+/**
+ * Stream of an event loop, the event loop itself is the shard of {@link ServerContext#getStreamer}
+ */
 final class StreamKey {
-    public final EventLoop eventLoop;
     public final String url;
     public final SourceKey sourceKey;
+    private final int hash;
 
-    StreamKey(EventLoop eventLoop, String url, String clazz, PropertyMap cfg) {
-        this.eventLoop = eventLoop;
+    StreamKey(String url, SourceKey sourceKey) {
         this.url = url;
-        this.sourceKey = new SourceKey(clazz, cfg);
+        this.sourceKey = sourceKey;
+        this.hash = 31 * url.hashCode() + sourceKey.hashCode();
     }
 
     @Override
@@ -21,13 +19,13 @@ final class StreamKey {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         StreamKey streamKey = (StreamKey) o;
-        return eventLoop.equals(streamKey.eventLoop) &&
+        return hash == streamKey.hash &&
                 url.equals(streamKey.url) &&
                 sourceKey.equals(streamKey.sourceKey);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(eventLoop, url, sourceKey);
+        return hash;
     }
 }
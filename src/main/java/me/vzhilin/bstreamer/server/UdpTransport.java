@@ -0,0 +1,290 @@
+package me.vzhilin.bstreamer.server;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoop;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollDatagramChannel;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.socket.DatagramPacket;
+import io.netty.channel.unix.SegmentedDatagramPacket;
+import io.netty.util.concurrent.EventExecutor;
+import me.vzhilin.bstreamer.server.media.InterleavedFrame;
+import me.vzhilin.bstreamer.util.NettyTransport;
+import org.apache.log4j.Logger;
+
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * RTP over UDP, unicast.
+ *
+ * With epoll there is a datagram socket per event loop, all bound to the same port with SO_REUSEPORT, so a session
+ * sends from the event loop of its RTSP connection. Datagrams written during one event loop task are flushed at once,
+ * which lets epoll transport pass them to a single sendmmsg call. Where the kernel supports UDP GSO, equal-size RTP
+ * packets of a frame are passed as one segmented datagram and split by the kernel; if a segmented write fails, the
+ * socket falls back to a datagram per packet. RTCP port is bound, incoming packets are dropped.
+ */
+public final class UdpTransport {
+    private static final Logger LOG = Logger.getLogger(UdpTransport.class);
+    /** UDP_MAX_SEGMENTS of the kernel */
+    private static final int MAX_SEGMENTS = 64;
+    /** payload of a segmented datagram is limited as of a single one */
+    private static final int MAX_SEGMENTED_BYTES = 65507;
+
+    private final int port;
+    private final int maxRtpSize;
+    private final Map<EventLoop, Socket> sockets = new HashMap<>();
+    private final Socket fallback;
+    /** frames dropped because the socket buffer was full */
+    private final LongAdder droppedFrames = new LongAdder();
+
+    /**
+     * @param sndbuf SO_SNDBUF of every socket and its high watermark, 0 to keep the defaults
+     * @param maxRtpSize limit of RTP packet size of UDP sessions
+     */
+    public UdpTransport(EventLoopGroup group, InetSocketAddress address, int sndbuf, int maxRtpSize) {
+        this.port = address.getPort();
+        this.maxRtpSize = maxRtpSize;
+        InetSocketAddress rtcp = new InetSocketAddress(address.getAddress(), port + 1);
+        if (group instanceof EpollEventLoopGroup) {
+            boolean gso = EpollDatagramChannel.isSegmentedDatagramPacketSupported();
+            for (EventExecutor executor: group) {
+                EventLoop loop = (EventLoop) executor;
+                Bootstrap bootstrap = bootstrap(loop, sndbuf)
+                    .channel(EpollDatagramChannel.class)
+                    .option(EpollChannelOption.SO_REUSEPORT, true);
+                sockets.put(loop, new Socket(bootstrap.bind(address).syncUninterruptibly().channel(), gso));
+                bootstrap.bind(rtcp).syncUninterruptibly();
+            }
+            fallback = sockets.values().iterator().next();
+        } else {
+            Bootstrap bootstrap = bootstrap(group.next(), sndbuf).channel(NettyTransport.datagramChannel(group));
+            fallback = new Socket(bootstrap.bind(address).syncUninterruptibly().channel(), false);
+            bootstrap.bind(rtcp).syncUninterruptibly();
+        }
+    }
+
+    /**
+     * @return bootstrap of a sending socket, without channel type
+     */
+    static Bootstrap bootstrap(EventLoopGroup loop, int sndbuf) {
+        Bootstrap bootstrap = new Bootstrap()
+            .group(loop)
+            .handler(new Discard());
+        if (sndbuf > 0) {
+            bootstrap.option(ChannelOption.SO_SNDBUF, sndbuf);
+            bootstrap.option(ChannelOption.WRITE_BUFFER_WATER_MARK, new WriteBufferWaterMark(sndbuf / 2, sndbuf));
+        }
+        return bootstrap;
+    }
+
+    /**
+     * @return server RTP port, RTCP port follows it
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * @return RTP packet size limit, so that datagrams are not fragmented
+     */
+    public int getMaxRtpSize() {
+        return maxRtpSize;
+    }
+
+    /**
+     * @param control RTSP connection of the session
+     * @param clientAddress RTP address of the client
+     */
+    public Target target(Channel control, InetSocketAddress clientAddress) {
+        Socket socket = sockets.getOrDefault(control.eventLoop(), fallback);
+        return new Target(socket, clientAddress, droppedFrames);
+    }
+
+    public long getDroppedFrames() {
+        return droppedFrames.sum();
+    }
+
+    /**
+     * Writes every RTP packet of the frame as a datagram, packets are slices of the frame buffer
+     */
+    static void write(Channel channel, InterleavedFrame frame, InetSocketAddress address) {
+        ByteBuf buffer = frame.getPayload();
+        int offset = buffer.readerIndex();
+        int end = buffer.writerIndex();
+        while (offset + 4 <= end) {
+            int size = buffer.getUnsignedShort(offset + 2);
+            if (buffer.getByte(offset + 1) == 0) {
+                channel.write(new DatagramPacket(buffer.retainedSlice(offset + 4, size), address), channel.voidPromise());
+            }
+            offset += 4 + size;
+        }
+    }
+
+    /**
+     * Writes runs of equal-size RTP packets of the frame as segmented datagrams, the last packet of a run may be
+     * shorter; a packet without a run is written as a datagram
+     *
+     * @param onFailure listener of segmented writes
+     */
+    static void writeSegmented(Channel channel, InterleavedFrame frame, InetSocketAddress address,
+                               ChannelFutureListener onFailure) {
+        ByteBuf buffer = frame.getPayload();
+        int offset = buffer.readerIndex();
+        int end = buffer.writerIndex();
+        Run run = new Run(channel, address, onFailure);
+        while (offset + 4 <= end) {
+            int size = buffer.getUnsignedShort(offset + 2);
+            if (buffer.getByte(offset + 1) == 0) {
+                run.add(buffer.retainedSlice(offset + 4, size));
+            }
+            offset += 4 + size;
+        }
+        run.write();
+    }
+
+    /**
+     * Packets which are sent as one segmented datagram
+     */
+    private static final class Run {
+        private final Channel channel;
+        private final InetSocketAddress address;
+        private final ChannelFutureListener onFailure;
+        private ByteBuf first;
+        private CompositeByteBuf segments;
+        private int segmentSize;
+        private int maxSegments;
+
+        private Run(Channel channel, InetSocketAddress address, ChannelFutureListener onFailure) {
+            this.channel = channel;
+            this.address = address;
+            this.onFailure = onFailure;
+        }
+
+        private void add(ByteBuf packet) {
+            int size = packet.readableBytes();
+            if (first != null && (size > segmentSize || count() == maxSegments)) {
+                write();
+            }
+            if (first == null) {
+                first = packet;
+                segmentSize = size;
+                maxSegments = Math.min(MAX_SEGMENTS, MAX_SEGMENTED_BYTES / Math.max(size, 1));
+                return;
+            }
+            if (segments == null) {
+                segments = channel.alloc().compositeDirectBuffer(maxSegments);
+                segments.addComponent(true, first);
+            }
+            segments.addComponent(true, packet);
+            if (size < segmentSize) {
+                write();
+            }
+        }
+
+        private int count() {
+            return segments != null ? segments.numComponents() : 1;
+        }
+
+        private void write() {
+            if (segments != null) {
+                channel.write(new SegmentedDatagramPacket(segments, segmentSize, address)).addListener(onFailure);
+            } else
+            if (first != null) {
+                channel.write(new DatagramPacket(first, address), channel.voidPromise());
+            }
+            first = null;
+            segments = null;
+        }
+    }
+
+    /**
+     * Destination of a session
+     */
+    public static final class Target {
+        private final Socket socket;
+        private final InetSocketAddress address;
+        private final LongAdder droppedFrames;
+
+        private Target(Socket socket, InetSocketAddress address, LongAdder droppedFrames) {
+            this.socket = socket;
+            this.address = address;
+            this.droppedFrames = droppedFrames;
+        }
+
+        /**
+         * Sends RTP packets of the frame, the frame is dropped if the socket buffer is full,
+         * client sees it as a packet loss.
+         */
+        public void send(InterleavedFrame frame) {
+            Channel channel = socket.channel;
+            if (!channel.isWritable()) {
+                droppedFrames.increment();
+                return;
+            }
+            if (socket.gso) {
+                writeSegmented(channel, frame, address, socket.onGsoFailure);
+            } else {
+                write(channel, frame, address);
+            }
+            socket.scheduleFlush();
+        }
+
+        public InetSocketAddress getAddress() {
+            return address;
+        }
+    }
+
+    private static final class Socket {
+        private final Channel channel;
+        private final AtomicBoolean flushScheduled = new AtomicBoolean();
+        private final Runnable flush;
+        private final ChannelFutureListener onGsoFailure;
+        /** segmented datagrams are accepted, cleared by the first failed segmented write */
+        private volatile boolean gso;
+
+        private Socket(Channel channel, boolean gso) {
+            this.channel = channel;
+            this.gso = gso;
+            this.flush = () -> {
+                flushScheduled.set(false);
+                channel.flush();
+            };
+            this.onGsoFailure = future -> {
+                if (!future.isSuccess() && this.gso) {
+                    this.gso = false;
+                    LOG.warn("UDP GSO is not supported by " + channel.localAddress()
+                        + ", sending a datagram per packet: " + future.cause());
+                }
+            };
+        }
+
+        /**
+         * Flushes after the current task, so that datagrams of all sessions are sent together
+         */
+        private void scheduleFlush() {
+            if (flushScheduled.compareAndSet(false, true)) {
+                channel.eventLoop().execute(flush);
+            }
+        }
+    }
+
+    @ChannelHandler.Sharable
+    private static final class Discard extends SimpleChannelInboundHandler<DatagramPacket> {
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, DatagramPacket msg) { }
+    }
+}
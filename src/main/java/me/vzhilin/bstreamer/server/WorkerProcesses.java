@@ -0,0 +1,150 @@
+package me.vzhilin.bstreamer.server;
+
+import me.vzhilin.bstreamer.server.stat.GroupStatistics.GroupStatisticsSnapshot;
+import org.apache.log4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Launcher of several server processes sharing the listening ports with SO_REUSEPORT.
+ *
+ * Every worker has its own heap, event loops and ffmpeg state. Workers print statistics of the last second
+ * to stdout, prefixed with {@link #STAT_PREFIX}; the launcher reports their sum. Other output of a worker is
+ * forwarded to stderr of the launcher.
+ */
+public final class WorkerProcesses {
+    private static final Logger LOG = Logger.getLogger(WorkerProcesses.class);
+    public static final String WORKER_OPTION = "--worker";
+    private static final String STAT_PREFIX = "STAT ";
+
+    private final List<String> workerArgs;
+    private final int processes;
+    private final List<Process> workers = new ArrayList<>();
+    private final AtomicReferenceArray<GroupStatisticsSnapshot> lastStats;
+    /** last reported statistics of every worker, used by reporter only */
+    private final GroupStatisticsSnapshot[] previousStats;
+
+    /**
+     * @param processes number of workers
+     * @param workerArgs command line arguments of a worker, without {@link #WORKER_OPTION}
+     */
+    public WorkerProcesses(int processes, List<String> workerArgs) {
+        this.processes = processes;
+        this.workerArgs = workerArgs;
+        this.lastStats = new AtomicReferenceArray<>(processes);
+        this.previousStats = new GroupStatisticsSnapshot[processes];
+    }
+
+    public void start() throws IOException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        List<String> command = new ArrayList<>();
+        command.add(java);
+        command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add("me.vzhilin.bstreamer.ServerCLI");
+        command.addAll(workerArgs);
+        command.add(WORKER_OPTION);
+
+        for (int i = 0; i < processes; i++) {
+            Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+            workers.add(process);
+            int index = i;
+            Thread reader = new Thread(() -> read(index, process), "worker-" + i);
+            reader.setDaemon(true);
+            reader.start();
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> workers.forEach(Process::destroy)));
+        LOG.info("started " + processes + " server processes");
+
+        ScheduledExecutorService exec = Executors.newSingleThreadScheduledExecutor();
+        new ServerReporter(this::collect, exec).start();
+    }
+
+    /**
+     * @return sum of the last statistics of the workers; per-second counters are counted once, a worker which
+     * has not reported yet keeps its totals
+     */
+    private GroupStatisticsSnapshot collect() {
+        GroupStatisticsSnapshot sum = new GroupStatisticsSnapshot(new long[11]);
+        for (int i = 0; i < processes; i++) {
+            GroupStatisticsSnapshot s = lastStats.getAndSet(i, null);
+            GroupStatisticsSnapshot p = previousStats[i];
+            if (s != null) {
+                previousStats[i] = s;
+                sum = sum.plus(s);
+            } else
+            if (p != null) {
+                sum = sum.plus(new GroupStatisticsSnapshot(p.totalConnections, p.totalBytes, p.totalLagCounter,
+                    0, 0, 0, 0, 0, 0, p.totalRejected, 0));
+            }
+        }
+        return sum;
+    }
+
+    private void read(int index, Process process) {
+        try (BufferedReader reader =
+                 new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(STAT_PREFIX)) {
+                    lastStats.accumulateAndGet(index, parse(line.substring(STAT_PREFIX.length())), WorkerProcesses::merge);
+                } else {
+                    System.err.println("[" + index + "] " + line);
+                }
+            }
+        } catch (IOException e) {
+            LOG.warn("worker " + index + ": " + e.getMessage());
+        }
+        try {
+            LOG.warn("worker " + index + " exited with code " + process.waitFor());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Prints statistics for the launcher, called by a worker once a second
+     */
+    public static void report(PrintStream out, GroupStatisticsSnapshot snapshot) {
+        StringBuilder sb = new StringBuilder(STAT_PREFIX);
+        for (long v: snapshot.toArray()) {
+            sb.append(v).append(' ');
+        }
+        out.println(sb.toString().trim());
+    }
+
+    /**
+     * @return totals of the newer snapshot and per-second counters of both, when the reporter is late
+     */
+    private static GroupStatisticsSnapshot merge(GroupStatisticsSnapshot older, GroupStatisticsSnapshot newer) {
+        if (older == null) {
+            return newer;
+        }
+        return new GroupStatisticsSnapshot(newer.totalConnections, newer.totalBytes, newer.totalLagCounter,
+            older.lagCounter + newer.lagCounter, older.byteCounter + newer.byteCounter,
+            older.connOpenCounter + newer.connOpenCounter, older.connCloseCOunter + newer.connCloseCOunter,
+            older.keyframeCounter + newer.keyframeCounter, older.parameterSetByteCounter + newer.parameterSetByteCounter,
+            newer.totalRejected, older.rejectedCounter + newer.rejectedCounter);
+    }
+
+    private static GroupStatisticsSnapshot parse(String line) {
+        String[] items = line.split(" ");
+        long[] values = new long[items.length];
+        for (int i = 0; i < items.length; i++) {
+            values[i] = Long.parseLong(items[i]);
+        }
+        return new GroupStatisticsSnapshot(values);
+    }
+}
@@ -0,0 +1,383 @@
+package me.vzhilin.bstreamer.server.admin;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.QueryStringDecoder;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.Future;
+import me.vzhilin.bstreamer.server.AdmissionControl;
+import me.vzhilin.bstreamer.server.ServerContext;
+import me.vzhilin.bstreamer.server.conf.AdmissionLimits;
+import me.vzhilin.bstreamer.server.conf.RuntimeSettings;
+import me.vzhilin.bstreamer.server.scheduler.BufferingLimits;
+import me.vzhilin.bstreamer.server.scheduler.PushSource;
+import me.vzhilin.bstreamer.server.stat.GroupStatistics;
+import me.vzhilin.bstreamer.server.strategy.sync.GroupStreamer;
+import me.vzhilin.bstreamer.server.strategy.sync.StreamState;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Local HTTP/JSON API to inspect sources and streams, drop connections and change {@link RuntimeSettings}.
+ *
+ * <pre>
+ * GET    /sources                sources with their subscribers and counters
+ * GET    /streams[?source=ID]    streams of every event loop: writability, delayed frame, connections
+ * GET    /settings               batch limits, watermarks, source linger and admission limits
+ * PUT    /settings               changes the settings present in the body, e.g. {"limits": {"time": 500}}
+ * GET    /admission              projected egress, direct memory and refused sessions by the exceeded limit
+ * DELETE /connections/ID         closes a streaming connection
+ * DELETE /sources/ID             closes every connection receiving the source
+ * </pre>
+ * The API has no authentication and should be bound to a local address. State of a stream is taken on its event
+ * loop; the listener has its own thread.
+ */
+public final class AdminHttpServer {
+    private static final Logger LOG = Logger.getLogger(AdminHttpServer.class);
+    private static final String CONTENT_TYPE = "application/json; charset=utf-8";
+
+    private final ServerContext context;
+    private final ObjectMapper mapper = new ObjectMapper().setPropertyNamingStrategy(PropertyNamingStrategies.SNAKE_CASE);
+    private final EventLoopGroup group = new NioEventLoopGroup(1, new DefaultThreadFactory("admin", true));
+    private Channel channel;
+
+    public AdminHttpServer(ServerContext context) {
+        this.context = context;
+    }
+
+    /**
+     * @param bind host:port of the listener
+     */
+    public void start(String bind) {
+        int colonPos = bind.lastIndexOf(':');
+        InetSocketAddress address = new InetSocketAddress(bind.substring(0, colonPos), Integer.parseInt(bind.substring(colonPos + 1)));
+        channel = new ServerBootstrap()
+            .group(group)
+            .channel(NioServerSocketChannel.class)
+            .childHandler(new ChannelInitializer<SocketChannel>() {
+                @Override
+                protected void initChannel(SocketChannel ch) {
+                    ChannelPipeline pipeline = ch.pipeline();
+                    pipeline.addLast("http_codec", new HttpServerCodec());
+                    pipeline.addLast("http_aggregator", new HttpObjectAggregator(64 * 1024));
+                    pipeline.addLast(new AdminHandler());
+                }
+            })
+            .bind(address).syncUninterruptibly().channel();
+        LOG.info("admin API is served at http://" + bind);
+    }
+
+    public void stop() {
+        if (channel != null) {
+            channel.close().syncUninterruptibly();
+        }
+        group.shutdownGracefully();
+    }
+
+    private List<Map<String, Object>> sources() {
+        List<PushSource> sources = new ArrayList<>();
+        context.forEachPushSource(sources::add);
+        sources.sort(Comparator.comparingInt(PushSource::getId));
+        List<Map<String, Object>> json = new ArrayList<>();
+        for (PushSource source: sources) {
+            GroupStatistics stat = source.getStat();
+            Map<String, Object> s = new LinkedHashMap<>();
+            s.put("id", source.getId());
+            s.put("name", stat.getName());
+            s.put("subscribers", source.getSubscribers());
+            s.put("connections", stat.connections());
+            s.put("sent_bytes", stat.bytes());
+            s.put("lag_events", stat.lagEvents());
+            s.put("rejected_plays", stat.rejected());
+            json.add(s);
+        }
+        return json;
+    }
+
+    private Map<String, Object> settings() {
+        RuntimeSettings settings = context.getSettings();
+        BufferingLimits limits = settings.getLimits();
+        Map<String, Object> json = new LinkedHashMap<>();
+        Map<String, Object> l = new LinkedHashMap<>();
+        l.put("size", limits.getBytes());
+        l.put("packets", limits.getPackets());
+        l.put("time", limits.getTimeMillis());
+        json.put("limits", l);
+        WriteBufferWaterMark watermarks = settings.getWatermarks();
+        if (watermarks != null) {
+            Map<String, Object> w = new LinkedHashMap<>();
+            w.put("low", watermarks.low());
+            w.put("high", watermarks.high());
+            json.put("watermarks", w);
+        } else {
+            json.put("watermarks", null);
+        }
+        json.put("source_linger", settings.getSourceLingerMillis());
+        AdmissionLimits admission = settings.getAdmission();
+        Map<String, Object> a = new LinkedHashMap<>();
+        a.put(AdmissionLimits.EGRESS, admission.getEgressBitsPerSecond() / 1e9);
+        a.put(AdmissionLimits.DIRECT_MEMORY, admission.getDirectMemoryBytes() / (1024 * 1024));
+        a.put(AdmissionLimits.CONNECTIONS, admission.getConnections());
+        a.put(AdmissionLimits.SOURCE_CONNECTIONS, admission.getSourceConnections());
+        json.put("admission", a);
+        return json;
+    }
+
+    private Map<String, Object> admission() {
+        AdmissionControl admission = context.getAdmission();
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("projected_egress_bits", admission.projectedEgress());
+        json.put("direct_memory_bytes", AdmissionControl.usedDirectMemory());
+        json.put("connections", context.getStat().getTotal().connections());
+        Map<String, Object> rejected = new LinkedHashMap<>();
+        for (AdmissionControl.Reason reason: AdmissionControl.Reason.values()) {
+            rejected.put(reason.getName(), admission.rejected(reason));
+        }
+        json.put("rejected", rejected);
+        return json;
+    }
+
+    /**
+     * Applies every setting of the body after all of them are validated
+     */
+    private void updateSettings(JsonNode body) {
+        RuntimeSettings settings = context.getSettings();
+        BufferingLimits limits = null;
+        WriteBufferWaterMark watermarks = null;
+        long linger = -1;
+        AdmissionLimits admission = null;
+        JsonNode l = body.get("limits");
+        if (l != null) {
+            BufferingLimits current = settings.getLimits();
+            long size = l.path("size").asLong(current.getBytes());
+            int packets = l.path("packets").asInt(current.getPackets());
+            long time = l.path("time").asLong(current.getTimeMillis());
+            if (size < 0 || packets < 0 || time <= 0) {
+                throw new IllegalArgumentException("limits: size and packets must not be negative, time must be positive");
+            }
+            limits = new BufferingLimits(size, packets, time);
+        }
+        JsonNode w = body.get("watermarks");
+        if (w != null) {
+            WriteBufferWaterMark current = settings.getWatermarks();
+            int low = w.path("low").asInt(current != null ? current.low() : WriteBufferWaterMark.DEFAULT.low());
+            int high = w.path("high").asInt(current != null ? current.high() : WriteBufferWaterMark.DEFAULT.high());
+            watermarks = new WriteBufferWaterMark(low, high);
+        }
+        JsonNode sourceLinger = body.get("source_linger");
+        if (sourceLinger != null) {
+            linger = sourceLinger.asLong(-1);
+            if (linger < 0) {
+                throw new IllegalArgumentException("source_linger must not be negative");
+            }
+        }
+
+        JsonNode a = body.get("admission");
+        if (a != null) {
+            AdmissionLimits current = settings.getAdmission();
+            double egress = a.path(AdmissionLimits.EGRESS).asDouble(current.getEgressBitsPerSecond() / 1e9);
+            long directMemory = a.path(AdmissionLimits.DIRECT_MEMORY).asLong(current.getDirectMemoryBytes() / (1024 * 1024));
+            int connections = a.path(AdmissionLimits.CONNECTIONS).asInt(current.getConnections());
+            int sourceConnections = a.path(AdmissionLimits.SOURCE_CONNECTIONS).asInt(current.getSourceConnections());
+            if (egress < 0 || directMemory < 0 || connections < 0 || sourceConnections < 0) {
+                throw new IllegalArgumentException("admission limits must not be negative");
+            }
+            admission = new AdmissionLimits(Math.round(egress * 1e9), directMemory * 1024 * 1024, connections, sourceConnections);
+        }
+
+        if (limits != null) {
+            settings.setLimits(limits);
+        }
+        if (watermarks != null) {
+            settings.setWatermarks(watermarks);
+            WriteBufferWaterMark applied = watermarks;
+            context.forEachStreamer(streamer -> streamer.applyWatermarks(applied));
+        }
+        if (linger >= 0) {
+            settings.setSourceLingerMillis(linger);
+        }
+        if (admission != null) {
+            settings.setAdmission(admission);
+        }
+        LOG.info("settings are changed: " + body);
+    }
+
+    /**
+     * Calls the action with the results of the futures which succeeded, once all of them are done
+     */
+    private static <T> void whenAll(List<Future<T>> futures, Consumer<List<T>> action) {
+        if (futures.isEmpty()) {
+            action.accept(new ArrayList<>());
+            return;
+        }
+        AtomicInteger pending = new AtomicInteger(futures.size());
+        for (Future<T> future: futures) {
+            future.addListener(f -> {
+                if (pending.decrementAndGet() == 0) {
+                    List<T> results = new ArrayList<>(futures.size());
+                    for (Future<T> done: futures) {
+                        if (done.isSuccess()) {
+                            results.add(done.getNow());
+                        }
+                    }
+                    action.accept(results);
+                }
+            });
+        }
+    }
+
+    private final class AdminHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, FullHttpRequest request) throws IOException {
+            boolean keepAlive = HttpUtil.isKeepAlive(request);
+            QueryStringDecoder decoder = new QueryStringDecoder(request.uri());
+            String[] path = decoder.path().replaceAll("^/+|/+$", "").split("/");
+            HttpMethod method = request.method();
+            try {
+                if (path.length == 1 && "sources".equals(path[0]) && method == HttpMethod.GET) {
+                    respond(ctx, keepAlive, HttpResponseStatus.OK, sources());
+                } else
+                if (path.length == 1 && "streams".equals(path[0]) && method == HttpMethod.GET) {
+                    List<String> source = decoder.parameters().get("source");
+                    streams(ctx, keepAlive, source == null ? -1 : Integer.parseInt(source.get(0)));
+                } else
+                if (path.length == 1 && "settings".equals(path[0]) && method == HttpMethod.GET) {
+                    respond(ctx, keepAlive, HttpResponseStatus.OK, settings());
+                } else
+                if (path.length == 1 && "settings".equals(path[0]) && (method == HttpMethod.PUT || method == HttpMethod.POST)) {
+                    updateSettings(mapper.readTree(new ByteBufInputStream(request.content())));
+                    respond(ctx, keepAlive, HttpResponseStatus.OK, settings());
+                } else
+                if (path.length == 1 && "admission".equals(path[0]) && method == HttpMethod.GET) {
+                    respond(ctx, keepAlive, HttpResponseStatus.OK, admission());
+                } else
+                if (path.length == 2 && "connections".equals(path[0]) && method == HttpMethod.DELETE) {
+                    dropConnection(ctx, keepAlive, path[1]);
+                } else
+                if (path.length == 2 && "sources".equals(path[0]) && method == HttpMethod.DELETE) {
+                    dropSource(ctx, keepAlive, Integer.parseInt(path[1]));
+                } else {
+                    respond(ctx, keepAlive, HttpResponseStatus.NOT_FOUND, error("no such resource: " + method + " " + decoder.path()));
+                }
+            } catch (IllegalArgumentException | IOException e) {
+                respond(ctx, keepAlive, HttpResponseStatus.BAD_REQUEST, error(e.getMessage()));
+            }
+        }
+
+        private void streams(ChannelHandlerContext ctx, boolean keepAlive, int source) {
+            List<Future<StreamState>> states = new ArrayList<>();
+            context.forEachStreamer(streamer -> {
+                if (source < 0 || streamer.getPushSource().getId() == source) {
+                    states.add(streamer.state());
+                }
+            });
+            whenAll(states, list -> ctx.executor().execute(() -> {
+                list.removeIf(state -> state.connections.isEmpty() && source < 0);
+                respond(ctx, keepAlive, HttpResponseStatus.OK, list);
+            }));
+        }
+
+        private void dropConnection(ChannelHandlerContext ctx, boolean keepAlive, String id) {
+            List<Future<Boolean>> closed = new ArrayList<>();
+            context.forEachStreamer(streamer -> closed.add(streamer.close(id)));
+            whenAll(closed, list -> ctx.executor().execute(() -> {
+                if (list.contains(Boolean.TRUE)) {
+                    respond(ctx, keepAlive, HttpResponseStatus.NO_CONTENT, null);
+                } else {
+                    respond(ctx, keepAlive, HttpResponseStatus.NOT_FOUND, error("no such connection: " + id));
+                }
+            }));
+        }
+
+        private void dropSource(ChannelHandlerContext ctx, boolean keepAlive, int id) {
+            boolean[] exists = new boolean[1];
+            context.forEachPushSource(source -> exists[0] |= source.getId() == id);
+            if (!exists[0]) {
+                respond(ctx, keepAlive, HttpResponseStatus.NOT_FOUND, error("no such source: " + id));
+                return;
+            }
+            List<Future<Integer>> closed = new ArrayList<>();
+            context.forEachStreamer(streamer -> {
+                if (streamer.getPushSource().getId() == id) {
+                    closed.add(streamer.closeAll());
+                }
+            });
+            whenAll(closed, list -> ctx.executor().execute(() -> {
+                Map<String, Object> json = new LinkedHashMap<>();
+                json.put("closed", list.stream().mapToInt(Integer::intValue).sum());
+                respond(ctx, keepAlive, HttpResponseStatus.OK, json);
+            }));
+        }
+
+        private Map<String, Object> error(String message) {
+            Map<String, Object> json = new LinkedHashMap<>();
+            json.put("error", message);
+            return json;
+        }
+
+        /**
+         * @param body serialized to JSON, null for no content
+         */
+        private void respond(ChannelHandlerContext ctx, boolean keepAlive, HttpResponseStatus status, Object body) {
+            FullHttpResponse response;
+            try {
+                response = body == null ? new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, status) :
+                    new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, status, Unpooled.wrappedBuffer(mapper.writeValueAsBytes(body)));
+            } catch (IOException e) {
+                LOG.error("unable to serialize a response", e);
+                response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.INTERNAL_SERVER_ERROR);
+            }
+            if (body != null) {
+                response.headers().set(HttpHeaderNames.CONTENT_TYPE, CONTENT_TYPE);
+            }
+            HttpUtil.setContentLength(response, response.content().readableBytes());
+            if (keepAlive) {
+                response.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.KEEP_ALIVE);
+                ctx.writeAndFlush(response);
+            } else {
+                ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+            }
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            LOG.error("admin request failed", cause);
+            ctx.close();
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package me.vzhilin.bstreamer.server.conf;
+
+import me.vzhilin.bstreamer.util.PropertyMap;
+
+/**
+ * Limits of admission control, zero disables a limit
+ */
+public final class AdmissionLimits {
+    public static final String EGRESS = "egress";
+    public static final String DIRECT_MEMORY = "direct_memory";
+    public static final String CONNECTIONS = "connections";
+    public static final String SOURCE_CONNECTIONS = "source_connections";
+
+    private final long egressBitsPerSecond;
+    private final long directMemoryBytes;
+    private final int connections;
+    private final int sourceConnections;
+
+    /**
+     * @param egressBitsPerSecond projected throughput of all connections
+     * @param directMemoryBytes direct memory above which new sessions are refused
+     * @param connections streaming connections of the server
+     * @param sourceConnections streaming connections of a source
+     */
+    public AdmissionLimits(long egressBitsPerSecond, long directMemoryBytes, int connections, int sourceConnections) {
+        this.egressBitsPerSecond = egressBitsPerSecond;
+        this.directMemoryBytes = directMemoryBytes;
+        this.connections = connections;
+        this.sourceConnections = sourceConnections;
+    }
+
+    /**
+     * @param admission {@code egress} in Gbit/s, {@code direct_memory} in megabytes, {@code connections} and
+     *                  {@code source_connections}; null if there are no limits
+     */
+    public static AdmissionLimits of(PropertyMap admission) {
+        if (admission == null) {
+            return new AdmissionLimits(0, 0, 0, 0);
+        }
+        long egress = Math.round(Double.parseDouble(admission.getString(EGRESS, "0")) * 1e9);
+        long directMemory = admission.getInt(DIRECT_MEMORY, 0) * 1024L * 1024L;
+        return new AdmissionLimits(egress, directMemory,
+            admission.getInt(CONNECTIONS, 0), admission.getInt(SOURCE_CONNECTIONS, 0));
+    }
+
+    public long getEgressBitsPerSecond() {
+        return egressBitsPerSecond;
+    }
+
+    public long getDirectMemoryBytes() {
+        return directMemoryBytes;
+    }
+
+    public int getConnections() {
+        return connections;
+    }
+
+    public int getSourceConnections() {
+        return sourceConnections;
+    }
+}
@@ -3,20 +3,45 @@ package me.vzhilin.bstreamer.server.conf;
 import me.vzhilin.bstreamer.server.scheduler.BufferingLimits;
 import me.vzhilin.bstreamer.util.PropertyMap;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 public class Config {
     private final PropertyMap properties;
+    private final Map<String, StreamingConfig> streaming = new LinkedHashMap<>();
 
     public Config(PropertyMap properties) {
         this.properties = properties;
+        PropertyMap entries = properties.getMap("streaming");
+        if (entries != null) {
+            for (Map.Entry<String, Object> e: entries.entries()) {
+                streaming.put(e.getKey(), new StreamingConfig(e.getKey(), (PropertyMap) e.getValue()));
+            }
+        }
     }
 
     public PropertyMap getNetwork() {
         return properties.getMap("network");
     }
 
-    public PropertyMap getStreamingConfig(String configName) {
-        PropertyMap props = properties.getMap("streaming").getMap(configName);
-        return new PropertyMap(props);
+    /**
+     * @return compiled streaming entry, or null if it is not configured
+     */
+    public StreamingConfig getStreamingConfig(String configName) {
+        return streaming.get(configName);
+    }
+
+    public List<String> getStreamingNames() {
+        return new ArrayList<>(streaming.keySet());
+    }
+
+    /**
+     * @return rendition cache settings, or null
+     */
+    public PropertyMap getRenditions() {
+        return properties.getMap("renditions");
     }
 
     public BufferingLimits getBufferingLimits() {
@@ -3,6 +3,30 @@ package me.vzhilin.bstreamer.server.conf;
 public class NetworkAttributes {
     public static final String BIND            = "bind";
     public static final String SNDBUF          = "sndbuf";
+    /** number of listening sockets per bind address, more than one enables SO_REUSEPORT */
+    public static final String ACCEPTORS       = "acceptors";
+    /** SO_REUSEPORT on listening sockets, so that several server processes share the port */
+    public static final String REUSEPORT       = "reuseport";
+    /** netty transport, see {@link me.vzhilin.bstreamer.util.NettyTransport} */
+    public static final String TRANSPORT       = "transport";
     public static final String WATERMARKS_LOW  = "watermarks.low";
     public static final String WATERMARKS_HIGH = "watermarks.high";
+    /** time, ms, a source without a start position stays open after its last subscriber has left */
+    public static final String SOURCE_LINGER   = "source_linger";
+    /** limits of new sessions, see {@link AdmissionLimits} */
+    public static final String ADMISSION       = "admission";
+    /** settings of the HTTP listener, see {@link me.vzhilin.bstreamer.server.http.HttpSettings} */
+    public static final String HTTP            = "http";
+    /** settings of RTP over UDP: {@code bind}, {@code sndbuf} and {@code max_rtp_size} */
+    public static final String UDP             = "udp";
+    /** settings of RTP multicast: {@code group}, {@code port}, {@code ttl}, {@code interface}, {@code sndbuf} and {@code max_rtp_size} */
+    public static final String MULTICAST       = "multicast";
+    /** delay of an event loop probe, ms, after which the loop is reported as stalled */
+    public static final String STALL_THRESHOLD = "stall_threshold";
+    /** settings of the Prometheus endpoint: {@code bind} */
+    public static final String METRICS         = "metrics";
+    /** settings of the recording of per-second statistics: {@code file} and {@code rows} */
+    public static final String RECORDING       = "recording";
+    /** settings of the admin API: {@code bind} */
+    public static final String ADMIN           = "admin";
 }
@@ -0,0 +1,64 @@
+package me.vzhilin.bstreamer.server.conf;
+
+import io.netty.channel.WriteBufferWaterMark;
+import me.vzhilin.bstreamer.server.scheduler.BufferingLimits;
+import me.vzhilin.bstreamer.util.PropertyMap;
+
+/**
+ * Settings which can be changed while the server runs, e.g. by the admin API.
+ *
+ * Push tasks read the limits on every push and the linger when a source loses its last subscriber; watermarks
+ * are applied to the streams as they are changed; admission limits are checked on every PLAY.
+ */
+public final class RuntimeSettings {
+    private volatile BufferingLimits limits;
+    /** null if netty defaults are used */
+    private volatile WriteBufferWaterMark watermarks;
+    private volatile long sourceLingerMillis;
+    private volatile AdmissionLimits admission;
+
+    public RuntimeSettings(Config config) {
+        PropertyMap network = config.getNetwork();
+        this.limits = config.getBufferingLimits();
+        int low = network.getInt(NetworkAttributes.WATERMARKS_LOW, 0);
+        int high = network.getInt(NetworkAttributes.WATERMARKS_HIGH, 0);
+        this.watermarks = low > 0 && high > 0 ? new WriteBufferWaterMark(low, high) : null;
+        this.sourceLingerMillis = network.getInt(NetworkAttributes.SOURCE_LINGER, 0);
+        this.admission = AdmissionLimits.of(network.getMap(NetworkAttributes.ADMISSION));
+    }
+
+    public BufferingLimits getLimits() {
+        return limits;
+    }
+
+    public void setLimits(BufferingLimits limits) {
+        this.limits = limits;
+    }
+
+    /**
+     * @return write buffer watermarks of streaming connections, null if netty defaults are used
+     */
+    public WriteBufferWaterMark getWatermarks() {
+        return watermarks;
+    }
+
+    public void setWatermarks(WriteBufferWaterMark watermarks) {
+        this.watermarks = watermarks;
+    }
+
+    public long getSourceLingerMillis() {
+        return sourceLingerMillis;
+    }
+
+    public void setSourceLingerMillis(long sourceLingerMillis) {
+        this.sourceLingerMillis = sourceLingerMillis;
+    }
+
+    public AdmissionLimits getAdmission() {
+        return admission;
+    }
+
+    public void setAdmission(AdmissionLimits admission) {
+        this.admission = admission;
+    }
+}
@@ -0,0 +1,198 @@
+package me.vzhilin.bstreamer.server.conf;
+
+import me.vzhilin.bstreamer.util.PropertyMap;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+/**
+ * Immutable configuration of a source, with nested keys flattened to dotted names.
+ *
+ * The configuration of a streaming entry is compiled once; a request derives its own configuration by overriding
+ * some keys, which copies only the overrides. Hash is updated with every override instead of being computed over
+ * the whole configuration, and configurations derived from the same base are compared by their overrides.
+ */
+public final class SourceConfig {
+    private static final SourceConfig EMPTY = new SourceConfig(Collections.emptyMap());
+
+    /** flattened configuration, shared by derived configurations */
+    private final Map<String, Object> base;
+    /** keys which differ from the base, null values are removed keys */
+    private final Map<String, Object> overrides;
+    private final int size;
+    private final int hash;
+    private volatile PropertyMap properties;
+
+    private SourceConfig(Map<String, Object> base) {
+        this.base = base;
+        this.overrides = Collections.emptyMap();
+        this.size = base.size();
+        this.hash = base.hashCode();
+    }
+
+    private SourceConfig(Map<String, Object> base, Map<String, Object> overrides, int size, int hash) {
+        this.base = base;
+        this.overrides = overrides;
+        this.size = size;
+        this.hash = hash;
+    }
+
+    /**
+     * @param props configuration, null for an empty one
+     */
+    public static SourceConfig of(PropertyMap props) {
+        if (props == null) {
+            return EMPTY;
+        }
+        Map<String, Object> flat = new HashMap<>();
+        flatten("", props, flat);
+        return new SourceConfig(Collections.unmodifiableMap(flat));
+    }
+
+    private static void flatten(String prefix, PropertyMap props, Map<String, Object> flat) {
+        for (Map.Entry<String, Object> e: props.entries()) {
+            Object v = e.getValue();
+            if (v instanceof PropertyMap) {
+                flatten(prefix + e.getKey() + ".", (PropertyMap) v, flat);
+            } else {
+                flat.put(prefix + e.getKey(), v);
+            }
+        }
+    }
+
+    public Object get(String key) {
+        if (overrides.containsKey(key)) {
+            return overrides.get(key);
+        }
+        return base.get(key);
+    }
+
+    public String getString(String key) {
+        Object v = get(key);
+        return v instanceof String ? (String) v : null;
+    }
+
+    public String getString(String key, String defaultValue) {
+        String v = getString(key);
+        return v != null ? v : defaultValue;
+    }
+
+    public int getInt(String key, int defaultValue) {
+        String v = getString(key);
+        return v != null ? Integer.parseInt(v) : defaultValue;
+    }
+
+    public boolean getBoolean(String key) {
+        return Boolean.parseBoolean(getString(key));
+    }
+
+    /**
+     * @return configuration with the value of the key replaced, or removed if the value is null
+     */
+    public SourceConfig with(String key, Object value) {
+        return merge(Collections.singletonMap(key, value));
+    }
+
+    public SourceConfig without(String key) {
+        return with(key, null);
+    }
+
+    /**
+     * @return configuration with the values of the parameters, e.g. of the request URI; null values remove keys
+     */
+    public SourceConfig merge(Map<String, ?> parameters) {
+        Map<String, Object> derived = null;
+        int derivedSize = size;
+        int derivedHash = hash;
+        for (Map.Entry<String, ?> e: parameters.entrySet()) {
+            String key = e.getKey();
+            Object value = e.getValue();
+            Object current = derived == null ? get(key) : derived.containsKey(key) ? derived.get(key) : base.get(key);
+            if (Objects.equals(current, value)) {
+                continue;
+            }
+            if (derived == null) {
+                derived = new HashMap<>(overrides);
+            }
+            if (Objects.equals(base.get(key), value)) {
+                derived.remove(key);
+            } else {
+                derived.put(key, value);
+            }
+            derivedSize += (current == null ? 1 : 0) - (value == null ? 1 : 0);
+            derivedHash += entryHash(key, value) - entryHash(key, current);
+        }
+        return derived == null ? this : new SourceConfig(base, derived, derivedSize, derivedHash);
+    }
+
+    /**
+     * @return copy of the configuration in the form expected by sources
+     */
+    public PropertyMap toPropertyMap() {
+        PropertyMap p = properties;
+        if (p == null) {
+            p = new PropertyMap();
+            for (Map.Entry<String, Object> e: base.entrySet()) {
+                if (!overrides.containsKey(e.getKey())) {
+                    p.put(e.getKey(), e.getValue());
+                }
+            }
+            for (Map.Entry<String, Object> e: overrides.entrySet()) {
+                if (e.getValue() != null) {
+                    p.put(e.getKey(), e.getValue());
+                }
+            }
+            properties = p;
+        }
+        return new PropertyMap(p);
+    }
+
+    private static int entryHash(String key, Object value) {
+        return value == null ? 0 : key.hashCode() ^ value.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        SourceConfig that = (SourceConfig) o;
+        if (hash != that.hash || size != that.size) {
+            return false;
+        }
+        if (base == that.base) {
+            return overrides.equals(that.overrides);
+        }
+        for (Map.Entry<String, Object> e: base.entrySet()) {
+            if (!overrides.containsKey(e.getKey()) && !e.getValue().equals(that.get(e.getKey()))) {
+                return false;
+            }
+        }
+        for (Map.Entry<String, Object> e: overrides.entrySet()) {
+            if (e.getValue() != null && !e.getValue().equals(that.get(e.getKey()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        Map<String, Object> merged = new TreeMap<>(base);
+        overrides.forEach((k, v) -> {
+            if (v == null) {
+                merged.remove(k);
+            } else {
+                merged.put(k, v);
+            }
+        });
+        return merged.toString();
+    }
+}
@@ -0,0 +1,49 @@
+package me.vzhilin.bstreamer.server.conf;
+
+import me.vzhilin.bstreamer.util.PropertyMap;
+
+/**
+ * Entry of the {@code streaming} section, compiled when the configuration is loaded
+ */
+public final class StreamingConfig {
+    public static final String CLASS = "class";
+    public static final String CONF = "conf";
+    public static final String PREWARM = "prewarm";
+
+    private final String name;
+    private final String clazz;
+    private final String prewarm;
+    private final SourceConfig conf;
+
+    StreamingConfig(String name, PropertyMap props) {
+        this.name = name;
+        this.clazz = props.getString(CLASS);
+        this.prewarm = props.getString(PREWARM, "false");
+        this.conf = SourceConfig.of(props.getMap(CONF));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return source class, relative to the streaming package
+     */
+    public String getClazz() {
+        return clazz;
+    }
+
+    /**
+     * @return value of {@code prewarm}
+     */
+    public String getPrewarm() {
+        return prewarm;
+    }
+
+    /**
+     * @return configuration of the source, requests derive theirs from it
+     */
+    public SourceConfig getConf() {
+        return conf;
+    }
+}
@@ -0,0 +1,17 @@
+package me.vzhilin.bstreamer.server.http;
+
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpServerCodec;
+
+public class HttpServerInitializer extends ChannelInitializer<SocketChannel> {
+    @Override
+    public void initChannel(SocketChannel channel) {
+        ChannelPipeline pipeline = channel.pipeline();
+        pipeline.addLast("http_codec", new HttpServerCodec());
+        pipeline.addLast("http_aggregator", new HttpObjectAggregator(1024));
+        pipeline.addLast(new HttpStreamHandler());
+    }
+}
@@ -0,0 +1,67 @@
+package me.vzhilin.bstreamer.server.http;
+
+import me.vzhilin.bstreamer.util.PropertyMap;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Settings of the HTTP listener, {@code network.http}
+ */
+public final class HttpSettings {
+    private final List<String> bind;
+    private final int partMillis;
+    private final int segmentMillis;
+    private final int window;
+    private final int ttlMillis;
+
+    /**
+     * @param props {@code bind}, {@code part} and {@code segment} in ms, {@code window}, {@code ttl} in ms; may be null
+     */
+    public HttpSettings(PropertyMap props) {
+        if (props == null) {
+            props = new PropertyMap();
+        }
+        List<String> addresses = props.getStringArray("bind");
+        this.bind = addresses == null ? Collections.emptyList() : addresses;
+        this.partMillis = props.getInt("part", 500);
+        this.segmentMillis = props.getInt("segment", 2000);
+        this.window = props.getInt("window", 6);
+        this.ttlMillis = props.getInt("ttl", 30000);
+    }
+
+    /**
+     * @return socket addresses, empty if HTTP is disabled
+     */
+    public List<String> getBind() {
+        return bind;
+    }
+
+    /**
+     * @return target duration of a partial segment
+     */
+    public int getPartMillis() {
+        return partMillis;
+    }
+
+    /**
+     * @return minimal duration of a segment, segments are cut at keyframes
+     */
+    public int getSegmentMillis() {
+        return segmentMillis;
+    }
+
+    /**
+     * @return number of complete segments in the playlist
+     */
+    public int getWindow() {
+        return window;
+    }
+
+    /**
+     * @return how long a segment is kept after it left the playlist, and how long an unused stream is kept running
+     */
+    public int getTtlMillis() {
+        return ttlMillis;
+    }
+}
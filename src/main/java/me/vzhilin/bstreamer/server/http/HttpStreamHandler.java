@@ -0,0 +1,275 @@
+package me.vzhilin.bstreamer.server.http;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.QueryStringDecoder;
+import io.netty.handler.codec.http.QueryStringEncoder;
+import me.vzhilin.bstreamer.server.RtspServerAttributes;
+import me.vzhilin.bstreamer.server.ServerContext;
+import me.vzhilin.bstreamer.server.conf.Config;
+import me.vzhilin.bstreamer.server.conf.SourceConfig;
+import me.vzhilin.bstreamer.server.conf.StreamingConfig;
+import me.vzhilin.bstreamer.server.streaming.file.FileSourceAttributes;
+import org.apache.log4j.Logger;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Serves the configured streams over HTTP:
+ * <ul>
+ *     <li>{@code /<stream>.ts} continuous MPEG-TS, chunked</li>
+ *     <li>{@code /<stream>/index.m3u8} LL-HLS playlist, blocking reload with {@code _HLS_msn} and {@code _HLS_part}</li>
+ *     <li>{@code /<stream>/seg<N>.ts} and {@code /<stream>/part<N>.<M>.ts} segments and partial segments; a request
+ *     for the upcoming one is held until it is ready</li>
+ * </ul>
+ * Query parameters override {@code conf} of the stream, as parameters of RTSP url do.
+ */
+public final class HttpStreamHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
+    private static final Logger LOG = Logger.getLogger(HttpStreamHandler.class);
+    private static final String LIVE_SUFFIX = ".ts";
+    private static final String PLAYLIST = "index.m3u8";
+    private static final Pattern SEGMENT = Pattern.compile("seg(\\d+)\\.ts");
+    private static final Pattern PART = Pattern.compile("part(\\d+)\\.(\\d+)\\.ts");
+    private static final String HLS_PREFIX = "_HLS_";
+    private static final String HLS_MSN = "_HLS_msn";
+    private static final String HLS_PART = "_HLS_part";
+    private static final String TS_CONTENT_TYPE = "video/mp2t";
+    private static final String PLAYLIST_CONTENT_TYPE = "application/vnd.apple.mpegurl";
+
+    private ServerContext context;
+    private Config config;
+
+    @Override
+    public void channelRegistered(ChannelHandlerContext ctx) throws Exception {
+        super.channelRegistered(ctx);
+        context = ctx.channel().attr(RtspServerAttributes.CONTEXT).get();
+        config = context.getConfig();
+    }
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, FullHttpRequest request) {
+        boolean keepAlive = HttpUtil.isKeepAlive(request);
+        if (!HttpMethod.GET.equals(request.method())) {
+            respond(ctx, keepAlive, HttpResponseStatus.METHOD_NOT_ALLOWED);
+            return;
+        }
+        QueryStringDecoder decoder = new QueryStringDecoder(request.uri());
+        String[] items = decoder.path().substring(1).split("/");
+        Map<String, List<String>> parameters = decoder.parameters();
+
+        String path = decoder.path();
+        try {
+            if (items.length == 1 && items[0].endsWith(LIVE_SUFFIX)) {
+                String name = items[0].substring(0, items[0].length() - LIVE_SUFFIX.length());
+                serve(ctx, keepAlive, path, stream(name, parameters), stream -> live(ctx, stream));
+            } else
+            if (items.length == 2) {
+                serve(ctx, keepAlive, path, stream(items[0], parameters),
+                    stream -> hls(ctx, keepAlive, stream, items[1], parameters));
+            } else {
+                respond(ctx, keepAlive, HttpResponseStatus.NOT_FOUND);
+            }
+        } catch (RuntimeException e) {
+            unavailable(ctx, keepAlive, path, e);
+        }
+    }
+
+    /**
+     * Serves the request once the stream is open; reading from the channel is suspended meanwhile,
+     * so that pipelined requests are answered in order
+     *
+     * @param stream stream, or null if it is not configured
+     */
+    private void serve(ChannelHandlerContext ctx, boolean keepAlive, String path,
+                       CompletableFuture<SegmentedStream> stream, Consumer<SegmentedStream> action) {
+        if (stream == null) {
+            respond(ctx, keepAlive, HttpResponseStatus.NOT_FOUND);
+        } else
+        if (stream.isDone()) {
+            serveOpened(ctx, keepAlive, path, stream, action);
+        } else {
+            ctx.channel().config().setAutoRead(false);
+            stream.whenComplete((s, e) -> ctx.executor().execute(() -> {
+                ctx.channel().config().setAutoRead(true);
+                serveOpened(ctx, keepAlive, path, stream, action);
+            }));
+        }
+    }
+
+    private void serveOpened(ChannelHandlerContext ctx, boolean keepAlive, String path,
+                             CompletableFuture<SegmentedStream> stream, Consumer<SegmentedStream> action) {
+        try {
+            action.accept(stream.join());
+        } catch (NumberFormatException e) {
+            respond(ctx, keepAlive, HttpResponseStatus.BAD_REQUEST);
+        } catch (RuntimeException e) {
+            Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            unavailable(ctx, keepAlive, path, cause);
+        }
+    }
+
+    private static void unavailable(ChannelHandlerContext ctx, boolean keepAlive, String path, Throwable cause) {
+        LOG.warn("unable to open " + path + ": " + cause.getMessage());
+        respond(ctx, keepAlive, HttpResponseStatus.SERVICE_UNAVAILABLE);
+    }
+
+    private void live(ChannelHandlerContext ctx, SegmentedStream stream) {
+        HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+        response.headers().set(HttpHeaderNames.CONTENT_TYPE, TS_CONTENT_TYPE);
+        response.headers().set(HttpHeaderNames.TRANSFER_ENCODING, HttpHeaderValues.CHUNKED);
+        response.headers().set(HttpHeaderNames.CACHE_CONTROL, HttpHeaderValues.NO_CACHE);
+        response.headers().set(HttpHeaderNames.ACCESS_CONTROL_ALLOW_ORIGIN, "*");
+        ctx.write(response);
+        LiveClient client = new LiveClient(ctx.channel());
+        if (stream.subscribe(client)) {
+            ctx.flush();
+        } else {
+            client.end();
+        }
+    }
+
+    private void hls(ChannelHandlerContext ctx, boolean keepAlive, SegmentedStream stream,
+                     String file, Map<String, List<String>> parameters) {
+        Matcher segment = SEGMENT.matcher(file);
+        Matcher part = PART.matcher(file);
+        if (PLAYLIST.equals(file)) {
+            String query = query(parameters);
+            long sequence = 0;
+            int partIndex = 0;
+            if (parameters.containsKey(HLS_MSN)) {
+                sequence = Long.parseLong(parameters.get(HLS_MSN).get(0));
+                partIndex = parameters.containsKey(HLS_PART) ? Integer.parseInt(parameters.get(HLS_PART).get(0)) : -1;
+                if (!stream.isUpcoming(sequence)) {
+                    respond(ctx, keepAlive, HttpResponseStatus.BAD_REQUEST);
+                    return;
+                }
+            }
+            hold(ctx, stream, sequence, partIndex, () -> playlist(stream.playlist(query)), keepAlive);
+        } else
+        if (segment.matches()) {
+            long sequence = Long.parseLong(segment.group(1));
+            hold(ctx, stream, sequence, -1, () -> media(stream.segment(sequence)), keepAlive);
+        } else
+        if (part.matches()) {
+            long sequence = Long.parseLong(part.group(1));
+            int index = Integer.parseInt(part.group(2));
+            hold(ctx, stream, sequence, index, () -> media(stream.part(sequence, index)), keepAlive);
+        } else {
+            respond(ctx, keepAlive, HttpResponseStatus.NOT_FOUND);
+        }
+    }
+
+    /**
+     * Responds once the part is available; reading from the channel is suspended meanwhile,
+     * so that pipelined requests are answered in order
+     */
+    private void hold(ChannelHandlerContext ctx, SegmentedStream stream, long sequence, int part,
+                      Supplier<FullHttpResponse> response, boolean keepAlive) {
+        if (!stream.isUpcoming(sequence)) {
+            write(ctx, response.get(), keepAlive);
+            return;
+        }
+        ctx.channel().config().setAutoRead(false);
+        stream.await(sequence, part, () -> {
+            write(ctx, response.get(), keepAlive);
+            ctx.channel().config().setAutoRead(true);
+        });
+    }
+
+    /**
+     * @return stream, or null if it is not configured
+     */
+    private CompletableFuture<SegmentedStream> stream(String name, Map<String, List<String>> parameters) {
+        if (!config.getStreamingNames().contains(name)) {
+            return null;
+        }
+        StreamingConfig streaming = config.getStreamingConfig(name);
+        SourceConfig conf = streaming.getConf();
+        for (Map.Entry<String, List<String>> e: parameters.entrySet()) {
+            if (!e.getKey().startsWith(HLS_PREFIX)) {
+                conf = conf.with(e.getKey(), e.getValue().get(0));
+            }
+        }
+        conf = conf.without(FileSourceAttributes.START);
+        return context.getHttpStreams().get(name, streaming.getClazz(), conf);
+    }
+
+    /**
+     * @return query of the request without blocking reload parameters
+     */
+    private static String query(Map<String, List<String>> parameters) {
+        QueryStringEncoder encoder = new QueryStringEncoder("");
+        parameters.forEach((key, values) -> {
+            if (!key.startsWith(HLS_PREFIX)) {
+                values.forEach(v -> encoder.addParam(key, v));
+            }
+        });
+        return encoder.toString();
+    }
+
+    private static FullHttpResponse playlist(String playlist) {
+        ByteBuf content = ByteBufUtil.writeAscii(PooledByteBufAllocator.DEFAULT, playlist);
+        FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK, content);
+        response.headers().set(HttpHeaderNames.CONTENT_TYPE, PLAYLIST_CONTENT_TYPE);
+        response.headers().set(HttpHeaderNames.CACHE_CONTROL, HttpHeaderValues.NO_CACHE);
+        return response;
+    }
+
+    /**
+     * @param content cached segment or part, null if there is none
+     */
+    private static FullHttpResponse media(ByteBuf content) {
+        if (content == null) {
+            return new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.NOT_FOUND);
+        }
+        FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK, content);
+        response.headers().set(HttpHeaderNames.CONTENT_TYPE, TS_CONTENT_TYPE);
+        return response;
+    }
+
+    private static void respond(ChannelHandlerContext ctx, boolean keepAlive, HttpResponseStatus status) {
+        write(ctx, new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, status, Unpooled.EMPTY_BUFFER), keepAlive);
+    }
+
+    private static void write(ChannelHandlerContext ctx, FullHttpResponse response, boolean keepAlive) {
+        response.headers().set(HttpHeaderNames.CONTENT_LENGTH, response.content().readableBytes());
+        response.headers().set(HttpHeaderNames.ACCESS_CONTROL_ALLOW_ORIGIN, "*");
+        if (keepAlive) {
+            HttpUtil.setKeepAlive(response, true);
+            ctx.writeAndFlush(response);
+        } else {
+            ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+        }
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        if (LOG.isDebugEnabled()) {
+            cause.printStackTrace();
+        }
+        ctx.close();
+    }
+}
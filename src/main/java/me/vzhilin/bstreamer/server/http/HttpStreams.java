@@ -0,0 +1,67 @@
+package me.vzhilin.bstreamer.server.http;
+
+import me.vzhilin.bstreamer.server.ServerContext;
+import me.vzhilin.bstreamer.server.SourceKey;
+import me.vzhilin.bstreamer.server.conf.SourceConfig;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Segmented streams served over HTTP, one per source configuration. A stream is closed when it has no
+ * clients for {@link HttpSettings#getTtlMillis()}.
+ *
+ * Sources are opened on the workers, requests for a stream being opened share its future.
+ */
+public final class HttpStreams {
+    private final ServerContext context;
+    private final HttpSettings settings;
+    private final Map<SourceKey, CompletableFuture<SegmentedStream>> streams = new ConcurrentHashMap<>();
+
+    public HttpStreams(ServerContext context, HttpSettings settings) {
+        this.context = context;
+        this.settings = settings;
+    }
+
+    public HttpSettings getSettings() {
+        return settings;
+    }
+
+    /**
+     * @return stream, completed exceptionally if its source could not be opened
+     */
+    CompletableFuture<SegmentedStream> get(String name, String clazz, SourceConfig conf) {
+        SourceKey key = context.sourceKey(clazz, conf);
+        CompletableFuture<SegmentedStream> stream = streams.get(key);
+        if (stream != null && isAlive(stream)) {
+            return stream;
+        }
+        return streams.compute(key, (k, current) -> {
+            if (current != null && isAlive(current)) {
+                return current;
+            }
+            CompletableFuture<SegmentedStream> created = new CompletableFuture<>();
+            context.getWorkers().execute(() -> open(name, clazz, conf, key, created));
+            return created;
+        });
+    }
+
+    private void open(String name, String clazz, SourceConfig conf, SourceKey key,
+                      CompletableFuture<SegmentedStream> created) {
+        try {
+            created.complete(new SegmentedStream(name, context.openSharedSource(clazz, conf), settings,
+                context.getWorkers(), () -> streams.remove(key, created)));
+        } catch (RuntimeException e) {
+            streams.remove(key, created);
+            created.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * @return true if the stream is being opened or is open
+     */
+    private static boolean isAlive(CompletableFuture<SegmentedStream> stream) {
+        return !stream.isDone() || !stream.isCompletedExceptionally() && stream.join().touch();
+    }
+}
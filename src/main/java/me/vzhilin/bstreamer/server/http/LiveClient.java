@@ -0,0 +1,57 @@
+package me.vzhilin.bstreamer.server.http;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.LastHttpContent;
+
+/**
+ * Continuous MPEG-TS, written as chunked HTTP response.
+ *
+ * When the channel is not writable the chunk is dropped, and so are the following ones up to the next keyframe.
+ */
+final class LiveClient {
+    private final Channel channel;
+    /** chunks are skipped up to the next keyframe, e.g. until the first one */
+    private boolean waitKey = true;
+
+    LiveClient(Channel channel) {
+        this.channel = channel;
+    }
+
+    boolean isActive() {
+        return channel.isActive();
+    }
+
+    /**
+     * @param independent chunk starts with PAT, PMT and a keyframe
+     */
+    void send(ByteBuf chunk, boolean independent) {
+        if (!channel.isWritable()) {
+            waitKey = true;
+            return;
+        }
+        if (waitKey && !independent) {
+            return;
+        }
+        waitKey = false;
+        channel.writeAndFlush(new DefaultHttpContent(chunk.retainedDuplicate()), channel.voidPromise());
+    }
+
+    /**
+     * Writes the chunk regardless of writability
+     */
+    void write(ByteBuf chunk) {
+        waitKey = false;
+        channel.write(new DefaultHttpContent(chunk.retainedDuplicate()), channel.voidPromise());
+    }
+
+    void flush() {
+        channel.flush();
+    }
+
+    void end() {
+        channel.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT).addListener(ChannelFutureListener.CLOSE);
+    }
+}
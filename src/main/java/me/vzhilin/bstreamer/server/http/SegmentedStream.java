@@ -0,0 +1,514 @@
+package me.vzhilin.bstreamer.server.http;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import me.vzhilin.bstreamer.server.streaming.base.PullSource;
+import me.vzhilin.bstreamer.server.streaming.file.MediaPacket;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Live MPEG-TS of one source, muxed once and shared by all HTTP clients.
+ *
+ * The source is paced in real time, every access unit is muxed into a chunk, which is passed to the
+ * continuous TS clients and appended to the current partial segment. Segments start at keyframes and last at
+ * least {@link HttpSettings#getSegmentMillis()}, parts last about {@link HttpSettings#getPartMillis()}.
+ * Cached buffers are never copied, clients get retained duplicates.
+ */
+final class SegmentedStream implements Runnable {
+    private static final Logger LOG = Logger.getLogger(SegmentedStream.class);
+    private static final long TICK_MILLIS = 10;
+
+    private final String name;
+    private final PullSource source;
+    private final HttpSettings settings;
+    private final Runnable onIdle;
+    private final TsMuxer muxer = new TsMuxer();
+    private final ScheduledFuture<?> tick;
+
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private Segment current;
+    private Part currentPart;
+    private long nextSequence;
+    private long maxSegmentMillis;
+
+    private final List<ByteBuf> nals = new ArrayList<>();
+    private long auPts;
+    private long auDts;
+    private boolean auKey;
+
+    private MediaPacket pending;
+    private boolean started;
+    private long startTimeMillis;
+    private long startDtsMillis;
+    private long lastDts;
+
+    private final List<Waiter> waiters = new ArrayList<>();
+    private final List<LiveClient> clients = new ArrayList<>();
+    private long lastAccessMillis = System.currentTimeMillis();
+    private boolean finished;
+    private boolean closed;
+
+    SegmentedStream(String name, PullSource source, HttpSettings settings,
+                    ScheduledExecutorService executor, Runnable onIdle) {
+        this.name = name;
+        this.source = source;
+        this.settings = settings;
+        this.onIdle = onIdle;
+        this.maxSegmentMillis = settings.getSegmentMillis();
+        this.tick = executor.scheduleWithFixedDelay(this, 0, TICK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void run() {
+        try {
+            advance();
+        } catch (RuntimeException e) {
+            LOG.error(name + ": " + e.getMessage(), e);
+            List<Waiter> ready = new ArrayList<>();
+            synchronized (this) {
+                close();
+                collectWaiters(ready, System.currentTimeMillis());
+            }
+            ready.forEach(Waiter::run);
+            onIdle.run();
+        }
+    }
+
+    private void advance() {
+        List<Waiter> ready = new ArrayList<>();
+        boolean idle = false;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            while (!finished) {
+                if (pending == null) {
+                    if (!source.hasNext()) {
+                        if (source.isFinished()) {
+                            end();
+                        }
+                        break;
+                    }
+                    pending = source.next();
+                }
+                long dts = pending.getDts();
+                if (!started || dts < lastDts) {
+                    started = true;
+                    startTimeMillis = now;
+                    startDtsMillis = dts;
+                }
+                if (dts - startDtsMillis > now - startTimeMillis) {
+                    break;
+                }
+                lastDts = dts;
+                MediaPacket pkt = pending;
+                pending = null;
+                add(pkt);
+            }
+            evict(now);
+            if (clients.isEmpty() && now - lastAccessMillis > settings.getTtlMillis()) {
+                LOG.info(name + ": no http clients, closed");
+                close();
+                idle = true;
+            }
+            collectWaiters(ready, now);
+        }
+        ready.forEach(Waiter::run);
+        if (idle) {
+            onIdle.run();
+        }
+    }
+
+    private void add(MediaPacket pkt) {
+        if (!nals.isEmpty() && (pkt.getPts() != auPts || pkt.getDts() != auDts || pkt.isKey() && !auKey)) {
+            flush();
+        }
+        if (nals.isEmpty()) {
+            auPts = pkt.getPts();
+            auDts = pkt.getDts();
+            auKey = pkt.isKey();
+        }
+        nals.add(pkt.getPayload());
+    }
+
+    /**
+     * Muxes the collected access unit
+     */
+    private void flush() {
+        if (nals.isEmpty()) {
+            return;
+        }
+        if (auKey) {
+            if (current != null) {
+                closePart(auDts);
+                if (auDts - current.startDts >= settings.getSegmentMillis()) {
+                    closeSegment(auDts);
+                }
+            }
+            if (current == null) {
+                current = new Segment(nextSequence++, auDts);
+                segments.add(current);
+            }
+            currentPart = current.openPart(auDts, true);
+        } else
+        if (current != null && auDts - currentPart.startDts >= settings.getPartMillis()) {
+            closePart(auDts);
+            currentPart = current.openPart(auDts, false);
+        }
+
+        if (current != null) {
+            boolean tables = currentPart.chunks.isEmpty() && currentPart.independent;
+            ByteBuf chunk = muxer.accessUnit(tables, auPts, auDts, auKey, nals, source.getDesc());
+            currentPart.chunks.add(chunk);
+            send(chunk, tables);
+        }
+        nals.forEach(ByteBuf::release);
+        nals.clear();
+    }
+
+    private void closePart(long endDts) {
+        if (currentPart != null && currentPart.close(endDts)) {
+            current.lastDts = endDts;
+        }
+        currentPart = null;
+    }
+
+    private void closeSegment(long endDts) {
+        current.durationMillis = endDts - current.startDts;
+        current.completedAt = System.currentTimeMillis();
+        maxSegmentMillis = Math.max(maxSegmentMillis, current.durationMillis);
+        current = null;
+    }
+
+    private void end() {
+        flush();
+        if (current != null) {
+            closePart(lastDts);
+            if (current.parts.isEmpty()) {
+                segments.remove(current);
+            } else {
+                closeSegment(Math.max(lastDts, current.startDts + 1));
+            }
+        }
+        finished = true;
+        for (LiveClient client: clients) {
+            client.end();
+        }
+        clients.clear();
+    }
+
+    /**
+     * Drops the segments, which left the playlist more than ttl ago
+     */
+    private void evict(long now) {
+        while (segments.size() > settings.getWindow() + 1) {
+            Segment oldest = segments.peekFirst();
+            if (oldest.completedAt == 0 || now - oldest.completedAt < settings.getTtlMillis()) {
+                break;
+            }
+            segments.pollFirst().release();
+        }
+    }
+
+    private void send(ByteBuf chunk, boolean independent) {
+        Iterator<LiveClient> it = clients.iterator();
+        while (it.hasNext()) {
+            LiveClient client = it.next();
+            if (!client.isActive()) {
+                it.remove();
+                lastAccessMillis = System.currentTimeMillis();
+            } else {
+                client.send(chunk, independent);
+            }
+        }
+    }
+
+    /**
+     * Streams the current segment from its start, then every new access unit
+     */
+    public synchronized boolean subscribe(LiveClient client) {
+        if (closed || finished) {
+            return false;
+        }
+        if (current != null) {
+            for (Part part: current.parts) {
+                part.chunks.forEach(client::write);
+            }
+            client.flush();
+        }
+        clients.add(client);
+        return true;
+    }
+
+    /**
+     * @return false if the stream is already closed
+     */
+    public synchronized boolean touch() {
+        lastAccessMillis = System.currentTimeMillis();
+        return !closed;
+    }
+
+    /**
+     * Calls back once the part is available, the stream has ended or on timeout
+     *
+     * @param part index of the part in the segment, or -1 to wait for the whole segment
+     */
+    public void await(long sequence, int part, Runnable callback) {
+        synchronized (this) {
+            if (!isAvailable(sequence, part)) {
+                long deadline = System.currentTimeMillis() + 3 * maxSegmentMillis;
+                waiters.add(new Waiter(sequence, part, deadline, callback));
+                return;
+            }
+        }
+        callback.run();
+    }
+
+    private void collectWaiters(List<Waiter> ready, long now) {
+        Iterator<Waiter> it = waiters.iterator();
+        while (it.hasNext()) {
+            Waiter w = it.next();
+            if (closed || now >= w.deadline || isAvailable(w.sequence, w.part)) {
+                it.remove();
+                ready.add(w);
+            }
+        }
+    }
+
+    private boolean isAvailable(long sequence, int part) {
+        if (finished || sequence < nextSequence - 1) {
+            return true;
+        }
+        Segment s = find(sequence);
+        if (s == null) {
+            return false;
+        }
+        return s.completedAt != 0 || part >= 0 && part < s.parts.size() && s.parts.get(part).data != null;
+    }
+
+    /**
+     * @return true if the sequence number is not later than the next segment, so that request may be held
+     */
+    public synchronized boolean isUpcoming(long sequence) {
+        return !finished && sequence <= nextSequence;
+    }
+
+    /**
+     * @return complete segment, null if it is unknown or not complete
+     */
+    public synchronized ByteBuf segment(long sequence) {
+        Segment s = find(sequence);
+        if (s == null || s.completedAt == 0) {
+            return null;
+        }
+        ByteBuf[] parts = new ByteBuf[s.parts.size()];
+        for (int i = 0; i < parts.length; i++) {
+            parts[i] = s.parts.get(i).data.retainedDuplicate();
+        }
+        return Unpooled.wrappedBuffer(parts);
+    }
+
+    /**
+     * @return complete part, null if it is unknown or not complete
+     */
+    public synchronized ByteBuf part(long sequence, int index) {
+        Segment s = find(sequence);
+        if (s == null || index < 0 || index >= s.parts.size() || s.parts.get(index).data == null) {
+            return null;
+        }
+        return s.parts.get(index).data.retainedDuplicate();
+    }
+
+    /**
+     * @param query appended to every URI, since relative URIs lose the query of the playlist
+     */
+    public synchronized String playlist(String query) {
+        long target = (maxSegmentMillis + 999) / 1000;
+        StringBuilder sb = new StringBuilder();
+        sb.append("#EXTM3U\n");
+        sb.append("#EXT-X-VERSION:6\n");
+        sb.append("#EXT-X-TARGETDURATION:").append(target).append('\n');
+        sb.append("#EXT-X-PART-INF:PART-TARGET=").append(seconds(settings.getPartMillis())).append('\n');
+        if (!finished) {
+            sb.append("#EXT-X-SERVER-CONTROL:CAN-BLOCK-RELOAD=YES,PART-HOLD-BACK=")
+              .append(seconds(3 * settings.getPartMillis())).append('\n');
+        }
+
+        List<Segment> listed = new ArrayList<>();
+        int complete = 0;
+        for (Iterator<Segment> it = segments.descendingIterator(); it.hasNext(); ) {
+            Segment s = it.next();
+            if (s.completedAt != 0 && ++complete > settings.getWindow()) {
+                break;
+            }
+            listed.add(0, s);
+        }
+        long first = listed.isEmpty() ? nextSequence : listed.get(0).sequence;
+        sb.append("#EXT-X-MEDIA-SEQUENCE:").append(first).append('\n');
+
+        long partsFromDts = lastDts - 3 * target * 1000;
+        for (Segment s: listed) {
+            if (s.lastDts >= partsFromDts) {
+                for (Part p: s.parts) {
+                    if (p.data != null) {
+                        sb.append("#EXT-X-PART:DURATION=").append(seconds(p.durationMillis))
+                          .append(",URI=\"").append(partUri(s.sequence, p.index, query)).append('"');
+                        if (p.independent) {
+                            sb.append(",INDEPENDENT=YES");
+                        }
+                        sb.append('\n');
+                    }
+                }
+            }
+            if (s.completedAt != 0) {
+                sb.append("#EXTINF:").append(seconds(s.durationMillis)).append(",\n");
+                sb.append("seg").append(s.sequence).append(".ts").append(query).append('\n');
+            }
+        }
+        if (finished) {
+            sb.append("#EXT-X-ENDLIST\n");
+        } else {
+            long sequence = current != null ? current.sequence : nextSequence;
+            int index = current != null ? current.parts.size() : 0;
+            if (currentPart != null && currentPart.data == null) {
+                index = currentPart.index;
+            }
+            sb.append("#EXT-X-PRELOAD-HINT:TYPE=PART,URI=\"").append(partUri(sequence, index, query)).append("\"\n");
+        }
+        return sb.toString();
+    }
+
+    private static String partUri(long sequence, int index, String query) {
+        return "part" + sequence + "." + index + ".ts" + query;
+    }
+
+    private static String seconds(long millis) {
+        return String.format("%d.%03d", millis / 1000, millis % 1000);
+    }
+
+    private Segment find(long sequence) {
+        for (Segment s: segments) {
+            if (s.sequence == sequence) {
+                return s;
+            }
+        }
+        return null;
+    }
+
+    private void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        tick.cancel(false);
+        nals.forEach(ByteBuf::release);
+        nals.clear();
+        if (pending != null) {
+            pending.getPayload().release();
+            pending = null;
+        }
+        segments.forEach(Segment::release);
+        segments.clear();
+        current = null;
+        currentPart = null;
+        clients.forEach(LiveClient::end);
+        clients.clear();
+        try {
+            source.close();
+        } catch (IOException e) {
+            LOG.warn(name + ": " + e.getMessage());
+        }
+    }
+
+    private static final class Segment {
+        private final long sequence;
+        private final long startDts;
+        private final List<Part> parts = new ArrayList<>();
+        private long lastDts;
+        private long durationMillis;
+        /** wallclock of completion, 0 while the segment is being written */
+        private long completedAt;
+
+        private Segment(long sequence, long startDts) {
+            this.sequence = sequence;
+            this.startDts = startDts;
+            this.lastDts = startDts;
+        }
+
+        private Part openPart(long dts, boolean independent) {
+            Part part = new Part(parts.size(), dts, independent);
+            parts.add(part);
+            return part;
+        }
+
+        private void release() {
+            parts.forEach(Part::release);
+        }
+    }
+
+    private static final class Part {
+        private final int index;
+        private final long startDts;
+        private final boolean independent;
+        private final List<ByteBuf> chunks = new ArrayList<>();
+        private long durationMillis;
+        /** chunks joined without copying, null while the part is being written */
+        private ByteBuf data;
+
+        private Part(int index, long startDts, boolean independent) {
+            this.index = index;
+            this.startDts = startDts;
+            this.independent = independent;
+        }
+
+        /**
+         * @return false if the part is empty and was not closed
+         */
+        private boolean close(long endDts) {
+            if (chunks.isEmpty()) {
+                return false;
+            }
+            durationMillis = Math.max(1, endDts - startDts);
+            data = Unpooled.wrappedBuffer(chunks.toArray(new ByteBuf[0]));
+            return true;
+        }
+
+        private void release() {
+            if (data != null) {
+                data.release();
+            } else {
+                chunks.forEach(ByteBuf::release);
+            }
+        }
+    }
+
+    private static final class Waiter implements Runnable {
+        private final long sequence;
+        private final int part;
+        private final long deadline;
+        private final Runnable callback;
+
+        private Waiter(long sequence, int part, long deadline, Runnable callback) {
+            this.sequence = sequence;
+            this.part = part;
+            this.deadline = deadline;
+            this.callback = callback;
+        }
+
+        @Override
+        public void run() {
+            callback.run();
+        }
+    }
+}
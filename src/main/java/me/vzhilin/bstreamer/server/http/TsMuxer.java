@@ -0,0 +1,193 @@
+package me.vzhilin.bstreamer.server.http;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import me.vzhilin.bstreamer.server.streaming.file.SourceDescription;
+
+import java.util.List;
+
+/**
+ * MPEG-TS muxer of a single H.264 stream: PAT, PMT and one PES packet per access unit.
+ *
+ * Access units are written in Annex B format, prefixed with an access unit delimiter; SPS and PPS are inserted
+ * before every keyframe unless the access unit already carries them. Timestamps are milliseconds.
+ */
+final class TsMuxer {
+    private static final int PACKET_SIZE = 188;
+    private static final int PAYLOAD_SIZE = 184;
+    /** adaptation field with PCR: length, flags and 6 bytes of PCR */
+    private static final int PCR_FIELD_SIZE = 8;
+    private static final int PMT_PID = 0x1000;
+    private static final int VIDEO_PID = 0x100;
+    private static final int STREAM_TYPE_H264 = 0x1b;
+    private static final int SPS = 7;
+    private static final int AUD = 9;
+    private static final byte[] START_CODE = {0, 0, 0, 1};
+    private static final byte[] DELIMITER = {0, 0, 0, 1, AUD, (byte) 0xf0};
+
+    private static final byte[] PAT = section(new byte[] {
+        0x00, (byte) 0xb0, 0, 0x00, 0x01, (byte) 0xc1, 0x00, 0x00,
+        0x00, 0x01, (byte) (0xe0 | PMT_PID >> 8), (byte) PMT_PID
+    });
+    private static final byte[] PMT = section(new byte[] {
+        0x02, (byte) 0xb0, 0, 0x00, 0x01, (byte) 0xc1, 0x00, 0x00,
+        (byte) (0xe0 | VIDEO_PID >> 8), (byte) VIDEO_PID, (byte) 0xf0, 0x00,
+        STREAM_TYPE_H264, (byte) (0xe0 | VIDEO_PID >> 8), (byte) VIDEO_PID, (byte) 0xf0, 0x00
+    });
+
+    private int patCounter;
+    private int pmtCounter;
+    private int videoCounter;
+
+    /**
+     * @param tables write PAT and PMT first, at the start of an independent part
+     * @return TS packets of the access unit
+     */
+    ByteBuf accessUnit(boolean tables, long ptsMillis, long dtsMillis, boolean key,
+                       List<ByteBuf> nals, SourceDescription desc) {
+        boolean parameterSets = key && desc.getSps() != null && desc.getPps() != null && !hasSps(nals);
+        int pesSize = 19 + DELIMITER.length;
+        if (parameterSets) {
+            pesSize += 2 * START_CODE.length + desc.getSps().length + desc.getPps().length;
+        }
+        for (ByteBuf nal: nals) {
+            if (!isDelimiter(nal)) {
+                pesSize += START_CODE.length + nal.readableBytes();
+            }
+        }
+
+        ByteBuf pes = PooledByteBufAllocator.DEFAULT.buffer(pesSize);
+        long pts = (ptsMillis * 90) & 0x1ffffffffL;
+        long dts = (dtsMillis * 90) & 0x1ffffffffL;
+        pes.writeInt(0x000001e0);
+        pes.writeShort(0);
+        pes.writeByte(0x80);
+        if (pts != dts) {
+            pes.writeByte(0xc0);
+            pes.writeByte(10);
+            writeTimestamp(pes, 3, pts);
+            writeTimestamp(pes, 1, dts);
+        } else {
+            pes.writeByte(0x80);
+            pes.writeByte(5);
+            writeTimestamp(pes, 2, pts);
+        }
+        pes.writeBytes(DELIMITER);
+        if (parameterSets) {
+            pes.writeBytes(START_CODE).writeBytes(desc.getSps());
+            pes.writeBytes(START_CODE).writeBytes(desc.getPps());
+        }
+        for (ByteBuf nal: nals) {
+            if (!isDelimiter(nal)) {
+                pes.writeBytes(START_CODE).writeBytes(nal, nal.readerIndex(), nal.readableBytes());
+            }
+        }
+
+        int packets = (pes.readableBytes() + PCR_FIELD_SIZE + PAYLOAD_SIZE - 1) / PAYLOAD_SIZE + (tables ? 2 : 0);
+        ByteBuf out = PooledByteBufAllocator.DEFAULT.buffer(packets * PACKET_SIZE);
+        if (tables) {
+            writeSection(out, 0, patCounter++, PAT);
+            writeSection(out, PMT_PID, pmtCounter++, PMT);
+        }
+        writePes(out, pes, dts, key);
+        pes.release();
+        return out;
+    }
+
+    private void writePes(ByteBuf out, ByteBuf pes, long pcr, boolean key) {
+        boolean first = true;
+        while (pes.isReadable()) {
+            int header = first ? PCR_FIELD_SIZE : 0;
+            int payload = Math.min(pes.readableBytes(), PAYLOAD_SIZE - header);
+            int adaptation = PAYLOAD_SIZE - payload;
+            out.writeByte(0x47);
+            out.writeByte((first ? 0x40 : 0) | VIDEO_PID >> 8);
+            out.writeByte(VIDEO_PID & 0xff);
+            out.writeByte((adaptation > 0 ? 0x30 : 0x10) | (videoCounter++ & 0x0f));
+            if (adaptation > 0) {
+                out.writeByte(adaptation - 1);
+                if (adaptation > 1) {
+                    int stuffing = adaptation - 2;
+                    if (first) {
+                        out.writeByte(key ? 0x50 : 0x10);
+                        out.writeInt((int) (pcr >> 1));
+                        out.writeByte((int) ((pcr & 1) << 7) | 0x7e);
+                        out.writeByte(0);
+                        stuffing -= 6;
+                    } else {
+                        out.writeByte(0);
+                    }
+                    for (int i = 0; i < stuffing; i++) {
+                        out.writeByte(0xff);
+                    }
+                }
+            }
+            out.writeBytes(pes, payload);
+            first = false;
+        }
+    }
+
+    private static void writeSection(ByteBuf out, int pid, int counter, byte[] section) {
+        out.writeByte(0x47);
+        out.writeByte(0x40 | pid >> 8);
+        out.writeByte(pid & 0xff);
+        out.writeByte(0x10 | (counter & 0x0f));
+        out.writeByte(0);
+        out.writeBytes(section);
+        for (int i = 5 + section.length; i < PACKET_SIZE; i++) {
+            out.writeByte(0xff);
+        }
+    }
+
+    private static void writeTimestamp(ByteBuf out, int prefix, long ts) {
+        out.writeByte(prefix << 4 | (int) (ts >> 29) & 0x0e | 1);
+        out.writeShort((int) (ts >> 14) & 0xfffe | 1);
+        out.writeShort((int) (ts << 1) & 0xfffe | 1);
+    }
+
+    private static boolean hasSps(List<ByteBuf> nals) {
+        for (ByteBuf nal: nals) {
+            if (type(nal) == SPS) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isDelimiter(ByteBuf nal) {
+        return type(nal) == AUD;
+    }
+
+    private static int type(ByteBuf nal) {
+        return nal.isReadable() ? nal.getByte(nal.readerIndex()) & 0x1f : 0;
+    }
+
+    /**
+     * Fills section length and appends CRC
+     */
+    private static byte[] section(byte[] body) {
+        byte[] section = new byte[body.length + 4];
+        System.arraycopy(body, 0, section, 0, body.length);
+        section[2] = (byte) (body.length + 4 - 3);
+        int crc = crc32(section, body.length);
+        section[body.length] = (byte) (crc >> 24);
+        section[body.length + 1] = (byte) (crc >> 16);
+        section[body.length + 2] = (byte) (crc >> 8);
+        section[body.length + 3] = (byte) crc;
+        return section;
+    }
+
+    /**
+     * CRC-32/MPEG-2
+     */
+    private static int crc32(byte[] data, int length) {
+        int crc = 0xffffffff;
+        for (int i = 0; i < length; i++) {
+            crc ^= (data[i] & 0xff) << 24;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 0x80000000) != 0 ? (crc << 1) ^ 0x04c11db7 : crc << 1;
+            }
+        }
+        return crc;
+    }
+}
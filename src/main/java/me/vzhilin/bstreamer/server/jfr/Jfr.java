@@ -0,0 +1,25 @@
+package me.vzhilin.bstreamer.server.jfr;
+
+/**
+ * Availability of Flight Recorder events.
+ *
+ * Event classes extend {@code jdk.jfr.Event}, which Java 8 runtimes may lack, so they are touched only behind
+ * {@link #ENABLED}. Set {@code -Dbstreamer.jfr=false} to skip the events entirely.
+ */
+public final class Jfr {
+    public static final boolean ENABLED = detect();
+
+    private Jfr() { }
+
+    private static boolean detect() {
+        if (!Boolean.parseBoolean(System.getProperty("bstreamer.jfr", "true"))) {
+            return false;
+        }
+        try {
+            Class.forName("jdk.jfr.Event", false, Jfr.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+}
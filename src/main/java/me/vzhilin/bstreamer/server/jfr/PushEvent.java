@@ -0,0 +1,34 @@
+package me.vzhilin.bstreamer.server.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * One run of a push task: packets read from the source, encoded and handed to the subscribers
+ */
+@Name("bstreamer.Push")
+@Label("Push")
+@Category({"bstreamer", "Streaming"})
+@Description("Packets of a source read, encoded and handed to the subscribers")
+@Threshold("5 ms")
+@StackTrace(false)
+public final class PushEvent extends Event {
+    @Label("Source")
+    public String source;
+
+    @Label("Subscribers")
+    public int subscribers;
+
+    @Label("Packets")
+    public int packets;
+
+    @Label("Bytes")
+    @DataAmount
+    public long bytes;
+}
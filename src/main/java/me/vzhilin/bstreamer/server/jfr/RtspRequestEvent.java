@@ -0,0 +1,26 @@
+package me.vzhilin.bstreamer.server.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Handling of an RTSP request on the event loop of its connection
+ */
+@Name("bstreamer.RtspRequest")
+@Label("RTSP Request")
+@Category({"bstreamer", "RTSP"})
+@Description("RTSP request handled on the event loop of its connection")
+@Threshold("1 ms")
+@StackTrace(false)
+public final class RtspRequestEvent extends Event {
+    @Label("Method")
+    public String method;
+
+    @Label("URI")
+    public String uri;
+}
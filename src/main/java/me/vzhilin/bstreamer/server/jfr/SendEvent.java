@@ -0,0 +1,35 @@
+package me.vzhilin.bstreamer.server.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * A frame written to the channels of a stream on one event loop, or delayed until they are writable
+ */
+@Name("bstreamer.Send")
+@Label("Send")
+@Category({"bstreamer", "Streaming"})
+@Description("Frame written to the channels of a stream, or delayed because some of them are not writable")
+@Threshold("1 ms")
+@StackTrace(false)
+public final class SendEvent extends Event {
+    @Label("Source")
+    public String source;
+
+    @Label("Channels")
+    public int channels;
+
+    @Label("Bytes")
+    @Description("Size of the frame")
+    @DataAmount
+    public long bytes;
+
+    @Label("Delayed")
+    public boolean delayed;
+}
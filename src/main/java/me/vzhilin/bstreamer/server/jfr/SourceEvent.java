@@ -0,0 +1,27 @@
+package me.vzhilin.bstreamer.server.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Source opened or closed by a push task
+ */
+@Name("bstreamer.Source")
+@Label("Source Open/Close")
+@Category({"bstreamer", "Sources"})
+@Description("Source opened or closed, with the time it took")
+@StackTrace(false)
+public final class SourceEvent extends Event {
+    public static final String OPEN = "open";
+    public static final String CLOSE = "close";
+
+    @Label("Source")
+    public String source;
+
+    @Label("Action")
+    public String action;
+}
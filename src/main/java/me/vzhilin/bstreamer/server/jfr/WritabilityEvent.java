@@ -0,0 +1,30 @@
+package me.vzhilin.bstreamer.server.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Period when a stream could not send because some of its channels were not writable
+ */
+@Name("bstreamer.Unwritable")
+@Label("Stream Unwritable")
+@Category({"bstreamer", "Streaming"})
+@Description("Period when some channels of a stream were not writable, so its frames were delayed")
+@Threshold("10 ms")
+@StackTrace(false)
+public final class WritabilityEvent extends Event {
+    @Label("Source")
+    public String source;
+
+    @Label("Channels")
+    public int channels;
+
+    @Label("Unwritable Channels")
+    @Description("Channels which were not writable when the period began")
+    public int unwritableChannels;
+}
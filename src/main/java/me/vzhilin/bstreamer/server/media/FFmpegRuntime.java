@@ -0,0 +1,44 @@
+package me.vzhilin.bstreamer.server.media;
+
+import static org.bytedeco.javacpp.avutil.AV_LOG_ERROR;
+import static org.bytedeco.javacpp.avutil.av_log_set_level;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Native ffmpeg libraries are loaded on first use, so sources without ffmpeg do not pay for them.
+ *
+ * Demuxers, encoders and transcoders count themselves, as their native memory is not visible to the JVM.
+ */
+public final class FFmpegRuntime {
+    private static volatile boolean initialized;
+    private static final AtomicInteger openContexts = new AtomicInteger();
+
+    private FFmpegRuntime() { }
+
+    public static void ensureInitialized() {
+        if (!initialized) {
+            synchronized (FFmpegRuntime.class) {
+                if (!initialized) {
+                    av_log_set_level(AV_LOG_ERROR);
+                    initialized = true;
+                }
+            }
+        }
+    }
+
+    public static void contextOpened() {
+        openContexts.incrementAndGet();
+    }
+
+    public static void contextClosed() {
+        openContexts.decrementAndGet();
+    }
+
+    /**
+     * @return opened demuxers, encoders and transcoders
+     */
+    public static int openContexts() {
+        return openContexts.get();
+    }
+}
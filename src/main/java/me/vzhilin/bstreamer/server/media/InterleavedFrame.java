@@ -4,9 +4,21 @@ import io.netty.buffer.ByteBuf;
 
 public final class InterleavedFrame {
     private ByteBuf buffer;
+    private final int keyframes;
+    private final int parameterSetBytes;
 
     public InterleavedFrame(ByteBuf buffer) {
+        this(buffer, 0, 0);
+    }
+
+    /**
+     * @param keyframes number of keyframes in the frame
+     * @param parameterSetBytes size of in-band SPS/PPS packets
+     */
+    public InterleavedFrame(ByteBuf buffer, int keyframes, int parameterSetBytes) {
         this.buffer = buffer;
+        this.keyframes = keyframes;
+        this.parameterSetBytes = parameterSetBytes;
     }
 
     public ByteBuf getPayload() {
@@ -17,6 +29,14 @@ public final class InterleavedFrame {
         return buffer.readableBytes();
     }
 
+    public int getKeyframes() {
+        return keyframes;
+    }
+
+    public int getParameterSetBytes() {
+        return parameterSetBytes;
+    }
+
     public void release() {
         buffer.release();
     }
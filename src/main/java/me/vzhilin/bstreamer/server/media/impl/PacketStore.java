@@ -0,0 +1,204 @@
+package me.vzhilin.bstreamer.server.media.impl;
+
+import me.vzhilin.bstreamer.server.streaming.base.PullSource;
+import me.vzhilin.bstreamer.server.streaming.file.MediaPacket;
+import me.vzhilin.bstreamer.server.streaming.file.SourceDescription;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Demuxed packets of one source, shared by readers with different encoder settings.
+ *
+ * Packets stay in the window until every reader has passed them, but not longer than {@value #WINDOW_MILLIS} ms;
+ * a reader which falls behind the window skips to the next keyframe. New reader starts at the first NAL of the latest
+ * keyframe still in the window, or waits for the next one.
+ */
+final class PacketStore {
+    private static final long WINDOW_MILLIS = 10000;
+
+    private final Supplier<PullSource> supplier;
+    private final Runnable onClose;
+    private final List<MediaPacket> window = new ArrayList<>();
+    private final List<Reader> readers = new ArrayList<>();
+    private PullSource source;
+    private boolean closed;
+    /** absolute index of the first packet in the window */
+    private long base;
+
+    /**
+     * @param onClose called when the last reader is closed
+     */
+    PacketStore(Supplier<PullSource> supplier, Runnable onClose) {
+        this.supplier = supplier;
+        this.onClose = onClose;
+    }
+
+    /**
+     * @return new reader, or null if the store was closed
+     */
+    synchronized PullSource newReader() {
+        if (closed) {
+            return null;
+        }
+        if (source == null) {
+            source = supplier.get();
+        }
+
+        Reader reader = new Reader();
+        long end = base + window.size();
+        reader.cursor = end;
+        if (!readers.isEmpty()) {
+            reader.waitKey = true;
+            for (int i = window.size() - 1; i >= 0; i--) {
+                MediaPacket pkt = window.get(i);
+                if (pkt.isKey()) {
+                    while (i > 0 && isSameKeyUnit(window.get(i - 1), pkt)) {
+                        --i;
+                    }
+                    reader.cursor = base + i;
+                    reader.waitKey = false;
+                    break;
+                }
+            }
+        }
+        readers.add(reader);
+        return reader;
+    }
+
+    /**
+     * Every NAL of a keyframe access unit is flagged key, so the unit starts at the first of them
+     */
+    private static boolean isSameKeyUnit(MediaPacket prev, MediaPacket pkt) {
+        return prev.isKey() && prev.getPts() == pkt.getPts() && prev.getDts() == pkt.getDts();
+    }
+
+    /**
+     * @return description of the latest pulled packets, it may change while playing (e.g. {@code Playlist})
+     */
+    private synchronized SourceDescription getDesc() {
+        return source.getDesc();
+    }
+
+    private synchronized boolean isDescribed() {
+        return source.isDescribed();
+    }
+
+    private synchronized boolean isFinished() {
+        return source.isFinished();
+    }
+
+    private synchronized boolean hasNext(Reader r) {
+        while (true) {
+            if (r.cursor < base) {
+                r.cursor = base;
+                r.waitKey = true;
+            }
+            long end = base + window.size();
+            while (r.waitKey && r.cursor < end) {
+                if (window.get((int) (r.cursor - base)).isKey()) {
+                    r.waitKey = false;
+                } else {
+                    ++r.cursor;
+                }
+            }
+            if (r.cursor < end) {
+                return true;
+            }
+            if (!pull()) {
+                return false;
+            }
+        }
+    }
+
+    private synchronized MediaPacket next(Reader r) {
+        if (!hasNext(r)) {
+            return null;
+        }
+        MediaPacket pkt = window.get((int) (r.cursor - base));
+        MediaPacket copy = new MediaPacket(pkt.getPts(), pkt.getDts(), pkt.isKey(), pkt.getPayload().retainedDuplicate());
+        ++r.cursor;
+        evict();
+        return copy;
+    }
+
+    private boolean pull() {
+        if (!source.hasNext()) {
+            return false;
+        }
+        window.add(source.next());
+        evict();
+        return true;
+    }
+
+    private void evict() {
+        long minCursor = Long.MAX_VALUE;
+        for (Reader r: readers) {
+            minCursor = Math.min(minCursor, r.cursor);
+        }
+        long lastDts = window.isEmpty() ? 0 : window.get(window.size() - 1).getDts();
+        int n = 0;
+        while (n < window.size() &&
+              (base + n < minCursor || lastDts - window.get(n).getDts() > WINDOW_MILLIS)) {
+            window.get(n).getPayload().release();
+            ++n;
+        }
+        if (n > 0) {
+            window.subList(0, n).clear();
+            base += n;
+        }
+    }
+
+    /**
+     * @return true if the last reader was closed
+     */
+    private synchronized boolean close(Reader r) throws IOException {
+        if (!readers.remove(r) || !readers.isEmpty()) {
+            return false;
+        }
+        closed = true;
+        window.forEach(p -> p.getPayload().release());
+        window.clear();
+        source.close();
+        return true;
+    }
+
+    private final class Reader implements PullSource {
+        private long cursor;
+        private boolean waitKey;
+
+        @Override
+        public SourceDescription getDesc() {
+            return PacketStore.this.getDesc();
+        }
+
+        @Override
+        public boolean isDescribed() {
+            return PacketStore.this.isDescribed();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return PacketStore.this.hasNext(this);
+        }
+
+        @Override
+        public MediaPacket next() {
+            return PacketStore.this.next(this);
+        }
+
+        @Override
+        public boolean isFinished() {
+            return PacketStore.this.isFinished();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (PacketStore.this.close(this)) {
+                onClose.run();
+            }
+        }
+    }
+}
@@ -2,48 +2,141 @@ package me.vzhilin.bstreamer.server.media.impl;
 
 import me.vzhilin.bstreamer.server.ServerContext;
 import me.vzhilin.bstreamer.server.SourceKey;
-import me.vzhilin.bstreamer.server.scheduler.BufferingLimits;
+import me.vzhilin.bstreamer.server.conf.SourceConfig;
 import me.vzhilin.bstreamer.server.scheduler.PushSource;
+import me.vzhilin.bstreamer.server.streaming.Playlist;
 import me.vzhilin.bstreamer.server.streaming.RepeatedSource;
 import me.vzhilin.bstreamer.server.streaming.base.PullSource;
+import me.vzhilin.bstreamer.server.streaming.file.FileSourceAttributes;
 import me.vzhilin.bstreamer.util.PropertyMap;
 
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Supplier;
 
 public final class PullSourceRegistry {
     private final static String DEFAULT_PACKAGE = "me.vzhilin.bstreamer.server.streaming.";
-    private final Map<SourceKey, PushSource> sources = new HashMap<>();
+    /** settings of {@link PushSource}, which do not affect the demuxed stream */
+    private final static List<String> ENCODER_PROPERTIES = Arrays.asList("max_rtp_size", "inband_parameter_sets");
+    private final Map<SourceKey, PushSource> sources = new ConcurrentHashMap<>();
+    private final Map<SourceKey, PacketStore> stores = new HashMap<>();
     private final Function<SourceKey, PushSource> mappingFunction;
     private final ServerContext serverContext;
+    private final AtomicInteger nextId = new AtomicInteger();
 
-    public PullSourceRegistry(ServerContext context, BufferingLimits limits, ScheduledExecutorService workers) {
+    public PullSourceRegistry(ServerContext context, ScheduledExecutorService workers) {
         this.serverContext = context;
-        mappingFunction = (SourceKey key) -> new PushSource(supplierFor(key), key.cfg, workers, limits);
+        mappingFunction = (SourceKey key) -> {
+            PropertyMap props = key.conf.toPropertyMap();
+            return new PushSource(nextId.getAndIncrement(), sharedSupplierFor(key), props, workers,
+                context.getSettings(), context.getStat().get(props));
+        };
     }
 
-    public PushSource get(SourceKey key) {
-        return sources.computeIfAbsent(key, mappingFunction);
+    /**
+     * @return source of the key, held by the caller until {@link #release}
+     */
+    public PushSource acquire(SourceKey key) {
+        return sources.compute(key, (k, source) -> {
+            if (source == null) {
+                source = mappingFunction.apply(k);
+            }
+            source.retain();
+            return source;
+        });
+    }
+
+    public void release(PushSource source) {
+        source.release();
+    }
+
+    public boolean contains(SourceKey key) {
+        return sources.containsKey(key);
+    }
+
+    /**
+     * Removes the sources which are not held and have nothing opened, with their statistics
+     */
+    public void evictUnused() {
+        for (SourceKey key: sources.keySet()) {
+            sources.computeIfPresent(key, (k, source) -> {
+                if (!source.isUnused()) {
+                    return source;
+                }
+                serverContext.getStat().remove(source.getProps(), source.getStat());
+                serverContext.getAdmission().forget(source.getStat());
+                return null;
+            });
+        }
+    }
+
+    public void forEach(Consumer<PushSource> action) {
+        sources.values().forEach(action);
+    }
+
+    /**
+     * @return reader of the demuxed stream, shared with the push sources of the same configuration
+     */
+    public PullSource openShared(SourceKey key) {
+        return sharedSupplierFor(key).get();
+    }
+
+    /**
+     * Sources which differ only in encoder settings read the same {@link PacketStore}
+     */
+    private Supplier<PullSource> sharedSupplierFor(SourceKey key) {
+        SourceConfig demuxConf = key.conf;
+        for (String property: ENCODER_PROPERTIES) {
+            demuxConf = demuxConf.without(property);
+        }
+        SourceKey demuxKey = new SourceKey(key.clazz, demuxConf);
+        Supplier<PullSource> demuxSupplier = supplierFor(demuxKey);
+        return () -> openReader(demuxKey, demuxSupplier);
+    }
+
+    private PullSource openReader(SourceKey demuxKey, Supplier<PullSource> demuxSupplier) {
+        while (true) {
+            PacketStore store = getStore(demuxKey, demuxSupplier);
+            PullSource reader = store.newReader();
+            if (reader != null) {
+                return reader;
+            }
+            removeStore(demuxKey, store);
+        }
+    }
+
+    private synchronized PacketStore getStore(SourceKey demuxKey, Supplier<PullSource> demuxSupplier) {
+        return stores.computeIfAbsent(demuxKey, k -> {
+            PacketStore[] store = new PacketStore[1];
+            store[0] = new PacketStore(demuxSupplier, () -> removeStore(demuxKey, store[0]));
+            return store[0];
+        });
+    }
+
+    private synchronized void removeStore(SourceKey demuxKey, PacketStore store) {
+        stores.remove(demuxKey, store);
     }
 
     private Supplier<PullSource> supplierFor(SourceKey key) {
         try {
             Class<PullSource> pullSource = (Class<PullSource>) Class.forName(DEFAULT_PACKAGE + key.clazz);
             Constructor<PullSource> constructor = pullSource.getDeclaredConstructor(ServerContext.class, PropertyMap.class);
-            Supplier<PullSource> pullSourceSupplier = () -> {
-                try {
-                    return constructor.newInstance(serverContext, key.cfg);
-                } catch (InstantiationException | IllegalAccessException | InvocationTargetException e) {
-                    throw new RuntimeException(e);
+            Supplier<PullSource> pullSourceSupplier = supplier(constructor, key.conf.toPropertyMap());
+            if (key.conf.getBoolean("repeat") && !Playlist.class.isAssignableFrom(pullSource)) {
+                if (key.conf.getString(FileSourceAttributes.START) != null) {
+                    PropertyMap loopCfg = key.conf.without(FileSourceAttributes.START).toPropertyMap();
+                    Supplier<PullSource> loopSupplier = supplier(constructor, loopCfg);
+                    return () -> new RepeatedSource(pullSourceSupplier, loopSupplier);
                 }
-            };
-
-            if (key.cfg.getBoolean("repeat")) {
                 return () -> new RepeatedSource(pullSourceSupplier);
             } else {
                 return pullSourceSupplier;
@@ -52,4 +145,14 @@ public final class PullSourceRegistry {
             throw new RuntimeException(e);
         }
     }
+
+    private Supplier<PullSource> supplier(Constructor<PullSource> constructor, PropertyMap cfg) {
+        return () -> {
+            try {
+                return constructor.newInstance(serverContext, cfg);
+            } catch (InstantiationException | IllegalAccessException | InvocationTargetException e) {
+                throw new RuntimeException(e);
+            }
+        };
+    }
 }
@@ -1,5 +1,9 @@
 package me.vzhilin.bstreamer.server.scheduler;
 
+/**
+ * Limits of a batch of packets read by a push: bytes, packets and time ahead of the clock; zero bytes or packets
+ * is no limit
+ */
 public final class BufferingLimits {
     private final long bytes;
     private final int npackets;
@@ -11,6 +15,18 @@ public final class BufferingLimits {
         this.timeMillis = timeMillis;
     }
 
+    public long getBytes() {
+        return bytes;
+    }
+
+    public int getPackets() {
+        return npackets;
+    }
+
+    public long getTimeMillis() {
+        return timeMillis;
+    }
+
     public boolean check(long bytes, long npackets, long timeMillis) {
         return (this.bytes == 0 || bytes < this.bytes) &&
                (this.npackets == 0 || npackets < this.npackets) &&
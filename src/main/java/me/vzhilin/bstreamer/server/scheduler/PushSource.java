@@ -1,6 +1,9 @@
 package me.vzhilin.bstreamer.server.scheduler;
 
+import me.vzhilin.bstreamer.server.conf.RuntimeSettings;
+import me.vzhilin.bstreamer.server.stat.GroupStatistics;
 import me.vzhilin.bstreamer.server.streaming.base.PullSource;
+import me.vzhilin.bstreamer.server.streaming.file.FileSourceAttributes;
 import me.vzhilin.bstreamer.server.streaming.file.SourceDescription;
 import me.vzhilin.bstreamer.util.PropertyMap;
 
@@ -12,24 +15,67 @@ public final class PushSource {
     private final ScheduledExecutorService pullExecutor;
     private final PushTask task;
     private final PropertyMap props;
+    private final int id;
+    private final GroupStatistics stat;
 
     private int subscribers;
+    /** streams, multicast groups and prewarming which hold the source */
+    private int users;
     private Future<?> pushTaskFuture;
 
-    public PushSource(Supplier<PullSource> pullSourceSupplier,
+    /**
+     * @param id number of the source in the admin API
+     * @param settings limits of a push and linger of the source; a source with a start position does not linger
+     */
+    public PushSource(int id,
+                      Supplier<PullSource> pullSourceSupplier,
                       PropertyMap props,
                       ScheduledExecutorService pullExecutor,
-                      BufferingLimits bufferingLimits) {
+                      RuntimeSettings settings,
+                      GroupStatistics stat) {
+        this.id = id;
         this.pullExecutor = pullExecutor;
         this.props = props;
+        this.stat = stat;
         int maxRtpSize = props.getInt("max_rtp_size", 65536);
-        task = new PushTask(pullSourceSupplier, bufferingLimits, maxRtpSize, pullExecutor);
+        boolean inbandParameterSets = props.getBoolean("inband_parameter_sets");
+        boolean lingering = props.getString(FileSourceAttributes.START) == null;
+        task = new PushTask(pullSourceSupplier, settings, maxRtpSize, inbandParameterSets, lingering, pullExecutor, stat);
     }
 
+    /**
+     * @return description, or null while the source is being described
+     */
     public SourceDescription describe() {
         return task.describe();
     }
 
+    public void prewarm() {
+        task.prewarm();
+    }
+
+    /**
+     * @return dts of the stream at the current time, ms, or -1 if it is not playing
+     */
+    public long position() {
+        return task.position();
+    }
+
+    public synchronized void retain() {
+        ++users;
+    }
+
+    public synchronized void release() {
+        --users;
+    }
+
+    /**
+     * @return true if nobody holds the source and it has nothing opened, so it may be removed
+     */
+    public synchronized boolean isUnused() {
+        return users == 0 && subscribers == 0 && task.isIdle();
+    }
+
     public PushSourceSession subscribe(PushTaskSubscriber sub) {
         synchronized (this) {
             PushTaskSession s = task.subscribe(sub);
@@ -50,4 +96,19 @@ public final class PushSource {
     public PropertyMap getProps() {
         return props;
     }
+
+    public int getId() {
+        return id;
+    }
+
+    public GroupStatistics getStat() {
+        return stat;
+    }
+
+    /**
+     * @return number of streams and multicast groups receiving the source
+     */
+    public synchronized int getSubscribers() {
+        return subscribers;
+    }
 }
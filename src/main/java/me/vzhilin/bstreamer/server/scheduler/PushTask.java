@@ -3,7 +3,13 @@ package me.vzhilin.bstreamer.server.scheduler;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.PooledByteBufAllocator;
 import me.vzhilin.bstreamer.server.RtpEncoder;
+import me.vzhilin.bstreamer.server.conf.RuntimeSettings;
 import me.vzhilin.bstreamer.server.media.InterleavedFrame;
+import me.vzhilin.bstreamer.server.jfr.Jfr;
+import me.vzhilin.bstreamer.server.jfr.PushEvent;
+import me.vzhilin.bstreamer.server.jfr.SourceEvent;
+import me.vzhilin.bstreamer.server.stat.GroupStatistics;
+import me.vzhilin.bstreamer.server.stat.LatencyStatistics;
 import me.vzhilin.bstreamer.server.streaming.base.PullSource;
 import me.vzhilin.bstreamer.server.streaming.file.MediaPacket;
 import me.vzhilin.bstreamer.server.streaming.file.SourceDescription;
@@ -17,7 +23,11 @@ import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
 
 final class PushTask implements Runnable {
-    private final BufferingLimits limits;
+    /** how often a live source is polled while it has no packets */
+    private static final long LIVE_POLL_MILLIS = 10;
+    /** how long a source which is being described waits for the retried DESCRIBE */
+    private static final long DESCRIBE_WAIT_MILLIS = 10000;
+    private final RuntimeSettings settings;
     private final ScheduledExecutorService executor;
     private PullSource unbuffered;
     private final Supplier<PullSource> sourceSupplier;
@@ -27,32 +37,69 @@ final class PushTask implements Runnable {
     private long startTimeMillis;
     private long startDtsMillis;
     private final RtpEncoder interleavedEncoder;
+    private final boolean inbandParameterSets;
     private ScheduledFuture<?> advanceFuture = null;
+    private final LatencyStatistics latency;
+    /** name of the source in events */
+    private final String name;
+    /** nanoTime when the scheduled push is due, 0 if the next run is not a scheduled push */
+    private long dueNanos;
 
     private long lastDts;
+    /** previous packet, to find the first NAL unit of an access unit */
+    private boolean prevKey;
+    private long prevPts;
 
     private List<PushTaskSubscriber> subs = new ArrayList<>();
     private SourceDescription desc;
 
+    /** opened source, waiting for the first subscriber */
+    private PullSource warm;
+    private boolean keepWarm;
+    /** false if the source starts at a position, a reader left after a session would not start there */
+    private final boolean lingering;
+    /** closes the source left open after the last subscriber, null if there is none */
+    private ScheduledFuture<?> lingerFuture;
+
     PushTask(Supplier<PullSource> pullSource,
-             BufferingLimits limits,
+             RuntimeSettings settings,
              int maxRtpSize,
-             ScheduledExecutorService executor) {
+             boolean inbandParameterSets,
+             boolean lingering,
+             ScheduledExecutorService executor,
+             GroupStatistics stat) {
+        this.latency = stat.latency();
+        this.name = stat.getName();
         this.interleavedEncoder = new RtpEncoder(maxRtpSize);
-        this.limits = limits;
+        this.inbandParameterSets = inbandParameterSets;
+        this.lingering = lingering;
+        this.settings = settings;
         this.sourceSupplier = pullSource;
         this.executor = executor;
     }
 
+    /**
+     * A source which is not described yet is kept open, so that it is described when the client retries
+     *
+     * @return description, or null while the source is being described
+     */
     public SourceDescription describe() {
         synchronized (this) {
+            if (!subs.isEmpty()) {
+                return unbuffered.isDescribed() ? unbuffered.getDesc() : null;
+            }
             if (desc == null) {
-                PullSource pullSource = sourceSupplier.get();
+                PullSource pullSource = warm != null ? warm : open();
+                if (!pullSource.isDescribed()) {
+                    return waitDescription(pullSource);
+                }
                 desc = pullSource.getDesc();
-                try {
-                    pullSource.close();
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
+                if (pullSource != warm) {
+                    try {
+                        close(pullSource);
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
                 }
             }
 
@@ -60,32 +107,160 @@ final class PushTask implements Runnable {
         }
     }
 
+    private SourceDescription waitDescription(PullSource pullSource) {
+        if (pullSource.isFinished()) {
+            if (pullSource == warm) {
+                warm = null;
+                if (lingerFuture != null) {
+                    lingerFuture.cancel(false);
+                    lingerFuture = null;
+                }
+            }
+            try {
+                close(pullSource);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            throw new IllegalStateException("unable to describe " + name);
+        }
+        if (warm == null) {
+            warm = pullSource;
+            lingerFuture = executor.schedule(this::expireLinger, DESCRIBE_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        return null;
+    }
+
     public PushTaskSession subscribe(PushTaskSubscriber sub) {
         synchronized (this) {
             boolean wasEmpty = subs.isEmpty();
             subs.add(sub);
 
             if (wasEmpty) {
+                started = false;
+                prevKey = false;
                 startTimeMillis = System.currentTimeMillis();
-                unbuffered = sourceSupplier.get();
+                if (lingerFuture != null) {
+                    lingerFuture.cancel(false);
+                    lingerFuture = null;
+                }
+                if (warm != null) {
+                    unbuffered = warm;
+                    warm = null;
+                } else {
+                    unbuffered = open();
+                }
             }
         }
 
         return new PushTaskSession(() -> unsubscribe(sub));
     }
 
+    /**
+     * Opens the source ahead of the first subscriber and keeps an opened instance ready from now on
+     */
+    public void prewarm() {
+        synchronized (this) {
+            keepWarm = true;
+            if (warm == null && subs.isEmpty()) {
+                warm = open();
+                if (warm.isDescribed()) {
+                    desc = warm.getDesc();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return dts of the stream at the current time, ms, or -1 if it is not playing
+     */
+    public synchronized long position() {
+        if (subs.isEmpty() || !started) {
+            return -1;
+        }
+        return Math.min(lastDts, startDtsMillis + System.currentTimeMillis() - startTimeMillis);
+    }
+
+    /**
+     * @return true if the source has no subscribers and no opened instance
+     */
+    public synchronized boolean isIdle() {
+        return subs.isEmpty() && warm == null && !keepWarm;
+    }
+
     private void unsubscribe(PushTaskSubscriber sub) {
         synchronized (this) {
             if (subs.remove(sub) && subs.isEmpty()) {
+                if (advanceFuture != null) {
+                    advanceFuture.cancel(false);
+                    advanceFuture = null;
+                }
+                long linger = settings.getSourceLingerMillis();
+                if (linger > 0 && lingering && warm == null) {
+                    warm = unbuffered;
+                    lingerFuture = executor.schedule(this::expireLinger, linger, TimeUnit.MILLISECONDS);
+                    return;
+                }
                 try {
-                    unbuffered.close();
+                    close(unbuffered);
                 } catch (IOException e) {
                     throw new RuntimeException(e);
                 }
+                if (keepWarm) {
+                    executor.execute(this::prewarm);
+                }
             }
         }
     }
 
+    /**
+     * Closes the source which nobody subscribed to during the linger, a prewarmed source is opened anew
+     */
+    private void expireLinger() {
+        synchronized (this) {
+            if (lingerFuture == null || !subs.isEmpty() || warm == null) {
+                return;
+            }
+            lingerFuture = null;
+            PullSource lingering = warm;
+            warm = null;
+            try {
+                close(lingering);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            if (keepWarm) {
+                prewarm();
+            }
+        }
+    }
+
+    private PullSource open() {
+        SourceEvent event = Jfr.ENABLED ? new SourceEvent() : null;
+        if (event != null) {
+            event.begin();
+        }
+        PullSource source = sourceSupplier.get();
+        if (event != null && event.shouldCommit()) {
+            event.source = name;
+            event.action = SourceEvent.OPEN;
+            event.commit();
+        }
+        return source;
+    }
+
+    private void close(PullSource source) throws IOException {
+        SourceEvent event = Jfr.ENABLED ? new SourceEvent() : null;
+        if (event != null) {
+            event.begin();
+        }
+        source.close();
+        if (event != null && event.shouldCommit()) {
+            event.source = name;
+            event.action = SourceEvent.CLOSE;
+            event.commit();
+        }
+    }
+
     private void pushNext() {
         long nowMillis = System.currentTimeMillis();
         synchronized (this) {
@@ -94,6 +269,7 @@ final class PushTask implements Runnable {
             }
             long delay = (startTimeMillis - nowMillis) - (startDtsMillis - lastDts);
             // TODO handle the situation the when delay is negative
+            dueNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
             advanceFuture = executor.schedule(this, delay, TimeUnit.MILLISECONDS);
         }
     }
@@ -102,23 +278,34 @@ final class PushTask implements Runnable {
 
     @Override
     public void run() {
+        PushEvent event = Jfr.ENABLED ? new PushEvent() : null;
+        if (event != null) {
+            event.begin();
+        }
         List<MediaPacket> ps = new ArrayList<>();
 
         synchronized (this) {
             localSubs.clear();
             localSubs.addAll(subs);
 
-            if (finished) {
+            if (finished || subs.isEmpty()) {
                 return;
             }
+            if (dueNanos != 0) {
+                latency.record(LatencyStatistics.Stage.SCHEDULE, System.nanoTime() - dueNanos);
+                dueNanos = 0;
+            }
             long sz = 0;
             long np = 0;
             long deltaPositionMillis = 0;
             MediaPacket pkt = null;
             long now = System.currentTimeMillis();
+            BufferingLimits limits = settings.getLimits();
             while (unbuffered.hasNext() &&
                    limits.check(sz, np, deltaPositionMillis)) {
+                long pullStart = System.nanoTime();
                 pkt = unbuffered.next();
+                latency.record(LatencyStatistics.Stage.PULL, System.nanoTime() - pullStart);
                 ensureStarted(pkt);
                 ps.add(pkt);
                 sz += pkt.size();
@@ -127,12 +314,19 @@ final class PushTask implements Runnable {
             }
             if (!ps.isEmpty()) {
                 lastDts = Math.max(0, pkt.getDts());
+            } else
+            if (!unbuffered.isFinished()) {
+                advanceFuture = executor.schedule(this, LIVE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                return;
             }
         }
 
         boolean endReached = ps.isEmpty();
         int subsCount = localSubs.size();
+        long encodeStart = System.nanoTime();
         InterleavedFrame packet = encodeInterleavedFrames(ps);
+        latency.record(LatencyStatistics.Stage.ENCODE, System.nanoTime() - encodeStart);
+        int frameBytes = packet.getSize();
         packet.retain(subsCount - 1);
         PushedPacket pp = new PushedPacket(this::pushNext, packet, subsCount);
         for (PushTaskSubscriber sub : localSubs) {
@@ -142,6 +336,13 @@ final class PushTask implements Runnable {
                 sub.onNext(pp);
             }
         }
+        if (event != null && event.shouldCommit()) {
+            event.source = name;
+            event.subscribers = subsCount;
+            event.packets = ps.size();
+            event.bytes = frameBytes;
+            event.commit();
+        }
     }
 
     private void ensureStarted(MediaPacket pkt) {
@@ -155,24 +356,45 @@ final class PushTask implements Runnable {
         }
     }
 
-    private int estimateSize(List<MediaPacket> packets) {
-        int sz = 0;
+    private InterleavedFrame encodeInterleavedFrames(List<MediaPacket> packets) {
+        SourceDescription d = inbandParameterSets && !packets.isEmpty() ? unbuffered.getDesc() : null;
+        boolean[] idrStart = new boolean[packets.size()];
+        int keyframes = 0;
+        int interleavedFrameSize = 0;
+        int parameterSetSize = 0;
         for (int i = 0; i < packets.size(); i++) {
-            int payloadSize = packets.get(i).size();
-            sz += interleavedEncoder.estimateSize(payloadSize);
+            MediaPacket pkt = packets.get(i);
+            if (pkt.isKey() && (!prevKey || pkt.getPts() != prevPts)) {
+                ++keyframes;
+                idrStart[i] = d != null && !isParameterSet(pkt);
+                if (idrStart[i]) {
+                    parameterSetSize += interleavedEncoder.estimateParameterSetsSize(d.getSps(), d.getPps());
+                }
+            }
+            prevKey = pkt.isKey();
+            prevPts = pkt.getPts();
+            interleavedFrameSize += interleavedEncoder.estimateSize(pkt.size());
         }
-        return sz;
-    }
+        interleavedFrameSize += parameterSetSize;
 
-    private InterleavedFrame encodeInterleavedFrames(List<MediaPacket> packets) {
-        int interleavedFrameSize = estimateSize(packets);
         ByteBuf buffer = PooledByteBufAllocator.DEFAULT.buffer(interleavedFrameSize, interleavedFrameSize);
         for (int i = 0; i < packets.size(); i++) {
             MediaPacket pkt = packets.get(i);
+            if (idrStart[i]) {
+                interleavedEncoder.encodeParameterSets(buffer, d.getSps(), d.getPps(), pkt.getDts() * 90);
+            }
             interleavedEncoder.encode(buffer, pkt, pkt.getDts() * 90);
         }
         packets.forEach(mediaPacket -> mediaPacket.getPayload().release());
-        return new InterleavedFrame(buffer);
+        return new InterleavedFrame(buffer, keyframes, parameterSetSize);
+    }
+
+    /**
+     * @return true if NAL unit is SPS, i.e. the source already sends parameter sets in-band
+     */
+    private static boolean isParameterSet(MediaPacket pkt) {
+        ByteBuf payload = pkt.getPayload();
+        return payload.isReadable() && (payload.getByte(payload.readerIndex()) & 0x1f) == 7;
     }
 
     public void finish() {
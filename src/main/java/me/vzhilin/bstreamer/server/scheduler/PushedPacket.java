@@ -15,6 +15,13 @@ public final class PushedPacket {
         this.subsCount = subsCount;
     }
 
+    /**
+     * @return size of the frame, which is still held by this packet
+     */
+    public int getSize() {
+        return packet.getSize();
+    }
+
     public InterleavedFrame drain() {
         boolean ready;
         synchronized (this) {
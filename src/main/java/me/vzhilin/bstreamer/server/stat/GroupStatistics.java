@@ -1,48 +1,162 @@
 package me.vzhilin.bstreamer.server.stat;
 
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of a group of connections, updated from every event loop.
+ *
+ * Counters are striped and only grow, so writers never wait for each other or for the reporter. Per-second values
+ * of a snapshot are the differences from the previous snapshot. A group with a parent updates the parent as well.
+ */
 public final class GroupStatistics {
-    private long connections;
-    private long openedConnections;
-    private long closedConnections;
+    private final GroupStatistics parent;
+    private final String name;
+    private final LatencyStatistics latency;
+
+    private final LongAdder openedConnections = new LongAdder();
+    private final LongAdder closedConnections = new LongAdder();
+    private final LongAdder lagCounter = new LongAdder();
+    private final LongAdder byteCounter = new LongAdder();
+    private final LongAdder keyframeCounter = new LongAdder();
+    private final LongAdder parameterSetByteCounter = new LongAdder();
+    private final LongAdder rejectedCounter = new LongAdder();
+
+    /** values of the previous snapshot, guarded by this */
+    private long previousOpened;
+    private long previousClosed;
+    private long previousLag;
+    private long previousBytes;
+    private long previousKeyframes;
+    private long previousParameterSetBytes;
+    private long previousRejected;
+
+    public GroupStatistics() {
+        this(null, "total");
+    }
+
+    /**
+     * @param parent statistics which also count everything counted by this one, e.g. the server total
+     * @param name name of the group in reports
+     */
+    public GroupStatistics(GroupStatistics parent, String name) {
+        this.parent = parent;
+        this.name = name;
+        this.latency = new LatencyStatistics(parent != null ? parent.latency : null);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return latencies of the stages of the pipeline
+     */
+    public LatencyStatistics latency() {
+        return latency;
+    }
+
+    public long connections() {
+        return openedConnections.sum() - closedConnections.sum();
+    }
+
+    public long openedConnections() {
+        return openedConnections.sum();
+    }
+
+    public long closedConnections() {
+        return closedConnections.sum();
+    }
+
+    public long bytes() {
+        return byteCounter.sum();
+    }
 
-    private long totalLagCounter;
-    private long lagCounter;
+    public long lagEvents() {
+        return lagCounter.sum();
+    }
 
-    private long totalBytes;
-    private long byteCounter;
+    public long keyframes() {
+        return keyframeCounter.sum();
+    }
+
+    public long parameterSetBytes() {
+        return parameterSetByteCounter.sum();
+    }
 
-    public GroupStatistics() { }
+    /**
+     * @return PLAY requests refused by admission control
+     */
+    public long rejected() {
+        return rejectedCounter.sum();
+    }
+
+    public void incOpenConn() {
+        openedConnections.increment();
+        if (parent != null) {
+            parent.incOpenConn();
+        }
+    }
 
-    public synchronized long connections() {
-        return connections;
+    public void incCloseConn() {
+        closedConnections.increment();
+        if (parent != null) {
+            parent.incCloseConn();
+        }
     }
 
-    public synchronized void incOpenConn() {
-        ++connections;
-        ++openedConnections;
+    public void incByteCount(long bytes) {
+        byteCounter.add(bytes);
+        if (parent != null) {
+            parent.incByteCount(bytes);
+        }
     }
 
-    public synchronized void incCloseConn() {
-        --connections;
-        ++closedConnections;
+    /**
+     * @param parameterSetBytes size of in-band SPS/PPS sent with the keyframes
+     */
+    public void incKeyframes(int keyframes, int parameterSetBytes) {
+        keyframeCounter.add(keyframes);
+        parameterSetByteCounter.add(parameterSetBytes);
+        if (parent != null) {
+            parent.incKeyframes(keyframes, parameterSetBytes);
+        }
     }
 
-    public synchronized void incByteCount(long bytes) {
-        totalBytes += bytes;
-        byteCounter += bytes;
+    public void incLagCount() {
+        lagCounter.increment();
+        if (parent != null) {
+            parent.incLagCount();
+        }
     }
 
-    public synchronized void incLagCount() {
-        ++totalLagCounter;
-        ++lagCounter;
+    public void incRejected() {
+        rejectedCounter.increment();
+        if (parent != null) {
+            parent.incRejected();
+        }
     }
 
-    public GroupStatisticsSnapshot snapshot() {
-        GroupStatisticsSnapshot snapshot = new GroupStatisticsSnapshot(this);
-        lagCounter = 0;
-        byteCounter = 0;
-        openedConnections = 0;
-        closedConnections = 0;
+    /**
+     * @return totals and the counters since the previous snapshot
+     */
+    public synchronized GroupStatisticsSnapshot snapshot() {
+        long closed = closedConnections.sum();
+        long opened = openedConnections.sum();
+        long lag = lagCounter.sum();
+        long bytes = byteCounter.sum();
+        long keyframes = keyframeCounter.sum();
+        long parameterSetBytes = parameterSetByteCounter.sum();
+        long rejected = rejectedCounter.sum();
+        GroupStatisticsSnapshot snapshot = new GroupStatisticsSnapshot(opened - closed, bytes, lag,
+            lag - previousLag, bytes - previousBytes, opened - previousOpened, closed - previousClosed,
+            keyframes - previousKeyframes, parameterSetBytes - previousParameterSetBytes, rejected, rejected - previousRejected);
+        previousOpened = opened;
+        previousClosed = closed;
+        previousLag = lag;
+        previousBytes = bytes;
+        previousKeyframes = keyframes;
+        previousParameterSetBytes = parameterSetBytes;
+        previousRejected = rejected;
         return snapshot;
     }
 
@@ -54,15 +168,45 @@ public final class GroupStatistics {
         public final long byteCounter;
         public final long connOpenCounter;
         public final long connCloseCOunter;
+        public final long keyframeCounter;
+        public final long parameterSetByteCounter;
+        public final long totalRejected;
+        public final long rejectedCounter;
+
+        /**
+         * @param values fields in declaration order, see {@link #toArray()}
+         */
+        public GroupStatisticsSnapshot(long... values) {
+            this.totalConnections = values[0];
+            this.totalBytes = values[1];
+            this.totalLagCounter = values[2];
+            this.lagCounter = values[3];
+            this.byteCounter = values[4];
+            this.connOpenCounter = values[5];
+            this.connCloseCOunter = values[6];
+            this.keyframeCounter = values[7];
+            this.parameterSetByteCounter = values[8];
+            this.totalRejected = values[9];
+            this.rejectedCounter = values[10];
+        }
+
+        public long[] toArray() {
+            return new long[] {
+                totalConnections, totalBytes, totalLagCounter, lagCounter, byteCounter,
+                connOpenCounter, connCloseCOunter, keyframeCounter, parameterSetByteCounter, totalRejected, rejectedCounter
+            };
+        }
 
-        public GroupStatisticsSnapshot(GroupStatistics gs) {
-            this.totalConnections = gs.connections;
-            this.totalBytes = gs.totalBytes;
-            this.totalLagCounter = gs.totalLagCounter;
-            this.lagCounter = gs.lagCounter;
-            this.byteCounter = gs.byteCounter;
-            this.connOpenCounter = gs.openedConnections;
-            this.connCloseCOunter = gs.closedConnections;
+        /**
+         * @return sum of the snapshots, e.g. of several server processes
+         */
+        public GroupStatisticsSnapshot plus(GroupStatisticsSnapshot other) {
+            long[] a = toArray();
+            long[] b = other.toArray();
+            for (int i = 0; i < a.length; i++) {
+                a[i] += b[i];
+            }
+            return new GroupStatisticsSnapshot(a);
         }
     }
 }
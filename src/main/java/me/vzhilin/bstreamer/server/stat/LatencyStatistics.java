@@ -0,0 +1,58 @@
+package me.vzhilin.bstreamer.server.stat;
+
+import me.vzhilin.bstreamer.util.metrics.Histogram;
+
+/**
+ * Latency of every stage of the pipeline of a source, in nanoseconds.
+ *
+ * A frame is read from the source and encoded by the push task, waits in the queue of every event loop which has
+ * subscribers, and is flushed to each channel. Latencies of a source are recorded in the total as well.
+ */
+public final class LatencyStatistics {
+    public enum Stage {
+        PULL("pull", "time to read a packet from the source"),
+        ENCODE("encode", "time to encode packets of a push into interleaved RTP"),
+        SCHEDULE("schedule", "lateness of a push relative to the time of its packets"),
+        QUEUE("queue", "time a frame waits in the queue of an event loop"),
+        FLUSH("flush", "time from write of a frame to completion of its flush to a channel, sampled");
+
+        private final String name;
+        private final String help;
+
+        Stage(String name, String help) {
+            this.name = name;
+            this.help = help;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getHelp() {
+            return help;
+        }
+    }
+
+    private static final Stage[] STAGES = Stage.values();
+
+    private final LatencyStatistics parent;
+    private final Histogram[] histograms = new Histogram[STAGES.length];
+
+    LatencyStatistics(LatencyStatistics parent) {
+        this.parent = parent;
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new Histogram();
+        }
+    }
+
+    public void record(Stage stage, long nanos) {
+        histograms[stage.ordinal()].record(nanos);
+        if (parent != null) {
+            parent.record(stage, nanos);
+        }
+    }
+
+    public Histogram get(Stage stage) {
+        return histograms[stage.ordinal()];
+    }
+}
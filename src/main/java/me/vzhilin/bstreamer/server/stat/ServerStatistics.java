@@ -2,44 +2,46 @@ package me.vzhilin.bstreamer.server.stat;
 
 import me.vzhilin.bstreamer.util.PropertyMap;
 
-import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 
 public final class ServerStatistics {
-    private final Map<PropertyMap, GroupStatistics> groupStats = new HashMap<>();
+    private final Map<PropertyMap, GroupStatistics> groupStats = new ConcurrentHashMap<>();
+    /** same groups in the order of creation, to visit them without allocation */
+    private final List<GroupStatistics> groups = new CopyOnWriteArrayList<>();
     private final GroupStatistics totalStats = new GroupStatistics();
 
     public ServerStatistics() { }
 
-    public void openConn(PropertyMap key) {
-        get(key).incOpenConn();
-        totalStats.incOpenConn();
-    }
-
-    public void closeConn(PropertyMap key) {
-        get(key).incCloseConn();
-        totalStats.incCloseConn();
-    }
-
-    public void incByteCount(PropertyMap key, long bytes) {
-        get(key).incByteCount(bytes);
-        totalStats.incByteCount(bytes);
+    /**
+     * @return statistics of the source, which also update the total; resolved once by the streamer of the source
+     */
+    public GroupStatistics get(PropertyMap key) {
+        GroupStatistics gs = groupStats.get(key);
+        return gs != null ? gs : groupStats.computeIfAbsent(key, k -> {
+            GroupStatistics created = new GroupStatistics(totalStats, k.toString());
+            groups.add(created);
+            return created;
+        });
     }
 
-    public void incLateCount(PropertyMap key) {
-        get(key).incLagCount();
-        totalStats.incLagCount();
+    /**
+     * Removes statistics of the source which no longer exists, the total keeps its counts
+     */
+    public void remove(PropertyMap key, GroupStatistics gs) {
+        if (groupStats.remove(key, gs)) {
+            groups.remove(gs);
+        }
     }
 
-    public GroupStatistics get(PropertyMap key) {
-        GroupStatistics gs;
-        if (!groupStats.containsKey(key)) {
-            gs = new GroupStatistics();
-            groupStats.put(key, gs);
-        } else {
-            gs = groupStats.get(key);
-        }
-        return gs;
+    /**
+     * Visits statistics of every source
+     */
+    public void forEach(Consumer<GroupStatistics> action) {
+        groups.forEach(action);
     }
 
     public GroupStatistics getTotal() {
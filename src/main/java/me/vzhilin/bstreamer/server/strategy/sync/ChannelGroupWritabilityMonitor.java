@@ -3,6 +3,8 @@ package me.vzhilin.bstreamer.server.strategy.sync;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
+import me.vzhilin.bstreamer.server.jfr.Jfr;
+import me.vzhilin.bstreamer.server.jfr.WritabilityEvent;
 
 import java.util.HashSet;
 import java.util.Set;
@@ -14,8 +16,13 @@ final class ChannelGroupWritabilityMonitor extends ChannelInboundHandlerAdapter
     private Set<ChannelHandlerContext> unwritable = new HashSet<>();
     private volatile boolean writable;
     private int totalChannels;
+    /** name of the source in events */
+    private final String source;
+    /** period of unwritability being recorded, null if there is none */
+    private WritabilityEvent unwritableEvent;
 
-    ChannelGroupWritabilityMonitor(Runnable onWritable, Runnable onUnwritable) {
+    ChannelGroupWritabilityMonitor(String source, Runnable onWritable, Runnable onUnwritable) {
+        this.source = source;
         this.onWritable = onWritable;
         this.onUnwritable = onUnwritable;
     }
@@ -41,6 +48,9 @@ final class ChannelGroupWritabilityMonitor extends ChannelInboundHandlerAdapter
             writable = false;
             onUnwritable.run();
         }
+        if (totalChannels == 0) {
+            unwritableEvent = null;
+        }
     }
 
     @Override
@@ -56,6 +66,9 @@ final class ChannelGroupWritabilityMonitor extends ChannelInboundHandlerAdapter
         unwritable.add(ctx);
         if (writable) {
             writable = false;
+            if (Jfr.ENABLED) {
+                beginUnwritable();
+            }
             onUnwritable.run();
         }
     }
@@ -64,11 +77,38 @@ final class ChannelGroupWritabilityMonitor extends ChannelInboundHandlerAdapter
         unwritable.remove(ctx);
         if (!writable && unwritable.isEmpty() && totalChannels > 0) {
             writable = true;
+            if (unwritableEvent != null) {
+                commitUnwritable();
+            }
             onWritable.run();
         }
     }
 
+    private void beginUnwritable() {
+        WritabilityEvent event = new WritabilityEvent();
+        if (event.isEnabled()) {
+            event.begin();
+            event.unwritableChannels = unwritable.size();
+            unwritableEvent = event;
+        }
+    }
+
+    private void commitUnwritable() {
+        WritabilityEvent event = unwritableEvent;
+        unwritableEvent = null;
+        event.end();
+        if (event.shouldCommit()) {
+            event.source = source;
+            event.channels = totalChannels;
+            event.commit();
+        }
+    }
+
     boolean isWritable() {
         return writable;
     }
+
+    int getUnwritableChannels() {
+        return unwritable.size();
+    }
 }
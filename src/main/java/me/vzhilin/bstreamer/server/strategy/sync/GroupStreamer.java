@@ -1,42 +1,66 @@
 package me.vzhilin.bstreamer.server.strategy.sync;
 
 import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.EventLoopGroup;
+import io.netty.channel.WriteBufferWaterMark;
 import io.netty.channel.group.ChannelGroup;
 import io.netty.channel.group.ChannelMatchers;
 import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.util.concurrent.Future;
 import me.vzhilin.bstreamer.server.ServerContext;
+import me.vzhilin.bstreamer.server.conf.RuntimeSettings;
+import me.vzhilin.bstreamer.server.jfr.Jfr;
+import me.vzhilin.bstreamer.server.jfr.SendEvent;
 import me.vzhilin.bstreamer.server.media.InterleavedFrame;
 import me.vzhilin.bstreamer.server.scheduler.PushSource;
 import me.vzhilin.bstreamer.server.scheduler.PushSourceSession;
 import me.vzhilin.bstreamer.server.scheduler.PushTaskSubscriber;
 import me.vzhilin.bstreamer.server.scheduler.PushedPacket;
-import me.vzhilin.bstreamer.server.stat.ServerStatistics;
+import me.vzhilin.bstreamer.server.stat.GroupStatistics;
+import me.vzhilin.bstreamer.server.stat.LatencyStatistics;
 import me.vzhilin.bstreamer.server.streaming.file.SourceDescription;
-import me.vzhilin.bstreamer.util.PropertyMap;
+
+import java.util.ArrayList;
+import java.util.List;
 
 public final class GroupStreamer {
+    private static final String MONITOR_NAME = "group_writability_monitor";
+    /** flush latency is measured for every channel on one frame of this many */
+    private static final int FLUSH_SAMPLE_INTERVAL = 16;
+
     private final ChannelGroup group;
-    private final PropertyMap sourceConfig;
-    private final ServerStatistics stat;
+    private final String url;
+    private final RuntimeSettings settings;
+    private final GroupStatistics stat;
+    private final LatencyStatistics latency;
     private final EventLoopGroup loopGroup;
     private final ChannelGroupWritabilityMonitor groupWritabilityMonitor;
+    private final ChannelFutureListener closeListener = future -> detach(future.channel());
 
     private final PushSource pushSource;
     private final PushTaskSubscriber sub;
     private PushedPacket delayedPacket;
     private PushSourceSession pushSession;
+    private int sentFrames;
+    /** had no connections at the previous {@link #expireIdle()} */
+    private boolean idle;
 
-    public GroupStreamer(ServerContext context, EventLoopGroup loopGroup, PushSource source) {
+    /**
+     * @param url URL of the stream without the host
+     */
+    public GroupStreamer(ServerContext context, EventLoopGroup loopGroup, String url, PushSource source) {
         this.pushSource = source;
-        this.sourceConfig = source.getProps();
         this.loopGroup = loopGroup;
+        this.url = url;
+        this.settings = context.getSettings();
         this.group = new DefaultChannelGroup(loopGroup.next());
-        this.stat = context.getStat();
+        this.stat = context.getStat().get(source.getProps());
+        this.latency = stat.latency();
 
-        groupWritabilityMonitor = new ChannelGroupWritabilityMonitor(this::onWritable, this::onUnwritable);
+        groupWritabilityMonitor = new ChannelGroupWritabilityMonitor(stat.getName(), this::onWritable, this::onUnwritable);
         sub = new PushTaskSubscriber() {
             @Override
             public void onNext(PushedPacket pp) {
@@ -52,29 +76,129 @@ public final class GroupStreamer {
 
     public void attachContext(ChannelHandlerContext ctx) {
         Channel ch = ctx.channel();
-        ch.closeFuture().addListener((ChannelFutureListener) future -> detachContext(ctx));
-        ch.pipeline().addLast("group_writability_monitor", groupWritabilityMonitor);
+        ch.closeFuture().addListener(closeListener);
+        WriteBufferWaterMark watermarks = settings.getWatermarks();
+        if (watermarks != null) {
+            ch.config().setWriteBufferWaterMark(watermarks);
+        }
+        ch.pipeline().addLast(MONITOR_NAME, groupWritabilityMonitor);
 
         group.add(ch);
-        groupWritabilityMonitor.channelRegistered(ctx);
-        stat.openConn(sourceConfig);
+        idle = false;
+        groupWritabilityMonitor.channelRegistered(ch.pipeline().context(groupWritabilityMonitor));
+        stat.incOpenConn();
         if (group.size() == 1) {
             startPlaying();
         }
     }
 
     public void detachContext(ChannelHandlerContext context) {
-        boolean wasLast = group.remove(context.channel()) & group.isEmpty();
-        if (wasLast) {
+        detach(context.channel());
+    }
+
+    /**
+     * Detaches channel from the group, channel stays open
+     */
+    public void pause(ChannelHandlerContext ctx) {
+        Channel ch = ctx.channel();
+        if (group.contains(ch)) {
+            ch.closeFuture().removeListener(closeListener);
+            ChannelHandlerContext monitorCtx = ch.pipeline().context(groupWritabilityMonitor);
+            if (monitorCtx != null) {
+                groupWritabilityMonitor.channelUnregistered(monitorCtx);
+                ch.pipeline().remove(groupWritabilityMonitor);
+            }
+            detach(ch);
+        }
+    }
+
+    private void detach(Channel ch) {
+        if (!group.remove(ch)) {
+            return;
+        }
+        if (group.isEmpty()) {
             stopPlaying();
         }
-        stat.closeConn(sourceConfig);
+        stat.incCloseConn();
     }
 
     public SourceDescription describe() {
         return pushSource.describe();
     }
 
+    /**
+     * Called periodically on the event loop of the stream
+     *
+     * @return true if the stream had no connections since the previous call
+     */
+    public boolean expireIdle() {
+        boolean empty = group.isEmpty() && pushSession == null;
+        boolean expired = empty && idle;
+        idle = empty;
+        return expired;
+    }
+
+    public PushSource getPushSource() {
+        return pushSource;
+    }
+
+    /**
+     * @return state of the stream and its connections
+     */
+    public Future<StreamState> state() {
+        return loopGroup.submit(() -> {
+            List<StreamState.Connection> connections = new ArrayList<>(group.size());
+            for (Channel ch: group) {
+                connections.add(new StreamState.Connection(ch.id().asShortText(), String.valueOf(ch.remoteAddress()),
+                    ch.isWritable(), ch.isWritable() ? ch.bytesBeforeUnwritable() : -ch.bytesBeforeWritable()));
+            }
+            return new StreamState(url, pushSource.getId(), groupWritabilityMonitor.isWritable(), delayedPacket != null,
+                groupWritabilityMonitor.getUnwritableChannels(), connections);
+        });
+    }
+
+    /**
+     * Closes the connection of the stream
+     *
+     * @param id short text of the channel id
+     * @return true if the stream had the connection
+     */
+    public Future<Boolean> close(String id) {
+        return loopGroup.submit(() -> {
+            for (Channel ch: group) {
+                if (ch.id().asShortText().equals(id)) {
+                    ch.close();
+                    return true;
+                }
+            }
+            return false;
+        });
+    }
+
+    /**
+     * Closes every connection of the stream
+     *
+     * @return number of the connections
+     */
+    public Future<Integer> closeAll() {
+        return loopGroup.submit(() -> {
+            int n = group.size();
+            group.close();
+            return n;
+        });
+    }
+
+    /**
+     * Sets the watermarks of the connections of the stream, writability follows them from the next write
+     */
+    public void applyWatermarks(WriteBufferWaterMark watermarks) {
+        loopGroup.execute(() -> {
+            for (Channel ch: group) {
+                ch.config().setWriteBufferWaterMark(watermarks);
+            }
+        });
+    }
+
     private void onWritable() {
         if (delayedPacket != null && !group.isEmpty()) {
             PushedPacket local = delayedPacket;
@@ -102,21 +226,57 @@ public final class GroupStreamer {
     }
 
     private void send(PushedPacket pp) {
-        if (groupWritabilityMonitor.isWritable()) {
+        SendEvent event = Jfr.ENABLED ? new SendEvent() : null;
+        if (event != null) {
+            event.begin();
+        }
+        boolean delayed = !groupWritabilityMonitor.isWritable();
+        int frameBytes = pp.getSize();
+        if (!delayed) {
             final int channels = group.size();
             InterleavedFrame interleaved = pp.drain();
             long bytes = (long) interleaved.getSize() * channels;
-            stat.incByteCount(sourceConfig, bytes);
-            group.writeAndFlush(interleaved, ChannelMatchers.all(), true);
+            stat.incByteCount(bytes);
+            if (interleaved.getKeyframes() > 0) {
+                stat.incKeyframes(interleaved.getKeyframes(), interleaved.getParameterSetBytes());
+            }
+            if (++sentFrames % FLUSH_SAMPLE_INTERVAL == 0) {
+                writeAndMeasureFlush(interleaved);
+            } else {
+                group.writeAndFlush(interleaved, ChannelMatchers.all(), true);
+            }
             interleaved.release();
         } else {
-            stat.incLateCount(sourceConfig);
+            stat.incLagCount();
             delayedPacket = pp;
         }
+        if (event != null && event.shouldCommit()) {
+            event.source = stat.getName();
+            event.channels = group.size();
+            event.bytes = frameBytes;
+            event.delayed = delayed;
+            event.commit();
+        }
+    }
+
+    private void writeAndMeasureFlush(InterleavedFrame interleaved) {
+        long start = System.nanoTime();
+        ChannelFutureListener flushed = future -> {
+            if (future.isSuccess()) {
+                latency.record(LatencyStatistics.Stage.FLUSH, System.nanoTime() - start);
+            }
+        };
+        for (ChannelFuture future: group.writeAndFlush(interleaved, ChannelMatchers.all(), false)) {
+            future.addListener(flushed);
+        }
     }
 
     private void onNext(PushedPacket pp) {
-        loopGroup.execute(() -> send(pp));
+        long enqueued = System.nanoTime();
+        loopGroup.execute(() -> {
+            latency.record(LatencyStatistics.Stage.QUEUE, System.nanoTime() - enqueued);
+            send(pp);
+        });
     }
 
     private void onEnd() {
@@ -0,0 +1,41 @@
+package me.vzhilin.bstreamer.server.strategy.sync;
+
+import java.util.List;
+
+/**
+ * State of a stream at some moment, taken on its event loop
+ */
+public final class StreamState {
+    public final String url;
+    public final int source;
+    public final boolean writable;
+    /** a frame waits until the stream is writable again */
+    public final boolean delayed;
+    public final int unwritableChannels;
+    public final List<Connection> connections;
+
+    StreamState(String url, int source, boolean writable, boolean delayed, int unwritableChannels,
+                List<Connection> connections) {
+        this.url = url;
+        this.source = source;
+        this.writable = writable;
+        this.delayed = delayed;
+        this.unwritableChannels = unwritableChannels;
+        this.connections = connections;
+    }
+
+    public static final class Connection {
+        public final String id;
+        public final String remote;
+        public final boolean writable;
+        /** bytes which can be written before the channel becomes unwritable, negative if it is unwritable */
+        public final long bytesBeforeUnwritable;
+
+        Connection(String id, String remote, boolean writable, long bytesBeforeUnwritable) {
+            this.id = id;
+            this.remote = remote;
+            this.writable = writable;
+            this.bytesBeforeUnwritable = bytesBeforeUnwritable;
+        }
+    }
+}
@@ -4,8 +4,11 @@ import io.netty.buffer.ByteBuf;
 import io.netty.buffer.PooledByteBufAllocator;
 import me.vzhilin.bstreamer.server.ServerContext;
 import me.vzhilin.bstreamer.server.media.AVCCExtradataParser;
+import me.vzhilin.bstreamer.server.media.FFmpegRuntime;
 import me.vzhilin.bstreamer.server.streaming.base.PullSource;
 import me.vzhilin.bstreamer.server.streaming.file.FileSourceAttributes;
+import me.vzhilin.bstreamer.server.streaming.file.MediaCatalog;
+import me.vzhilin.bstreamer.server.streaming.file.MediaInfo;
 import me.vzhilin.bstreamer.server.streaming.file.MediaPacket;
 import me.vzhilin.bstreamer.server.streaming.file.SourceDescription;
 import me.vzhilin.bstreamer.util.AppRuntime;
@@ -20,6 +23,7 @@ import java.util.Queue;
 
 import static org.bytedeco.javacpp.avcodec.*;
 import static org.bytedeco.javacpp.avformat.*;
+import static org.bytedeco.javacpp.avutil.*;
 
 public class Filesystem implements PullSource {
     private static final String WORKDIR_VIDEO = "video";
@@ -32,18 +36,38 @@ public class Filesystem implements PullSource {
     private AVFormatContext pAvfmtCtx;
 
     public Filesystem(ServerContext context, PropertyMap sourceProperties) throws IOException {
+        FFmpegRuntime.ensureInitialized();
         String dirPath = sourceProperties.getString(FileSourceAttributes.DIR);
         File dir = probeDirectories(dirPath);
 
-        File videoFile = new File(dir, sourceProperties.getString(FileSourceAttributes.FILE));
-        if (videoFile.exists()) {
-            open(videoFile);
-        } else {
+        String fileName = sourceProperties.getString(FileSourceAttributes.FILE);
+        File videoFile = new File(dir, fileName);
+        MediaInfo info = null;
+        MediaCatalog catalog = sourceProperties.getBoolean(FileSourceAttributes.CATALOG) ?
+            context.getMediaCatalog(dir) : null;
+        String rendition = sourceProperties.getString(FileSourceAttributes.RENDITION);
+        if (rendition != null) {
+            videoFile = context.getRenditionCache().lookup(videoFile, rendition);
+        } else
+        if (catalog != null && catalog.isReady()) {
+            info = catalog.lookup(videoFile.getName());
+            if (info == null) {
+                throw new FileNotFoundException(videoFile.getAbsolutePath());
+            }
+        } else
+        if (!videoFile.exists()) {
             throw new FileNotFoundException(videoFile.getAbsolutePath());
         }
+        open(videoFile, info);
+
+        String start = sourceProperties.getString(FileSourceAttributes.START);
+        if (start != null) {
+            seek((long) (Double.parseDouble(start) * 1000));
+        }
+        fillQueue();
     }
 
-    private File probeDirectories(String dirPath) {
+    public static File probeDirectories(String dirPath) {
         File dir = new File(dirPath);
         if (!dir.isAbsolute()) {
             dir = new File(AppRuntime.APP_PATH, dirPath);
@@ -60,7 +84,10 @@ public class Filesystem implements PullSource {
         return dir;
     }
 
-    private void open(File file) throws IOException {
+    /**
+     * @param info catalog entry; stream info probing is skipped unless the stream has b-frames
+     */
+    private void open(File file, MediaInfo info) throws IOException {
         pAvfmtCtx = new avformat.AVFormatContext(null);
         int r = avformat_open_input(pAvfmtCtx, new BytePointer(file.getAbsolutePath()), null, null);
         if (r < 0) {
@@ -68,35 +95,88 @@ public class Filesystem implements PullSource {
             wasClosed = true;
             throw new IOException("avformat_open_input error: " + r);
         }
-        r = avformat_find_stream_info(pAvfmtCtx, (PointerPointer) null);
-        if (r < 0) {
-            wasClosed = true;
-            avformat_close_input(pAvfmtCtx);
-            pAvfmtCtx.close();
-            throw new IOException("error: " + r);
+        FFmpegRuntime.contextOpened();
+        if (info == null || info.isReordered()) {
+            r = avformat_find_stream_info(pAvfmtCtx, (PointerPointer) null);
+            if (r < 0) {
+                wasClosed = true;
+                avformat_close_input(pAvfmtCtx);
+                FFmpegRuntime.contextClosed();
+                pAvfmtCtx.close();
+                throw new IOException("error: " + r);
+            }
         }
         pk = new avcodec.AVPacket();
-        AVStream avStream = getVideoStream();
+        AVStream avStream = info == null ? getVideoStream() : pAvfmtCtx.streams(info.getVideoStreamId());
         if (avStream == null) {
             close();
             throw new IOException("h264 stream not found");
         }
+        if (info != null) {
+            addIndex(avStream, info);
+        }
         int videoStreamId = avStream.index();
         avutil.AVRational streamTimebase = avStream.time_base();
         avutil.AVRational avgFrameRate = avStream.avg_frame_rate();
-        avcodec.AVCodecParameters cp = avStream.codecpar();
-        byte[] extradataBytes = new byte[cp.extradata_size()];
-        cp.extradata().get(extradataBytes);
-        AVCCExtradataParser extradata = new AVCCExtradataParser(extradataBytes);
-        byte[] sps = extradata.getSps();
-        byte[] pps = extradata.getPps();
+        byte[] sps;
+        byte[] pps;
+        if (info == null) {
+            avcodec.AVCodecParameters cp = avStream.codecpar();
+            byte[] extradataBytes = new byte[cp.extradata_size()];
+            cp.extradata().get(extradataBytes);
+            AVCCExtradataParser extradata = new AVCCExtradataParser(extradataBytes);
+            sps = extradata.getSps();
+            pps = extradata.getPps();
+        } else {
+            sps = info.getSps();
+            pps = info.getPps();
+        }
         desc = new SourceDescription();
         desc.setSps(sps);
         desc.setPps(pps);
         desc.setTimebase(streamTimebase);
         desc.setAvgFrameRate(avgFrameRate);
         desc.setVideoStreamId(videoStreamId);
-        fillQueue();
+        if (info != null) {
+            desc.setDurationMillis(info.getDurationMillis());
+            desc.setKeyframeMillis(info.getKeyframeMillis());
+            desc.setBitrate(info.getBitrate());
+        } else
+        if (pAvfmtCtx.duration() != AV_NOPTS_VALUE) {
+            desc.setDurationMillis(pAvfmtCtx.duration() / (AV_TIME_BASE / 1000));
+        }
+    }
+
+    /**
+     * Gives the demuxer the keyframe index from the catalog, unless the container has read an index of its own;
+     * a seek is then a lookup in the index, e.g. Matroska without cues is not scanned up to the position
+     */
+    private static void addIndex(AVStream avStream, MediaInfo info) {
+        long[] timestamps = info.getIndexTimestamps();
+        long[] positions = info.getIndexPositions();
+        if (timestamps == null || positions == null || avStream.nb_index_entries() > 0) {
+            return;
+        }
+        for (int i = 0; i < timestamps.length; i++) {
+            av_add_index_entry(avStream, positions[i], timestamps[i], 0, 0, AVIndexEntry.AVINDEX_KEYFRAME);
+        }
+    }
+
+    /**
+     * Seeks to the nearest keyframe before the position
+     */
+    private void seek(long startMillis) throws IOException {
+        if (startMillis <= 0) {
+            return;
+        }
+        avutil.AVRational millis = av_make_q(1, 1000);
+        long ts = av_rescale_q(startMillis, millis, desc.getTimebase());
+        millis.close();
+        int r = av_seek_frame(pAvfmtCtx, desc.getVideoStreamId(), ts, AVSEEK_FLAG_BACKWARD);
+        if (r < 0) {
+            close();
+            throw new IOException("av_seek_frame error: " + r);
+        }
     }
 
     private AVStream getVideoStream() {
@@ -139,6 +219,10 @@ public class Filesystem implements PullSource {
             if (pk.stream_index() == desc.getVideoStreamId()) {
                 long pts = pk.pts();
                 long dts = pk.dts();
+                if (dts == AV_NOPTS_VALUE) {
+                    // stream info was not probed, there are no b-frames
+                    dts = pts;
+                }
                 boolean isKey = (pk.flags() & AV_PKT_FLAG_KEY) != 0;
                 int sz = pk.size();
                 byte[] data = new byte[sz];
@@ -166,6 +250,7 @@ public class Filesystem implements PullSource {
         if (!wasClosed) {
             wasClosed = true;
             avformat_close_input(pAvfmtCtx);
+            FFmpegRuntime.contextClosed();
             packetQueue.forEach(mediaPacket -> mediaPacket.getPayload().release());
             packetQueue.clear();
             pAvfmtCtx.close();
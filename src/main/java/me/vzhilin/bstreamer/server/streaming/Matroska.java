@@ -0,0 +1,245 @@
+package me.vzhilin.bstreamer.server.streaming;
+
+import io.netty.buffer.Unpooled;
+import me.vzhilin.bstreamer.server.ServerContext;
+import me.vzhilin.bstreamer.server.streaming.base.PullSource;
+import me.vzhilin.bstreamer.server.streaming.file.FileSourceAttributes;
+import me.vzhilin.bstreamer.server.streaming.file.MediaPacket;
+import me.vzhilin.bstreamer.server.streaming.file.SourceDescription;
+import me.vzhilin.bstreamer.server.streaming.mkv.EbmlReader;
+import me.vzhilin.bstreamer.server.streaming.mkv.MatroskaFile;
+import me.vzhilin.bstreamer.server.streaming.mkv.MatroskaFiles;
+import me.vzhilin.bstreamer.util.PropertyMap;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * Pure-java Matroska/WebM source, does not use ffmpeg.
+ *
+ * Packet payloads are slices of the memory-mapped file. Timestamps are milliseconds. Decoding timestamps are
+ * not stored in Matroska: dts of a frame is the smallest pts of the frame and of the frames following it in
+ * decode order, within {@link #REORDER_WINDOW}, so with B-frames dts grows monotonically and does not exceed pts.
+ */
+public class Matroska implements PullSource {
+    private static final Logger LOG = Logger.getLogger(Matroska.class);
+    private static final int FLAG_KEYFRAME = 0x80;
+    private static final int FLAG_LACING = 0x06;
+    /** frames following a frame in decode order, which may be presented before it */
+    private static final int REORDER_WINDOW = 8;
+
+    private final MatroskaFiles files;
+    private final MatroskaFile file;
+    private final SourceDescription desc;
+    private final Queue<MediaPacket> packetQueue = new LinkedList<>();
+    /** frames waiting for their dts */
+    private final Deque<Frame> reorder = new ArrayDeque<>();
+    private long lastDts = Long.MIN_VALUE;
+
+    private int cluster;
+    private EbmlReader clusterData;
+    private long clusterTimecode;
+    /** packets before this keyframe are dropped after seek */
+    private long seekMillis = -1;
+    private boolean wasClosed;
+
+    public Matroska(ServerContext context, PropertyMap sourceProperties) throws IOException {
+        File dir = Filesystem.probeDirectories(sourceProperties.getString(FileSourceAttributes.DIR));
+        File videoFile = new File(dir, sourceProperties.getString(FileSourceAttributes.FILE));
+        String rendition = sourceProperties.getString(FileSourceAttributes.RENDITION);
+        if (rendition != null) {
+            videoFile = context.getRenditionCache().lookup(videoFile, rendition);
+        } else
+        if (!videoFile.exists()) {
+            throw new FileNotFoundException(videoFile.getAbsolutePath());
+        }
+
+        files = context.getMatroskaFiles();
+        file = files.acquire(videoFile);
+        desc = new SourceDescription();
+        desc.setSps(file.getSps());
+        desc.setPps(file.getPps());
+        desc.setDurationMillis(file.getDurationMillis());
+        desc.setKeyframeMillis(file.getKeyframeMillis());
+
+        cluster = -1;
+        String start = sourceProperties.getString(FileSourceAttributes.START);
+        if (start != null) {
+            seek((long) (Double.parseDouble(start) * 1000));
+        }
+        fillQueue();
+    }
+
+    private void seek(long startMillis) {
+        if (startMillis <= 0) {
+            return;
+        }
+        long[] keyframes = file.getKeyframeMillis();
+        long keyframe = 0;
+        for (long k: keyframes) {
+            if (k > startMillis) {
+                break;
+            }
+            keyframe = k;
+        }
+        cluster = file.findCluster(keyframe) - 1;
+        seekMillis = keyframe;
+    }
+
+    @Override
+    public SourceDescription getDesc() {
+        return desc;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !packetQueue.isEmpty();
+    }
+
+    @Override
+    public MediaPacket next() {
+        MediaPacket pkt = packetQueue.poll();
+        if (packetQueue.isEmpty()) {
+            fillQueue();
+        }
+        return pkt;
+    }
+
+    private void fillQueue() {
+        while (packetQueue.size() < 10) {
+            if (reorder.size() > REORDER_WINDOW) {
+                emitFrame();
+                continue;
+            }
+            if (clusterData == null || !clusterData.hasNext()) {
+                if (cluster + 1 >= file.clusters()) {
+                    while (!reorder.isEmpty()) {
+                        emitFrame();
+                    }
+                    return;
+                }
+                ++cluster;
+                clusterData = new EbmlReader(file.cluster(cluster));
+                clusterTimecode = -1;
+            }
+            readElement();
+        }
+    }
+
+    private void readElement() {
+        int id = clusterData.readId();
+        long len = clusterData.readSize();
+        switch (id) {
+            case MatroskaFile.TIMECODE:
+                clusterTimecode = clusterData.readUInt(len);
+                break;
+            case MatroskaFile.SIMPLE_BLOCK:
+                readBlock(new EbmlReader(clusterData.slice(len)), null);
+                break;
+            case MatroskaFile.BLOCK_GROUP: {
+                EbmlReader group = new EbmlReader(clusterData.slice(len));
+                ByteBuffer block = null;
+                boolean referenced = false;
+                while (group.hasNext()) {
+                    int gid = group.readId();
+                    long glen = group.readSize();
+                    if (gid == MatroskaFile.BLOCK) {
+                        block = group.slice(glen);
+                    } else {
+                        referenced |= gid == MatroskaFile.REFERENCE_BLOCK;
+                        group.skip(glen);
+                    }
+                }
+                if (block != null) {
+                    readBlock(new EbmlReader(block), !referenced);
+                }
+                break;
+            }
+            default:
+                clusterData.skip(len);
+        }
+    }
+
+    /**
+     * @param isKey keyframe flag of BlockGroup, null for SimpleBlock
+     */
+    private void readBlock(EbmlReader block, Boolean isKey) {
+        long track = block.readSize();
+        if (track != file.getTrackNumber()) {
+            return;
+        }
+        short relative = (short) block.readUInt(2);
+        int flags = (int) block.readUInt(1);
+        if ((flags & FLAG_LACING) != 0) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug(file.getFile() + ": laced blocks are not supported");
+            }
+            return;
+        }
+        boolean key = isKey != null ? isKey : (flags & FLAG_KEYFRAME) != 0;
+        long timecode = clusterTimecode >= 0 ? clusterTimecode : 0;
+        long millis = file.toMillis(timecode + relative);
+        if (seekMillis >= 0) {
+            if (!key || millis < seekMillis) {
+                return;
+            }
+            seekMillis = -1;
+        }
+
+        Frame frame = new Frame(millis, key);
+        while (block.remaining() > 4) {
+            int nalLen = (int) block.readUInt(4);
+            frame.nals.add(block.slice(nalLen));
+        }
+        reorder.offer(frame);
+    }
+
+    /**
+     * Queues NAL units of the first frame waiting for dts
+     */
+    private void emitFrame() {
+        long dts = Long.MAX_VALUE;
+        for (Frame f: reorder) {
+            dts = Math.min(dts, f.pts);
+        }
+        dts = Math.max(dts, lastDts);
+        lastDts = dts;
+        Frame frame = reorder.poll();
+        for (ByteBuffer nal: frame.nals) {
+            packetQueue.offer(new MediaPacket(frame.pts, dts, frame.key, Unpooled.wrappedBuffer(nal)));
+        }
+    }
+
+    @Override
+    public void close() {
+        if (!wasClosed) {
+            wasClosed = true;
+            packetQueue.forEach(mediaPacket -> mediaPacket.getPayload().release());
+            packetQueue.clear();
+            reorder.clear();
+            clusterData = null;
+            files.release(file);
+        }
+    }
+
+    private static final class Frame {
+        private final long pts;
+        private final boolean key;
+        /** slices of the mapped file */
+        private final List<ByteBuffer> nals = new ArrayList<>(1);
+
+        private Frame(long pts, boolean key) {
+            this.pts = pts;
+            this.key = key;
+        }
+    }
+}
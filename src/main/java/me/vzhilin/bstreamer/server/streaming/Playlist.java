@@ -0,0 +1,240 @@
+package me.vzhilin.bstreamer.server.streaming;
+
+import io.netty.buffer.Unpooled;
+import me.vzhilin.bstreamer.server.ServerContext;
+import me.vzhilin.bstreamer.server.streaming.base.PullSource;
+import me.vzhilin.bstreamer.server.streaming.file.FileSourceAttributes;
+import me.vzhilin.bstreamer.server.streaming.file.MediaPacket;
+import me.vzhilin.bstreamer.server.streaming.file.SourceDescription;
+import me.vzhilin.bstreamer.util.PropertyMap;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Plays files back-to-back, in order or shuffled.
+ *
+ * The next file is opened on a worker thread while the current one is playing. Timestamps continue
+ * across files; when the next file has other parameter sets, they are sent in-band before its first packet.
+ */
+public class Playlist implements PullSource {
+    private static final Logger LOG = Logger.getLogger(Playlist.class);
+    /** frame duration until the first one is known, ms */
+    private static final long DEFAULT_FRAME_MILLIS = 40;
+
+    private final ServerContext context;
+    private final PropertyMap itemProperties;
+    private final String itemClass;
+    private final List<String> files;
+    private final boolean shuffle;
+    private final boolean repeat;
+    private final Queue<MediaPacket> pending = new LinkedList<>();
+
+    private int index = -1;
+    private PullSource current;
+    private CompletableFuture<PullSource> next;
+    private SourceDescription desc;
+    private long offset;
+    private long lastDts = Long.MIN_VALUE;
+    private long frameMillis = DEFAULT_FRAME_MILLIS;
+    private boolean wasClosed;
+
+    public Playlist(ServerContext context, PropertyMap sourceProperties) throws IOException {
+        this.context = context;
+        this.itemClass = sourceProperties.getString(FileSourceAttributes.PLAYLIST_SOURCE, "Filesystem");
+        this.shuffle = sourceProperties.getBoolean(FileSourceAttributes.SHUFFLE);
+        this.repeat = sourceProperties.getBoolean("repeat");
+        this.itemProperties = new PropertyMap(sourceProperties);
+        this.itemProperties.remove(FileSourceAttributes.START);
+        this.files = listFiles(sourceProperties);
+        if (files.isEmpty()) {
+            throw new IOException("playlist is empty");
+        }
+        if (shuffle) {
+            Collections.shuffle(files, ThreadLocalRandom.current());
+        }
+
+        current = openNext();
+        if (current == null) {
+            throw new IOException("unable to open any of " + files);
+        }
+        desc = describe(current.getDesc());
+        prefetch();
+    }
+
+    private static List<String> listFiles(PropertyMap props) throws IOException {
+        Object files = props.getObject(FileSourceAttributes.FILES);
+        if (files instanceof List) {
+            List<String> result = new ArrayList<>();
+            for (Object name: (List<?>) files) {
+                if (!(name instanceof String)) {
+                    throw new IOException("playlist item is not a file name: " + name);
+                }
+                result.add((String) name);
+            }
+            return result;
+        }
+        if (files != null) {
+            List<String> result = new ArrayList<>();
+            for (String name: ((String) files).split(",")) {
+                if (!name.trim().isEmpty()) {
+                    result.add(name.trim());
+                }
+            }
+            return result;
+        }
+
+        File dir = Filesystem.probeDirectories(props.getString(FileSourceAttributes.DIR));
+        String[] names = dir.list((d, name) -> !name.startsWith(".") && new File(d, name).isFile());
+        List<String> result = new ArrayList<>();
+        if (names != null) {
+            result.addAll(Arrays.asList(names));
+            Collections.sort(result);
+        }
+        return result;
+    }
+
+    /**
+     * @return next opened item; null if the playlist has ended or no file could be opened
+     */
+    private PullSource openNext() {
+        for (int attempt = 0; attempt < files.size(); attempt++) {
+            String file = nextFile();
+            if (file == null) {
+                return null;
+            }
+            try {
+                return open(file);
+            } catch (IOException | RuntimeException e) {
+                LOG.warn("skip " + file + ": " + e.getMessage());
+            }
+        }
+        return null;
+    }
+
+    private String nextFile() {
+        if (++index == files.size()) {
+            if (!repeat) {
+                return null;
+            }
+            index = 0;
+            if (shuffle) {
+                Collections.shuffle(files, ThreadLocalRandom.current());
+            }
+        }
+        return files.get(index);
+    }
+
+    private PullSource open(String file) throws IOException {
+        PropertyMap props = new PropertyMap(itemProperties);
+        props.put(FileSourceAttributes.FILE, file);
+        if ("Matroska".equals(itemClass)) {
+            return new Matroska(context, props);
+        } else {
+            return new Filesystem(context, props);
+        }
+    }
+
+    private void prefetch() {
+        next = CompletableFuture.supplyAsync(this::openNext, context.getWorkers());
+    }
+
+    private static SourceDescription describe(SourceDescription item) {
+        SourceDescription d = new SourceDescription();
+        d.setSps(item.getSps());
+        d.setPps(item.getPps());
+        return d;
+    }
+
+    @Override
+    public SourceDescription getDesc() {
+        return desc;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (!pending.isEmpty()) {
+            return true;
+        }
+        while (current != null && !current.hasNext()) {
+            if (!switchToNext()) {
+                return false;
+            }
+        }
+        return current != null;
+    }
+
+    private boolean switchToNext() {
+        PullSource nextSource;
+        try {
+            nextSource = next.join();
+        } catch (CompletionException e) {
+            LOG.warn("unable to open next item: " + e.getCause().getMessage());
+            nextSource = openNext();
+        }
+        closeQuietly(current);
+        current = nextSource;
+        next = null;
+        if (current == null) {
+            return false;
+        }
+        prefetch();
+
+        if (current.hasNext()) {
+            MediaPacket first = current.next();
+            offset = lastDts == Long.MIN_VALUE ? -first.getDts() : lastDts + frameMillis - first.getDts();
+            SourceDescription d = current.getDesc();
+            if (!Arrays.equals(d.getSps(), desc.getSps()) || !Arrays.equals(d.getPps(), desc.getPps())) {
+                pending.add(new MediaPacket(first.getPts(), first.getDts(), true, Unpooled.wrappedBuffer(d.getSps())));
+                pending.add(new MediaPacket(first.getPts(), first.getDts(), true, Unpooled.wrappedBuffer(d.getPps())));
+                desc = describe(d);
+            }
+            pending.add(first);
+        }
+        return true;
+    }
+
+    @Override
+    public MediaPacket next() {
+        MediaPacket p = pending.isEmpty() ? current.next() : pending.poll();
+        long dts = p.getDts() + offset;
+        if (lastDts != Long.MIN_VALUE && dts > lastDts) {
+            frameMillis = dts - lastDts;
+        }
+        lastDts = Math.max(lastDts, dts);
+        return new MediaPacket(p.getPts() + offset, dts, p.isKey(), p.getPayload());
+    }
+
+    @Override
+    public void close() {
+        if (!wasClosed) {
+            wasClosed = true;
+            pending.forEach(mediaPacket -> mediaPacket.getPayload().release());
+            pending.clear();
+            closeQuietly(current);
+            if (next != null) {
+                next.thenAccept(Playlist::closeQuietly);
+            }
+        }
+    }
+
+    private static void closeQuietly(PullSource source) {
+        if (source != null) {
+            try {
+                source.close();
+            } catch (IOException e) {
+                LOG.warn("unable to close playlist item: " + e.getMessage());
+            }
+        }
+    }
+}
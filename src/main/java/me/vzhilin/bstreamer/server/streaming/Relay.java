@@ -0,0 +1,324 @@
+package me.vzhilin.bstreamer.server.streaming;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.rtsp.RtspEncoder;
+import io.netty.util.concurrent.ScheduledFuture;
+import me.vzhilin.bstreamer.client.InterleavedPacket;
+import me.vzhilin.bstreamer.client.RtspInterleavedDecoder;
+import me.vzhilin.bstreamer.client.rtsp.NettyRtspChannelHandler;
+import me.vzhilin.bstreamer.client.rtsp.RtspCallback;
+import me.vzhilin.bstreamer.client.rtsp.RtspConnection;
+import me.vzhilin.bstreamer.client.rtsp.RtspConnectionHandler;
+import me.vzhilin.bstreamer.client.rtsp.messages.DescribeReply;
+import me.vzhilin.bstreamer.client.rtsp.messages.PlayReply;
+import me.vzhilin.bstreamer.client.rtsp.messages.SetupReply;
+import me.vzhilin.bstreamer.client.rtsp.messages.sdp.Media;
+import me.vzhilin.bstreamer.client.rtsp.messages.sdp.SpropParameterSets;
+import me.vzhilin.bstreamer.server.ServerContext;
+import me.vzhilin.bstreamer.server.streaming.base.PullSource;
+import me.vzhilin.bstreamer.server.streaming.file.MediaPacket;
+import me.vzhilin.bstreamer.server.streaming.file.SourceDescription;
+import me.vzhilin.bstreamer.server.streaming.relay.H264Depacketizer;
+import me.vzhilin.bstreamer.server.streaming.relay.JitterBuffer;
+import me.vzhilin.bstreamer.server.streaming.relay.RelaySourceAttributes;
+import me.vzhilin.bstreamer.util.PropertyMap;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pulls H.264 stream from an upstream RTSP server, RTP over TCP.
+ *
+ * The upstream connection runs on the relay event loop; packets are reordered in the jitter buffer,
+ * depacketized and queued until the push task takes them. The source is live: it is finished only when
+ * the upstream connection is closed.
+ *
+ * The constructor does not wait for the upstream: the source is described once the parameter sets are known,
+ * from SDP or in-band, see {@link #isDescribed()}. Parameter sets are replaced by a new description, so that
+ * readers on other threads see them together.
+ */
+public class Relay implements PullSource {
+    private static final Logger LOG = Logger.getLogger(Relay.class);
+    private static final int MAX_CONTENT_LENGTH = 64 * 1024;
+    /** queued packets limit, when the push task lags behind queue is dropped up to the next keyframe */
+    private static final int MAX_QUEUED = 4096;
+    private static final int SPS = 7;
+    private static final int PPS = 8;
+
+    private final URI uri;
+    private volatile SourceDescription desc = new SourceDescription();
+    private final CompletableFuture<SourceDescription> described = new CompletableFuture<>();
+    private final Deque<MediaPacket> queue = new ArrayDeque<>();
+    private final Channel channel;
+    private final ScheduledFuture<?> describeTimeout;
+    private volatile boolean finished;
+    private boolean resync;
+    private boolean closed;
+
+    public Relay(ServerContext context, PropertyMap sourceProperties) {
+        uri = URI.create(sourceProperties.getString(RelaySourceAttributes.URL));
+        int jitterMillis = sourceProperties.getInt(RelaySourceAttributes.JITTER_BUFFER, 100);
+        int timeoutMillis = sourceProperties.getInt(RelaySourceAttributes.TIMEOUT, 5000);
+        int port = uri.getPort() == -1 ? 554 : uri.getPort();
+
+        Bootstrap bootstrap = new Bootstrap()
+            .group(context.getRelayGroup())
+            .channel(NioSocketChannel.class)
+            .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, timeoutMillis)
+            .handler(new ChannelInitializer<SocketChannel>() {
+                @Override
+                protected void initChannel(SocketChannel ch) {
+                    ChannelPipeline pipeline = ch.pipeline();
+                    RtspInterleavedDecoder decoder = new RtspInterleavedDecoder(1024, 1024, MAX_CONTENT_LENGTH);
+                    decoder.setCumulator(RtspInterleavedDecoder.COMPOSITE_CUMULATOR);
+                    pipeline.addLast("rtsp_interleaved_decoder", decoder);
+                    pipeline.addLast("rtsp_encoder", new RtspEncoder());
+                    pipeline.addLast("http_object_aggregator", new HttpObjectAggregator(MAX_CONTENT_LENGTH));
+                    pipeline.addLast("rtsp_connection_handler", new NettyRtspChannelHandler(new UpstreamHandler()));
+                    pipeline.addLast("rtp", new RtpHandler(jitterMillis));
+                }
+            });
+        channel = bootstrap.connect(uri.getHost(), port).addListener(future -> {
+            if (!future.isSuccess()) {
+                fail(future.cause());
+            }
+        }).channel();
+        describeTimeout = channel.eventLoop().schedule(() -> fail(new IOException("describe timed out")),
+            timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Upstream which was not described is given up
+     */
+    private void fail(Throwable cause) {
+        if (described.completeExceptionally(cause)) {
+            finished = true;
+            LOG.warn("unable to describe " + uri + ": " + cause.getMessage());
+            channel.close();
+        }
+    }
+
+    @Override
+    public SourceDescription getDesc() {
+        return desc;
+    }
+
+    @Override
+    public boolean isDescribed() {
+        return described.isDone() && !described.isCompletedExceptionally();
+    }
+
+    @Override
+    public synchronized boolean hasNext() {
+        return !queue.isEmpty();
+    }
+
+    @Override
+    public synchronized MediaPacket next() {
+        return queue.poll();
+    }
+
+    @Override
+    public boolean isFinished() {
+        return finished;
+    }
+
+    private synchronized void offer(MediaPacket pkt) {
+        if (closed) {
+            pkt.getPayload().release();
+            return;
+        }
+        updateParameterSets(pkt.getPayload());
+        if (queue.size() >= MAX_QUEUED) {
+            LOG.warn(uri + ": relay queue overflow, skip to the next keyframe");
+            queue.forEach(p -> p.getPayload().release());
+            queue.clear();
+            resync = true;
+        }
+        if (resync && !pkt.isKey()) {
+            pkt.getPayload().release();
+            return;
+        }
+        resync = false;
+        queue.add(pkt);
+    }
+
+    /**
+     * In-band parameter sets replace the ones from SDP
+     */
+    private void updateParameterSets(ByteBuf nal) {
+        int type = nal.getByte(nal.readerIndex()) & 0x1f;
+        if (type == SPS || type == PPS) {
+            byte[] bytes = new byte[nal.readableBytes()];
+            nal.getBytes(nal.readerIndex(), bytes);
+            SourceDescription d = desc;
+            if (type == SPS && !Arrays.equals(bytes, d.getSps())) {
+                setParameterSets(bytes, d.getPps());
+            } else
+            if (type == PPS && !Arrays.equals(bytes, d.getPps())) {
+                setParameterSets(d.getSps(), bytes);
+            }
+        }
+    }
+
+    private void setParameterSets(byte[] sps, byte[] pps) {
+        SourceDescription d = new SourceDescription();
+        d.setSps(sps);
+        d.setPps(pps);
+        desc = d;
+        if (sps != null && pps != null) {
+            described.complete(d);
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            queue.forEach(p -> p.getPayload().release());
+            queue.clear();
+        }
+        describeTimeout.cancel(false);
+        channel.close();
+    }
+
+    private final class UpstreamHandler implements RtspConnectionHandler {
+        @Override
+        public void onConnected(RtspConnection connection) {
+            connection.describe(uri, new UpstreamCallback<DescribeReply>(connection) {
+                @Override
+                public void onSuccess(DescribeReply reply) {
+                    Media media = null;
+                    for (Media m: reply.getSdpMessage().getMediaDescriptions()) {
+                        if (m.isH264()) {
+                            media = m;
+                            break;
+                        }
+                    }
+                    if (media == null) {
+                        fail(new IOException("h264 stream not found"));
+                        return;
+                    }
+                    readParameterSets(media);
+                    String control = concat(reply.getContentBase(), media.getControl());
+                    connection.setup(URI.create(control), new UpstreamCallback<SetupReply>(connection) {
+                        @Override
+                        public void onSuccess(SetupReply setup) {
+                            connection.play(uri, setup.getSession(), new UpstreamCallback<PlayReply>(connection) {
+                                @Override
+                                public void onSuccess(PlayReply play) { }
+                            });
+                        }
+                    });
+                }
+            });
+        }
+
+        private void readParameterSets(Media media) {
+            SpropParameterSets sprops = media.getFmtp() == null ? null : media.getFmtp().getParameters().sprops();
+            if (sprops != null) {
+                try {
+                    setParameterSets(sprops.getSps(), sprops.getPps());
+                } catch (IOException | RuntimeException e) {
+                    LOG.warn(uri + ": invalid sprop-parameter-sets, waiting for in-band ones");
+                }
+            }
+        }
+
+        private String concat(String contentBase, String control) {
+            if (contentBase == null || control.startsWith("rtsp://")) {
+                return control;
+            }
+            if (contentBase.endsWith("/")) {
+                return contentBase + control;
+            } else {
+                return contentBase + "/" + control;
+            }
+        }
+
+        @Override
+        public void onDisconnected() {
+            fail(new IOException("disconnected"));
+            finished = true;
+            LOG.info(uri + ": upstream disconnected");
+        }
+    }
+
+    private abstract static class UpstreamCallback<T> implements RtspCallback<T> {
+        private final RtspConnection connection;
+
+        private UpstreamCallback(RtspConnection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public void onError() {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Reorders and depacketizes RTP packets of the interleaved channel 0, RTCP is ignored
+     */
+    private final class RtpHandler extends SimpleChannelInboundHandler<InterleavedPacket> {
+        private final long jitterMillis;
+        private final JitterBuffer jitterBuffer;
+        private final H264Depacketizer depacketizer = new H264Depacketizer(Relay.this::offer);
+        private ScheduledFuture<?> drainTask;
+
+        private RtpHandler(long jitterMillis) {
+            super(false);
+            this.jitterMillis = jitterMillis;
+            this.jitterBuffer = new JitterBuffer(jitterMillis);
+        }
+
+        @Override
+        public void channelActive(ChannelHandlerContext ctx) throws Exception {
+            long period = Math.max(5, jitterMillis / 2);
+            drainTask = ctx.executor().scheduleAtFixedRate(
+                () -> jitterBuffer.drain(System.nanoTime(), depacketizer), period, period, TimeUnit.MILLISECONDS);
+            super.channelActive(ctx);
+        }
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, InterleavedPacket msg) {
+            ByteBuf payload = msg.getPayload();
+            if (msg.getChannel() != 0 || payload.readableBytes() < 12) {
+                payload.release();
+                return;
+            }
+            long now = System.nanoTime();
+            jitterBuffer.add(payload, now);
+            jitterBuffer.drain(now, depacketizer);
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+            if (drainTask != null) {
+                drainTask.cancel(false);
+            }
+            jitterBuffer.clear();
+            depacketizer.clear();
+            super.channelInactive(ctx);
+        }
+    }
+}
@@ -8,6 +8,7 @@ import java.io.IOException;
 import java.util.function.Supplier;
 
 public class RepeatedSource implements PullSource {
+  private final Supplier<PullSource> first;
   private final Supplier<PullSource> supplier;
   private PullSource delegate = null;
   private long lastDts;
@@ -16,12 +17,21 @@ public class RepeatedSource implements PullSource {
   private long dtsOffset = 0;
 
   public RepeatedSource(Supplier<PullSource> supplier) {
+    this(supplier, supplier);
+  }
+
+  /**
+   * @param first supplies the first iteration, e.g. started from the middle of the file
+   * @param supplier supplies the next iterations
+   */
+  public RepeatedSource(Supplier<PullSource> first, Supplier<PullSource> supplier) {
+    this.first = first;
     this.supplier = supplier;
   }
 
   private PullSource ensureHasDelegate() {
     if (delegate == null) {
-      delegate = supplier.get();
+      delegate = first.get();
     }
     return delegate;
   }
@@ -9,9 +9,23 @@ import java.util.Iterator;
 public interface PullSource extends Iterator<MediaPacket>, Closeable {
     SourceDescription getDesc();
 
+    /**
+     * @return false while the description is not known yet, e.g. the upstream of a relay has not answered
+     */
+    default boolean isDescribed() {
+        return true;
+    }
+
     @Override
     boolean hasNext();
 
     @Override
     MediaPacket next();
+
+    /**
+     * @return false if more packets may arrive later, although {@link #hasNext()} is false now
+     */
+    default boolean isFinished() {
+        return true;
+    }
 }
@@ -3,4 +3,14 @@ package me.vzhilin.bstreamer.server.streaming.file;
 public class FileSourceAttributes {
     public final static String DIR = "basedir";
     public final static String FILE = "file";
+    public final static String CATALOG = "catalog";
+    /** start position, seconds */
+    public final static String START = "start";
+    /** name of a pre-transcoded variant, see {@link Rendition} */
+    public final static String RENDITION = "rendition";
+    /** playlist files, list or comma-separated; all files of {@link #DIR} by default */
+    public final static String FILES = "files";
+    public final static String SHUFFLE = "shuffle";
+    /** source class of playlist items: Filesystem or Matroska */
+    public final static String PLAYLIST_SOURCE = "source";
 }
@@ -0,0 +1,262 @@
+package me.vzhilin.bstreamer.server.streaming.file;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Index of the video directory.
+ *
+ * Every file is probed once: on startup all files are scanned in parallel in background, later on the directory is
+ * watched for changes. The index is persisted to {@value #INDEX_FILE}, so unchanged files are not probed again after
+ * restart.
+ */
+public final class MediaCatalog implements Closeable {
+    private final static Logger LOG = Logger.getLogger(MediaCatalog.class);
+    private final static String INDEX_FILE = ".bstreamer-catalog.json";
+
+    private final File dir;
+    private final File indexFile;
+    private final ObjectMapper mapper;
+    private final Map<String, MediaInfo> files = new ConcurrentHashMap<>();
+    private final ExecutorService watchExecutor;
+    private WatchService watchService;
+    private final CountDownLatch scanned = new CountDownLatch(1);
+
+    public MediaCatalog(File dir) {
+        this.dir = dir;
+        this.indexFile = new File(dir, INDEX_FILE);
+        this.mapper = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        this.watchExecutor = Executors.newSingleThreadExecutor(r -> {
+            Thread th = new Thread(r, "catalog-" + dir.getName());
+            th.setDaemon(true);
+            return th;
+        });
+    }
+
+    public File getDir() {
+        return dir;
+    }
+
+    /**
+     * @return metadata or null, if file is unknown
+     */
+    public MediaInfo lookup(String name) {
+        return files.get(name);
+    }
+
+    public Collection<MediaInfo> list() {
+        return Collections.unmodifiableCollection(files.values());
+    }
+
+    /**
+     * @return true when the startup scan is done, until then lookups do not find the files
+     */
+    public boolean isReady() {
+        return scanned.getCount() == 0;
+    }
+
+    /**
+     * Waits for the startup scan
+     */
+    public void awaitReady() throws InterruptedException {
+        scanned.await();
+    }
+
+    /**
+     * Starts the scan, returns at once
+     */
+    public void start() {
+        watchExecutor.execute(this::scan);
+    }
+
+    private void scan() {
+        boolean indexed;
+        try {
+            indexed = index();
+        } finally {
+            scanned.countDown();
+        }
+        if (indexed) {
+            watch();
+        }
+    }
+
+    /**
+     * @return false if the directory was not listed or the scan was interrupted
+     */
+    private boolean index() {
+        long startMillis = System.currentTimeMillis();
+        Map<String, MediaInfo> persisted = load();
+        File[] entries = dir.listFiles(MediaCatalog::isMediaFile);
+        if (entries == null) {
+            LOG.warn("unable to list " + dir);
+            return false;
+        }
+
+        int probed = 0;
+        List<File> toProbe = new ArrayList<>();
+        for (File f: entries) {
+            MediaInfo info = persisted.get(f.getName());
+            if (isCurrent(info, f)) {
+                files.put(f.getName(), info);
+            } else {
+                toProbe.add(f);
+            }
+        }
+        if (!toProbe.isEmpty()) {
+            ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+            try {
+                List<Future<MediaInfo>> futures = new ArrayList<>();
+                for (File f: toProbe) {
+                    futures.add(executor.submit(() -> MediaProbe.probe(f)));
+                }
+                for (int i = 0; i < futures.size(); i++) {
+                    try {
+                        MediaInfo info = futures.get(i).get();
+                        files.put(info.getName(), info);
+                        ++probed;
+                    } catch (ExecutionException e) {
+                        LOG.warn("skip " + toProbe.get(i) + ": " + e.getCause().getMessage());
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return false;
+                    }
+                }
+            } finally {
+                executor.shutdown();
+            }
+            save();
+        }
+        LOG.info("catalog " + dir + ": " + files.size() + " files, " + probed + " probed in " +
+                (System.currentTimeMillis() - startMillis) + " ms");
+        return true;
+    }
+
+    private void watch() {
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            dir.toPath().register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+        } catch (IOException e) {
+            LOG.warn("unable to watch " + dir + ": " + e.getMessage());
+            return;
+        }
+        watchExecutor.execute(this::watchLoop);
+    }
+
+    private void watchLoop() {
+        while (!Thread.currentThread().isInterrupted()) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+
+            boolean changed = false;
+            for (WatchEvent<?> ev: key.pollEvents()) {
+                if (ev.kind() == OVERFLOW) {
+                    changed |= rescan();
+                } else {
+                    changed |= onChange(((Path) ev.context()).toFile().getName());
+                }
+            }
+            if (changed) {
+                save();
+            }
+            if (!key.reset()) {
+                return;
+            }
+        }
+    }
+
+    private boolean rescan() {
+        boolean changed = files.keySet().removeIf(name -> !new File(dir, name).exists());
+        File[] entries = dir.listFiles(MediaCatalog::isMediaFile);
+        if (entries != null) {
+            for (File f: entries) {
+                changed |= onChange(f.getName());
+            }
+        }
+        return changed;
+    }
+
+    private boolean onChange(String name) {
+        File f = new File(dir, name);
+        if (!isMediaFile(f)) {
+            return files.remove(name) != null;
+        }
+
+        MediaInfo known = files.get(name);
+        if (isCurrent(known, f)) {
+            return false;
+        }
+        try {
+            files.put(name, MediaProbe.probe(f));
+            LOG.info("catalog " + dir + ": indexed " + name);
+        } catch (IOException e) {
+            // file might be incomplete yet, next modification will trigger probe again
+            files.remove(name);
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("unable to probe " + f + ": " + e.getMessage());
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the entry describes the file as it is; entries written before the demuxer index was stored
+     * are probed again
+     */
+    private static boolean isCurrent(MediaInfo info, File f) {
+        return info != null && info.getSize() == f.length() && info.getLastModified() == f.lastModified() &&
+            info.getIndexTimestamps() != null;
+    }
+
+    private Map<String, MediaInfo> load() {
+        Map<String, MediaInfo> persisted = new HashMap<>();
+        if (indexFile.exists()) {
+            try {
+                List<MediaInfo> infos = mapper.readValue(indexFile, new TypeReference<List<MediaInfo>>() { });
+                infos.forEach(info -> persisted.put(info.getName(), info));
+            } catch (IOException e) {
+                LOG.warn("unable to read " + indexFile + ": " + e.getMessage());
+            }
+        }
+        return persisted;
+    }
+
+    private void save() {
+        File tmp = new File(dir, INDEX_FILE + ".tmp");
+        try {
+            mapper.writeValue(tmp, new ArrayList<>(files.values()));
+            Files.move(tmp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("unable to persist catalog " + indexFile + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private static boolean isMediaFile(File f) {
+        return f.isFile() && !f.getName().startsWith(".");
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchExecutor.shutdownNow();
+        if (watchService != null) {
+            watchService.close();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package me.vzhilin.bstreamer.server.streaming.file;
+
+/**
+ * Per-file metadata stored in the {@link MediaCatalog}
+ */
+public class MediaInfo {
+    private String name;
+    private long size;
+    private long lastModified;
+    private int videoStreamId;
+    private byte[] sps;
+    private byte[] pps;
+    private long durationMillis;
+    private long bitrate;
+    private boolean reordered;
+    private long[] keyframeMillis;
+    private long[] indexTimestamps;
+    private long[] indexPositions;
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public void setSize(long size) {
+        this.size = size;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public void setLastModified(long lastModified) {
+        this.lastModified = lastModified;
+    }
+
+    public int getVideoStreamId() {
+        return videoStreamId;
+    }
+
+    public void setVideoStreamId(int videoStreamId) {
+        this.videoStreamId = videoStreamId;
+    }
+
+    public byte[] getSps() {
+        return sps;
+    }
+
+    public void setSps(byte[] sps) {
+        this.sps = sps;
+    }
+
+    public byte[] getPps() {
+        return pps;
+    }
+
+    public void setPps(byte[] pps) {
+        this.pps = pps;
+    }
+
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    public void setDurationMillis(long durationMillis) {
+        this.durationMillis = durationMillis;
+    }
+
+    /** bits per second */
+    public long getBitrate() {
+        return bitrate;
+    }
+
+    public void setBitrate(long bitrate) {
+        this.bitrate = bitrate;
+    }
+
+    /** true if decoding order differs from presentation order (b-frames) */
+    public boolean isReordered() {
+        return reordered;
+    }
+
+    public void setReordered(boolean reordered) {
+        this.reordered = reordered;
+    }
+
+    /** keyframe timestamps, milliseconds from the beginning of the file */
+    public long[] getKeyframeMillis() {
+        return keyframeMillis;
+    }
+
+    public void setKeyframeMillis(long[] keyframeMillis) {
+        this.keyframeMillis = keyframeMillis;
+    }
+
+    /** keyframe entries of the demuxer index: timestamps in the time base of the stream */
+    public long[] getIndexTimestamps() {
+        return indexTimestamps;
+    }
+
+    public void setIndexTimestamps(long[] indexTimestamps) {
+        this.indexTimestamps = indexTimestamps;
+    }
+
+    /** keyframe entries of the demuxer index: positions where the demuxer resumes reading, e.g. Matroska clusters */
+    public long[] getIndexPositions() {
+        return indexPositions;
+    }
+
+    public void setIndexPositions(long[] indexPositions) {
+        this.indexPositions = indexPositions;
+    }
+}
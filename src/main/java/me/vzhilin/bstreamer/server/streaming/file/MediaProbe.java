@@ -0,0 +1,128 @@
+package me.vzhilin.bstreamer.server.streaming.file;
+
+import me.vzhilin.bstreamer.server.media.AVCCExtradataParser;
+import me.vzhilin.bstreamer.server.media.FFmpegRuntime;
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacpp.PointerPointer;
+import org.bytedeco.javacpp.avcodec;
+import org.bytedeco.javacpp.avutil;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.bytedeco.javacpp.avcodec.*;
+import static org.bytedeco.javacpp.avformat.*;
+import static org.bytedeco.javacpp.avutil.AV_NOPTS_VALUE;
+import static org.bytedeco.javacpp.avutil.av_rescale_q;
+
+/**
+ * Reads a whole video file once and collects its {@link MediaInfo}
+ */
+public final class MediaProbe {
+    private MediaProbe() { }
+
+    public static MediaInfo probe(File file) throws IOException {
+        FFmpegRuntime.ensureInitialized();
+        AVFormatContext ctx = new AVFormatContext(null);
+        int r = avformat_open_input(ctx, new BytePointer(file.getAbsolutePath()), null, null);
+        if (r < 0) {
+            ctx.close();
+            throw new IOException("avformat_open_input error: " + r);
+        }
+        FFmpegRuntime.contextOpened();
+        AVPacket pk = new AVPacket();
+        avutil.AVRational millis = new avutil.AVRational();
+        millis.num(1);
+        millis.den(1000);
+        try {
+            r = avformat_find_stream_info(ctx, (PointerPointer) null);
+            if (r < 0) {
+                throw new IOException("avformat_find_stream_info error: " + r);
+            }
+            AVStream stream = null;
+            for (int i = 0; i < ctx.nb_streams(); i++) {
+                if (ctx.streams(i).codecpar().codec_id() == AV_CODEC_ID_H264) {
+                    stream = ctx.streams(i);
+                    break;
+                }
+            }
+            if (stream == null) {
+                throw new IOException("h264 stream not found");
+            }
+            avcodec.AVCodecParameters cp = stream.codecpar();
+            byte[] extradataBytes = new byte[cp.extradata_size()];
+            cp.extradata().get(extradataBytes);
+            AVCCExtradataParser extradata = new AVCCExtradataParser(extradataBytes);
+
+            int videoStreamId = stream.index();
+            avutil.AVRational timebase = stream.time_base();
+            long[] keyframeMillis = new long[64];
+            int keyframes = 0;
+            long totalBytes = 0;
+            long endMillis = 0;
+            boolean reordered = false;
+            while (av_read_frame(ctx, pk) >= 0) {
+                if (pk.stream_index() == videoStreamId) {
+                    long ts = pk.pts() != AV_NOPTS_VALUE ? pk.pts() : pk.dts();
+                    long tsMillis = av_rescale_q(ts, timebase, millis);
+                    if ((pk.flags() & AV_PKT_FLAG_KEY) != 0) {
+                        if (keyframes == keyframeMillis.length) {
+                            keyframeMillis = Arrays.copyOf(keyframeMillis, keyframes * 2);
+                        }
+                        keyframeMillis[keyframes] = tsMillis;
+                        ++keyframes;
+                    }
+                    reordered |= pk.pts() != pk.dts();
+                    totalBytes += pk.size();
+                    endMillis = Math.max(endMillis, tsMillis + av_rescale_q(pk.duration(), timebase, millis));
+                }
+                av_packet_unref(pk);
+            }
+
+            MediaInfo info = new MediaInfo();
+            info.setName(file.getName());
+            info.setSize(file.length());
+            info.setLastModified(file.lastModified());
+            info.setVideoStreamId(videoStreamId);
+            info.setSps(extradata.getSps());
+            info.setPps(extradata.getPps());
+            info.setReordered(reordered);
+            info.setDurationMillis(endMillis);
+            info.setBitrate(endMillis == 0 ? 0 : totalBytes * 8 * 1000 / endMillis);
+            info.setKeyframeMillis(Arrays.copyOf(keyframeMillis, keyframes));
+            setIndex(info, stream);
+            return info;
+        } catch (RuntimeException e) {
+            throw new IOException(file + ": " + e.getMessage(), e);
+        } finally {
+            avformat_close_input(ctx);
+            FFmpegRuntime.contextClosed();
+            ctx.close();
+            pk.close();
+            millis.close();
+        }
+    }
+
+    /**
+     * Stores keyframe entries of the index built by the demuxer while reading the file, so that opening the file
+     * later seeks without parsing cues or scanning clusters
+     */
+    private static void setIndex(MediaInfo info, AVStream stream) {
+        int entries = stream.nb_index_entries();
+        long[] timestamps = new long[entries];
+        long[] positions = new long[entries];
+        int n = 0;
+        AVIndexEntry entry = new AVIndexEntry(stream.index_entries());
+        for (int i = 0; i < entries; i++) {
+            entry.position(i);
+            if ((entry.flags() & AVIndexEntry.AVINDEX_KEYFRAME) != 0) {
+                timestamps[n] = entry.timestamp();
+                positions[n] = entry.pos();
+                ++n;
+            }
+        }
+        info.setIndexTimestamps(Arrays.copyOf(timestamps, n));
+        info.setIndexPositions(Arrays.copyOf(positions, n));
+    }
+}
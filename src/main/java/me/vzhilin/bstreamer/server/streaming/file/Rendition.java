@@ -0,0 +1,52 @@
+package me.vzhilin.bstreamer.server.streaming.file;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Pre-transcoded variant of a file: frame height and bitrate
+ */
+public final class Rendition {
+    private static final Map<String, Rendition> PRESETS = new HashMap<>();
+
+    static {
+        preset("240p", 240, 400000);
+        preset("360p", 360, 800000);
+        preset("480p", 480, 1200000);
+        preset("720p", 720, 2500000);
+        preset("1080p", 1080, 5000000);
+    }
+
+    private final String name;
+    private final int height;
+    private final int bitrate;
+
+    private Rendition(String name, int height, int bitrate) {
+        this.name = name;
+        this.height = height;
+        this.bitrate = bitrate;
+    }
+
+    private static void preset(String name, int height, int bitrate) {
+        PRESETS.put(name, new Rendition(name, height, bitrate));
+    }
+
+    /**
+     * @return preset with the name, or null
+     */
+    public static Rendition of(String name) {
+        return PRESETS.get(name);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getBitrate() {
+        return bitrate;
+    }
+}
@@ -0,0 +1,163 @@
+package me.vzhilin.bstreamer.server.streaming.file;
+
+import io.netty.buffer.ByteBufUtil;
+import me.vzhilin.bstreamer.util.PropertyMap;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Transcoded renditions of files, kept in the cache directory.
+ *
+ * A missing rendition is transcoded once on a background pool. When the directory grows over the size limit,
+ * the least recently used renditions are deleted. Use is tracked in memory, so that lookups do not change the
+ * modification time of the files; after a restart renditions are ordered by the time they were transcoded.
+ */
+public final class RenditionCache {
+    private final static Logger LOG = Logger.getLogger(RenditionCache.class);
+    private final static String SUFFIX = ".mkv";
+    private final static String PARTIAL_SUFFIX = ".part";
+
+    private final File dir;
+    private final long maxBytes;
+    private final ExecutorService pool;
+    private final Set<File> pending = new HashSet<>();
+    /** last lookup of a rendition, milliseconds */
+    private final Map<File, Long> accessed = new HashMap<>();
+
+    /**
+     * @param props {@code dir}, {@code max_size} in megabytes and {@code threads}; may be null
+     */
+    public RenditionCache(PropertyMap props) {
+        if (props == null) {
+            props = new PropertyMap();
+        }
+        String defaultDir = new File(System.getProperty("java.io.tmpdir"), "bstreamer-renditions").getPath();
+        this.dir = new File(props.getString("dir", defaultDir));
+        this.maxBytes = props.getInt("max_size", 1024) * 1024L * 1024L;
+        this.pool = Executors.newFixedThreadPool(props.getInt("threads", 1));
+    }
+
+    /**
+     * Starts transcoding if the rendition is not cached yet
+     * @return true if the rendition is ready
+     */
+    public boolean prepare(File source, Rendition rendition) throws IOException {
+        if (!source.exists()) {
+            throw new FileNotFoundException(source.getAbsolutePath());
+        }
+        File target = cacheFile(source, rendition);
+        synchronized (this) {
+            if (target.exists()) {
+                return true;
+            }
+            if (pending.add(target)) {
+                LOG.info("transcoding " + source + " to " + rendition.getName());
+                pool.execute(() -> transcode(source, target, rendition));
+            }
+            return false;
+        }
+    }
+
+    /**
+     * @return cached rendition of the file
+     * @throws FileNotFoundException if the rendition is not ready, transcoding is started then
+     */
+    public File lookup(File source, String renditionName) throws IOException {
+        Rendition rendition = Rendition.of(renditionName);
+        if (rendition == null) {
+            throw new IllegalArgumentException("unknown rendition: " + renditionName);
+        }
+        if (!prepare(source, rendition)) {
+            throw new FileNotFoundException(rendition.getName() + " of " + source + " is not ready yet");
+        }
+        File target = cacheFile(source, rendition);
+        synchronized (this) {
+            accessed.put(target, System.currentTimeMillis());
+        }
+        return target;
+    }
+
+    /**
+     * Name depends on the path, size and modification time of the source, a modified file gets a new rendition
+     */
+    private File cacheFile(File source, Rendition rendition) {
+        File abs = source.getAbsoluteFile();
+        String key = abs.getPath() + ":" + abs.length() + ":" + abs.lastModified();
+        String digest;
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            digest = ByteBufUtil.hexDump(sha1.digest(key.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        String name = abs.getName();
+        int dot = name.lastIndexOf('.');
+        if (dot > 0) {
+            name = name.substring(0, dot);
+        }
+        return new File(dir, name + "-" + rendition.getName() + "-" + digest + SUFFIX);
+    }
+
+    private void transcode(File source, File target, Rendition rendition) {
+        File partial = new File(target.getPath() + PARTIAL_SUFFIX);
+        long startedAt = System.currentTimeMillis();
+        try {
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("unable to create " + dir);
+            }
+            new RenditionTranscoder(source, partial, rendition).transcode();
+            if (!partial.renameTo(target)) {
+                throw new IOException("unable to rename " + partial);
+            }
+            LOG.info("transcoded " + target.getName() + " in " + (System.currentTimeMillis() - startedAt) + " ms");
+            evict(target);
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("unable to transcode " + source + " to " + rendition.getName() + ": " + e.getMessage());
+            partial.delete();
+        } finally {
+            synchronized (this) {
+                pending.remove(target);
+            }
+        }
+    }
+
+    /**
+     * Deletes the least recently used renditions until the cache fits into the limit
+     */
+    private synchronized void evict(File keep) {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(SUFFIX));
+        if (files == null) {
+            return;
+        }
+        long total = 0;
+        for (File f: files) {
+            total += f.length();
+        }
+        Arrays.sort(files, Comparator.comparingLong(f -> accessed.getOrDefault(f, f.lastModified())));
+        for (int i = 0; i < files.length && total > maxBytes; i++) {
+            File f = files[i];
+            if (!f.equals(keep)) {
+                long length = f.length();
+                if (f.delete()) {
+                    accessed.remove(f);
+                    total -= length;
+                    LOG.info("evicted " + f.getName());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package me.vzhilin.bstreamer.server.streaming.file;
+
+import me.vzhilin.bstreamer.server.media.FFmpegRuntime;
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacpp.DoublePointer;
+import org.bytedeco.javacpp.PointerPointer;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.bytedeco.javacpp.avcodec.*;
+import static org.bytedeco.javacpp.avformat.*;
+import static org.bytedeco.javacpp.avutil.*;
+import static org.bytedeco.javacpp.swscale.*;
+
+/**
+ * Transcodes the video stream of a file into H.264 Matroska file with the rendition's height and bitrate.
+ *
+ * Frames are never upscaled, B-frames are not used, GOP is one second long.
+ */
+final class RenditionTranscoder {
+    private final File source;
+    private final File target;
+    private final Rendition rendition;
+
+    private AVFormatContext in;
+    private AVFormatContext out;
+    private AVCodecContext decoder;
+    private AVCodecContext encoder;
+    private SwsContext sws;
+    private AVFrame scaled;
+    private AVPacket pkt;
+    private AVStream inStream;
+    private AVStream outStream;
+    private AVRational millis;
+    private long lastPts = Long.MIN_VALUE;
+
+    RenditionTranscoder(File source, File target, Rendition rendition) {
+        this.source = source;
+        this.target = target;
+        this.rendition = rendition;
+    }
+
+    void transcode() throws IOException {
+        FFmpegRuntime.ensureInitialized();
+        FFmpegRuntime.contextOpened();
+        try {
+            openInput();
+            openOutput();
+            AVFrame frame = av_frame_alloc();
+            AVPacket inPkt = av_packet_alloc();
+            try {
+                while (av_read_frame(in, inPkt) >= 0) {
+                    if (inPkt.stream_index() == inStream.index()) {
+                        check(avcodec_send_packet(decoder, inPkt), "avcodec_send_packet");
+                        decode(frame);
+                    }
+                    av_packet_unref(inPkt);
+                }
+                avcodec_send_packet(decoder, null);
+                decode(frame);
+                avcodec_send_frame(encoder, null);
+                writePackets();
+                check(av_write_trailer(out), "av_write_trailer");
+            } finally {
+                av_frame_free(frame);
+                av_packet_free(inPkt);
+            }
+        } finally {
+            close();
+            FFmpegRuntime.contextClosed();
+        }
+    }
+
+    private void openInput() throws IOException {
+        in = new AVFormatContext(null);
+        check(avformat_open_input(in, new BytePointer(source.getAbsolutePath()), null, null), "avformat_open_input");
+        check(avformat_find_stream_info(in, (PointerPointer) null), "avformat_find_stream_info");
+        int streamId = check(av_find_best_stream(in, AVMEDIA_TYPE_VIDEO, -1, -1, (AVCodec) null, 0), "av_find_best_stream");
+        inStream = in.streams(streamId);
+
+        AVCodec codec = avcodec_find_decoder(inStream.codecpar().codec_id());
+        if (codec == null) {
+            throw new IOException("decoder not found");
+        }
+        decoder = avcodec_alloc_context3(codec);
+        check(avcodec_parameters_to_context(decoder, inStream.codecpar()), "avcodec_parameters_to_context");
+        check(avcodec_open2(decoder, codec, (AVDictionary) null), "avcodec_open2");
+    }
+
+    private void openOutput() throws IOException {
+        int srcWidth = decoder.width();
+        int srcHeight = decoder.height();
+        int height = Math.min(srcHeight, rendition.getHeight()) & ~1;
+        int width = (int) Math.round((double) srcWidth * height / srcHeight) & ~1;
+        AVRational frameRate = inStream.avg_frame_rate();
+        int fps = frameRate.num() > 0 && frameRate.den() > 0 ? (int) Math.round(av_q2d(frameRate)) : 25;
+        millis = av_make_q(1, 1000);
+
+        AVCodec codec = avcodec_find_encoder(AV_CODEC_ID_H264);
+        if (codec == null) {
+            throw new IOException("h264 encoder not found");
+        }
+        encoder = avcodec_alloc_context3(codec);
+        encoder.width(width);
+        encoder.height(height);
+        encoder.bit_rate(rendition.getBitrate());
+        encoder.time_base(millis);
+        encoder.framerate(av_make_q(fps, 1));
+        encoder.gop_size(fps);
+        encoder.max_b_frames(0);
+        encoder.pix_fmt(AV_PIX_FMT_YUV420P);
+        encoder.flags(encoder.flags() | AV_CODEC_FLAG_GLOBAL_HEADER);
+        check(avcodec_open2(encoder, codec, (AVDictionary) null), "avcodec_open2");
+
+        sws = sws_getContext(srcWidth, srcHeight, decoder.pix_fmt(), width, height, AV_PIX_FMT_YUV420P,
+                SWS_BICUBIC, null, null, (DoublePointer) null);
+        if (sws == null || sws.isNull()) {
+            throw new IOException("sws_getContext error");
+        }
+        scaled = av_frame_alloc();
+        scaled.format(AV_PIX_FMT_YUV420P);
+        scaled.width(width);
+        scaled.height(height);
+        check(av_frame_get_buffer(scaled, 32), "av_frame_get_buffer");
+        pkt = av_packet_alloc();
+
+        out = new AVFormatContext(null);
+        check(avformat_alloc_output_context2(out, null, "matroska", target.getAbsolutePath()), "avformat_alloc_output_context2");
+        outStream = avformat_new_stream(out, null);
+        check(avcodec_parameters_from_context(outStream.codecpar(), encoder), "avcodec_parameters_from_context");
+        outStream.time_base(millis);
+        AVIOContext pb = new AVIOContext(null);
+        check(avio_open(pb, new BytePointer(target.getAbsolutePath()), AVIO_FLAG_WRITE), "avio_open");
+        out.pb(pb);
+        check(avformat_write_header(out, (AVDictionary) null), "avformat_write_header");
+    }
+
+    private void decode(AVFrame frame) throws IOException {
+        while (avcodec_receive_frame(decoder, frame) == 0) {
+            long ts = frame.best_effort_timestamp();
+            if (ts == AV_NOPTS_VALUE) {
+                ts = frame.pts();
+            }
+            long pts = av_rescale_q(ts, inStream.time_base(), millis);
+            if (pts > lastPts) {
+                lastPts = pts;
+                check(av_frame_make_writable(scaled), "av_frame_make_writable");
+                sws_scale(sws, frame.data(), frame.linesize(), 0, frame.height(), scaled.data(), scaled.linesize());
+                scaled.pts(pts);
+                check(avcodec_send_frame(encoder, scaled), "avcodec_send_frame");
+                writePackets();
+            }
+            av_frame_unref(frame);
+        }
+    }
+
+    private void writePackets() throws IOException {
+        while (avcodec_receive_packet(encoder, pkt) == 0) {
+            av_packet_rescale_ts(pkt, encoder.time_base(), outStream.time_base());
+            pkt.stream_index(0);
+            check(av_interleaved_write_frame(out, pkt), "av_interleaved_write_frame");
+        }
+    }
+
+    private static int check(int r, String function) throws IOException {
+        if (r < 0) {
+            throw new IOException(function + " error: " + r);
+        }
+        return r;
+    }
+
+    private void close() {
+        if (pkt != null) {
+            av_packet_free(pkt);
+        }
+        if (scaled != null) {
+            av_frame_free(scaled);
+        }
+        if (sws != null) {
+            sws_freeContext(sws);
+        }
+        if (encoder != null) {
+            avcodec_free_context(encoder);
+        }
+        if (decoder != null) {
+            avcodec_free_context(decoder);
+        }
+        if (out != null) {
+            if (out.pb() != null) {
+                avio_closep(out.pb());
+            }
+            avformat_free_context(out);
+        }
+        if (in != null) {
+            avformat_close_input(in);
+        }
+    }
+}
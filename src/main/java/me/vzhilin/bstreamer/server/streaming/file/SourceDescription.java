@@ -9,6 +9,9 @@ public class SourceDescription {
     private avutil.AVRational timebase;
     private avutil.AVRational avgFrameRate;
     private int videoStreamId;
+    private long durationMillis;
+    private long[] keyframeMillis;
+    private long bitrate;
 
     public void setSps(byte[] sps) {
         this.sps = sps;
@@ -49,4 +52,37 @@ public class SourceDescription {
     public int getVideoStreamId() {
         return videoStreamId;
     }
+
+    /**
+     * @return duration or 0, if source is not seekable
+     */
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    public void setDurationMillis(long durationMillis) {
+        this.durationMillis = durationMillis;
+    }
+
+    /**
+     * @return keyframe positions or null, if unknown
+     */
+    public long[] getKeyframeMillis() {
+        return keyframeMillis;
+    }
+
+    public void setKeyframeMillis(long[] keyframeMillis) {
+        this.keyframeMillis = keyframeMillis;
+    }
+
+    /**
+     * @return bits per second of the video stream, or 0 if unknown
+     */
+    public long getBitrate() {
+        return bitrate;
+    }
+
+    public void setBitrate(long bitrate) {
+        this.bitrate = bitrate;
+    }
 }
@@ -0,0 +1,116 @@
+package me.vzhilin.bstreamer.server.streaming.mkv;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads EBML elements from a buffer, buffer position is the cursor
+ */
+public final class EbmlReader {
+    public static final long UNKNOWN_SIZE = -1;
+
+    private final ByteBuffer buf;
+
+    public EbmlReader(ByteBuffer buf) {
+        this.buf = buf;
+    }
+
+    public boolean hasNext() {
+        return buf.hasRemaining();
+    }
+
+    public int remaining() {
+        return buf.remaining();
+    }
+
+    public int position() {
+        return buf.position();
+    }
+
+    /**
+     * @return element id with the length marker bits, as written in the spec
+     */
+    public int readId() {
+        int first = buf.get() & 0xff;
+        int len = vintLength(first);
+        if (len > 4) {
+            throw new MatroskaFormatException("invalid element id at " + (buf.position() - 1));
+        }
+        int id = first;
+        for (int i = 1; i < len; i++) {
+            id = (id << 8) | (buf.get() & 0xff);
+        }
+        return id;
+    }
+
+    /**
+     * @return element data size or {@link #UNKNOWN_SIZE}
+     */
+    public long readSize() {
+        int first = buf.get() & 0xff;
+        int len = vintLength(first);
+        long value = first & (0xff >> len);
+        boolean allOnes = value == (0xff >> len);
+        for (int i = 1; i < len; i++) {
+            int b = buf.get() & 0xff;
+            allOnes &= b == 0xff;
+            value = (value << 8) | b;
+        }
+        return allOnes ? UNKNOWN_SIZE : value;
+    }
+
+    public long readUInt(long len) {
+        long value = 0;
+        for (int i = 0; i < len; i++) {
+            value = (value << 8) | (buf.get() & 0xff);
+        }
+        return value;
+    }
+
+    public double readFloat(long len) {
+        if (len == 4) {
+            return buf.getFloat();
+        } else
+        if (len == 8) {
+            return buf.getDouble();
+        }
+        skip(len);
+        return 0;
+    }
+
+    public String readString(long len) {
+        byte[] bytes = readBytes(len);
+        int end = 0;
+        while (end < bytes.length && bytes[end] != 0) {
+            ++end;
+        }
+        return new String(bytes, 0, end, StandardCharsets.US_ASCII);
+    }
+
+    public byte[] readBytes(long len) {
+        byte[] bytes = new byte[(int) len];
+        buf.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * @return the next {@code len} bytes without copying
+     */
+    public ByteBuffer slice(long len) {
+        ByteBuffer dup = buf.duplicate();
+        dup.limit(buf.position() + (int) len);
+        buf.position(buf.position() + (int) len);
+        return dup.slice();
+    }
+
+    public void skip(long len) {
+        buf.position(buf.position() + (int) len);
+    }
+
+    private static int vintLength(int first) {
+        if (first == 0) {
+            throw new MatroskaFormatException("invalid variable-size integer");
+        }
+        return Integer.numberOfLeadingZeros(first) - 23;
+    }
+}
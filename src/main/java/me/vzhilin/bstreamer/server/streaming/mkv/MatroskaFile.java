@@ -0,0 +1,496 @@
+package me.vzhilin.bstreamer.server.streaming.mkv;
+
+import me.vzhilin.bstreamer.server.media.AVCCExtradataParser;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Index of a Matroska file with the first H.264 video track.
+ *
+ * Only element headers are read while indexing. Clusters are memory-mapped read-only and shared by all readers,
+ * see {@link MatroskaFiles}.
+ */
+public final class MatroskaFile {
+    public static final int EBML = 0x1A45DFA3;
+    public static final int DOC_TYPE = 0x4282;
+    public static final int SEGMENT = 0x18538067;
+    public static final int SEEK_HEAD = 0x114D9B74;
+    public static final int INFO = 0x1549A766;
+    public static final int TIMECODE_SCALE = 0x2AD7B1;
+    public static final int DURATION = 0x4489;
+    public static final int TRACKS = 0x1654AE6B;
+    public static final int TRACK_ENTRY = 0xAE;
+    public static final int TRACK_NUMBER = 0xD7;
+    public static final int TRACK_TYPE = 0x83;
+    public static final int CODEC_ID = 0x86;
+    public static final int CODEC_PRIVATE = 0x63A2;
+    public static final int CONTENT_ENCODINGS = 0x6D80;
+    public static final int CLUSTER = 0x1F43B675;
+    public static final int TIMECODE = 0xE7;
+    public static final int SIMPLE_BLOCK = 0xA3;
+    public static final int BLOCK_GROUP = 0xA0;
+    public static final int BLOCK = 0xA1;
+    public static final int REFERENCE_BLOCK = 0xFB;
+    public static final int CUES = 0x1C53BB6B;
+    public static final int CUE_POINT = 0xBB;
+    public static final int CUE_TIME = 0xB3;
+    public static final int CUE_TRACK_POSITIONS = 0xB7;
+    public static final int CUE_TRACK = 0xF7;
+    public static final int TAGS = 0x1254C367;
+    public static final int CHAPTERS = 0x1043A770;
+    public static final int ATTACHMENTS = 0x1941A469;
+
+    private static final int TRACK_TYPE_VIDEO = 1;
+    private static final String CODEC_H264 = "V_MPEG4/ISO/AVC";
+    private static final long MAX_REGION = 1L << 30;
+    /** longest element header: 4 bytes id + 8 bytes size */
+    private static final int MAX_HEADER = 12;
+
+    private final File file;
+    private final long size;
+    private final long lastModified;
+
+    private long timecodeScale = 1000000;
+    private long durationMillis;
+    private long trackNumber = -1;
+    private byte[] sps;
+    private byte[] pps;
+    private long[] cueMillis = new long[0];
+    /** cue points are filtered by track after indexing, Cues might precede Tracks */
+    private List<long[]> deferredCues;
+
+    private final List<long[]> clusters = new ArrayList<>();
+    private long[] clusterMillis;
+    private MappedByteBuffer[] regions;
+    private int[] clusterRegion;
+    private int[] clusterOffset;
+    private int[] clusterSize;
+
+    /** guarded by {@link MatroskaFiles} */
+    int refs;
+
+    private MatroskaFile(File file) {
+        this.file = file;
+        this.size = file.length();
+        this.lastModified = file.lastModified();
+    }
+
+    public static MatroskaFile open(File file) throws IOException {
+        MatroskaFile mf = new MatroskaFile(file);
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            mf.index(ch);
+            mf.map(ch);
+        } catch (MatroskaFormatException | BufferUnderflowException e) {
+            throw new IOException(file + ": " + e.getMessage(), e);
+        }
+        return mf;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    boolean isStale() {
+        return file.length() != size || file.lastModified() != lastModified;
+    }
+
+    public long getTrackNumber() {
+        return trackNumber;
+    }
+
+    public byte[] getSps() {
+        return sps;
+    }
+
+    public byte[] getPps() {
+        return pps;
+    }
+
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    /**
+     * @return keyframe positions: cue points of the track, or cluster timecodes if there are no cues
+     */
+    public long[] getKeyframeMillis() {
+        return cueMillis.length > 0 ? cueMillis : clusterMillis;
+    }
+
+    public int clusters() {
+        return clusterMillis.length;
+    }
+
+    public long clusterMillis(int i) {
+        return clusterMillis[i];
+    }
+
+    /**
+     * @return cluster content, slice of the mapped region
+     */
+    public ByteBuffer cluster(int i) {
+        ByteBuffer dup = regions[clusterRegion[i]].duplicate();
+        dup.position(clusterOffset[i]);
+        dup.limit(clusterOffset[i] + clusterSize[i]);
+        return dup.slice();
+    }
+
+    /**
+     * @return index of the last cluster which starts not later than the position
+     */
+    public int findCluster(long millis) {
+        int pos = Arrays.binarySearch(clusterMillis, millis);
+        if (pos < 0) {
+            pos = -pos - 2;
+        }
+        return Math.max(0, pos);
+    }
+
+    public long toMillis(long timecode) {
+        return timecode * timecodeScale / 1000000;
+    }
+
+    private void index(FileChannel ch) throws IOException {
+        long fileSize = ch.size();
+        EbmlReader r = new EbmlReader(read(ch, 0, MAX_HEADER));
+        if (r.readId() != EBML) {
+            throw new MatroskaFormatException("not an EBML file");
+        }
+        long headerSize = r.readSize();
+        EbmlReader header = new EbmlReader(read(ch, r.position(), headerSize));
+        String docType = null;
+        while (header.hasNext()) {
+            int id = header.readId();
+            long len = header.readSize();
+            if (id == DOC_TYPE) {
+                docType = header.readString(len);
+            } else {
+                header.skip(len);
+            }
+        }
+        if (!"matroska".equals(docType) && !"webm".equals(docType)) {
+            throw new MatroskaFormatException("unsupported doc type: " + docType);
+        }
+
+        long pos = r.position() + headerSize;
+        r = new EbmlReader(read(ch, pos, MAX_HEADER));
+        if (r.readId() != SEGMENT) {
+            throw new MatroskaFormatException("segment not found");
+        }
+        long segmentSize = r.readSize();
+        pos += r.position();
+        long segmentEnd = segmentSize == EbmlReader.UNKNOWN_SIZE ? fileSize : Math.min(fileSize, pos + segmentSize);
+
+        while (pos + 2 <= segmentEnd) {
+            r = new EbmlReader(read(ch, pos, MAX_HEADER));
+            int id = r.readId();
+            long len = r.readSize();
+            long dataPos = pos + r.position();
+            if (id == CLUSTER) {
+                pos = indexCluster(ch, dataPos, len, segmentEnd);
+                continue;
+            }
+            if (len == EbmlReader.UNKNOWN_SIZE) {
+                break;
+            }
+            switch (id) {
+                case INFO:
+                    parseInfo(new EbmlReader(read(ch, dataPos, len)));
+                    break;
+                case TRACKS:
+                    parseTracks(new EbmlReader(read(ch, dataPos, len)));
+                    break;
+                case CUES:
+                    parseCues(new EbmlReader(read(ch, dataPos, len)));
+                    break;
+                default:
+                    break;
+            }
+            pos = dataPos + len;
+        }
+
+        if (trackNumber < 0) {
+            throw new MatroskaFormatException("h264 track not found");
+        }
+        if (clusters.isEmpty()) {
+            throw new MatroskaFormatException("no clusters");
+        }
+        clusterMillis = new long[clusters.size()];
+        for (int i = 0; i < clusterMillis.length; i++) {
+            clusterMillis[i] = toMillis(clusters.get(i)[2]);
+        }
+    }
+
+    /**
+     * Stores cluster position and timecode
+     *
+     * @return position of the next element
+     */
+    private long indexCluster(FileChannel ch, long dataPos, long len, long segmentEnd) throws IOException {
+        long end = len == EbmlReader.UNKNOWN_SIZE ? segmentEnd : Math.min(segmentEnd, dataPos + len);
+        long timecode = -1;
+        long pos = dataPos;
+        while (pos + 2 <= end) {
+            EbmlReader r = new EbmlReader(read(ch, pos, MAX_HEADER));
+            int id = r.readId();
+            if (isTopLevel(id)) {
+                break;
+            }
+            long childLen = r.readSize();
+            if (id == TIMECODE) {
+                timecode = new EbmlReader(read(ch, pos + r.position(), childLen)).readUInt(childLen);
+                if (len != EbmlReader.UNKNOWN_SIZE) {
+                    pos = end;
+                    break;
+                }
+            }
+            if (childLen == EbmlReader.UNKNOWN_SIZE) {
+                throw new MatroskaFormatException("unknown-sized element in cluster at " + pos);
+            }
+            pos += r.position() + childLen;
+        }
+        if (len != EbmlReader.UNKNOWN_SIZE) {
+            pos = end;
+        }
+        if (timecode < 0) {
+            throw new MatroskaFormatException("cluster without timecode at " + dataPos);
+        }
+        clusters.add(new long[] {dataPos, pos - dataPos, timecode});
+        return pos;
+    }
+
+    private void parseInfo(EbmlReader r) {
+        double duration = 0;
+        while (r.hasNext()) {
+            int id = r.readId();
+            long len = r.readSize();
+            if (id == TIMECODE_SCALE) {
+                timecodeScale = r.readUInt(len);
+            } else
+            if (id == DURATION) {
+                duration = r.readFloat(len);
+            } else {
+                r.skip(len);
+            }
+        }
+        durationMillis = (long) (duration * timecodeScale / 1000000);
+    }
+
+    private void parseTracks(EbmlReader r) {
+        while (r.hasNext() && trackNumber < 0) {
+            int id = r.readId();
+            long len = r.readSize();
+            if (id != TRACK_ENTRY) {
+                r.skip(len);
+                continue;
+            }
+
+            EbmlReader entry = new EbmlReader(r.slice(len));
+            long number = -1;
+            long type = -1;
+            String codec = null;
+            byte[] codecPrivate = null;
+            boolean encoded = false;
+            while (entry.hasNext()) {
+                int eid = entry.readId();
+                long elen = entry.readSize();
+                switch (eid) {
+                    case TRACK_NUMBER:
+                        number = entry.readUInt(elen);
+                        break;
+                    case TRACK_TYPE:
+                        type = entry.readUInt(elen);
+                        break;
+                    case CODEC_ID:
+                        codec = entry.readString(elen);
+                        break;
+                    case CODEC_PRIVATE:
+                        codecPrivate = entry.readBytes(elen);
+                        break;
+                    case CONTENT_ENCODINGS:
+                        encoded = true;
+                        entry.skip(elen);
+                        break;
+                    default:
+                        entry.skip(elen);
+                }
+            }
+            if (type == TRACK_TYPE_VIDEO && CODEC_H264.equals(codec) && codecPrivate != null) {
+                if (encoded) {
+                    throw new MatroskaFormatException("content encoding is not supported");
+                }
+                AVCCExtradataParser extradata;
+                try {
+                    extradata = new AVCCExtradataParser(codecPrivate);
+                } catch (RuntimeException e) {
+                    throw new MatroskaFormatException("unsupported avcC: " +
+                        (e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName()));
+                }
+                sps = extradata.getSps();
+                pps = extradata.getPps();
+                trackNumber = number;
+            }
+        }
+    }
+
+    private void parseCues(EbmlReader r) {
+        List<long[]> cues = new ArrayList<>();
+        while (r.hasNext()) {
+            int id = r.readId();
+            long len = r.readSize();
+            if (id != CUE_POINT) {
+                r.skip(len);
+                continue;
+            }
+            EbmlReader point = new EbmlReader(r.slice(len));
+            long time = -1;
+            long track = -1;
+            while (point.hasNext()) {
+                int pid = point.readId();
+                long plen = point.readSize();
+                if (pid == CUE_TIME) {
+                    time = point.readUInt(plen);
+                } else
+                if (pid == CUE_TRACK_POSITIONS && track < 0) {
+                    EbmlReader positions = new EbmlReader(point.slice(plen));
+                    while (positions.hasNext()) {
+                        int tid = positions.readId();
+                        long tlen = positions.readSize();
+                        if (tid == CUE_TRACK) {
+                            track = positions.readUInt(tlen);
+                        } else {
+                            positions.skip(tlen);
+                        }
+                    }
+                } else {
+                    point.skip(plen);
+                }
+            }
+            cues.add(new long[] {time, track});
+        }
+        deferredCues = cues;
+    }
+
+    private void map(FileChannel ch) throws IOException {
+        if (deferredCues != null) {
+            TreeSet<Long> times = new TreeSet<>();
+            for (long[] cue: deferredCues) {
+                if (cue[0] >= 0 && cue[1] == trackNumber) {
+                    times.add(toMillis(cue[0]));
+                }
+            }
+            cueMillis = times.stream().mapToLong(Long::longValue).toArray();
+            deferredCues = null;
+        }
+
+        int n = clusters.size();
+        clusterRegion = new int[n];
+        clusterOffset = new int[n];
+        clusterSize = new int[n];
+        List<MappedByteBuffer> mapped = new ArrayList<>();
+        int first = 0;
+        while (first < n) {
+            long start = clusters.get(first)[0];
+            int last = first;
+            while (last + 1 < n && clusterEnd(last + 1) - start <= MAX_REGION) {
+                ++last;
+            }
+            long regionSize = clusterEnd(last) - start;
+            if (regionSize > Integer.MAX_VALUE) {
+                throw new MatroskaFormatException("cluster is too large at " + start);
+            }
+            for (int i = first; i <= last; i++) {
+                clusterRegion[i] = mapped.size();
+                clusterOffset[i] = (int) (clusters.get(i)[0] - start);
+                clusterSize[i] = (int) clusters.get(i)[1];
+            }
+            mapped.add(ch.map(FileChannel.MapMode.READ_ONLY, start, regionSize));
+            first = last + 1;
+        }
+        regions = mapped.toArray(new MappedByteBuffer[0]);
+        long lastTimecode = clusters.get(n - 1)[2];
+        clusters.clear();
+        if (durationMillis == 0) {
+            durationMillis = toMillis(lastTimecode + lastBlockOffset(cluster(n - 1)));
+        }
+    }
+
+    /**
+     * @return timecode of the last block of the track relative to the cluster
+     */
+    private long lastBlockOffset(ByteBuffer cluster) {
+        EbmlReader r = new EbmlReader(cluster);
+        long offset = 0;
+        while (r.hasNext()) {
+            int id = r.readId();
+            long len = r.readSize();
+            EbmlReader block = null;
+            if (id == SIMPLE_BLOCK) {
+                block = new EbmlReader(r.slice(len));
+            } else
+            if (id == BLOCK_GROUP) {
+                EbmlReader group = new EbmlReader(r.slice(len));
+                while (group.hasNext()) {
+                    int gid = group.readId();
+                    long glen = group.readSize();
+                    if (gid == BLOCK) {
+                        block = new EbmlReader(group.slice(glen));
+                    } else {
+                        group.skip(glen);
+                    }
+                }
+            } else {
+                r.skip(len);
+            }
+            if (block != null && block.readSize() == trackNumber) {
+                offset = Math.max(offset, (short) block.readUInt(2));
+            }
+        }
+        return offset;
+    }
+
+    private long clusterEnd(int i) {
+        long[] c = clusters.get(i);
+        return c[0] + c[1];
+    }
+
+    private static boolean isTopLevel(int id) {
+        switch (id) {
+            case CLUSTER:
+            case CUES:
+            case INFO:
+            case TRACKS:
+            case SEEK_HEAD:
+            case TAGS:
+            case CHAPTERS:
+            case ATTACHMENTS:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static ByteBuffer read(FileChannel ch, long pos, long len) throws IOException {
+        if (len == EbmlReader.UNKNOWN_SIZE || len > Integer.MAX_VALUE) {
+            throw new MatroskaFormatException("element is too large at " + pos);
+        }
+        ByteBuffer buf = ByteBuffer.allocate((int) Math.max(0, Math.min(len, ch.size() - pos)));
+        while (buf.hasRemaining()) {
+            if (ch.read(buf, pos + buf.position()) < 0) {
+                break;
+            }
+        }
+        buf.flip();
+        return buf;
+    }
+}
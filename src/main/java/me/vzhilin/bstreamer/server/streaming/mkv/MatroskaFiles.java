@@ -0,0 +1,33 @@
+package me.vzhilin.bstreamer.server.streaming.mkv;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Opened Matroska files, shared by all readers.
+ *
+ * A file is indexed and mapped once and dropped when the last reader releases it.
+ * A modified file is opened again, readers of the previous version keep the old mapping.
+ */
+public final class MatroskaFiles {
+    private final Map<File, MatroskaFile> files = new HashMap<>();
+
+    public synchronized MatroskaFile acquire(File file) throws IOException {
+        File key = file.getAbsoluteFile();
+        MatroskaFile mf = files.get(key);
+        if (mf == null || mf.isStale()) {
+            mf = MatroskaFile.open(key);
+            files.put(key, mf);
+        }
+        ++mf.refs;
+        return mf;
+    }
+
+    public synchronized void release(MatroskaFile mf) {
+        if (--mf.refs == 0) {
+            files.remove(mf.getFile(), mf);
+        }
+    }
+}
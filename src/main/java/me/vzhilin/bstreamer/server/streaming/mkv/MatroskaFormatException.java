@@ -0,0 +1,9 @@
+package me.vzhilin.bstreamer.server.streaming.mkv;
+
+public final class MatroskaFormatException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public MatroskaFormatException(String message) {
+        super(message);
+    }
+}
@@ -2,6 +2,7 @@ package me.vzhilin.bstreamer.server.streaming.picture;
 
 import io.netty.buffer.Unpooled;
 import me.vzhilin.bstreamer.server.ServerContext;
+import me.vzhilin.bstreamer.server.media.FFmpegRuntime;
 import me.vzhilin.bstreamer.server.streaming.base.PullSource;
 import me.vzhilin.bstreamer.server.streaming.file.MediaPacket;
 import me.vzhilin.bstreamer.server.streaming.file.SourceDescription;
@@ -43,6 +44,7 @@ public abstract class AbstractPictureSource implements PullSource {
     private boolean closed;
 
     public AbstractPictureSource(ServerContext context, PropertyMap properties) {
+        FFmpegRuntime.ensureInitialized();
         this.context = context;
         this.properties = properties;
         this.codecParameters = extractH264Parameters(properties);
@@ -86,6 +88,7 @@ public abstract class AbstractPictureSource implements PullSource {
         avcodec.AVCodec codec;
         codec = avcodec_find_encoder(AV_CODEC_ID_H264);
         c = avcodec_alloc_context3(codec);
+        FFmpegRuntime.contextOpened();
         codecParameters.setParameters(c);
         c.pix_fmt(avutil.AV_PIX_FMT_YUV420P);
         c.flags(c.flags() | AV_CODEC_FLAG_GLOBAL_HEADER);
@@ -264,6 +267,7 @@ public abstract class AbstractPictureSource implements PullSource {
             closed = true;
             sws_freeContext(swsContext);
             avcodec_free_context(c);
+            FFmpegRuntime.contextClosed();
             av_frame_free(rgbFrame);
             av_frame_free(frame);
             timebaseMillis.deallocate();
@@ -0,0 +1,179 @@
+package me.vzhilin.bstreamer.server.streaming.relay;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import me.vzhilin.bstreamer.server.streaming.file.MediaPacket;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Restores NAL units from RTP packets, RFC 6184: single NAL unit, STAP-A and FU-A packets.
+ *
+ * NAL units are grouped into access units by RTP timestamp, every NAL unit of an access unit with IDR picture
+ * is marked as key. Timestamps are milliseconds since the first packet. After a packet loss access units
+ * are dropped until the next keyframe.
+ */
+public final class H264Depacketizer {
+    private static final int STAP_A = 24;
+    private static final int FU_A = 28;
+    private static final int IDR = 5;
+
+    private final Consumer<MediaPacket> sink;
+    private final List<ByteBuf> nals = new ArrayList<>();
+    private ByteBuf fu;
+    private boolean waitKey = true;
+    private boolean auKey;
+    /** access unit has a slice, the marker bit ends it then */
+    private boolean auVcl;
+    private long auTimestamp = -1;
+    private long firstTimestamp = -1;
+    private long lastTimestamp = -1;
+
+    public H264Depacketizer(Consumer<MediaPacket> sink) {
+        this.sink = sink;
+    }
+
+    public void onLoss() {
+        clear();
+        waitKey = true;
+    }
+
+    /**
+     * @param rtp RTP packet, released by the depacketizer
+     */
+    public void onPacket(ByteBuf rtp) {
+        try {
+            int start = rtp.readerIndex();
+            int b0 = rtp.getUnsignedByte(start);
+            int b1 = rtp.getUnsignedByte(start + 1);
+            int csrcCount = b0 & 0x0f;
+            boolean padding = (b0 & 0x20) != 0;
+            boolean extension = (b0 & 0x10) != 0;
+            boolean marker = (b1 & 0x80) != 0;
+            long timestamp = extend(rtp.getUnsignedInt(start + 4));
+
+            int offset = start + 12 + 4 * csrcCount;
+            if (extension) {
+                offset += 4 + 4 * rtp.getUnsignedShort(offset + 2);
+            }
+            int end = rtp.writerIndex();
+            if (padding) {
+                end -= rtp.getUnsignedByte(end - 1);
+            }
+            if (offset >= end) {
+                return;
+            }
+
+            if (timestamp != auTimestamp) {
+                releaseFragment();
+                flush();
+                auTimestamp = timestamp;
+            }
+            readPayload(rtp.slice(offset, end - offset));
+            if (marker && auVcl) {
+                flush();
+            }
+        } finally {
+            rtp.release();
+        }
+    }
+
+    private void readPayload(ByteBuf payload) {
+        int header = payload.getUnsignedByte(payload.readerIndex());
+        switch (header & 0x1f) {
+            case STAP_A:
+                payload.skipBytes(1);
+                while (payload.readableBytes() > 2) {
+                    int size = payload.readUnsignedShort();
+                    if (size > payload.readableBytes()) {
+                        break;
+                    }
+                    addNal(payload.readRetainedSlice(size));
+                }
+                break;
+            case FU_A: {
+                if (payload.readableBytes() < 2) {
+                    return;
+                }
+                int fuHeader = payload.getUnsignedByte(payload.readerIndex() + 1);
+                boolean first = (fuHeader & 0x80) != 0;
+                boolean last = (fuHeader & 0x40) != 0;
+                if (first) {
+                    releaseFragment();
+                    fu = PooledByteBufAllocator.DEFAULT.buffer();
+                    fu.writeByte((header & 0xe0) | (fuHeader & 0x1f));
+                }
+                if (fu == null) {
+                    return;
+                }
+                fu.writeBytes(payload, payload.readerIndex() + 2, payload.readableBytes() - 2);
+                if (last) {
+                    addNal(fu);
+                    fu = null;
+                }
+                break;
+            }
+            default:
+                addNal(payload.retainedSlice());
+        }
+    }
+
+    private void addNal(ByteBuf nal) {
+        int type = nal.isReadable() ? nal.getByte(nal.readerIndex()) & 0x1f : 0;
+        auKey |= type == IDR;
+        auVcl |= type >= 1 && type <= IDR;
+        nals.add(nal);
+    }
+
+    private void flush() {
+        if (nals.isEmpty()) {
+            return;
+        }
+        if (auKey) {
+            waitKey = false;
+        }
+        long millis = (auTimestamp - firstTimestamp) / 90;
+        for (ByteBuf nal: nals) {
+            if (waitKey) {
+                nal.release();
+            } else {
+                sink.accept(new MediaPacket(millis, millis, auKey, nal));
+            }
+        }
+        nals.clear();
+        auKey = false;
+        auVcl = false;
+    }
+
+    /**
+     * @return 32-bit RTP timestamp extended to 64 bits
+     */
+    private long extend(long timestamp) {
+        if (firstTimestamp < 0) {
+            firstTimestamp = timestamp + 0x100000000L;
+            lastTimestamp = firstTimestamp;
+        }
+        long extended = lastTimestamp + (int) (timestamp - (lastTimestamp & 0xffffffffL));
+        if (extended > lastTimestamp) {
+            lastTimestamp = extended;
+        }
+        return extended;
+    }
+
+    private void releaseFragment() {
+        if (fu != null) {
+            fu.release();
+            fu = null;
+        }
+    }
+
+    public void clear() {
+        releaseFragment();
+        nals.forEach(ByteBuf::release);
+        nals.clear();
+        auKey = false;
+        auVcl = false;
+    }
+}
@@ -0,0 +1,77 @@
+package me.vzhilin.bstreamer.server.streaming.relay;
+
+import io.netty.buffer.ByteBuf;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Puts RTP packets in sequence number order.
+ *
+ * A packet is released as soon as all preceding packets are released, or when it has waited for the delay;
+ * the missing packets are considered lost then.
+ */
+public final class JitterBuffer {
+    private static final int MAX_PACKETS = 1024;
+
+    private final long delayNanos;
+    private final TreeMap<Long, Entry> packets = new TreeMap<>();
+    /** extended sequence number of the next packet to release, -1 until the first packet */
+    private long expected = -1;
+
+    public JitterBuffer(long delayMillis) {
+        this.delayNanos = TimeUnit.MILLISECONDS.toNanos(delayMillis);
+    }
+
+    /**
+     * @param rtp RTP packet, the buffer takes ownership
+     */
+    public void add(ByteBuf rtp, long nowNanos) {
+        int seq = rtp.getUnsignedShort(rtp.readerIndex() + 2);
+        if (expected < 0) {
+            expected = seq + 0x10000;
+        }
+        long extended = expected + (short) (seq - (int) (expected & 0xffff));
+        if (extended < expected || packets.containsKey(extended)) {
+            rtp.release();
+            return;
+        }
+        packets.put(extended, new Entry(rtp, nowNanos));
+    }
+
+    /**
+     * Passes the packets, which are ready, to the depacketizer
+     */
+    public void drain(long nowNanos, H264Depacketizer depacketizer) {
+        while (!packets.isEmpty()) {
+            Map.Entry<Long, Entry> first = packets.firstEntry();
+            long seq = first.getKey();
+            Entry e = first.getValue();
+            if (seq != expected && nowNanos - e.arrivalNanos < delayNanos && packets.size() < MAX_PACKETS) {
+                return;
+            }
+            packets.pollFirstEntry();
+            if (seq != expected) {
+                depacketizer.onLoss();
+            }
+            expected = seq + 1;
+            depacketizer.onPacket(e.rtp);
+        }
+    }
+
+    public void clear() {
+        packets.values().forEach(e -> e.rtp.release());
+        packets.clear();
+    }
+
+    private static final class Entry {
+        private final ByteBuf rtp;
+        private final long arrivalNanos;
+
+        private Entry(ByteBuf rtp, long arrivalNanos) {
+            this.rtp = rtp;
+            this.arrivalNanos = arrivalNanos;
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package me.vzhilin.bstreamer.server.streaming.relay;
+
+public class RelaySourceAttributes {
+    /** upstream rtsp url */
+    public final static String URL = "url";
+    /** time to wait for reordered packets, ms */
+    public final static String JITTER_BUFFER = "jitter_buffer";
+    /** connect and DESCRIBE timeout, ms */
+    public final static String TIMEOUT = "timeout";
+}
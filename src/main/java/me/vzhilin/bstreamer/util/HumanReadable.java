@@ -8,4 +8,12 @@ public class HumanReadable {
         String pre = (si ? "kMGTPE" : "KMGTPE").charAt(exp-1) + (si ? "" : "i");
         return String.format("%.1f %sB", bytes / Math.pow(unit, exp), pre);
     }
+
+    /**
+     * @return duration in milliseconds, with a fraction below 10 ms
+     */
+    public static String millis(long nanos) {
+        double ms = nanos / 1e6;
+        return ms < 10 ? String.format("%.1f ms", ms) : String.format("%d ms", Math.round(ms));
+    }
 }
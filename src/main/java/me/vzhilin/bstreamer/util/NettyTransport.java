@@ -0,0 +1,162 @@
+package me.vzhilin.bstreamer.util;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollDatagramChannel;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.kqueue.KQueue;
+import io.netty.channel.kqueue.KQueueDatagramChannel;
+import io.netty.channel.kqueue.KQueueEventLoopGroup;
+import io.netty.channel.kqueue.KQueueServerSocketChannel;
+import io.netty.channel.kqueue.KQueueSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.DatagramChannel;
+import io.netty.channel.socket.ServerSocketChannel;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.incubator.channel.uring.IOUring;
+import io.netty.incubator.channel.uring.IOUringDatagramChannel;
+import io.netty.incubator.channel.uring.IOUringEventLoopGroup;
+import io.netty.incubator.channel.uring.IOUringServerSocketChannel;
+import io.netty.incubator.channel.uring.IOUringSocketChannel;
+import org.apache.log4j.Logger;
+
+import java.util.function.IntFunction;
+
+/**
+ * Netty transport: event loops and channel types.
+ *
+ * {@code io_uring} is the netty incubator transport, it needs Linux 5.9 or newer, and is not chosen by {@link #AUTO}.
+ * If the requested transport is not available, the native transport of the platform is used instead.
+ */
+public final class NettyTransport {
+    private static final Logger LOG = Logger.getLogger(NettyTransport.class);
+
+    public static final String AUTO = "auto";
+    public static final String IO_URING = "io_uring";
+    public static final String EPOLL = "epoll";
+    public static final String KQUEUE = "kqueue";
+    public static final String NIO = "nio";
+
+    private final String name;
+    private final IntFunction<EventLoopGroup> groupFactory;
+    private final Class<? extends ServerSocketChannel> serverChannel;
+    private final Class<? extends SocketChannel> socketChannel;
+    private final Class<? extends DatagramChannel> datagramChannel;
+
+    private NettyTransport(String name,
+                           IntFunction<EventLoopGroup> groupFactory,
+                           Class<? extends ServerSocketChannel> serverChannel,
+                           Class<? extends SocketChannel> socketChannel,
+                           Class<? extends DatagramChannel> datagramChannel) {
+        this.name = name;
+        this.groupFactory = groupFactory;
+        this.serverChannel = serverChannel;
+        this.socketChannel = socketChannel;
+        this.datagramChannel = datagramChannel;
+    }
+
+    /**
+     * @param requested {@link #AUTO}, {@link #IO_URING}, {@link #EPOLL}, {@link #KQUEUE} or {@link #NIO};
+     *                  null is the same as {@link #AUTO}
+     * @return requested transport, or the native transport of the platform if it is not available
+     */
+    public static NettyTransport select(String requested) {
+        if (requested == null || AUTO.equals(requested)) {
+            return platformDefault();
+        }
+        try {
+            switch (requested) {
+                case IO_URING:
+                    IOUring.ensureAvailability();
+                    return ioUring();
+                case EPOLL:
+                    Epoll.ensureAvailability();
+                    return epoll();
+                case KQUEUE:
+                    KQueue.ensureAvailability();
+                    return kqueue();
+                case NIO:
+                    return nio();
+                default:
+                    throw new IllegalArgumentException("unknown transport: " + requested);
+            }
+        } catch (IllegalArgumentException e) {
+            throw e;
+        } catch (Throwable e) {
+            NettyTransport fallback = platformDefault();
+            LOG.warn(requested + " is not available, falling back to " + fallback.name + ": " + e);
+            return fallback;
+        }
+    }
+
+    /**
+     * @return datagram channel matching the transport of the event loop group
+     */
+    public static Class<? extends DatagramChannel> datagramChannel(EventLoopGroup group) {
+        if (group instanceof EpollEventLoopGroup) {
+            return EpollDatagramChannel.class;
+        }
+        if (group instanceof KQueueEventLoopGroup) {
+            return KQueueDatagramChannel.class;
+        }
+        if (group instanceof IOUringEventLoopGroup) {
+            return IOUringDatagramChannel.class;
+        }
+        return NioDatagramChannel.class;
+    }
+
+    private static NettyTransport platformDefault() {
+        if (!AppRuntime.IS_WINDOWS && !AppRuntime.IS_MAC && Epoll.isAvailable()) {
+            return epoll();
+        }
+        if (AppRuntime.IS_MAC && KQueue.isAvailable()) {
+            return kqueue();
+        }
+        return nio();
+    }
+
+    private static NettyTransport epoll() {
+        return new NettyTransport(EPOLL, EpollEventLoopGroup::new,
+            EpollServerSocketChannel.class, EpollSocketChannel.class, EpollDatagramChannel.class);
+    }
+
+    private static NettyTransport kqueue() {
+        return new NettyTransport(KQUEUE, KQueueEventLoopGroup::new,
+            KQueueServerSocketChannel.class, KQueueSocketChannel.class, KQueueDatagramChannel.class);
+    }
+
+    private static NettyTransport nio() {
+        return new NettyTransport(NIO, NioEventLoopGroup::new,
+            NioServerSocketChannel.class, NioSocketChannel.class, NioDatagramChannel.class);
+    }
+
+    private static NettyTransport ioUring() {
+        return new NettyTransport(IO_URING, IOUringEventLoopGroup::new,
+            IOUringServerSocketChannel.class, IOUringSocketChannel.class, IOUringDatagramChannel.class);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public EventLoopGroup newGroup(int threads) {
+        return groupFactory.apply(threads);
+    }
+
+    public Class<? extends ServerSocketChannel> getServerChannel() {
+        return serverChannel;
+    }
+
+    public Class<? extends SocketChannel> getSocketChannel() {
+        return socketChannel;
+    }
+
+    public Class<? extends DatagramChannel> getDatagramChannel() {
+        return datagramChannel;
+    }
+}
@@ -38,20 +38,22 @@ public final class PropertyMap {
 
 
     public void put(String key, Object value) {
-        String[] parts = key.split("\\.");
         PropertyMap mp = this;
-        if (parts.length > 1) {
-            for (int i = 0; i < parts.length - 1; i++) {
-                String k = parts[i];
-                if (!mp.hasKey(k)) {
-                    mp.putPropertyMap(k, new PropertyMap());
-                }
-                mp = (PropertyMap) mp.properties.get(k);
+        int from = 0;
+        int dot;
+        while ((dot = key.indexOf('.', from)) >= 0) {
+            String k = key.substring(from, dot);
+            if (!mp.hasKey(k)) {
+                mp.putPropertyMap(k, new PropertyMap());
             }
-            mp.properties.put(parts[parts.length-1], value);
-        } else {
-            mp.properties.put(parts[0], value);
+            mp = (PropertyMap) mp.properties.get(k);
+            from = dot + 1;
         }
+        mp.properties.put(from == 0 ? key : key.substring(from), value);
+    }
+
+    public Object remove(String key) {
+        return properties.remove(key);
     }
 
     private boolean hasKey(String key) {
@@ -59,20 +61,18 @@ public final class PropertyMap {
     }
 
     public Object getObject(String key) {
-        String[] parts = key.split("\\.");
         PropertyMap mp = this;
-        if (parts.length > 1) {
-            for (int i = 0; i < parts.length - 1; i++) {
-                String k = parts[i];
-                if (!mp.hasKey(k)) {
-                    return null;
-                }
-                mp = (PropertyMap) mp.properties.get(k);
+        int from = 0;
+        int dot;
+        while ((dot = key.indexOf('.', from)) >= 0) {
+            Object nested = mp.properties.get(key.substring(from, dot));
+            if (!(nested instanceof PropertyMap)) {
+                return null;
             }
-            return mp.properties.get(parts[parts.length-1]);
-        } else {
-            return mp.properties.get(parts[0]);
+            mp = (PropertyMap) nested;
+            from = dot + 1;
         }
+        return mp.properties.get(from == 0 ? key : key.substring(from));
     }
 
     public String getString(String key) {
@@ -88,20 +88,7 @@ public final class PropertyMap {
     }
 
     public PropertyMap getMap(String key) {
-        String[] parts = key.split("\\.");
-        PropertyMap mp = this;
-        if (parts.length > 1) {
-            for (int i = 0; i < parts.length - 1; i++) {
-                String k = parts[i];
-                if (!mp.hasKey(k)) {
-                    return null;
-                }
-                mp = (PropertyMap) properties.get(k);
-            }
-            return (PropertyMap) properties.get(parts[parts.length-1]);
-        } else {
-            return (PropertyMap) properties.get(parts[0]);
-        }
+        return (PropertyMap) getObject(key);
     }
 
     public String getString(String key, String defaultValue) {
@@ -184,7 +171,8 @@ public final class PropertyMap {
     }
 
     public int getInt(String key, int defaultValue) {
-        return hasKey(key) ? getInt(key) : defaultValue;
+        String v = getString(key);
+        return v != null ? Integer.parseInt(v) : defaultValue;
     }
     public int getInt(String key) {
         return Integer.parseInt(getString(key));
@@ -210,4 +198,9 @@ public final class PropertyMap {
     public int hashCode() {
         return Objects.hash(properties);
     }
+
+    @Override
+    public String toString() {
+        return properties.toString();
+    }
 }
@@ -66,7 +66,7 @@ public final class ReporterWriter {
         return names;
     }
 
-    private void writeDelimiter(PrintStream out, char ch) {
+    public void writeDelimiter(PrintStream out, char ch) {
         StringBuilder sb = new StringBuilder();
         for (int i = 0; i < width; i++) {
             sb.append(ch);
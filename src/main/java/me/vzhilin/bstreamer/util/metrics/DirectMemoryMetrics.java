@@ -0,0 +1,38 @@
+package me.vzhilin.bstreamer.util.metrics;
+
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufAllocatorMetricProvider;
+import io.netty.util.internal.PlatformDependent;
+
+/**
+ * Direct memory of netty: reserved by the pooled allocator, and all direct buffers when netty counts them
+ */
+public final class DirectMemoryMetrics {
+    private final String pooledName;
+    private final String usedName;
+    private final String maxName;
+
+    /**
+     * @param prefix metric name prefix, e.g. {@code bstreamer}
+     */
+    public DirectMemoryMetrics(String prefix) {
+        pooledName = prefix + "_direct_memory_pooled_bytes";
+        usedName = prefix + "_direct_memory_used_bytes";
+        maxName = prefix + "_direct_memory_max_bytes";
+    }
+
+    public void write(MetricsWriter writer) {
+        ByteBufAllocator allocator = ByteBufAllocator.DEFAULT;
+        if (allocator instanceof ByteBufAllocatorMetricProvider) {
+            writer.header(pooledName, MetricsWriter.GAUGE, "direct memory reserved by the default allocator");
+            writer.sample(pooledName, ((ByteBufAllocatorMetricProvider) allocator).metric().usedDirectMemory());
+        }
+        long used = PlatformDependent.usedDirectMemory();
+        if (used >= 0) {
+            writer.header(usedName, MetricsWriter.GAUGE, "direct memory of all netty buffers");
+            writer.sample(usedName, used);
+        }
+        writer.header(maxName, MetricsWriter.GAUGE, "direct memory limit");
+        writer.sample(maxName, PlatformDependent.maxDirectMemory());
+    }
+}
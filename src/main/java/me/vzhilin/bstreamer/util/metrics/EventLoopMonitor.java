@@ -0,0 +1,191 @@
+package me.vzhilin.bstreamer.util.metrics;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.SingleThreadEventExecutor;
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Watchdog of event loops.
+ *
+ * Every loop runs a probe task scheduled every {@link #PERIOD_MILLIS}; the delay of the probe is recorded in a
+ * histogram of the loop. A watchdog thread checks the probes: when one is late by more than the stall threshold,
+ * the loop is blocked, e.g. by a large write, a slow {@code describe()} or GC, and the stack of its thread is
+ * logged once per stall.
+ */
+public final class EventLoopMonitor {
+    private static final Logger LOG = Logger.getLogger(EventLoopMonitor.class);
+    private static final long PERIOD_MILLIS = 100;
+    private static final long MIN_CHECK_MILLIS = 10;
+
+    private final List<Loop> loops = new ArrayList<>();
+    private final long stallNanos;
+    private final LongAdder stalls = new LongAdder();
+    private final String lagName;
+    private final String pendingName;
+    private final String stallsName;
+    private ScheduledExecutorService watchdog;
+
+    /**
+     * @param prefix metric name prefix, e.g. {@code bstreamer}
+     * @param stallMillis delay of a probe after which the loop is considered stalled
+     */
+    public EventLoopMonitor(EventLoopGroup group, String prefix, long stallMillis) {
+        for (EventExecutor executor: group) {
+            loops.add(new Loop(executor, String.valueOf(loops.size())));
+        }
+        stallNanos = TimeUnit.MILLISECONDS.toNanos(stallMillis);
+        lagName = prefix + "_event_loop_lag_seconds";
+        pendingName = prefix + "_event_loop_pending_tasks";
+        stallsName = prefix + "_event_loop_stalls_total";
+    }
+
+    public synchronized void start() {
+        if (watchdog != null) {
+            return;
+        }
+        for (Loop loop: loops) {
+            schedule(loop);
+        }
+        long checkMillis = Math.max(MIN_CHECK_MILLIS, TimeUnit.NANOSECONDS.toMillis(stallNanos) / 4);
+        watchdog = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("event-loop-watchdog", true));
+        watchdog.scheduleWithFixedDelay(this::check, checkMillis, checkMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (watchdog != null) {
+            watchdog.shutdownNow();
+        }
+    }
+
+    private void schedule(Loop loop) {
+        long due = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(PERIOD_MILLIS);
+        loop.due = due;
+        loop.executor.schedule(() -> {
+            long late = System.nanoTime() - due;
+            loop.thread = Thread.currentThread();
+            loop.lag.record(late);
+            if (late > stallNanos) {
+                LOG.warn("event loop " + loop.name + " was blocked for " + TimeUnit.NANOSECONDS.toMillis(late) + " ms");
+            }
+            if (!loop.executor.isShuttingDown()) {
+                schedule(loop);
+            }
+        }, PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Logs the stack of every loop whose probe is late by more than the threshold, once per probe
+     */
+    private void check() {
+        long now = System.nanoTime();
+        for (Loop loop: loops) {
+            long due = loop.due;
+            Thread thread = loop.thread;
+            if (now - due > stallNanos && due != loop.reportedDue && thread != null) {
+                loop.reportedDue = due;
+                stalls.increment();
+                StringBuilder sb = new StringBuilder();
+                sb.append("event loop ").append(loop.name).append(" (").append(thread.getName())
+                    .append(") is blocked for ").append(TimeUnit.NANOSECONDS.toMillis(now - due)).append(" ms");
+                for (StackTraceElement e: thread.getStackTrace()) {
+                    sb.append("\n\tat ").append(e);
+                }
+                LOG.warn(sb);
+            }
+        }
+    }
+
+    /**
+     * @return delay of the probe task of the loop
+     */
+    public Histogram getLag(int index) {
+        return loops.get(index).lag;
+    }
+
+    /**
+     * @return thread of the loop, null until its first probe has run
+     */
+    public Thread getThread(int index) {
+        return loops.get(index).thread;
+    }
+
+    /**
+     * @return number of stalls detected by the watchdog
+     */
+    public long getStalls() {
+        return stalls.sum();
+    }
+
+    public int size() {
+        return loops.size();
+    }
+
+    /**
+     * @return number of tasks waiting in the queue of the event loop, -1 if it is unknown
+     */
+    public int pendingTasks(int index) {
+        EventExecutor loop = loops.get(index).executor;
+        return loop instanceof SingleThreadEventExecutor ? ((SingleThreadEventExecutor) loop).pendingTasks() : -1;
+    }
+
+    /**
+     * Largest quantile of the probe delay among the loops since the previous call, for a reporter
+     *
+     * @param quantile from 0 to 1
+     */
+    public synchronized long intervalLag(double quantile) {
+        long max = 0;
+        for (Loop loop: loops) {
+            Histogram.Snapshot current = loop.lag.snapshot();
+            Histogram.Snapshot interval = loop.previous == null ? current : current.minus(loop.previous);
+            loop.previous = current;
+            max = Math.max(max, interval.percentile(quantile));
+        }
+        return max;
+    }
+
+    /**
+     * Writes lag, stalls and queue depth of the event loops
+     */
+    public void write(MetricsWriter writer) {
+        writer.header(lagName, MetricsWriter.HISTOGRAM, "delay of a task scheduled every 100 ms");
+        for (Loop loop: loops) {
+            writer.histogram(lagName, "loop", loop.name, loop.lag.snapshot());
+        }
+        writer.header(stallsName, MetricsWriter.COUNTER, "probes late by more than the stall threshold");
+        writer.sample(stallsName, stalls.sum());
+        writer.header(pendingName, MetricsWriter.GAUGE, "tasks waiting in the queue of the event loop");
+        for (int i = 0; i < loops.size(); i++) {
+            writer.sample(pendingName, "loop", loops.get(i).name, pendingTasks(i));
+        }
+    }
+
+    private static final class Loop {
+        private final EventExecutor executor;
+        /** label value and name in logs */
+        private final String name;
+        private final Histogram lag = new Histogram();
+        /** nanoTime when the pending probe is due */
+        private volatile long due;
+        /** thread of the loop, known after the first probe */
+        private volatile Thread thread;
+        /** due time of the probe of the last reported stall, accessed by the watchdog only */
+        private long reportedDue;
+        /** lag at the previous {@link #intervalLag} call, guarded by the monitor */
+        private Histogram.Snapshot previous;
+
+        private Loop(EventExecutor executor, String name) {
+            this.executor = executor;
+            this.name = name;
+        }
+    }
+}
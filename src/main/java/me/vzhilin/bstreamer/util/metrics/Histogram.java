@@ -0,0 +1,151 @@
+package me.vzhilin.bstreamer.util.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of non-negative values, e.g. durations in nanoseconds.
+ *
+ * Buckets are log-linear, as in HdrHistogram: every power of two is split into {@link #SUB_BUCKETS} buckets,
+ * so a value is known within 1/16 of it. Values above 2^{@link #MAX_EXPONENT} are counted in the last bucket.
+ * Recording is a single atomic increment; snapshots are not atomic across buckets, which is fine for reporting.
+ */
+public final class Histogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    /** largest recorded value is 2^40 - 1, about 18 minutes in nanoseconds */
+    static final int MAX_EXPONENT = 40;
+    static final int BUCKETS = SUB_BUCKETS + (MAX_EXPONENT - SUB_BUCKET_BITS) * SUB_BUCKETS;
+    private static final long MAX_VALUE = (1L << MAX_EXPONENT) - 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder sum = new LongAdder();
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        } else
+        if (value > MAX_VALUE) {
+            value = MAX_VALUE;
+        }
+        counts.incrementAndGet(index(value));
+        sum.add(value);
+    }
+
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+        }
+        return new Snapshot(copy, sum.sum());
+    }
+
+    /**
+     * Copies the counts of the buckets without allocation
+     *
+     * @param into array of {@link #BUCKETS} elements
+     */
+    void copyCounts(long[] into) {
+        for (int i = 0; i < BUCKETS; i++) {
+            into[i] = counts.get(i);
+        }
+    }
+
+    static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        return SUB_BUCKETS + shift * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    /**
+     * @return smallest value of the bucket
+     */
+    static long lowerBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+        int sub = (index - SUB_BUCKETS) % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + sub) << shift;
+    }
+
+    /**
+     * @return value following the largest value of the bucket
+     */
+    static long upperBound(int index) {
+        return index + 1 < BUCKETS ? lowerBound(index + 1) : MAX_VALUE + 1;
+    }
+
+    /**
+     * Counts of a histogram at some moment
+     */
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long sum;
+        private final long count;
+
+        private Snapshot(long[] counts, long sum) {
+            this.counts = counts;
+            this.sum = sum;
+            long n = 0;
+            for (long c: counts) {
+                n += c;
+            }
+            this.count = n;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getSum() {
+            return sum;
+        }
+
+        long countOf(int bucket) {
+            return counts[bucket];
+        }
+
+        /**
+         * @param quantile from 0 to 1
+         * @return largest value of the bucket of the quantile, 0 if there are no values
+         */
+        public long percentile(double quantile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(quantile * count));
+            long n = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                n += counts[i];
+                if (n >= rank) {
+                    return upperBound(i) - 1;
+                }
+            }
+            return MAX_VALUE;
+        }
+
+        public long max() {
+            for (int i = BUCKETS - 1; i >= 0; i--) {
+                if (counts[i] > 0) {
+                    return upperBound(i) - 1;
+                }
+            }
+            return 0;
+        }
+
+        /**
+         * @return values recorded since the earlier snapshot
+         */
+        public Snapshot minus(Snapshot earlier) {
+            long[] diff = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                diff[i] = counts[i] - earlier.counts[i];
+            }
+            return new Snapshot(diff, sum - earlier.sum);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package me.vzhilin.bstreamer.util.metrics;
+
+/**
+ * Values of a histogram recorded between two calls of {@link #update()}, computed without allocation.
+ *
+ * For periodic recorders; every consumer of the same histogram needs its own instance. Not thread-safe.
+ */
+public final class IntervalHistogram {
+    private final Histogram histogram;
+    private long[] previous = new long[Histogram.BUCKETS];
+    private long[] current = new long[Histogram.BUCKETS];
+    private long count;
+
+    public IntervalHistogram(Histogram histogram) {
+        this.histogram = histogram;
+        histogram.copyCounts(current);
+    }
+
+    /**
+     * Starts the next interval, which ends now
+     */
+    public void update() {
+        long[] swap = previous;
+        previous = current;
+        current = swap;
+        histogram.copyCounts(current);
+        long n = 0;
+        for (int i = 0; i < Histogram.BUCKETS; i++) {
+            n += current[i] - previous[i];
+        }
+        count = n;
+    }
+
+    /**
+     * @param quantile from 0 to 1
+     * @return largest value of the bucket of the quantile in the last interval, 0 if there are no values
+     */
+    public long percentile(double quantile) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * count));
+        long n = 0;
+        for (int i = 0; i < Histogram.BUCKETS; i++) {
+            n += current[i] - previous[i];
+            if (n >= rank) {
+                return Histogram.upperBound(i) - 1;
+            }
+        }
+        return Histogram.upperBound(Histogram.BUCKETS - 1) - 1;
+    }
+}
@@ -0,0 +1,123 @@
+package me.vzhilin.bstreamer.util.metrics;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.QueryStringDecoder;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.apache.log4j.Logger;
+
+import java.net.InetSocketAddress;
+import java.util.function.Consumer;
+
+/**
+ * Serves {@code GET /metrics} in Prometheus text format.
+ *
+ * The listener has its own thread, so scraping neither waits for nor delays the network threads of the run.
+ * A response buffer is sized after the previous one, so a scrape usually fills it without reallocation.
+ */
+public final class MetricsHttpServer {
+    private static final Logger LOG = Logger.getLogger(MetricsHttpServer.class);
+    private static final String PATH = "/metrics";
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final Consumer<MetricsWriter> collector;
+    private final EventLoopGroup group = new NioEventLoopGroup(1, new DefaultThreadFactory("metrics", true));
+    private volatile int lastSize = 4096;
+    private Channel channel;
+
+    /**
+     * @param collector writes the metrics of a scrape
+     */
+    public MetricsHttpServer(Consumer<MetricsWriter> collector) {
+        this.collector = collector;
+    }
+
+    /**
+     * @param bind host:port of the listener
+     */
+    public void start(String bind) {
+        int colonPos = bind.lastIndexOf(':');
+        InetSocketAddress address = new InetSocketAddress(bind.substring(0, colonPos), Integer.parseInt(bind.substring(colonPos + 1)));
+        channel = new ServerBootstrap()
+            .group(group)
+            .channel(NioServerSocketChannel.class)
+            .childHandler(new ChannelInitializer<SocketChannel>() {
+                @Override
+                protected void initChannel(SocketChannel ch) {
+                    ChannelPipeline pipeline = ch.pipeline();
+                    pipeline.addLast("http_codec", new HttpServerCodec());
+                    pipeline.addLast("http_aggregator", new HttpObjectAggregator(1024));
+                    pipeline.addLast(new MetricsHandler());
+                }
+            })
+            .bind(address).syncUninterruptibly().channel();
+        LOG.info("metrics are served at http://" + bind + PATH);
+    }
+
+    public void stop() {
+        if (channel != null) {
+            channel.close().syncUninterruptibly();
+        }
+        group.shutdownGracefully();
+    }
+
+    private final class MetricsHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, FullHttpRequest request) {
+            FullHttpResponse response;
+            String path = new QueryStringDecoder(request.uri()).path();
+            if (!PATH.equals(path)) {
+                response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.NOT_FOUND);
+            } else
+            if (request.method() != HttpMethod.GET && request.method() != HttpMethod.HEAD) {
+                response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.METHOD_NOT_ALLOWED);
+            } else {
+                ByteBuf content = ctx.alloc().buffer(lastSize + lastSize / 4);
+                try {
+                    collector.accept(new MetricsWriter(content));
+                } catch (RuntimeException e) {
+                    content.release();
+                    throw e;
+                }
+                lastSize = content.readableBytes();
+                response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK, content);
+                response.headers().set(HttpHeaderNames.CONTENT_TYPE, CONTENT_TYPE);
+            }
+            HttpUtil.setContentLength(response, response.content().readableBytes());
+            boolean keepAlive = HttpUtil.isKeepAlive(request);
+            if (keepAlive) {
+                response.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.KEEP_ALIVE);
+                ctx.writeAndFlush(response);
+            } else {
+                ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+            }
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            LOG.error("metrics request failed", cause);
+            ctx.close();
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package me.vzhilin.bstreamer.util.metrics;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes metrics in Prometheus text format straight into a buffer.
+ *
+ * Numbers are written digit by digit and histogram bounds are prepared once, so a scrape allocates nothing
+ * but the buffer itself.
+ */
+public final class MetricsWriter {
+    public static final String COUNTER = "counter";
+    public static final String GAUGE = "gauge";
+    public static final String HISTOGRAM = "histogram";
+
+    /** histogram buckets exported by {@link #histogram}: powers of two from 1 us to 64 s, in nanoseconds */
+    private static final int FIRST_BOUND_EXPONENT = 10;
+    private static final int LAST_BOUND_EXPONENT = 36;
+    private static final byte[][] BOUNDS;
+    private static final byte[] INF = "+Inf".getBytes(StandardCharsets.US_ASCII);
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+    static {
+        BOUNDS = new byte[LAST_BOUND_EXPONENT - FIRST_BOUND_EXPONENT + 1][];
+        for (int e = FIRST_BOUND_EXPONENT; e <= LAST_BOUND_EXPONENT; e++) {
+            String seconds = new BigDecimal(1L << e).movePointLeft(9).stripTrailingZeros().toPlainString();
+            BOUNDS[e - FIRST_BOUND_EXPONENT] = seconds.getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    private final ByteBuf out;
+
+    public MetricsWriter(ByteBuf out) {
+        this.out = out;
+    }
+
+    /**
+     * Writes HELP and TYPE lines, once per metric name
+     */
+    public MetricsWriter header(String name, String type, String help) {
+        ascii("# HELP ").ascii(name).out.writeByte(' ');
+        ascii(help).out.writeByte('\n');
+        ascii("# TYPE ").ascii(name).out.writeByte(' ');
+        ascii(type).out.writeByte('\n');
+        return this;
+    }
+
+    public MetricsWriter sample(String name, long value) {
+        return sample(name, null, null, value);
+    }
+
+    /**
+     * @param label label name, null for a sample without labels
+     */
+    public MetricsWriter sample(String name, String label, String labelValue, long value) {
+        ascii(name);
+        labels(label, labelValue, null);
+        out.writeByte(' ');
+        decimal(value);
+        out.writeByte('\n');
+        return this;
+    }
+
+    /**
+     * Writes cumulative buckets, sum and count of a histogram of nanoseconds, in seconds
+     *
+     * @param label label name, null for a histogram without labels
+     */
+    public MetricsWriter histogram(String name, String label, String labelValue, Histogram.Snapshot snapshot) {
+        long cumulative = 0;
+        int bucket = 0;
+        for (int e = FIRST_BOUND_EXPONENT; e <= LAST_BOUND_EXPONENT; e++) {
+            long bound = 1L << e;
+            while (bucket < Histogram.BUCKETS && Histogram.upperBound(bucket) <= bound) {
+                cumulative += snapshot.countOf(bucket++);
+            }
+            ascii(name).ascii("_bucket");
+            labels(label, labelValue, BOUNDS[e - FIRST_BOUND_EXPONENT]);
+            out.writeByte(' ');
+            decimal(cumulative);
+            out.writeByte('\n');
+        }
+        ascii(name).ascii("_bucket");
+        labels(label, labelValue, INF);
+        out.writeByte(' ');
+        decimal(snapshot.getCount());
+        out.writeByte('\n');
+
+        ascii(name).ascii("_sum");
+        labels(label, labelValue, null);
+        out.writeByte(' ');
+        seconds(snapshot.getSum());
+        out.writeByte('\n');
+
+        ascii(name).ascii("_count");
+        labels(label, labelValue, null);
+        out.writeByte(' ');
+        decimal(snapshot.getCount());
+        out.writeByte('\n');
+        return this;
+    }
+
+    private void labels(String label, String labelValue, byte[] le) {
+        if (label == null && le == null) {
+            return;
+        }
+        out.writeByte('{');
+        if (label != null) {
+            ascii(label).ascii("=\"");
+            escaped(labelValue);
+            out.writeByte('"');
+            if (le != null) {
+                out.writeByte(',');
+            }
+        }
+        if (le != null) {
+            ascii("le=\"");
+            out.writeBytes(le);
+            out.writeByte('"');
+        }
+        out.writeByte('}');
+    }
+
+    private MetricsWriter ascii(CharSequence s) {
+        out.writeCharSequence(s, StandardCharsets.US_ASCII);
+        return this;
+    }
+
+    private void escaped(String s) {
+        int start = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\\' || c == '"' || c == '\n') {
+                ByteBufUtil.writeUtf8(out, s, start, i);
+                out.writeByte('\\');
+                out.writeByte(c == '\n' ? 'n' : c);
+                start = i + 1;
+            }
+        }
+        ByteBufUtil.writeUtf8(out, s, start, s.length());
+    }
+
+    private void decimal(long value) {
+        if (value < 0) {
+            out.writeByte('-');
+            if (value == Long.MIN_VALUE) {
+                ascii("9223372036854775808");
+                return;
+            }
+            value = -value;
+        }
+        long divisor = 1;
+        while (value / divisor >= 10) {
+            divisor *= 10;
+        }
+        while (divisor > 0) {
+            out.writeByte((int) ('0' + value / divisor % 10));
+            divisor /= 10;
+        }
+    }
+
+    private void seconds(long nanos) {
+        decimal(nanos / NANOS_PER_SECOND);
+        out.writeByte('.');
+        long fraction = Math.abs(nanos % NANOS_PER_SECOND);
+        for (long divisor = NANOS_PER_SECOND / 10; divisor > 0; divisor /= 10) {
+            out.writeByte((int) ('0' + fraction / divisor % 10));
+        }
+    }
+}
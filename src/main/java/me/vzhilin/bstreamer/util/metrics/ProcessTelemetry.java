@@ -0,0 +1,222 @@
+package me.vzhilin.bstreamer.util.metrics;
+
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufAllocatorMetricProvider;
+import io.netty.util.internal.PlatformDependent;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Per-interval resource usage of the process: CPU of the event loops, direct and native memory, GC and allocation.
+ *
+ * Values which the JVM cannot provide are -1. Not thread-safe, every reporter or recorder needs its own instance.
+ */
+public final class ProcessTelemetry {
+    private static final String PROC_STATUS = "/proc/self/status";
+    private static final byte[] VM_RSS = "VmRSS:".getBytes(StandardCharsets.US_ASCII);
+
+    private final EventLoopMonitor eventLoops;
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    private final List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+    private final BufferPoolMXBean directPool;
+
+    private long time = System.nanoTime();
+    private long[] loopCpu;
+    private long gcMillis;
+    /** sorted ids of the threads and their allocated bytes at the previous sample */
+    private long[] allocatedIds = new long[0];
+    private long[] allocated = new long[0];
+    private final byte[] statusBuffer = new byte[4096];
+    private RandomAccessFile status;
+
+    /**
+     * @param eventLoops loops to measure CPU of, null to skip
+     */
+    public ProcessTelemetry(EventLoopMonitor eventLoops) {
+        this.eventLoops = eventLoops;
+        this.loopCpu = new long[eventLoops == null ? 0 : eventLoops.size()];
+        BufferPoolMXBean direct = null;
+        for (BufferPoolMXBean pool: ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if ("direct".equals(pool.getName())) {
+                direct = pool;
+            }
+        }
+        this.directPool = direct;
+        sample();
+    }
+
+    /**
+     * @return usage since the previous sample
+     */
+    public Sample sample() {
+        Sample sample = new Sample();
+        sample(sample);
+        return sample;
+    }
+
+    /**
+     * Fills the sample with usage since the previous sample; reuses buffers, for a recorder which stays on
+     */
+    public void sample(Sample into) {
+        long now = System.nanoTime();
+        long elapsed = Math.max(1, now - time);
+        time = now;
+
+        int cpuMax = -1;
+        long cpuSum = 0;
+        int measured = 0;
+        if (threads.isThreadCpuTimeSupported()) {
+            for (int i = 0; i < loopCpu.length; i++) {
+                Thread thread = eventLoops.getThread(i);
+                long cpu = thread == null ? -1 : threads.getThreadCpuTime(thread.getId());
+                if (cpu >= 0) {
+                    if (loopCpu[i] > 0) {
+                        int percent = (int) (100 * (cpu - loopCpu[i]) / elapsed);
+                        cpuMax = Math.max(cpuMax, percent);
+                        cpuSum += percent;
+                        ++measured;
+                    }
+                    loopCpu[i] = cpu;
+                }
+            }
+        }
+
+        long gc = 0;
+        for (int i = 0; i < collectors.size(); i++) {
+            gc += Math.max(0, collectors.get(i).getCollectionTime());
+        }
+        long gcDelta = gc - gcMillis;
+        gcMillis = gc;
+
+        into.elapsedNanos = elapsed;
+        into.loopCpuAverage = measured == 0 ? -1 : (int) (cpuSum / measured);
+        into.loopCpuMax = cpuMax;
+        into.pooledDirectBytes = pooledDirectMemory();
+        into.nativeBytes = nativeMemory();
+        into.gcMillis = gcDelta;
+        into.allocatedBytes = allocatedBytes();
+    }
+
+    private static long pooledDirectMemory() {
+        ByteBufAllocator allocator = ByteBufAllocator.DEFAULT;
+        if (allocator instanceof ByteBufAllocatorMetricProvider) {
+            return ((ByteBufAllocatorMetricProvider) allocator).metric().usedDirectMemory();
+        }
+        return -1;
+    }
+
+    /**
+     * @return resident memory not accounted by the JVM, i.e. held by native libraries, ffmpeg above all
+     */
+    private long nativeMemory() {
+        long rss = residentMemory();
+        if (rss < 0) {
+            return -1;
+        }
+        long jvm = memory.getHeapMemoryUsage().getCommitted() + memory.getNonHeapMemoryUsage().getCommitted();
+        long direct = Math.max(0, PlatformDependent.usedDirectMemory());
+        if (directPool != null) {
+            direct += directPool.getMemoryUsed();
+        }
+        return Math.max(0, rss - jvm - direct);
+    }
+
+    /**
+     * @return VmRSS of {@value #PROC_STATUS}, read into a reused buffer; -1 if it is unavailable
+     */
+    private long residentMemory() {
+        try {
+            if (status == null) {
+                status = new RandomAccessFile(PROC_STATUS, "r");
+            }
+            status.seek(0);
+            int length = 0;
+            int n;
+            while (length < statusBuffer.length && (n = status.read(statusBuffer, length, statusBuffer.length - length)) > 0) {
+                length += n;
+            }
+            return parseKilobytes(statusBuffer, length, VM_RSS);
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return value of the line with the key, in bytes, or -1
+     */
+    private static long parseKilobytes(byte[] text, int length, byte[] key) {
+        for (int line = 0; line < length; ) {
+            boolean match = line + key.length <= length;
+            for (int i = 0; match && i < key.length; i++) {
+                match = text[line + i] == key[i];
+            }
+            int pos = line + (match ? key.length : 0);
+            long value = 0;
+            boolean digits = false;
+            while (pos < length && text[pos] != '\n') {
+                byte b = text[pos++];
+                if (match && b >= '0' && b <= '9') {
+                    value = value * 10 + (b - '0');
+                    digits = true;
+                } else if (digits) {
+                    return 1024 * value;
+                }
+            }
+            if (digits) {
+                return 1024 * value;
+            }
+            line = pos + 1;
+        }
+        return -1;
+    }
+
+    /**
+     * @return bytes allocated by live threads since the previous sample
+     */
+    private long allocatedBytes() {
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) threads;
+        if (!mx.isThreadAllocatedMemorySupported() || !mx.isThreadAllocatedMemoryEnabled()) {
+            return -1;
+        }
+        long[] ids = mx.getAllThreadIds();
+        Arrays.sort(ids);
+        long[] bytes = mx.getThreadAllocatedBytes(ids);
+        long delta = 0;
+        for (int i = 0; i < ids.length; i++) {
+            if (bytes[i] >= 0) {
+                int previous = Arrays.binarySearch(allocatedIds, ids[i]);
+                delta += bytes[i] - (previous >= 0 ? allocated[previous] : 0);
+            }
+        }
+        allocatedIds = ids;
+        allocated = bytes;
+        return delta;
+    }
+
+    public static final class Sample {
+        /** length of the interval */
+        public long elapsedNanos;
+        /** average and maximal CPU usage of an event loop, percent */
+        public int loopCpuAverage;
+        public int loopCpuMax;
+        /** direct memory held by the pooled allocator */
+        public long pooledDirectBytes;
+        /** resident memory outside of heap, JVM internals and direct buffers */
+        public long nativeBytes;
+        public long gcMillis;
+        public long allocatedBytes;
+    }
+}
@@ -0,0 +1,103 @@
+package me.vzhilin.bstreamer.util.recording;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+import me.vzhilin.bstreamer.util.metrics.EventLoopMonitor;
+import me.vzhilin.bstreamer.util.metrics.IntervalHistogram;
+import me.vzhilin.bstreamer.util.metrics.ProcessTelemetry;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes rows of a recording every second from a thread of its own.
+ *
+ * Subclasses read cumulative counters, which do not need a previous value and survive missed seconds, and end the
+ * totals row with the resources of the process, see {@link #putTelemetry()}. Collection reuses its buffers, so
+ * the recorder can stay on; the management beans may still allocate internally.
+ */
+public abstract class PeriodicRecorder implements Runnable {
+    private static final Logger LOG = Logger.getLogger(PeriodicRecorder.class);
+    private static final String[] TELEMETRY = {
+        "loop_lag_p99_ns", "loop_cpu_avg_percent", "loop_cpu_max_percent", "pooled_direct_bytes", "native_bytes",
+        "gc_pause_millis", "allocated_bytes"
+    };
+
+    protected final RecordingWriter writer;
+    private final ProcessTelemetry telemetry;
+    private final ProcessTelemetry.Sample sample = new ProcessTelemetry.Sample();
+    private final IntervalHistogram[] loops;
+    private ScheduledExecutorService exec;
+
+    /**
+     * @param fields values of a row before the resources of the process
+     * @param rows capacity of the ring
+     * @param eventLoops network threads, null if there are none
+     */
+    protected PeriodicRecorder(File file, String role, String[] fields, long rows, EventLoopMonitor eventLoops)
+            throws IOException {
+        String[] all = Arrays.copyOf(fields, fields.length + TELEMETRY.length);
+        System.arraycopy(TELEMETRY, 0, all, fields.length, TELEMETRY.length);
+        this.writer = new RecordingWriter(file, role, all, rows);
+        this.telemetry = new ProcessTelemetry(eventLoops);
+        this.loops = new IntervalHistogram[eventLoops == null ? 0 : eventLoops.size()];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new IntervalHistogram(eventLoops.getLag(i));
+        }
+    }
+
+    public synchronized void start() {
+        exec = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("recorder", true));
+        exec.scheduleAtFixedRate(this, 1, 1, TimeUnit.SECONDS);
+    }
+
+    public synchronized void stop() {
+        if (exec == null) {
+            return;
+        }
+        exec.shutdown();
+        try {
+            exec.awaitTermination(1, TimeUnit.SECONDS);
+            writer.close();
+        } catch (InterruptedException | IOException e) {
+            LOG.warn("failed to close the recording: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public final void run() {
+        try {
+            record(System.currentTimeMillis());
+        } catch (RuntimeException e) {
+            LOG.error("failed to record", e);
+        }
+    }
+
+    /**
+     * Writes the rows of a second
+     */
+    protected abstract void record(long timeMillis);
+
+    /**
+     * Puts the resources of the process over the last second: event-loop lag and CPU, memory, GC and allocation
+     */
+    protected final void putTelemetry() {
+        long lag = 0;
+        for (IntervalHistogram loop: loops) {
+            loop.update();
+            lag = Math.max(lag, loop.percentile(0.99));
+        }
+        telemetry.sample(sample);
+        writer.put(loops.length == 0 ? -1 : lag);
+        writer.put(sample.loopCpuAverage);
+        writer.put(sample.loopCpuMax);
+        writer.put(sample.pooledDirectBytes);
+        writer.put(sample.nativeBytes);
+        writer.put(sample.gcMillis);
+        writer.put(sample.allocatedBytes);
+    }
+}
@@ -0,0 +1,37 @@
+package me.vzhilin.bstreamer.util.recording;
+
+import java.nio.ByteOrder;
+
+/**
+ * Layout of a recording file.
+ *
+ * <pre>
+ * 0       magic, version, number of fields, capacity in rows, rows written, number of names, schema length
+ * 64      schema: role and names of the fields, separated by '\n'
+ * 4 KiB   names of the sources: length as a short, UTF-8 bytes
+ * 1 MiB   ring of rows: time, source id, fields; row N is at slot N % capacity
+ * </pre>
+ * Little-endian longs; the number of rows written is updated after every row.
+ */
+final class RecordingFormat {
+    static final long MAGIC = 0x3143455254534221L;
+    static final int VERSION = 1;
+    static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    static final int MAGIC_OFFSET = 0;
+    static final int VERSION_OFFSET = 8;
+    static final int FIELDS_OFFSET = 12;
+    static final int CAPACITY_OFFSET = 16;
+    static final int ROWS_WRITTEN_OFFSET = 24;
+    static final int NAMES_COUNT_OFFSET = 32;
+    static final int SCHEMA_LENGTH_OFFSET = 36;
+    static final int SCHEMA_OFFSET = 64;
+    static final int NAMES_OFFSET = 4096;
+    static final int ROWS_OFFSET = 1 << 20;
+
+    private RecordingFormat() { }
+
+    static int rowSize(int fields) {
+        return 8 * (2 + fields);
+    }
+}
@@ -0,0 +1,122 @@
+package me.vzhilin.bstreamer.util.recording;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Recording written by {@link RecordingWriter}, read at once; rows are in the order they were written
+ */
+public final class RecordingReader {
+    private final String role;
+    private final List<String> fields;
+    private final List<String> names;
+    private final List<Row> rows;
+
+    public RecordingReader(File path) throws IOException {
+        ByteBuffer buffer;
+        try (RandomAccessFile file = new RandomAccessFile(path, "r")) {
+            buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+        }
+        buffer.order(RecordingFormat.ORDER);
+        if (buffer.limit() < RecordingFormat.ROWS_OFFSET || buffer.getLong(RecordingFormat.MAGIC_OFFSET) != RecordingFormat.MAGIC) {
+            throw new IOException(path + " is not a recording");
+        }
+        int version = buffer.getInt(RecordingFormat.VERSION_OFFSET);
+        if (version != RecordingFormat.VERSION) {
+            throw new IOException(path + ": unsupported version " + version);
+        }
+        int fieldCount = buffer.getInt(RecordingFormat.FIELDS_OFFSET);
+        long capacity = buffer.getLong(RecordingFormat.CAPACITY_OFFSET);
+        long written = buffer.getLong(RecordingFormat.ROWS_WRITTEN_OFFSET);
+
+        byte[] schema = new byte[buffer.getInt(RecordingFormat.SCHEMA_LENGTH_OFFSET)];
+        buffer.position(RecordingFormat.SCHEMA_OFFSET);
+        buffer.get(schema);
+        String[] lines = new String(schema, StandardCharsets.UTF_8).split("\n", -1);
+        role = lines[0];
+        fields = Collections.unmodifiableList(Arrays.asList(lines).subList(1, 1 + fieldCount));
+
+        List<String> names = new ArrayList<>();
+        int position = RecordingFormat.NAMES_OFFSET;
+        for (int i = 0, n = buffer.getInt(RecordingFormat.NAMES_COUNT_OFFSET); i < n; i++) {
+            byte[] name = new byte[buffer.getShort(position)];
+            buffer.position(position + 2);
+            buffer.get(name);
+            names.add(new String(name, StandardCharsets.UTF_8));
+            position += 2 + name.length;
+        }
+        this.names = Collections.unmodifiableList(names);
+
+        int rowSize = RecordingFormat.rowSize(fieldCount);
+        List<Row> rows = new ArrayList<>();
+        for (long r = Math.max(0, written - capacity); r < written; r++) {
+            int offset = RecordingFormat.ROWS_OFFSET + (int) (r % capacity) * rowSize;
+            long[] values = new long[fieldCount];
+            for (int f = 0; f < fieldCount; f++) {
+                values[f] = buffer.getLong(offset + 16 + 8 * f);
+            }
+            rows.add(new Row(buffer.getLong(offset), (int) buffer.getLong(offset + 8), values));
+        }
+        this.rows = Collections.unmodifiableList(rows);
+    }
+
+    /**
+     * @return what is recorded, e.g. {@code server}
+     */
+    public String getRole() {
+        return role;
+    }
+
+    public List<String> getFields() {
+        return fields;
+    }
+
+    /**
+     * @return names of the sources, by id
+     */
+    public List<String> getNames() {
+        return names;
+    }
+
+    public List<Row> getRows() {
+        return rows;
+    }
+
+    public static final class Row {
+        private final long time;
+        private final int source;
+        private final long[] values;
+
+        private Row(long time, int source, long[] values) {
+            this.time = time;
+            this.source = source;
+            this.values = values;
+        }
+
+        /**
+         * @return epoch milliseconds
+         */
+        public long getTime() {
+            return time;
+        }
+
+        /**
+         * @return id of the source, {@link RecordingWriter#TOTAL} for the totals
+         */
+        public int getSource() {
+            return source;
+        }
+
+        public long get(int field) {
+            return values[field];
+        }
+    }
+}
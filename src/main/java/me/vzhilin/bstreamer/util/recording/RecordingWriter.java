@@ -0,0 +1,121 @@
+package me.vzhilin.bstreamer.util.recording;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Ring of fixed-width rows in a memory-mapped file.
+ *
+ * A row is the time in epoch milliseconds, the id of a source, {@link #TOTAL} for the totals, and a long for every
+ * field. Names of the sources are registered once and stored in a table of their own. Once the ring is full the
+ * oldest rows are overwritten. Writing a row does not allocate; a single thread writes. See {@link RecordingFormat}.
+ */
+public final class RecordingWriter implements Closeable {
+    public static final int TOTAL = -1;
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer buffer;
+    private final int fields;
+    private final int rowSize;
+    private final long capacity;
+    private int names;
+    private int namesEnd = RecordingFormat.NAMES_OFFSET;
+    private long rows;
+    private int position;
+    private int written;
+
+    /**
+     * Creates the file, overwriting a previous recording
+     *
+     * @param role what is recorded, e.g. {@code server}
+     * @param fields names of the values of a row; names ending with {@code _total} are counters
+     * @param capacity number of rows in the ring
+     */
+    public RecordingWriter(File path, String role, String[] fields, long capacity) throws IOException {
+        this.fields = fields.length;
+        this.rowSize = RecordingFormat.rowSize(fields.length);
+        this.capacity = capacity;
+        long size = RecordingFormat.ROWS_OFFSET + capacity * rowSize;
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("recording of " + capacity + " rows exceeds 2 GiB");
+        }
+        file = new RandomAccessFile(path, "rw");
+        file.setLength(0);
+        file.setLength(size);
+        buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        buffer.order(RecordingFormat.ORDER);
+
+        StringBuilder schema = new StringBuilder(role);
+        for (String field: fields) {
+            schema.append('\n').append(field);
+        }
+        byte[] bytes = schema.toString().getBytes(StandardCharsets.UTF_8);
+        if (RecordingFormat.SCHEMA_OFFSET + bytes.length > RecordingFormat.NAMES_OFFSET) {
+            throw new IllegalArgumentException("too many fields");
+        }
+        buffer.putLong(RecordingFormat.MAGIC_OFFSET, RecordingFormat.MAGIC);
+        buffer.putInt(RecordingFormat.VERSION_OFFSET, RecordingFormat.VERSION);
+        buffer.putInt(RecordingFormat.FIELDS_OFFSET, fields.length);
+        buffer.putLong(RecordingFormat.CAPACITY_OFFSET, capacity);
+        buffer.putInt(RecordingFormat.SCHEMA_LENGTH_OFFSET, bytes.length);
+        buffer.position(RecordingFormat.SCHEMA_OFFSET);
+        buffer.put(bytes);
+        buffer.putLong(RecordingFormat.ROWS_WRITTEN_OFFSET, 0);
+    }
+
+    /**
+     * Stores the name of a source
+     *
+     * @return id of the source in rows, or {@link #TOTAL} when the table of names is full
+     */
+    public int register(String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(bytes.length, Short.MAX_VALUE);
+        if (namesEnd + 2 + length > RecordingFormat.ROWS_OFFSET) {
+            return TOTAL;
+        }
+        buffer.putShort(namesEnd, (short) length);
+        buffer.position(namesEnd + 2);
+        buffer.put(bytes, 0, length);
+        namesEnd += 2 + length;
+        buffer.putInt(RecordingFormat.NAMES_COUNT_OFFSET, ++names);
+        return names - 1;
+    }
+
+    /**
+     * Starts a row; the fields follow by {@link #put(long)} in the order of the schema
+     */
+    public void begin(long timeMillis, int source) {
+        position = RecordingFormat.ROWS_OFFSET + (int) (rows % capacity) * rowSize;
+        buffer.putLong(position, timeMillis);
+        buffer.putLong(position + 8, source);
+        written = 0;
+    }
+
+    public void put(long value) {
+        if (written < fields) {
+            buffer.putLong(position + 16 + 8 * written++, value);
+        }
+    }
+
+    /**
+     * Completes the row; fields which were not put are -1
+     */
+    public void end() {
+        while (written < fields) {
+            put(-1);
+        }
+        buffer.putLong(RecordingFormat.ROWS_WRITTEN_OFFSET, ++rows);
+    }
+
+    @Override
+    public void close() throws IOException {
+        buffer.force();
+        file.close();
+    }
+}
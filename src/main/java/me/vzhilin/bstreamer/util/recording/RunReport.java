@@ -0,0 +1,301 @@
+package me.vzhilin.bstreamer.util.recording;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import me.vzhilin.bstreamer.util.HumanReadable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.DoubleFunction;
+
+/**
+ * Report of a run merged from recordings of servers and clients, as JSON or as an HTML page with charts.
+ *
+ * Counters, fields ending with {@code _total}, are turned into per-second rates named {@code _per_second};
+ * missing values are null. Series of all recordings share the time axis.
+ */
+public final class RunReport {
+    private static final String TOTAL_SUFFIX = "_total";
+    private static final String RATE_SUFFIX = "_per_second";
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("HH:mm:ss").withZone(ZoneId.systemDefault());
+    private static final String[] COLORS = {"#1f77b4", "#d62728", "#2ca02c", "#ff7f0e", "#9467bd", "#8c564b"};
+    private static final int WIDTH = 900;
+    private static final int HEIGHT = 220;
+    private static final int MARGIN = 60;
+
+    private final List<Series> series = new ArrayList<>();
+    private long start = Long.MAX_VALUE;
+    private long end = Long.MIN_VALUE;
+
+    /**
+     * @param recordings recordings to merge
+     * @param files their files, to label the series
+     */
+    public RunReport(List<RecordingReader> recordings, List<File> files) {
+        for (int r = 0; r < recordings.size(); r++) {
+            RecordingReader recording = recordings.get(r);
+            Map<Integer, List<RecordingReader.Row>> bySource = new LinkedHashMap<>();
+            for (RecordingReader.Row row: recording.getRows()) {
+                bySource.computeIfAbsent(row.getSource(), s -> new ArrayList<>()).add(row);
+                start = Math.min(start, row.getTime());
+                end = Math.max(end, row.getTime());
+            }
+            for (Map.Entry<Integer, List<RecordingReader.Row>> e: bySource.entrySet()) {
+                int id = e.getKey();
+                boolean total = id == RecordingWriter.TOTAL;
+                String source = total ? "total" : id < recording.getNames().size() ? recording.getNames().get(id) : "#" + id;
+                series.add(new Series(files.get(r).getName(), recording.getRole(), source, total,
+                    recording.getFields(), e.getValue()));
+            }
+        }
+    }
+
+    public void writeJson(File file) throws IOException {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("start", series.isEmpty() ? null : start);
+        json.put("end", series.isEmpty() ? null : end);
+        List<Object> list = new ArrayList<>();
+        for (Series s: series) {
+            list.add(s.toJson());
+        }
+        json.put("series", list);
+        new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(file, json);
+    }
+
+    public void writeHtml(File file) throws IOException {
+        StringWriter text = new StringWriter();
+        PrintWriter out = new PrintWriter(text);
+        out.println("<!DOCTYPE html>");
+        out.println("<html><head><meta charset=\"utf-8\"><title>bstreamer run report</title>");
+        out.println("<style>body{font-family:sans-serif;margin:2em}table{border-collapse:collapse}" +
+            "td,th{border:1px solid #ccc;padding:4px 8px;text-align:right}th{background:#eee}" +
+            "td:first-child,td:nth-child(2){text-align:left}svg{display:block;margin-bottom:2em}</style>");
+        out.println("</head><body>");
+        out.println("<h1>Run report</h1>");
+        if (series.isEmpty()) {
+            out.println("<p>The recordings are empty.</p>");
+        } else {
+            out.println("<p>" + escape(TIME.format(Instant.ofEpochMilli(start))) + " &ndash; " +
+                escape(TIME.format(Instant.ofEpochMilli(end))) + ", " + (end - start) / 1000 + " s</p>");
+            writeSummary(out);
+            writeChart(out, "Throughput", RunReport::bits,
+                "sent_bytes" + RATE_SUFFIX, "received_bytes" + RATE_SUFFIX);
+            writeChart(out, "Lag events, lost packets and refused sessions per second", v -> String.format(Locale.ROOT, "%.0f", v),
+                "lag_events" + RATE_SUFFIX, "lost_packets" + RATE_SUFFIX, "idle_errors" + RATE_SUFFIX,
+                "rejected_plays" + RATE_SUFFIX);
+            writeChart(out, "Connections", v -> String.format(Locale.ROOT, "%.0f", v), "connections");
+            writeChart(out, "Latency p99 of the pipeline and event loops", v -> HumanReadable.millis(Math.round(v)),
+                "pull_p99_ns", "encode_p99_ns", "schedule_p99_ns", "queue_p99_ns", "flush_p99_ns", "loop_lag_p99_ns");
+        }
+        out.println("</body></html>");
+        out.flush();
+        Files.write(file.toPath(), text.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void writeSummary(PrintWriter out) {
+        out.println("<table><tr><th>recording</th><th>role</th><th>seconds</th><th>max connections</th>" +
+            "<th>average throughput</th><th>peak throughput</th><th>lag events / lost packets</th></tr>");
+        for (Series s: series) {
+            if (!s.isTotal()) {
+                continue;
+            }
+            double[] bytes = s.values.containsKey("sent_bytes" + RATE_SUFFIX) ?
+                s.values.get("sent_bytes" + RATE_SUFFIX) : s.values.get("received_bytes" + RATE_SUFFIX);
+            double[] lag = s.values.containsKey("lag_events" + RATE_SUFFIX) ?
+                s.values.get("lag_events" + RATE_SUFFIX) : s.values.get("lost_packets" + RATE_SUFFIX);
+            out.println("<tr><td>" + escape(s.file) + "</td><td>" + escape(s.role) + "</td><td>" + s.time.length +
+                "</td><td>" + format(max(s.values.get("connections"))) +
+                "</td><td>" + bits(average(bytes)) + "</td><td>" + bits(max(bytes)) +
+                "</td><td>" + format(sum(lag)) + "</td></tr>");
+        }
+        out.println("</table>");
+    }
+
+    /**
+     * Chart of the totals of every recording which has the fields
+     */
+    private void writeChart(PrintWriter out, String title, DoubleFunction<String> label, String... fields) {
+        List<Series> lines = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        List<double[]> values = new ArrayList<>();
+        double max = 0;
+        for (Series s: series) {
+            for (String field: fields) {
+                double[] v = s.values.get(field);
+                if (s.isTotal() && v != null && !Double.isNaN(max(v))) {
+                    lines.add(s);
+                    names.add(s.file + " " + field);
+                    values.add(v);
+                    max = Math.max(max, max(v));
+                }
+            }
+        }
+        if (lines.isEmpty()) {
+            return;
+        }
+        max = max == 0 ? 1 : max;
+        double span = Math.max(1, end - start);
+        int plotWidth = WIDTH - 2 * MARGIN;
+        int plotHeight = HEIGHT - 2 * MARGIN;
+
+        out.println("<h2>" + escape(title) + "</h2>");
+        out.println("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"" + WIDTH + "\" height=\"" +
+            (HEIGHT + 20 * lines.size()) + "\" font-size=\"12\">");
+        out.println("<rect x=\"" + MARGIN + "\" y=\"" + MARGIN + "\" width=\"" + plotWidth + "\" height=\"" +
+            plotHeight + "\" fill=\"none\" stroke=\"#999\"/>");
+        out.println("<text x=\"" + (MARGIN - 4) + "\" y=\"" + (MARGIN + 4) + "\" text-anchor=\"end\">" +
+            escape(label.apply(max)) + "</text>");
+        out.println("<text x=\"" + (MARGIN - 4) + "\" y=\"" + (MARGIN + plotHeight) + "\" text-anchor=\"end\">0</text>");
+        out.println("<text x=\"" + MARGIN + "\" y=\"" + (MARGIN + plotHeight + 16) + "\">" +
+            TIME.format(Instant.ofEpochMilli(start)) + "</text>");
+        out.println("<text x=\"" + (MARGIN + plotWidth) + "\" y=\"" + (MARGIN + plotHeight + 16) +
+            "\" text-anchor=\"end\">" + TIME.format(Instant.ofEpochMilli(end)) + "</text>");
+        for (int i = 0; i < lines.size(); i++) {
+            Series s = lines.get(i);
+            double[] v = values.get(i);
+            String color = COLORS[i % COLORS.length];
+            StringBuilder points = new StringBuilder();
+            for (int p = 0; p < v.length; p++) {
+                if (!Double.isNaN(v[p])) {
+                    double x = MARGIN + plotWidth * (s.time[p] - start) / span;
+                    double y = MARGIN + plotHeight * (1 - v[p] / max);
+                    points.append(String.format(Locale.ROOT, "%.1f,%.1f ", x, y));
+                }
+            }
+            out.println("<polyline fill=\"none\" stroke=\"" + color + "\" points=\"" + points + "\"/>");
+            int y = HEIGHT + 20 * i;
+            out.println("<line x1=\"" + MARGIN + "\" y1=\"" + (y - 4) + "\" x2=\"" + (MARGIN + 20) + "\" y2=\"" +
+                (y - 4) + "\" stroke=\"" + color + "\"/>");
+            out.println("<text x=\"" + (MARGIN + 26) + "\" y=\"" + y + "\">" + escape(names.get(i)) + "</text>");
+        }
+        out.println("</svg>");
+    }
+
+    private static double max(double[] values) {
+        double max = Double.NaN;
+        if (values != null) {
+            for (double v: values) {
+                if (!Double.isNaN(v)) {
+                    max = Double.isNaN(max) ? v : Math.max(max, v);
+                }
+            }
+        }
+        return max;
+    }
+
+    private static double sum(double[] values) {
+        double sum = Double.NaN;
+        if (values != null) {
+            for (double v: values) {
+                if (!Double.isNaN(v)) {
+                    sum = Double.isNaN(sum) ? v : sum + v;
+                }
+            }
+        }
+        return sum;
+    }
+
+    private static double average(double[] values) {
+        int n = 0;
+        if (values != null) {
+            for (double v: values) {
+                n += Double.isNaN(v) ? 0 : 1;
+            }
+        }
+        return n == 0 ? Double.NaN : sum(values) / n;
+    }
+
+    private static String format(double v) {
+        return Double.isNaN(v) ? "-" : String.format(Locale.ROOT, "%.0f", v);
+    }
+
+    private static String bits(double bytesPerSecond) {
+        return Double.isNaN(bytesPerSecond) ? "-" :
+            HumanReadable.humanReadableByteCount(Math.round(8 * bytesPerSecond), true) + "it/s";
+    }
+
+    private static String escape(String s) {
+        return s.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+
+    /**
+     * Rows of a source of a recording, with rates instead of counters
+     */
+    private static final class Series {
+        private final String file;
+        private final String role;
+        private final String source;
+        private final boolean total;
+        private final long[] time;
+        private final Map<String, double[]> values = new LinkedHashMap<>();
+
+        private Series(String file, String role, String source, boolean total, List<String> fields,
+                       List<RecordingReader.Row> rows) {
+            this.file = file;
+            this.role = role;
+            this.source = source;
+            this.total = total;
+            this.time = new long[rows.size()];
+            for (int i = 0; i < time.length; i++) {
+                time[i] = rows.get(i).getTime();
+            }
+            for (int f = 0; f < fields.size(); f++) {
+                String field = fields.get(f);
+                boolean counter = field.endsWith(TOTAL_SUFFIX);
+                double[] v = new double[rows.size()];
+                boolean present = false;
+                for (int i = 0; i < v.length; i++) {
+                    long value = rows.get(i).get(f);
+                    if (value < 0) {
+                        v[i] = Double.NaN;
+                    } else if (counter) {
+                        long previous = i == 0 ? -1 : rows.get(i - 1).get(f);
+                        double seconds = i == 0 ? 0 : (time[i] - time[i - 1]) / 1000.0;
+                        v[i] = previous < 0 || value < previous || seconds <= 0 ? Double.NaN : (value - previous) / seconds;
+                    } else {
+                        v[i] = value;
+                    }
+                    present |= value >= 0;
+                }
+                if (present) {
+                    String name = counter ? field.substring(0, field.length() - TOTAL_SUFFIX.length()) + RATE_SUFFIX : field;
+                    values.put(name, v);
+                }
+            }
+        }
+
+        private boolean isTotal() {
+            return total;
+        }
+
+        private Map<String, Object> toJson() {
+            Map<String, Object> json = new LinkedHashMap<>();
+            json.put("file", file);
+            json.put("role", role);
+            json.put("source", source);
+            json.put("time", time);
+            Map<String, Object> fields = new LinkedHashMap<>();
+            for (Map.Entry<String, double[]> e: values.entrySet()) {
+                List<Double> list = new ArrayList<>(e.getValue().length);
+                for (double v: e.getValue()) {
+                    list.add(Double.isNaN(v) ? null : v);
+                }
+                fields.put(e.getKey(), list);
+            }
+            json.put("values", fields);
+            return json;
+        }
+    }
+}
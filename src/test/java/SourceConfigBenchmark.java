@@ -0,0 +1,73 @@
+import me.vzhilin.bstreamer.server.SourceKey;
+import me.vzhilin.bstreamer.server.conf.SourceConfig;
+import me.vzhilin.bstreamer.util.PropertyMap;
+
+import java.util.AbstractMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Per-request configuration handling: a copy of the {@link PropertyMap} with URI parameters put into it,
+ * hashed and looked up, against overrides of the compiled {@link SourceConfig}
+ */
+public final class SourceConfigBenchmark {
+    private static final int ITERATIONS = 2_000_000;
+    private static final int ROUNDS = 5;
+
+    private final PropertyMap entry;
+    private final SourceConfig compiled;
+    private final Map<String, String> parameters = new LinkedHashMap<>();
+
+    private SourceConfigBenchmark() {
+        entry = new PropertyMap();
+        entry.put("class", "Filesystem");
+        entry.put("conf.basedir", "/var/lib/bstreamer/video");
+        entry.put("conf.file", "jellyfish-5-mbps-hd-h264.mkv");
+        entry.put("conf.repeat", "true");
+        entry.put("conf.catalog", "true");
+        entry.put("conf.inband_parameter_sets", "false");
+        entry.put("conf.picture.width", "640");
+        entry.put("conf.picture.height", "480");
+        compiled = SourceConfig.of(entry.getMap("conf"));
+        parameters.put("file", "b.mkv");
+        parameters.put("max_rtp_size", "1400");
+    }
+
+    public static void main(String... argv) {
+        new SourceConfigBenchmark().run();
+    }
+
+    private void run() {
+        Map<Object, Object> propertyMapKeys = new HashMap<>();
+        Map<Object, Object> compiledKeys = new HashMap<>();
+        for (int round = 0; round < ROUNDS; round++) {
+            long propertyMapNanos = measure(() -> propertyMapPath(propertyMapKeys));
+            long compiledNanos = measure(() -> compiledPath(compiledKeys));
+            System.out.printf("round %d: PropertyMap %d ns/request, SourceConfig %d ns/request%n",
+                round, propertyMapNanos / ITERATIONS, compiledNanos / ITERATIONS);
+        }
+    }
+
+    private static long measure(Runnable request) {
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            request.run();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private void propertyMapPath(Map<Object, Object> keys) {
+        PropertyMap mpsc = new PropertyMap(entry);
+        PropertyMap conf = mpsc.getMap("conf");
+        conf.putAll(parameters);
+        conf.remove("start");
+        Object key = new AbstractMap.SimpleImmutableEntry<>(mpsc.getString("class"), new PropertyMap(conf));
+        keys.putIfAbsent(key, key);
+    }
+
+    private void compiledPath(Map<Object, Object> keys) {
+        SourceKey key = new SourceKey("Filesystem", compiled.merge(parameters).without("start"));
+        keys.putIfAbsent(key, key);
+    }
+}